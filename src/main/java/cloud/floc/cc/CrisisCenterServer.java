@@ -17,15 +17,25 @@
 package cloud.floc.cc;
 
 import cloud.floc.cc.common.Constants;
-import cloud.floc.cc.db.DB;
+import cloud.floc.cc.db.AsyncDB;
+import cloud.floc.cc.db.DBVerticle;
 import cloud.floc.cc.routes.ActionsRouter;
+import cloud.floc.cc.routes.AdminRouter;
 import cloud.floc.cc.routes.BotsRouter;
+import cloud.floc.cc.routes.ChangesRouter;
 import cloud.floc.cc.routes.MenusRouter;
 import cloud.floc.cc.routes.ResponsesRouter;
 import cloud.floc.cc.routes.RouterUtils;
 import cloud.floc.cc.routes.StatsRouter;
+import cloud.floc.cc.service.AdminService;
+import cloud.floc.cc.service.BotsService;
+import cloud.floc.cc.service.ChangesService;
+import cloud.floc.cc.service.MenusService;
+import cloud.floc.cc.service.ResponsesService;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
@@ -33,6 +43,10 @@ import io.vertx.ext.auth.jwt.JWTAuth;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.handler.StaticHandler;
 
+/**
+ * Serves the HTTP API. Every instance shares the single {@link DBVerticle} of its Vert.x instance, so the server can be
+ * deployed once per event loop, e.g. with {@code -instances N}; the instances then share the listening port.
+ */
 public class CrisisCenterServer
   extends AbstractVerticle {
 
@@ -40,47 +54,81 @@ public class CrisisCenterServer
 
   @Override
   public void start(Future<Void> pStartFuture) {
-    try {
-      JWTAuth jwtAuth = null; //new FirebaseJwtAuth(config());
-      Router mainRouter = Router.router(vertx);
-      DB db = DB.newDB(config());
-
-      RouterUtils.configureBody(mainRouter, config());
-      RouterUtils.configureCORS(mainRouter, config());
-
-      mainRouter.mountSubRouter("/api/v1", new ActionsRouter(vertx, jwtAuth, db).getRouter());
-      mainRouter.mountSubRouter("/api/v1", new BotsRouter(vertx, jwtAuth, db, config()).getRouter());
-      mainRouter.mountSubRouter("/api/v1", new ResponsesRouter(vertx, jwtAuth, db).getRouter());
-      mainRouter.mountSubRouter("/api/v1", new StatsRouter(vertx, jwtAuth, db, config()).getRouter());
-      mainRouter.mountSubRouter("/api/v1", new MenusRouter(vertx, jwtAuth, db).getRouter());
-
-      mainRouter.route("/starter/zip/*")
-        .handler(StaticHandler
-          .create()
-          .setCachingEnabled(false)
-          .setWebRoot(config().getString(Constants.ZIPS_ROOT_KEY, Constants.DEFAULT_ZIPS_ROOT_VALUE)));
-
-      serve(pStartFuture, mainRouter);
-
-    } catch (Exception ex) {
-      LOGGER.error("Unable to start crisis center server", ex);
-      pStartFuture.fail(ex);
-    }
+    DBVerticle.deployOnce(vertx, config())
+      .compose(v -> AsyncDB.connect(vertx, config()))
+      .compose(asyncDB -> {
+        BotsService botsService = new BotsService(asyncDB, vertx, config());
+        MenusService menusService = new MenusService(asyncDB);
+        ResponsesService responsesService = new ResponsesService(asyncDB);
+        AdminService adminService = new AdminService(asyncDB);
+        ChangesService changesService = new ChangesService(asyncDB, vertx);
+
+        return CompositeFuture
+          .all(botsService.init(), menusService.init(), responsesService.init())
+          .compose(v -> {
+            try {
+              return serve(createRouter(botsService, menusService, responsesService, adminService,
+                changesService));
+
+            } catch (Exception ex) {
+              return Future.failedFuture(ex);
+            }
+          });
+      })
+      .onComplete(ar -> {
+        if (ar.failed()) {
+          LOGGER.error("Unable to start crisis center server", ar.cause());
+        }
+
+        pStartFuture.handle(ar);
+      });
   }
 
-  private void serve(Future<Void> pStartFuture, Router pRouter) {
+  private Router createRouter(BotsService pBotsService, MenusService pMenusService,
+                              ResponsesService pResponsesService, AdminService pAdminService,
+                              ChangesService pChangesService)
+    throws Exception {
+    JWTAuth jwtAuth = null; //new FirebaseJwtAuth(config());
+    Router mainRouter = Router.router(vertx);
+
+    RouterUtils.configureBody(mainRouter, config());
+    RouterUtils.configureCORS(mainRouter, config());
+    RouterUtils.configureReplication(mainRouter, config());
+
+    mainRouter.mountSubRouter("/api/v1",
+      new ActionsRouter(vertx, jwtAuth, pResponsesService, pMenusService).getRouter());
+    mainRouter.mountSubRouter("/api/v1", new BotsRouter(vertx, jwtAuth, pBotsService).getRouter());
+    mainRouter.mountSubRouter("/api/v1", new ResponsesRouter(vertx, jwtAuth, pResponsesService).getRouter());
+    mainRouter.mountSubRouter("/api/v1", new StatsRouter(vertx, jwtAuth, pBotsService).getRouter());
+    mainRouter.mountSubRouter("/api/v1", new MenusRouter(vertx, jwtAuth, pMenusService).getRouter());
+    mainRouter.mountSubRouter("/api/v1", new AdminRouter(vertx, jwtAuth, pAdminService).getRouter());
+    mainRouter.mountSubRouter("/api/v1", new ChangesRouter(vertx, jwtAuth, pChangesService).getRouter());
+
+    mainRouter.route("/starter/zip/*")
+      .handler(StaticHandler
+        .create()
+        .setCachingEnabled(false)
+        .setWebRoot(config().getString(Constants.ZIPS_ROOT_KEY, Constants.DEFAULT_ZIPS_ROOT_VALUE)));
+
+    return mainRouter;
+  }
+
+  private Future<Void> serve(Router pRouter) {
+    Promise<Void> promise = Promise.promise();
     HttpServer httpServer = vertx.createHttpServer()
-      .requestHandler(pRouter::accept);
+      .requestHandler(pRouter);
 
-    httpServer.listen(8080, lh -> {
+    httpServer.listen(config().getInteger(Constants.HTTP_PORT_KEY, Constants.DEFAULT_HTTP_PORT_VALUE), lh -> {
       if (lh.succeeded()) {
         LOGGER.info(String.format("Crisis center server now serving requests on %d", lh.result().actualPort()));
 
-        pStartFuture.complete();
+        promise.complete();
 
       } else {
-        pStartFuture.fail(lh.cause());
+        promise.fail(lh.cause());
       }
     });
+
+    return promise.future();
   }
 }
@@ -17,15 +17,14 @@
 package cloud.floc.cc.bot;
 
 import cloud.floc.cc.common.DocumentException;
-import cloud.floc.cc.common.DocumentExistsException;
-import cloud.floc.cc.common.DocumentNotFoundException;
-import cloud.floc.cc.db.DB;
 import cloud.floc.cc.rasa.ActionResult;
 import cloud.floc.cc.rasa.BaseFormAction;
 import cloud.floc.cc.rasa.SlotExtractor;
 import cloud.floc.cc.rasa.Tracker;
 import cloud.floc.cc.rasa.event.Event;
 import cloud.floc.cc.service.MenusService;
+import cloud.floc.cc.service.ResponsesService;
+import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
@@ -40,11 +39,10 @@ public class MainMenuForm
 
   private final MenusService mService;
 
-  public MainMenuForm(DB pDB)
-    throws Exception {
-    super("main_menu_form", LOGGER, pDB);
+  public MainMenuForm(ResponsesService pResponsesService, MenusService pMenusService) {
+    super("main_menu_form", LOGGER, pResponsesService);
 
-    mService = new MenusService(pDB);
+    mService = pMenusService;
   }
 
   @Override
@@ -66,8 +64,7 @@ public class MainMenuForm
   }
 
   @Override
-  public List<Event> submit(Tracker pTracker, ActionResult pResult)
-    throws DocumentExistsException, DocumentNotFoundException, DocumentException {
+  public Future<List<Event>> submit(Tracker pTracker, ActionResult pResult) {
     // Save the collected slots.
     JsonObject payload = new JsonObject();
     payload.put("welcome_message", pTracker.slotValue("welcome_message"));
@@ -75,13 +72,14 @@ public class MainMenuForm
     payload.put("main_menu_options_count", pTracker.slotValue("main_menu_options_count"));
 
     String botId = pTracker.metadata().getString("botId", null);
-    if (botId == null) throw new DocumentException("Unable to retrieve the bot ID");
+    if (botId == null) return Future.failedFuture(new DocumentException("Unable to retrieve the bot ID"));
 
     LOGGER.info("Saving menu for bot: {0}", botId);
-    mService.upsertMenu(botId, payload);
-    LOGGER.info("Saved menu for bot: {0}", botId);
+    return mService.upsertMenu(botId, payload).map(v -> {
+      LOGGER.info("Saved menu for bot: {0}", botId);
 
-    pResult.addTemplateMessage("utter_got_it_welcome_message");
-    return List.of();
+      pResult.addTemplateMessage("utter_got_it_welcome_message");
+      return List.of();
+    });
   }
 }
@@ -17,14 +17,14 @@
 package cloud.floc.cc.bot;
 
 import cloud.floc.cc.common.DocumentException;
-import cloud.floc.cc.common.DocumentNotFoundException;
-import cloud.floc.cc.db.DB;
 import cloud.floc.cc.rasa.ActionResult;
 import cloud.floc.cc.rasa.BaseFormAction;
 import cloud.floc.cc.rasa.SlotExtractor;
 import cloud.floc.cc.rasa.Tracker;
 import cloud.floc.cc.rasa.event.Event;
 import cloud.floc.cc.service.MenusService;
+import cloud.floc.cc.service.ResponsesService;
+import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
@@ -40,11 +40,10 @@ public class MainMenuOptionsForm
 
   private final MenusService mService;
 
-  public MainMenuOptionsForm(DB pDB)
-    throws Exception {
-    super("main_menu_options_form", LOGGER, pDB);
+  public MainMenuOptionsForm(ResponsesService pResponsesService, MenusService pMenusService) {
+    super("main_menu_options_form", LOGGER, pResponsesService);
 
-    mService = new MenusService(pDB);
+    mService = pMenusService;
   }
 
   @Override
@@ -77,28 +76,21 @@ public class MainMenuOptionsForm
   }
 
   @Override
-  public List<Event> submit(Tracker pTracker, ActionResult pResult)
-    throws DocumentException, DocumentNotFoundException {
+  public Future<List<Event>> submit(Tracker pTracker, ActionResult pResult) {
     String botId = pTracker.metadata().getString("botId", null);
-    if (botId == null) throw new DocumentException("Unable to retrieve the bot ID");
+    if (botId == null) return Future.failedFuture(new DocumentException("Unable to retrieve the bot ID"));
 
     LOGGER.info("Updating menu for bot: {0}", botId);
 
-    JsonObject menuJson = mService.getMenu(botId).payload();
-    int optionsCount = menuJson.getInteger("main_menu_options_count");
-    JsonObject payload = new JsonObject(menuJson.getMap());
-
-    for (int o = 1; o <= optionsCount; o++) {
-      var q = "main_menu_option_" + o;
-      var d = "main_menu_option_" + o + "_d";
-      payload.put(q, pTracker.slotValue(q));
-      payload.put(d, pTracker.slotValue(d));
+    JsonObject patch = new JsonObject();
+    for (String slot : requiredSlots(pTracker)) {
+      patch.put(slot, pTracker.slotValue(slot));
     }
 
-    mService.updateMenu(botId, payload);
-
-    LOGGER.info("Updated menu for bot: {0}", botId);
-    pResult.addTemplateMessage("utter_got_options_message");
-    return List.of();
+    return mService.patchMenu(botId, patch).map(v -> {
+      LOGGER.info("Updated menu for bot: {0}", botId);
+      pResult.addTemplateMessage("utter_got_options_message");
+      return List.of();
+    });
   }
 }
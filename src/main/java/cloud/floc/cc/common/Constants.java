@@ -21,6 +21,93 @@ public interface Constants {
   String DB_NAME_KEY = "db-name";
   String DEFAULT_DB_NAME_VALUE = "fcc";
 
+  String DB_ENGINE_KEY = "db-engine";
+  String DEFAULT_DB_ENGINE_VALUE = "json";
+
+  String DB_COLLECTION_LOCK_STRIPES_KEY = "db-collection-lock-stripes";
+  int DEFAULT_DB_COLLECTION_LOCK_STRIPES_VALUE = 16;
+
+  String DB_DOCUMENT_LOCK_STRIPES_KEY = "db-document-lock-stripes";
+  int DEFAULT_DB_DOCUMENT_LOCK_STRIPES_VALUE = 256;
+
+  String DB_CACHE_KEY = "db-cache";
+  String DEFAULT_DB_CACHE_EVICTION_VALUE = "lru";
+  int DEFAULT_DB_CACHE_MAX_ENTRIES_VALUE = 1024;
+  long DEFAULT_DB_CACHE_OFF_HEAP_BYTES_VALUE = 0L;
+  int DEFAULT_DB_CACHE_SLAB_BYTES_VALUE = 1 << 20;
+
+  /**
+   * How every engine syncs its writes to disk: {@code fsync}, {@code batch} or {@code none}. It covers JsonDB's
+   * document files, WalDB's log and checkpoints, SegmentDB's segments and MemoryDB's snapshot.
+   */
+  String DB_DURABILITY_KEY = "db-durability";
+  String DEFAULT_DB_DURABILITY_VALUE = "batch";
+
+  String DB_GROUP_COMMIT_INTERVAL_KEY = "db-group-commit-interval-ms";
+  long DEFAULT_DB_GROUP_COMMIT_INTERVAL_VALUE = 2L;
+
+  String DB_CODEC_KEY = "db-codec";
+  String DEFAULT_DB_CODEC_VALUE = "json";
+
+  String DB_COLLECTION_CODECS_KEY = "db-collection-codecs";
+
+  String DB_LAYOUT_KEY = "db-layout";
+  String DEFAULT_DB_LAYOUT_VALUE = "flat";
+
+  String DB_COLLECTION_LAYOUTS_KEY = "db-collection-layouts";
+
+  String DB_AGGREGATES_KEY = "db-aggregates";
+  String DEFAULT_DB_AGGREGATES_VALUE = "{\"bots\":[\"generated\"]}";
+
+  String DB_CHANGE_FEED_SIZE_KEY = "db-change-feed-size";
+  int DEFAULT_DB_CHANGE_FEED_SIZE_VALUE = 1024;
+
+  String DB_TTL_KEY = "db-ttl";
+  long DEFAULT_DB_TTL_SWEEP_INTERVAL_VALUE = 1000L;
+  int DEFAULT_DB_TTL_SWEEP_BATCH_VALUE = 256;
+
+  String DB_RESTORE_SNAPSHOT_KEY = "db-restore-snapshot";
+
+  String REPLICATION_ROLE_KEY = "replication-role";
+  String REPLICATION_LEADER_VALUE = "leader";
+  String REPLICATION_FOLLOWER_VALUE = "follower";
+
+  String REPLICATION_PORT_KEY = "replication-port";
+  int DEFAULT_REPLICATION_PORT_VALUE = 7070;
+
+  String REPLICATION_LEADER_KEY = "replication-leader";
+  String DEFAULT_REPLICATION_LEADER_VALUE = "localhost:7070";
+
+  String DB_INDEXES_KEY = "db-indexes";
+  String DEFAULT_DB_INDEXES_VALUE = "{\"bots\":[\"generated\"]}";
+
+  String DB_WORKER_POOL_SIZE_KEY = "db-worker-pool-size";
+  int DEFAULT_DB_WORKER_POOL_SIZE_VALUE = 8;
+
+  String DB_LOAD_PARALLELISM_KEY = "db-load-parallelism";
+  int DEFAULT_DB_LOAD_PARALLELISM_VALUE = 8;
+
+  String DB_REQUEST_TIMEOUT_KEY = "db-request-timeout-ms";
+  long DEFAULT_DB_REQUEST_TIMEOUT_VALUE = 60000L;
+
+  String WAL_CHECKPOINT_INTERVAL_KEY = "wal-checkpoint-interval-ms";
+  long DEFAULT_WAL_CHECKPOINT_INTERVAL_VALUE = 1000L;
+
+  String SEGMENT_MAX_BYTES_KEY = "segment-max-bytes";
+  long DEFAULT_SEGMENT_MAX_BYTES_VALUE = 16L * 1024 * 1024;
+
+  String SEGMENT_COMPACTION_INTERVAL_KEY = "segment-compaction-interval-ms";
+  long DEFAULT_SEGMENT_COMPACTION_INTERVAL_VALUE = 30000L;
+
+  String SEGMENT_COMPACTION_GARBAGE_RATIO_KEY = "segment-compaction-garbage-ratio";
+  double DEFAULT_SEGMENT_COMPACTION_GARBAGE_RATIO_VALUE = 0.5;
+
+  String MEMORY_SNAPSHOT_INTERVAL_KEY = "memory-snapshot-interval-ms";
+  long DEFAULT_MEMORY_SNAPSHOT_INTERVAL_VALUE = 0L;
+
+  String HTTP_PORT_KEY = "http-port";
+  int DEFAULT_HTTP_PORT_VALUE = 8080;
+
   String STATE_FOLDER_KEY = "state-folder";
   String DEFAULT_STATE_FOLDER_VALUE = ".state";
 
@@ -16,6 +16,7 @@
 
 package cloud.floc.cc.common;
 
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonObject;
 
 public interface Document {
@@ -24,8 +25,30 @@ public interface Document {
 
   String collectionId();
 
+  /**
+   * @return the payload. A document built from a raw payload only parses it on the first call.
+   */
   JsonObject payload();
 
+  /**
+   * @return the payload as a JSON encoded object, as long as the document was built from one and {@link #payload()}
+   * hasn't been called since; {@code null} otherwise. Writers can copy these bytes as they are instead of encoding the
+   * payload.
+   */
+  Buffer rawPayload();
+
+  /**
+   * @return the version of the stored document, starting at 1 and increasing with each update. {@code 0} stands for an
+   * unknown version; passed to {@code updateDocument}, it makes the update unconditional.
+   */
+  long version();
+
+  /**
+   * @return when the document expires, in milliseconds since the epoch, or {@code 0} if it never does. Only honored in
+   * the collections declared under {@code db-ttl}, where expired documents are hidden from reads until swept.
+   */
+  long expiresAt();
+
   static Builder newBuilder() {
     return new Builder();
   }
@@ -34,6 +57,9 @@ public interface Document {
     String mId;
     String mCollectionId;
     JsonObject mPayload;
+    Buffer mRawPayload;
+    long mVersion;
+    long mExpiresAt;
 
     private Builder() {}
 
@@ -52,6 +78,25 @@ public interface Document {
       return this;
     }
 
+    /**
+     * Sets the payload from its JSON encoding, which is only parsed if the payload is asked for. The buffer must not
+     * be modified afterwards.
+     */
+    public Builder withRawPayload(Buffer pRawPayload) {
+      mRawPayload = pRawPayload;
+      return this;
+    }
+
+    public Builder withVersion(long pVersion) {
+      mVersion = pVersion;
+      return this;
+    }
+
+    public Builder expiringAt(long pExpiresAt) {
+      mExpiresAt = pExpiresAt;
+      return this;
+    }
+
     public Document build() {
       return new JsonDocument(this);
     }
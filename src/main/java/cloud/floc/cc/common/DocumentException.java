@@ -3,6 +3,8 @@ package cloud.floc.cc.common;
 public class DocumentException
     extends Exception {
 
+  private static final long serialVersionUID = 1L;
+
   public DocumentException(String pMsg) {
     super(pMsg);
   }
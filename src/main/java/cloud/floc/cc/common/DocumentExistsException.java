@@ -3,6 +3,8 @@ package cloud.floc.cc.common;
 public class DocumentExistsException
     extends Exception {
 
+  private static final long serialVersionUID = 1L;
+
   public DocumentExistsException(String pMsg) {
     super(pMsg);
   }
@@ -3,6 +3,8 @@ package cloud.floc.cc.common;
 public class DocumentNotFoundException
     extends Exception {
 
+  private static final long serialVersionUID = 1L;
+
   public DocumentNotFoundException(String pMsg) {
     super(pMsg);
   }
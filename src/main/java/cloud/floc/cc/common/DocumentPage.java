@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.common;
+
+import java.util.Collections;
+import java.util.List;
+
+class DocumentPage
+    implements Page {
+
+  private final String mCollectionId;
+  private final List<Document> mDocuments;
+  private final String mCursor;
+
+  DocumentPage(Builder pBuilder) {
+    mCollectionId = pBuilder.mCollectionId;
+    mDocuments = Collections.unmodifiableList(pBuilder.mDocuments);
+    mCursor = pBuilder.mCursor;
+  }
+
+  @Override
+  public String collectionId() {
+    return mCollectionId;
+  }
+
+  @Override
+  public List<Document> documents() {
+    return mDocuments;
+  }
+
+  @Override
+  public String cursor() {
+    return mCursor;
+  }
+}
@@ -1,6 +1,7 @@
 package cloud.floc.cc.common;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonObject;
 
 import java.util.Collections;
@@ -34,6 +35,21 @@ public class JsonCollection
     return mPayload;
   }
 
+  @Override
+  public Buffer rawPayload() {
+    return null;
+  }
+
+  @Override
+  public long version() {
+    return 0;
+  }
+
+  @Override
+  public long expiresAt() {
+    return 0;
+  }
+
   @Override
   public List<Document> documents() {
     return mDocuments;
@@ -16,6 +16,7 @@
 
 package cloud.floc.cc.common;
 
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonObject;
 
 class JsonDocument
@@ -23,12 +24,18 @@ class JsonDocument
 
   private final String mId;
   private final String mCollectionId;
-  private final JsonObject mPayload;
+  private final Buffer mRawPayload;
+  private volatile JsonObject mPayload;
+  private final long mVersion;
+  private final long mExpiresAt;
 
   JsonDocument(Builder pBuilder) {
     mId = pBuilder.mId;
     mCollectionId = pBuilder.mCollectionId;
     mPayload = pBuilder.mPayload;
+    mRawPayload = pBuilder.mPayload == null ? pBuilder.mRawPayload : null;
+    mVersion = pBuilder.mVersion;
+    mExpiresAt = pBuilder.mExpiresAt;
   }
 
   @Override
@@ -43,6 +50,31 @@ class JsonDocument
 
   @Override
   public JsonObject payload() {
-    return mPayload;
+    JsonObject payload = mPayload;
+    if (payload != null || mRawPayload == null) return payload;
+
+    synchronized (this) {
+      if (mPayload == null) {
+        mPayload = new JsonObject(mRawPayload);
+      }
+
+      return mPayload;
+    }
+  }
+
+  @Override
+  public Buffer rawPayload() {
+    // Once parsed, the payload may have been changed, so the raw one no longer stands for it.
+    return mPayload == null ? mRawPayload : null;
+  }
+
+  @Override
+  public long version() {
+    return mVersion;
+  }
+
+  @Override
+  public long expiresAt() {
+    return mExpiresAt;
   }
 }
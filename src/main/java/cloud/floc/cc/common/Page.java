@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * A slice of a collection's documents in id order, along with the cursor that continues after it.
+ */
+public interface Page {
+
+  String collectionId();
+
+  List<Document> documents();
+
+  /**
+   * @return the cursor to request the following page with, or {@code null} if this is the last page.
+   */
+  String cursor();
+
+  /**
+   * @return the id that the given cursor continues after, or {@code null} to start from the beginning.
+   * @throws IllegalArgumentException if the cursor is malformed.
+   */
+  static String decodeCursor(String pCursor) {
+    if (pCursor == null || pCursor.isEmpty()) return null;
+    return new String(Base64.getUrlDecoder().decode(pCursor), StandardCharsets.UTF_8);
+  }
+
+  static String encodeCursor(String pLastId) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(pLastId.getBytes(StandardCharsets.UTF_8));
+  }
+
+  static Builder newBuilder() {
+    return new Builder();
+  }
+
+  class Builder {
+    String mCollectionId;
+    List<Document> mDocuments;
+    String mCursor;
+
+    private Builder() {
+      mDocuments = new ArrayList<>();
+    }
+
+    public Builder underCollection(String pCollectionId) {
+      mCollectionId = pCollectionId;
+      return this;
+    }
+
+    public Builder addDocument(Document pDocument) {
+      mDocuments.add(pDocument);
+      return this;
+    }
+
+    public Builder continueAfter(String pLastId) {
+      mCursor = pLastId != null ? encodeCursor(pLastId) : null;
+      return this;
+    }
+
+    public Page build() {
+      return new DocumentPage(this);
+    }
+  }
+}
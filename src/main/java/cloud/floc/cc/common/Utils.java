@@ -16,6 +16,8 @@
 
 package cloud.floc.cc.common;
 
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
@@ -23,12 +25,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -37,8 +41,23 @@ public class Utils {
   public static final JsonObject EMPTY_JSON = new JsonObject(Map.of());
   public static final JsonArray EMPTY_JSON_ARRAY = new JsonArray(List.of());
 
+  /**
+   * @return a new id that sorts after every id generated before it by this process, ULID style: 26 Crockford base32
+   * characters holding a millisecond timestamp followed by 80 random bits. Ids generated within the same millisecond
+   * increment the random bits of the previous one instead of drawing new ones, so they stay in order.
+   */
   public static String generateId() {
-    return UUID.randomUUID().toString();
+    IdState last;
+    IdState next;
+    do {
+      last = LAST_ID.get();
+      long now = System.currentTimeMillis();
+      next = now > last.mTime
+          ? new IdState(now, ThreadLocalRandom.current().nextInt() & 0xFFFF, ThreadLocalRandom.current().nextLong())
+          : last.increment();
+    } while (!LAST_ID.compareAndSet(last, next));
+
+    return next.toString();
   }
 
   private static final Set<String> IGNORED_FOLDERS = Set.of(
@@ -47,15 +66,88 @@ public class Utils {
     "models"
   );
 
+  private static final byte[] ID_KEY = "\"id\"".getBytes(StandardCharsets.UTF_8);
+
+  private static final char[] ID_ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+  private static final AtomicReference<IdState> LAST_ID = new AtomicReference<>(new IdState(0, 0, 0));
+
   public static JsonObject documentToJson(Document pDocument) {
     var json = new JsonObject(pDocument.payload().getMap());
     json.put("id", pDocument.id());
     return json;
   }
 
-  public static void jsonToFile(File pFile, JsonObject pJson)
-    throws IOException {
-    Files.writeString(pFile.toPath(), pJson.encode());
+  /**
+   * Appends the encoding of {@link #documentToJson(Document)} to the given buffer. A document still holding its raw
+   * payload gets its id spliced in front of the payload's bytes, so the payload is neither parsed nor encoded.
+   */
+  public static Buffer appendDocument(Buffer pBuffer, Document pDocument) {
+    Buffer raw = pDocument.rawPayload();
+    if (raw == null || raw.length() < 2 || raw.getByte(0) != '{' || contains(raw, ID_KEY)) {
+      return pBuffer.appendBuffer(documentToJson(pDocument).toBuffer());
+    }
+
+    int start = 1;
+    while (Character.isWhitespace(raw.getByte(start))) start++;
+
+    pBuffer.appendString("{\"id\":").appendString(Json.encode(pDocument.id()));
+    if (raw.getByte(start) != '}') pBuffer.appendByte((byte) ',');
+    return pBuffer.appendBuffer(raw, start, raw.length() - start);
+  }
+
+  private static boolean contains(Buffer pBuffer, byte[] pBytes) {
+    int last = pBuffer.length() - pBytes.length;
+    outer:
+    for (int i = 0; i <= last; i++) {
+      for (int j = 0; j < pBytes.length; j++) {
+        if (pBuffer.getByte(i + j) != pBytes[j]) continue outer;
+      }
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * @return whether every field of {@code pFilter} has an equal value in the given payload. Values are compared by
+   * their JSON encoding, so {@code 1} stored as an integer matches {@code 1} parsed as a long.
+   */
+  public static boolean matches(JsonObject pPayload, JsonObject pFilter) {
+    for (String field : pFilter.fieldNames()) {
+      if (!fieldKey(pPayload.getValue(field)).equals(fieldKey(pFilter.getValue(field)))) return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * @return a copy of the given payload with a JSON merge patch (RFC 7396) applied: {@code null} values remove their
+   * field, objects are merged field by field, and any other value replaces the field.
+   */
+  public static JsonObject mergePatch(JsonObject pPayload, JsonObject pPatch) {
+    var patched = pPayload.copy();
+
+    for (String field : pPatch.fieldNames()) {
+      Object value = pPatch.getValue(field);
+
+      if (value == null) {
+        patched.remove(field);
+
+      } else if (value instanceof JsonObject) {
+        Object current = patched.getValue(field);
+        patched.put(field, mergePatch(current instanceof JsonObject ? (JsonObject) current : new JsonObject(),
+            (JsonObject) value));
+
+      } else {
+        patched.put(field, value);
+      }
+    }
+
+    return patched;
+  }
+
+  public static String fieldKey(Object pValue) {
+    return Json.encode(pValue);
   }
 
   public static JsonObject fileToJson(File pFile)
@@ -111,4 +203,56 @@ public class Utils {
       pOutputStream.closeEntry();
     }
   }
+
+  /**
+   * Timestamp and random bits of the last generated id, replaced as a whole so that {@link #generateId()} needs no
+   * lock.
+   */
+  private static final class IdState {
+    final long mTime;
+    final int mRandomHigh;
+    final long mRandomLow;
+
+    IdState(long pTime, int pRandomHigh, long pRandomLow) {
+      mTime = pTime;
+      mRandomHigh = pRandomHigh;
+      mRandomLow = pRandomLow;
+    }
+
+    /**
+     * @return the state of the next id in the same millisecond; in the unlikely case that the random bits run out, the
+     * id moves on to the next millisecond.
+     */
+    IdState increment() {
+      long randomLow = mRandomLow + 1;
+      if (randomLow != 0) return new IdState(mTime, mRandomHigh, randomLow);
+      if (mRandomHigh < 0xFFFF) return new IdState(mTime, mRandomHigh + 1, 0);
+      return new IdState(mTime + 1, 0, 0);
+    }
+
+    @Override
+    public String toString() {
+      char[] id = new char[26];
+      long time = mTime;
+      for (int c = 9; c >= 0; c--) {
+        id[c] = ID_ALPHABET[(int) (time & 31)];
+        time >>>= 5;
+      }
+
+      // The 80 random bits, high 16 then low 64, as 16 characters of 5 bits each: 60 low bits in the last 12, then the
+      // 4 left over along with the high bits.
+      long low = mRandomLow;
+      for (int c = 25; c >= 14; c--) {
+        id[c] = ID_ALPHABET[(int) (low & 31)];
+        low >>>= 5;
+      }
+      long high = ((long) mRandomHigh << 4) | low;
+      for (int c = 13; c >= 10; c--) {
+        id[c] = ID_ALPHABET[(int) (high & 31)];
+        high >>>= 5;
+      }
+
+      return new String(id);
+    }
+  }
 }
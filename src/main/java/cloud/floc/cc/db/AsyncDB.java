@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.Page;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Non-blocking view of a {@link DB}. Every operation completes its {@link Future} with the result of the matching
+ * {@link DB} method, or fails it with the exception that method threw. Safe to call from an event loop.
+ */
+public interface AsyncDB {
+
+  String name();
+
+  Future<Document> createDocument(Document pDoc);
+
+  Future<Document> getDocument(String pCollectionId, String pDocId);
+
+  Future<Document> updateDocument(Document pDoc);
+
+  Future<Document> deleteDocument(String pCollectionId, String pDocId);
+
+  Future<Document> patchDocument(Document pPatch);
+
+  Future<Boolean> hasDocument(String pCollectionId, String pDocId);
+
+  Future<Collection> createCollection(Collection pCol);
+
+  Future<Collection> getCollection(String pId);
+
+  Future<Collection> updateCollection(Collection pCol);
+
+  Future<Collection> deleteCollection(String pId);
+
+  Future<Boolean> hasCollection(String pId);
+
+  Future<Collection> getDocuments(String pCollectionId, List<String> pDocIds);
+
+  Future<Collection> putDocuments(String pCollectionId, List<Document> pDocs);
+
+  Future<Collection> deleteDocuments(String pCollectionId, List<String> pDocIds);
+
+  Future<Page> getPage(String pCollectionId, String pCursor, int pLimit);
+
+  Future<Collection> getRange(String pCollectionId, String pFromId, String pToId, int pLimit, boolean pDescending);
+
+  Future<Collection> findDocuments(String pCollectionId, JsonObject pFilter);
+
+  Future<JsonObject> aggregates(String pCollectionId);
+
+  /**
+   * Writes a snapshot of the DB to the given file, as {@link DB#exportSnapshot} does.
+   */
+  Future<Void> exportSnapshot(File pFile);
+
+  Future<JsonObject> metrics();
+
+  /**
+   * @return the feed of the DB's changes, which is kept in memory and can be read from any thread.
+   */
+  ChangeFeed changeFeed();
+
+  /**
+   * Wraps the given DB so that the returned {@link AsyncDB} performs its blocking I/O on a dedicated, bounded worker
+   * pool instead of the caller's thread.
+   */
+  static AsyncDB newAsyncDB(Vertx pVertx, DB pDB, JsonObject pConfig) {
+    return new WorkerAsyncDB(pVertx, pDB,
+        pConfig.getInteger(Constants.DB_WORKER_POOL_SIZE_KEY, Constants.DEFAULT_DB_WORKER_POOL_SIZE_VALUE));
+  }
+
+  /**
+   * Connects to the DB served by the {@link DBVerticle} deployed on the given Vert.x instance.
+   *
+   * @see DBVerticle#deployOnce(Vertx, JsonObject)
+   */
+  static Future<AsyncDB> connect(Vertx pVertx, JsonObject pConfig) {
+    return EventBusDB.connect(pVertx,
+        pConfig.getLong(Constants.DB_REQUEST_TIMEOUT_KEY, Constants.DEFAULT_DB_REQUEST_TIMEOUT_VALUE));
+  }
+}
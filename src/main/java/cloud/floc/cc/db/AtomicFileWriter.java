@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Replaces files atomically: content goes to a hidden temp file next to the target, which is then renamed over it, so
+ * readers and crashes only ever see the old or the new content. How much is synced to disk before a write returns
+ * depends on the {@link Durability}.
+ */
+class AtomicFileWriter {
+
+  private static final Logger LOGGER = Logger.getLogger(AtomicFileWriter.class.getName());
+
+  private static final String TMP_SUFFIX = ".tmp";
+  private static final Pattern TMP_FILE = Pattern.compile("\\..+\\.[0-9a-f]{1,16}" + Pattern.quote(TMP_SUFFIX));
+
+  enum Durability {
+    /**
+     * Every write syncs its file and folder before returning.
+     */
+    FSYNC,
+    /**
+     * Writes wait for a shared commit that syncs everything written during the commit interval at once.
+     */
+    BATCH,
+    /**
+     * Writes are atomic but left to the OS to flush; a power loss may roll them back.
+     */
+    NONE;
+
+    static Durability of(String pName) {
+      try {
+        return valueOf(pName.toUpperCase(Locale.ROOT));
+
+      } catch (IllegalArgumentException ex) {
+        throw new IllegalArgumentException("Unknown DB durability: " + pName);
+      }
+    }
+  }
+
+  private final Durability mDurability;
+  private final long mCommitInterval;
+  private final BlockingQueue<Commit> mPending;
+  private final Thread mCommitThread;
+  private final LongAdder mSyncs;
+  private final LongAdder mCommits;
+  private final LongAdder mCommittedWrites;
+  private boolean mClosed;
+
+  AtomicFileWriter(Durability pDurability, long pCommitInterval, String pName) {
+    mDurability = pDurability;
+    mCommitInterval = pCommitInterval;
+    mPending = new LinkedBlockingQueue<>();
+    mSyncs = new LongAdder();
+    mCommits = new LongAdder();
+    mCommittedWrites = new LongAdder();
+
+    if (pDurability == Durability.BATCH) {
+      mCommitThread = new Thread(this::runCommits, "group-commit-" + pName);
+      mCommitThread.setDaemon(true);
+      mCommitThread.start();
+
+    } else {
+      mCommitThread = null;
+    }
+  }
+
+  /**
+   * @return whether the file name belongs to a temp file of this writer, which listings should skip. Only names
+   *     shaped like the writer's own temp files match, so documents with ids starting with a dot are still listed.
+   */
+  static boolean isTempFile(String pName) {
+    return TMP_FILE.matcher(pName).matches();
+  }
+
+  /**
+   * Deletes temp files left in the folder by writes that were interrupted by a crash.
+   */
+  static void deleteTempFiles(File pFolder) {
+    File[] files = pFolder.listFiles((dir, name) -> isTempFile(name));
+    if (files == null) return;
+
+    for (File file : files) {
+      if (file.delete()) {
+        LOGGER.info("Deleted temp file of an interrupted write: " + file);
+      }
+    }
+  }
+
+  void write(File pFile, byte[] pBytes)
+      throws IOException {
+    File tmpFile = writeTmpFile(pFile, pBytes, mDurability == Durability.FSYNC);
+
+    switch (mDurability) {
+      case FSYNC:
+        move(tmpFile, pFile);
+        syncFolder(pFile.getParentFile());
+        break;
+
+      case BATCH:
+        await(List.of(new Commit(tmpFile, pFile)));
+        break;
+
+      default:
+        move(tmpFile, pFile);
+    }
+  }
+
+  /**
+   * Replaces several files as one commit: each file is still replaced atomically, and each of their folders is synced
+   * only once. A file that can't be replaced doesn't keep the others from being replaced; the first failure is thrown
+   * once all of them were tried, so callers have to check which files hold their new content.
+   */
+  void writeAll(Map<File, byte[]> pFiles)
+      throws IOException {
+    List<Commit> commits = new ArrayList<>();
+
+    try {
+      for (var entry : pFiles.entrySet()) {
+        commits.add(new Commit(writeTmpFile(entry.getKey(), entry.getValue(), false), entry.getKey()));
+      }
+
+    } catch (IOException ex) {
+      commits.forEach(commit -> commit.mTmpFile.delete());
+      throw ex;
+    }
+
+    switch (mDurability) {
+      case FSYNC:
+        commit(commits);
+        join(commits);
+        break;
+
+      case BATCH:
+        await(commits);
+        break;
+
+      default:
+        moveAll(commits);
+    }
+  }
+
+  void delete(File pFile)
+      throws IOException {
+    Files.delete(pFile.toPath());
+    synced(pFile);
+  }
+
+  /**
+   * Deletes several files as one commit. Like {@link #writeAll(Map)}, every file is tried before the first failure is
+   * thrown, and the deletions that succeeded are made durable all the same.
+   */
+  void deleteAll(List<File> pFiles)
+      throws IOException {
+    List<Commit> commits = new ArrayList<>();
+    IOException failure = null;
+
+    for (File file : pFiles) {
+      try {
+        Files.delete(file.toPath());
+        commits.add(new Commit(null, file));
+
+      } catch (IOException ex) {
+        failure = first(failure, ex);
+      }
+    }
+
+    switch (mDurability) {
+      case FSYNC:
+        commit(commits);
+        join(commits);
+        break;
+
+      case BATCH:
+        await(commits);
+        break;
+
+      default:
+    }
+
+    if (failure != null) throw failure;
+  }
+
+  /**
+   * Makes the creation or removal of the given file or folder durable, according to the configured durability.
+   */
+  void synced(File pFile)
+      throws IOException {
+    switch (mDurability) {
+      case FSYNC:
+        syncFolder(pFile.getAbsoluteFile().getParentFile());
+        break;
+
+      case BATCH:
+        await(List.of(new Commit(null, pFile)));
+        break;
+
+      default:
+    }
+  }
+
+  JsonObject metrics() {
+    long commits = mCommits.sum();
+
+    return new JsonObject()
+        .put("durability", mDurability.name().toLowerCase(Locale.ROOT))
+        .put("fsyncs", mSyncs.sum())
+        .put("groupCommits", commits)
+        .put("writesPerGroupCommit", commits > 0 ? (double) mCommittedWrites.sum() / commits : 0.0);
+  }
+
+  /**
+   * Commits any pending writes and stops the commit thread. Writes made afterwards are committed by their caller.
+   */
+  void close() {
+    synchronized (this) {
+      mClosed = true;
+    }
+
+    if (mCommitThread != null) {
+      try {
+        mCommitThread.join();
+
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private File writeTmpFile(File pFile, byte[] pBytes, boolean pSync)
+      throws IOException {
+    File tmpFile = new File(pFile.getParentFile(),
+        "." + pFile.getName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + TMP_SUFFIX);
+
+    try (var channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.wrap(pBytes);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+
+      if (pSync) {
+        channel.force(true);
+        mSyncs.increment();
+      }
+
+    } catch (IOException ex) {
+      tmpFile.delete();
+      throw ex;
+    }
+
+    return tmpFile;
+  }
+
+  /**
+   * Hands the commits to the commit thread, or commits them right away once closed, and waits for them.
+   */
+  private void await(List<Commit> pCommits)
+      throws IOException {
+    boolean queued;
+    synchronized (this) {
+      queued = !mClosed && mPending.addAll(pCommits);
+    }
+
+    if (!queued) {
+      commit(pCommits);
+    }
+
+    join(pCommits);
+  }
+
+  private void join(List<Commit> pCommits)
+      throws IOException {
+    for (Commit commit : pCommits) {
+      try {
+        commit.mDone.join();
+
+      } catch (CompletionException ex) {
+        if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+        throw ex;
+      }
+    }
+  }
+
+  private void runCommits() {
+    List<Commit> batch = new ArrayList<>();
+
+    while (true) {
+      try {
+        Commit first = mPending.poll(100, TimeUnit.MILLISECONDS);
+
+        if (first == null) {
+          synchronized (this) {
+            if (mClosed && mPending.isEmpty()) return;
+          }
+          continue;
+        }
+
+        // Give concurrent writers a chance to join this commit.
+        if (mCommitInterval > 0) {
+          Thread.sleep(mCommitInterval);
+        }
+
+        batch.add(first);
+        mPending.drainTo(batch);
+        commit(batch);
+        batch.clear();
+
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Syncs every temp file before renaming any of them, then syncs each affected folder once.
+   */
+  private void commit(List<Commit> pBatch) {
+    Map<File, List<Commit>> byFolder = new HashMap<>();
+
+    for (Commit commit : pBatch) {
+      try {
+        if (commit.mTmpFile != null) {
+          try (var channel = FileChannel.open(commit.mTmpFile.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+            mSyncs.increment();
+          }
+
+          move(commit.mTmpFile, commit.mFile);
+        }
+
+        byFolder.computeIfAbsent(commit.mFile.getAbsoluteFile().getParentFile(), k -> new ArrayList<>()).add(commit);
+
+      } catch (IOException ex) {
+        if (commit.mTmpFile != null) commit.mTmpFile.delete();
+        commit.mDone.completeExceptionally(ex);
+      }
+    }
+
+    byFolder.forEach((folder, commits) -> {
+      try {
+        syncFolder(folder);
+        commits.forEach(commit -> commit.mDone.complete(null));
+
+      } catch (IOException ex) {
+        commits.forEach(commit -> commit.mDone.completeExceptionally(ex));
+      }
+    });
+
+    mCommits.increment();
+    mCommittedWrites.add(pBatch.size());
+  }
+
+  private void move(File pTmpFile, File pFile)
+      throws IOException {
+    Files.move(pTmpFile.toPath(), pFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Moves every temp file into place, deleting the ones that can't be, and then throws the first failure.
+   */
+  private void moveAll(List<Commit> pCommits)
+      throws IOException {
+    IOException failure = null;
+
+    for (Commit commit : pCommits) {
+      try {
+        move(commit.mTmpFile, commit.mFile);
+
+      } catch (IOException ex) {
+        commit.mTmpFile.delete();
+        failure = first(failure, ex);
+      }
+    }
+
+    if (failure != null) throw failure;
+  }
+
+  private static IOException first(IOException pFirst, IOException pNext) {
+    if (pFirst == null) return pNext;
+
+    pFirst.addSuppressed(pNext);
+    return pFirst;
+  }
+
+  private void syncFolder(File pFolder)
+      throws IOException {
+    try (var channel = FileChannel.open(pFolder.toPath(), StandardOpenOption.READ)) {
+      channel.force(true);
+      mSyncs.increment();
+    }
+  }
+
+  private static class Commit {
+
+    final File mTmpFile;
+    final File mFile;
+    final CompletableFuture<Void> mDone;
+
+    Commit(File pTmpFile, File pFile) {
+      mTmpFile = pTmpFile;
+      mFile = pFile;
+      mDone = new CompletableFuture<>();
+    }
+  }
+}
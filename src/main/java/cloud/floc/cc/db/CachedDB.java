@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * {@link DB} decorator that keeps recently read documents in a size-bounded memory cache.
+ * <p>
+ * Writes go straight to the wrapped DB and invalidate the cached entry both before and after the write. A reader that
+ * misses only fills the cache if no write to the same key started while it was loading, so a slow read can never
+ * reinstate a stale document. That check is made under the cache's lock, which the invalidation also takes, so a
+ * write can't slip in between the check and the store.
+ * <p>
+ * With an off-heap budget, documents are also kept in a {@link SlabDocumentCache} behind the memory cache, so the
+ * memory cache can stay small on a small heap while many more documents are served without reading the wrapped DB.
+ * Documents evicted from the off-heap tier are simply dropped, since the wrapped DB still holds them.
+ */
+public class CachedDB
+    extends ForwardingDB {
+
+  private static final int GENERATION_STRIPES = 64;
+
+  private final DocumentCache mCache;
+  private final SlabDocumentCache mOffHeap;
+  private final AtomicLongArray mGenerations;
+
+  public CachedDB(DB pDelegate, String pEviction, int pMaxEntries) {
+    this(pDelegate, pEviction, pMaxEntries, 0, 0);
+  }
+
+  /**
+   * @param pOffHeapBytes how many bytes of direct memory the off-heap tier may take, or {@code 0} for no off-heap tier.
+   * The JVM must be allowed that much direct memory, see {@code -XX:MaxDirectMemorySize}.
+   * @param pSlabBytes the size of the slabs the off-heap tier allocates, which caps the size of cached payloads.
+   */
+  public CachedDB(DB pDelegate, String pEviction, int pMaxEntries, long pOffHeapBytes, int pSlabBytes) {
+    super(pDelegate);
+
+    mCache = DocumentCache.newCache(pEviction, pMaxEntries);
+    mOffHeap = pOffHeapBytes > 0 ? new SlabDocumentCache(pOffHeapBytes, pSlabBytes) : null;
+    mGenerations = new AtomicLongArray(GENERATION_STRIPES);
+  }
+
+  @Override
+  public Document createDocument(Document pDoc)
+      throws DocumentExistsException, DocumentException {
+    String key = key(pDoc.collectionId(), pDoc.id());
+    invalidate(key);
+
+    try {
+      return mDelegate.createDocument(pDoc);
+
+    } finally {
+      invalidate(key);
+    }
+  }
+
+  @Override
+  public Document getDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    String key = key(pCollectionId, pDocId);
+    Document cached = mCache.get(key);
+
+    if (cached == null) {
+      long generation = mGenerations.get(stripe(key));
+      cached = mOffHeap != null ? mOffHeap.get(key) : null;
+      boolean offHeapHit = cached != null;
+      if (!offHeapHit) {
+        cached = mDelegate.getDocument(pCollectionId, pDocId);
+      }
+
+      BooleanSupplier unchanged = () -> mGenerations.get(stripe(key)) == generation;
+      mCache.putIf(key, cached, unchanged);
+      if (mOffHeap != null && !offHeapHit) {
+        mOffHeap.putIf(key, cached, unchanged);
+      }
+    }
+
+    return copy(cached);
+  }
+
+  @Override
+  public Document updateDocument(Document pDoc)
+      throws DocumentNotFoundException, DocumentException {
+    String key = key(pDoc.collectionId(), pDoc.id());
+    invalidate(key);
+
+    try {
+      return mDelegate.updateDocument(pDoc);
+
+    } finally {
+      invalidate(key);
+    }
+  }
+
+  @Override
+  public Document patchDocument(Document pPatch)
+      throws DocumentNotFoundException, DocumentException {
+    String key = key(pPatch.collectionId(), pPatch.id());
+    invalidate(key);
+
+    try {
+      return mDelegate.patchDocument(pPatch);
+
+    } finally {
+      invalidate(key);
+    }
+  }
+
+  @Override
+  public Document deleteDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    String key = key(pCollectionId, pDocId);
+    invalidate(key);
+
+    try {
+      return mDelegate.deleteDocument(pCollectionId, pDocId);
+
+    } finally {
+      invalidate(key);
+    }
+  }
+
+  @Override
+  public Collection getDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    Map<String, Document> found = new HashMap<>();
+    List<String> missedIds = new ArrayList<>();
+
+    for (String docId : pDocIds) {
+      String key = key(pCollectionId, docId);
+      Document cached = mCache.get(key);
+      if (cached == null && mOffHeap != null) {
+        cached = mOffHeap.get(key);
+      }
+
+      if (cached != null) {
+        found.put(docId, cached);
+      } else {
+        missedIds.add(docId);
+      }
+    }
+
+    if (!missedIds.isEmpty()) {
+      long[] generations = new long[missedIds.size()];
+      for (int d = 0; d < generations.length; d++) {
+        generations[d] = mGenerations.get(stripe(key(pCollectionId, missedIds.get(d))));
+      }
+
+      // Only misses are read, but the delegate may return them in any order and skip missing ones.
+      Map<String, Integer> positions = new HashMap<>();
+      for (int d = 0; d < generations.length; d++) {
+        positions.putIfAbsent(missedIds.get(d), d);
+      }
+
+      for (Document doc : mDelegate.getDocuments(pCollectionId, missedIds).documents()) {
+        String key = key(pCollectionId, doc.id());
+        long generation = generations[positions.get(doc.id())];
+        BooleanSupplier unchanged = () -> mGenerations.get(stripe(key)) == generation;
+        mCache.putIf(key, doc, unchanged);
+        if (mOffHeap != null) {
+          mOffHeap.putIf(key, doc, unchanged);
+        }
+
+        found.put(doc.id(), doc);
+      }
+    }
+
+    var builder = Collection
+        .newBuilder()
+        .withId(pCollectionId)
+        .withPayload(new JsonObject());
+
+    for (String docId : pDocIds) {
+      Document doc = found.get(docId);
+      if (doc != null) {
+        builder.addDocument(copy(doc));
+      }
+    }
+
+    return builder.build();
+  }
+
+  @Override
+  public Collection putDocuments(String pCollectionId, List<Document> pDocs)
+      throws DocumentNotFoundException, DocumentException {
+    List<String> keys = new ArrayList<>();
+    pDocs.forEach(doc -> keys.add(key(pCollectionId, doc.id())));
+    keys.forEach(this::invalidate);
+
+    try {
+      return mDelegate.putDocuments(pCollectionId, pDocs);
+
+    } finally {
+      keys.forEach(this::invalidate);
+    }
+  }
+
+  @Override
+  public Collection deleteDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    List<String> keys = new ArrayList<>();
+    pDocIds.forEach(docId -> keys.add(key(pCollectionId, docId)));
+    keys.forEach(this::invalidate);
+
+    try {
+      return mDelegate.deleteDocuments(pCollectionId, pDocIds);
+
+    } finally {
+      keys.forEach(this::invalidate);
+    }
+  }
+
+  @Override
+  public boolean hasDocument(String pCollectionId, String pDocId) {
+    String key = key(pCollectionId, pDocId);
+    return mCache.lookup(key) != null || (mOffHeap != null && mOffHeap.contains(key))
+        || mDelegate.hasDocument(pCollectionId, pDocId);
+  }
+
+  @Override
+  public Collection deleteCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    invalidateCollection(pId);
+
+    try {
+      return mDelegate.deleteCollection(pId);
+
+    } finally {
+      invalidateCollection(pId);
+    }
+  }
+
+  @Override
+  public JsonObject metrics() {
+    JsonObject metrics = mDelegate.metrics().copy().put("cache", mCache.metrics());
+    if (mOffHeap != null) {
+      metrics.put("offHeapCache", mOffHeap.metrics());
+    }
+
+    return metrics;
+  }
+
+  @Override
+  public void close() {
+    if (mOffHeap != null) {
+      mOffHeap.clear();
+    }
+
+    super.close();
+  }
+
+  private void invalidate(String pKey) {
+    mGenerations.incrementAndGet(stripe(pKey));
+    mCache.remove(pKey);
+    if (mOffHeap != null) {
+      mOffHeap.remove(pKey);
+    }
+  }
+
+  private void invalidateCollection(String pCollectionId) {
+    String prefix = key(pCollectionId, "");
+
+    for (int s = 0; s < GENERATION_STRIPES; s++) {
+      mGenerations.incrementAndGet(s);
+    }
+
+    mCache.removeIf(key -> key.startsWith(prefix));
+    if (mOffHeap != null) {
+      mOffHeap.removeIf(key -> key.startsWith(prefix));
+    }
+  }
+
+  /**
+   * @return a key only the given ids map to. Engines other than {@link JsonDB} allow any character in ids, so the
+   * collection id is prefixed with its length: {@code ("a/b", "c")} and {@code ("a", "b/c")} can't share a key, and
+   * the keys of a collection start with {@code key(collectionId, "")} and no other collection's do.
+   */
+  private static String key(String pCollectionId, String pDocId) {
+    return pCollectionId.length() + ":" + pCollectionId + '/' + pDocId;
+  }
+
+  private static int stripe(String pKey) {
+    return (pKey.hashCode() & 0x7FFFFFFF) % GENERATION_STRIPES;
+  }
+
+  private static Document copy(Document pDoc) {
+    // Callers are free to mutate payloads, so the cached one is never handed out. Raw payloads are never mutated, so
+    // they can be shared as long as they haven't been parsed.
+    var builder = Document
+        .newBuilder()
+        .underCollection(pDoc.collectionId())
+        .withId(pDoc.id())
+        .withVersion(pDoc.version())
+        .expiringAt(pDoc.expiresAt());
+
+    Buffer rawPayload = pDoc.rawPayload();
+    if (rawPayload != null) {
+      builder.withRawPayload(rawPayload);
+    } else {
+      builder.withPayload(pDoc.payload().copy());
+    }
+
+    return builder.build();
+  }
+}
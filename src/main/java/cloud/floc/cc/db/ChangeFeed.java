@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ordered feed of the writes made through a {@link ChangeFeedDB}. Every change gets a sequence number, and the most
+ * recent changes are kept in a ring buffer so that readers can resume from the last sequence number they saw.
+ * <p>
+ * Sequence numbers start from the wall clock in microseconds when the DB is opened, so they keep increasing across
+ * restarts while the buffer itself starts out empty; readers resuming from before a restart are told to reset.
+ */
+public final class ChangeFeed {
+
+  private static final Logger LOGGER = Logger.getLogger(ChangeFeed.class.getName());
+
+  public static final String SEQUENCE_KEY = "seq";
+  public static final String COLLECTION_KEY = "collection";
+  public static final String ID_KEY = "id";
+  public static final String TYPE_KEY = "type";
+  public static final String VERSION_KEY = "version";
+  /**
+   * Key of the deadline of a written document, only present when it has one.
+   */
+  public static final String EXPIRES_AT_KEY = "expiresAt";
+  /**
+   * Key of the written payload in the changes returned by {@link #mutationsSince}.
+   */
+  static final String PAYLOAD_KEY = "payload";
+
+  public static final String CREATE = "create";
+  public static final String UPDATE = "update";
+  public static final String DELETE = "delete";
+  /**
+   * A whole collection was deleted; the change has no document id.
+   */
+  public static final String DROP = "drop";
+
+  private final JsonObject[] mBuffer;
+  private final JsonObject[] mPayloads;
+  private final List<Consumer<JsonObject>> mListeners;
+  private final long mFirstSequence;
+  private long mSequence;
+
+  ChangeFeed(int pCapacity) {
+    if (pCapacity < 1) {
+      throw new IllegalArgumentException("Change feed should hold at least one change");
+    }
+
+    mBuffer = new JsonObject[pCapacity];
+    mPayloads = new JsonObject[pCapacity];
+    mListeners = new CopyOnWriteArrayList<>();
+    mFirstSequence = System.currentTimeMillis() * 1000;
+    mSequence = mFirstSequence;
+  }
+
+  /**
+   * Calls the listener with every change from now on, on the thread that made the change, which must not be blocked.
+   */
+  public void subscribe(Consumer<JsonObject> pListener) {
+    mListeners.add(pListener);
+  }
+
+  public synchronized long lastSequence() {
+    return mSequence;
+  }
+
+  /**
+   * Returns up to {@code pLimit} changes made after {@code pSequence} as
+   * {@code {"items": [...], "seq": n, "reset": false}}, where {@code seq} is the sequence number to resume from. If
+   * changes after {@code pSequence} are no longer buffered, {@code reset} is true and no items are returned: the reader
+   * should reload what it follows and resume from {@code seq}.
+   */
+  public synchronized JsonObject since(long pSequence, int pLimit) {
+    return since(pSequence, pLimit, false);
+  }
+
+  /**
+   * Like {@link #since}, but every created or updated document's change also holds the payload it was written with,
+   * under {@link #PAYLOAD_KEY}. That's enough to replay the changes onto another DB.
+   */
+  synchronized JsonObject mutationsSince(long pSequence, int pLimit) {
+    return since(pSequence, pLimit, true);
+  }
+
+  private JsonObject since(long pSequence, int pLimit, boolean pWithPayloads) {
+    long oldest = Math.max(mFirstSequence, mSequence - mBuffer.length);
+    var items = new JsonArray();
+
+    if (pSequence < oldest || pSequence > mSequence) {
+      return new JsonObject()
+          .put("items", items)
+          .put(SEQUENCE_KEY, mSequence)
+          .put("reset", true);
+    }
+
+    long last = pSequence;
+    for (long seq = pSequence + 1; seq <= mSequence && items.size() < pLimit; seq++) {
+      int slot = (int) (seq % mBuffer.length);
+      if (pWithPayloads && mPayloads[slot] != null) {
+        items.add(mBuffer[slot].copy().put(PAYLOAD_KEY, mPayloads[slot]));
+      } else {
+        items.add(mBuffer[slot]);
+      }
+      last = seq;
+    }
+
+    return new JsonObject()
+        .put("items", items)
+        .put(SEQUENCE_KEY, last)
+        .put("reset", false);
+  }
+
+  /**
+   * @param pExpiresAt the deadline the document was written with, or {@code 0} if it has none.
+   * @param pPayload the payload the document was written with, or {@code null} for deletions.
+   */
+  void append(String pCollectionId, String pDocId, String pType, long pVersion, long pExpiresAt,
+      JsonObject pPayload) {
+    JsonObject change;
+
+    synchronized (this) {
+      change = new JsonObject()
+          .put(SEQUENCE_KEY, ++mSequence)
+          .put(COLLECTION_KEY, pCollectionId)
+          .put(ID_KEY, pDocId)
+          .put(TYPE_KEY, pType)
+          .put(VERSION_KEY, pVersion);
+      if (pExpiresAt > 0) change.put(EXPIRES_AT_KEY, pExpiresAt);
+      mBuffer[(int) (mSequence % mBuffer.length)] = change;
+      mPayloads[(int) (mSequence % mBuffer.length)] = pPayload;
+    }
+
+    for (var listener : mListeners) {
+      try {
+        listener.accept(change);
+
+      } catch (RuntimeException ex) {
+        LOGGER.log(Level.WARNING, "Change feed listener failed", ex);
+      }
+    }
+  }
+
+  JsonObject metrics() {
+    return new JsonObject()
+        .put("lastSequence", lastSequence())
+        .put("capacity", mBuffer.length)
+        .put("listeners", mListeners.size());
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * {@link DB} decorator that records every successful document write, and collection deletion, in a
+ * {@link ChangeFeed}. Writes to the same document are serialized with the change they produce, so the feed lists a
+ * document's changes in version order.
+ */
+public class ChangeFeedDB
+    extends ForwardingDB {
+
+  private final ChangeFeed mFeed;
+  private final LockStripes mDocumentLocks;
+
+  public ChangeFeedDB(DB pDelegate, int pCapacity) {
+    super(pDelegate);
+
+    mFeed = new ChangeFeed(pCapacity);
+    mDocumentLocks = new LockStripes(Constants.DEFAULT_DB_DOCUMENT_LOCK_STRIPES_VALUE);
+  }
+
+  @Override
+  public Document createDocument(Document pDoc)
+      throws DocumentExistsException, DocumentException {
+    Lock lock = mDocumentLocks.forKey(pDoc.collectionId(), pDoc.id()).writeLock();
+    lock.lock();
+
+    try {
+      Document doc = mDelegate.createDocument(pDoc);
+      mFeed.append(pDoc.collectionId(), pDoc.id(), ChangeFeed.CREATE, doc.version(), doc.expiresAt(),
+          doc.payload());
+      return doc;
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document updateDocument(Document pDoc)
+      throws DocumentNotFoundException, DocumentException {
+    Lock lock = mDocumentLocks.forKey(pDoc.collectionId(), pDoc.id()).writeLock();
+    lock.lock();
+
+    try {
+      Document doc = mDelegate.updateDocument(pDoc);
+      mFeed.append(pDoc.collectionId(), pDoc.id(), ChangeFeed.UPDATE, doc.version(), doc.expiresAt(),
+          doc.payload());
+      return doc;
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document patchDocument(Document pPatch)
+      throws DocumentNotFoundException, DocumentException {
+    Lock lock = mDocumentLocks.forKey(pPatch.collectionId(), pPatch.id()).writeLock();
+    lock.lock();
+
+    try {
+      Document doc = mDelegate.patchDocument(pPatch);
+      mFeed.append(pPatch.collectionId(), pPatch.id(), ChangeFeed.UPDATE, doc.version(), doc.expiresAt(),
+          doc.payload());
+      return doc;
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document deleteDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    Lock lock = mDocumentLocks.forKey(pCollectionId, pDocId).writeLock();
+    lock.lock();
+
+    try {
+      Document doc = mDelegate.deleteDocument(pCollectionId, pDocId);
+      mFeed.append(pCollectionId, pDocId, ChangeFeed.DELETE, doc.version(), 0, null);
+      return doc;
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Collection putDocuments(String pCollectionId, List<Document> pDocs)
+      throws DocumentNotFoundException, DocumentException {
+    List<String> docIds = new ArrayList<>();
+    pDocs.forEach(doc -> docIds.add(doc.id()));
+    List<Lock> locks = lockDocuments(pCollectionId, docIds);
+
+    try {
+      Collection col = mDelegate.putDocuments(pCollectionId, pDocs);
+      col.documents().forEach(doc -> mFeed.append(pCollectionId, doc.id(),
+          doc.version() == 1 ? ChangeFeed.CREATE : ChangeFeed.UPDATE, doc.version(), doc.expiresAt(), doc.payload()));
+      return col;
+
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public Collection deleteDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    List<Lock> locks = lockDocuments(pCollectionId, pDocIds);
+
+    try {
+      Collection col = mDelegate.deleteDocuments(pCollectionId, pDocIds);
+      col.documents().forEach(doc -> mFeed.append(pCollectionId, doc.id(), ChangeFeed.DELETE, doc.version(), 0, null));
+      return col;
+
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public Collection deleteCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    Collection col = mDelegate.deleteCollection(pId);
+    mFeed.append(pId, null, ChangeFeed.DROP, 0, 0, null);
+    return col;
+  }
+
+  @Override
+  public ChangeFeed changeFeed() {
+    return mFeed;
+  }
+
+  @Override
+  public JsonObject metrics() {
+    return mDelegate.metrics().copy().put("changeFeed", mFeed.metrics());
+  }
+
+  private List<Lock> lockDocuments(String pCollectionId, List<String> pDocIds) {
+    List<Lock> locks = new ArrayList<>();
+
+    for (var stripe : mDocumentLocks.forKeys(pCollectionId, pDocIds)) {
+      Lock lock = stripe.writeLock();
+      lock.lock();
+      locks.add(lock);
+    }
+
+    return locks;
+  }
+
+  private void unlock(List<Lock> pLocks) {
+    for (int l = pLocks.size() - 1; l >= 0; l--) {
+      pLocks.get(l).unlock();
+    }
+  }
+}
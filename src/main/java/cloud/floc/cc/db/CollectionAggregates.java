@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Utils;
+import io.vertx.core.json.JsonObject;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Running totals of a collection: its number of documents, their stored size and, for each counted field, how many
+ * documents hold each value of that field. Values are keyed by {@link Utils#fieldKey}, so a missing field counts
+ * under {@code "null"}.
+ */
+final class CollectionAggregates {
+
+  static final String DOCUMENTS_KEY = "documents";
+  static final String BYTES_KEY = "bytes";
+  static final String COUNTERS_KEY = "counters";
+
+  private final List<String> mFields;
+  private final Map<String, Map<String, Long>> mCounters;
+  private long mDocuments;
+  private long mBytes;
+
+  CollectionAggregates(List<String> pFields) {
+    mFields = pFields;
+    mCounters = new HashMap<>();
+
+    for (String field : pFields) {
+      mCounters.put(field, new HashMap<>());
+    }
+  }
+
+  /**
+   * @return whether updating these aggregates needs the documents' payloads, or their sizes are enough.
+   */
+  boolean countsFields() {
+    return !mFields.isEmpty();
+  }
+
+  synchronized void add(long pBytes, JsonObject pPayload) {
+    mDocuments++;
+    mBytes += pBytes;
+    count(pPayload, 1);
+  }
+
+  synchronized void remove(long pBytes, JsonObject pPayload) {
+    mDocuments--;
+    mBytes -= pBytes;
+    count(pPayload, -1);
+  }
+
+  synchronized JsonObject toJson() {
+    var counters = new JsonObject();
+    mCounters.forEach((field, values) -> counters.put(field, new JsonObject(new HashMap<>(values))));
+
+    return new JsonObject()
+        .put(DOCUMENTS_KEY, mDocuments)
+        .put(BYTES_KEY, mBytes)
+        .put(COUNTERS_KEY, counters);
+  }
+
+  /**
+   * @return the aggregates saved by {@link #toJson()}, or {@code null} if they were counted for other fields.
+   */
+  static CollectionAggregates fromJson(List<String> pFields, JsonObject pJson) {
+    JsonObject counters = pJson.getJsonObject(COUNTERS_KEY, new JsonObject());
+    if (!counters.fieldNames().equals(Set.copyOf(pFields))) return null;
+
+    var aggregates = new CollectionAggregates(pFields);
+    aggregates.mDocuments = pJson.getLong(DOCUMENTS_KEY, 0L);
+    aggregates.mBytes = pJson.getLong(BYTES_KEY, 0L);
+
+    for (String field : pFields) {
+      Map<String, Long> values = aggregates.mCounters.get(field);
+      counters.getJsonObject(field).forEach(entry -> values.put(entry.getKey(), ((Number) entry.getValue()).longValue()));
+    }
+
+    return aggregates;
+  }
+
+  private void count(JsonObject pPayload, int pDelta) {
+    for (String field : mFields) {
+      mCounters.get(field).compute(Utils.fieldKey(pPayload.getValue(field)), (key, count) -> {
+        long updated = (count != null ? count : 0L) + pDelta;
+        return updated != 0 ? updated : null;
+      });
+    }
+  }
+}
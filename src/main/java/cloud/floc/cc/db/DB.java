@@ -17,12 +17,22 @@
 package cloud.floc.cc.db;
 
 import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
 import cloud.floc.cc.common.Document;
 import cloud.floc.cc.common.DocumentException;
 import cloud.floc.cc.common.DocumentExistsException;
 import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.DocumentVersionException;
+import cloud.floc.cc.common.Page;
+import cloud.floc.cc.common.Utils;
 import io.vertx.core.json.JsonObject;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
 public interface DB {
 
   String name();
@@ -39,6 +49,37 @@ public interface DB {
   Document deleteDocument(String pCollectionId, String pDocId)
       throws DocumentNotFoundException, DocumentException;
 
+  /**
+   * Applies the payload of the given document to the stored one as a JSON merge patch, see
+   * {@link Utils#mergePatch(JsonObject, JsonObject)}. As with {@link #updateDocument(Document)}, a patch with a
+   * version only applies to that version. The document keeps its deadline unless the patch sets one.
+   * <p>
+   * This default reads the document and updates it conditionally, starting over when another writer got there first.
+   * Engines should override it to patch under their own locks, or to store the patch instead of the whole document.
+   *
+   * @return the patched document.
+   */
+  default Document patchDocument(Document pPatch)
+      throws DocumentNotFoundException, DocumentException {
+    while (true) {
+      Document current = getDocument(pPatch.collectionId(), pPatch.id());
+
+      try {
+        return updateDocument(Document
+            .newBuilder()
+            .underCollection(pPatch.collectionId())
+            .withId(pPatch.id())
+            .withPayload(Utils.mergePatch(current.payload(), pPatch.payload()))
+            .withVersion(pPatch.version() > 0 ? pPatch.version() : current.version())
+            .expiringAt(pPatch.expiresAt() > 0 ? pPatch.expiresAt() : current.expiresAt())
+            .build());
+
+      } catch (DocumentVersionException ex) {
+        if (pPatch.version() > 0) throw ex;
+      }
+    }
+  }
+
   boolean hasDocument(String pCollectionId, String pDocId);
 
   Collection createCollection(Collection pCol)
@@ -55,7 +96,257 @@ public interface DB {
 
   boolean hasCollection(String pId);
 
+  /**
+   * Returns the documents of a collection with the given ids, in the order requested. Ids without a document are
+   * skipped. Engines should override the bulk operations to take their locks once and batch their I/O.
+   */
+  default Collection getDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    var builder = bulkResult(pCollectionId);
+
+    for (String docId : pDocIds) {
+      try {
+        builder.addDocument(getDocument(pCollectionId, docId));
+
+      } catch (DocumentNotFoundException ex) {
+        // Skipped.
+      }
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * Creates or replaces the given documents under a collection, regardless of their own collection id.
+   */
+  default Collection putDocuments(String pCollectionId, List<Document> pDocs)
+      throws DocumentNotFoundException, DocumentException {
+    var builder = bulkResult(pCollectionId);
+
+    for (Document doc : pDocs) {
+      Document put = Document
+          .newBuilder()
+          .underCollection(pCollectionId)
+          .withId(doc.id())
+          .withPayload(doc.payload())
+          .expiringAt(doc.expiresAt())
+          .build();
+
+      try {
+        builder.addDocument(hasDocument(pCollectionId, doc.id()) ? updateDocument(put) : createDocument(put));
+
+      } catch (DocumentExistsException ex) {
+        builder.addDocument(updateDocument(put));
+      }
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * Deletes the documents of a collection with the given ids and returns the ones that existed.
+   */
+  default Collection deleteDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    var builder = bulkResult(pCollectionId);
+
+    for (String docId : pDocIds) {
+      try {
+        builder.addDocument(deleteDocument(pCollectionId, docId));
+
+      } catch (DocumentNotFoundException ex) {
+        // Skipped.
+      }
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * Returns up to {@code pLimit} documents of a collection in id order, continuing after {@code pCursor}. Engines
+   * should override this to avoid materializing the whole collection.
+   *
+   * @param pCursor the cursor of the previous {@link Page}, or {@code null} for the first page.
+   */
+  default Page getPage(String pCollectionId, String pCursor, int pLimit)
+      throws DocumentNotFoundException, DocumentException {
+    if (pLimit < 1) throw new IllegalArgumentException("Page limit should be positive");
+
+    String afterId = Page.decodeCursor(pCursor);
+    List<Document> docs = getCollection(pCollectionId)
+        .documents()
+        .stream()
+        .filter(doc -> afterId == null || doc.id().compareTo(afterId) > 0)
+        .sorted(Comparator.comparing(Document::id))
+        .collect(Collectors.toList());
+
+    var builder = Page
+        .newBuilder()
+        .underCollection(pCollectionId);
+
+    docs.stream().limit(pLimit).forEach(builder::addDocument);
+    if (docs.size() > pLimit) {
+      builder.continueAfter(docs.get(pLimit - 1).id());
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * Returns up to {@code pLimit} documents of a collection with ids from {@code pFromId}, inclusive, to {@code pToId},
+   * exclusive, in id order or, if {@code pDescending}, in reverse id order. Either bound may be {@code null} for an
+   * open end. Ids from {@link Utils#generateId()} sort by creation time, so a descending range with no bounds holds the
+   * newest documents. Engines should override this to avoid materializing the whole collection.
+   */
+  default Collection getRange(String pCollectionId, String pFromId, String pToId, int pLimit, boolean pDescending)
+      throws DocumentNotFoundException, DocumentException {
+    if (pLimit < 1) throw new IllegalArgumentException("Range limit should be positive");
+
+    Comparator<Document> order = Comparator.comparing(Document::id);
+    var builder = Collection
+        .newBuilder()
+        .withId(pCollectionId)
+        .withPayload(new JsonObject());
+
+    getCollection(pCollectionId)
+        .documents()
+        .stream()
+        .filter(doc -> IdRanges.contains(pFromId, pToId, doc.id()))
+        .sorted(pDescending ? order.reversed() : order)
+        .limit(pLimit)
+        .forEach(builder::addDocument);
+
+    return builder.build();
+  }
+
+  /**
+   * Returns the documents of a collection whose top-level payload fields equal every value of {@code pFilter}, in id
+   * order. This default scans the whole collection; {@link IndexedDB} answers it from its indexes instead.
+   */
+  default Collection findDocuments(String pCollectionId, JsonObject pFilter)
+      throws DocumentNotFoundException, DocumentException {
+    var builder = Collection
+        .newBuilder()
+        .withId(pCollectionId)
+        .withPayload(new JsonObject());
+
+    getCollection(pCollectionId)
+        .documents()
+        .stream()
+        .filter(doc -> Utils.matches(doc.payload(), pFilter))
+        .sorted(Comparator.comparing(Document::id))
+        .forEach(builder::addDocument);
+
+    return builder.build();
+  }
+
+  /**
+   * Returns totals of a collection as {@code {"documents": n, "bytes": n, "counters": {field: {value: n}}}}, where
+   * {@code bytes} is the stored size of its documents and {@code counters} counts documents per value of the fields
+   * declared under {@link Constants#DB_AGGREGATES_KEY}. This default scans the collection and counts no fields;
+   * {@link JsonDB} maintains the totals on every write instead.
+   */
+  default JsonObject aggregates(String pCollectionId)
+      throws DocumentNotFoundException, DocumentException {
+    long bytes = 0;
+    List<Document> docs = getCollection(pCollectionId).documents();
+    for (Document doc : docs) {
+      bytes += doc.payload().toBuffer().length();
+    }
+
+    return new JsonObject()
+        .put(CollectionAggregates.DOCUMENTS_KEY, docs.size())
+        .put(CollectionAggregates.BYTES_KEY, bytes)
+        .put(CollectionAggregates.COUNTERS_KEY, new JsonObject());
+  }
+
+  /**
+   * Writes a point-in-time snapshot of every collection to the given stream, in the format restored on startup when
+   * {@link Constants#DB_RESTORE_SNAPSHOT_KEY} is set. Writes may continue while the snapshot is being written; they
+   * aren't part of it. The stream is left open.
+   */
+  default void exportSnapshot(OutputStream pOut)
+      throws DocumentException {
+    throw new UnsupportedOperationException("Snapshots are not supported by DB: " + name());
+  }
+
+  /**
+   * @return the feed of the changes made through this DB.
+   * @throws UnsupportedOperationException if the DB isn't wrapped in a {@link ChangeFeedDB}.
+   */
+  default ChangeFeed changeFeed() {
+    throw new UnsupportedOperationException("No change feed for DB: " + name());
+  }
+
+  /**
+   * @return operational counters of this DB and of any layers wrapped around it.
+   */
+  default JsonObject metrics() {
+    return new JsonObject();
+  }
+
+  /**
+   * Releases any background resources held by the DB. Pending writes are persisted before this returns.
+   */
+  default void close() {}
+
   static DB newDB(JsonObject pConfig) {
-    return new JsonDB(pConfig);
+    try {
+      Snapshot.restoreOnStartup(pConfig);
+
+    } catch (IOException ex) {
+      throw new RuntimeException("Unable to initialize DB. Failed to restore snapshot.", ex);
+    }
+
+    DB db = newEngine(pConfig);
+
+    JsonObject cacheConfig = pConfig.getJsonObject(Constants.DB_CACHE_KEY, Utils.EMPTY_JSON);
+    if (cacheConfig.getBoolean("enabled", true)) {
+      db = new CachedDB(db,
+          cacheConfig.getString("eviction", Constants.DEFAULT_DB_CACHE_EVICTION_VALUE),
+          cacheConfig.getInteger("maxEntries", Constants.DEFAULT_DB_CACHE_MAX_ENTRIES_VALUE),
+          cacheConfig.getLong("offHeapBytes", Constants.DEFAULT_DB_CACHE_OFF_HEAP_BYTES_VALUE),
+          cacheConfig.getInteger("slabBytes", Constants.DEFAULT_DB_CACHE_SLAB_BYTES_VALUE));
+    }
+
+    JsonObject indexes = pConfig.getJsonObject(Constants.DB_INDEXES_KEY,
+        new JsonObject(Constants.DEFAULT_DB_INDEXES_VALUE));
+    if (!indexes.isEmpty()) {
+      db = new IndexedDB(db, indexes);
+    }
+
+    int changeFeedSize = pConfig.getInteger(Constants.DB_CHANGE_FEED_SIZE_KEY,
+        Constants.DEFAULT_DB_CHANGE_FEED_SIZE_VALUE);
+    if (changeFeedSize > 0) {
+      db = new ChangeFeedDB(db, changeFeedSize);
+    }
+
+    JsonObject ttlConfig = pConfig.getJsonObject(Constants.DB_TTL_KEY, Utils.EMPTY_JSON);
+    if (!ttlConfig.getJsonObject("collections", Utils.EMPTY_JSON).isEmpty()) {
+      db = new ExpiringDB(db, ttlConfig);
+    }
+
+    return db;
+  }
+
+  private Collection.Builder bulkResult(String pCollectionId)
+      throws DocumentNotFoundException {
+    if (!hasCollection(pCollectionId)) {
+      throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+    }
+
+    return Collection
+        .newBuilder()
+        .withId(pCollectionId)
+        .withPayload(new JsonObject());
+  }
+
+  /**
+   * @return the configured storage engine, without any of the layers {@link #newDB(JsonObject)} adds on top.
+   * @see DBEngine
+   */
+  static DB newEngine(JsonObject pConfig) {
+    String engine = pConfig.getString(Constants.DB_ENGINE_KEY, Constants.DEFAULT_DB_ENGINE_VALUE);
+    return DBEngine.named(engine).create(pConfig);
   }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Constants;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ServiceLoader;
+
+/**
+ * Storage engine that {@link DB#newDB(JsonObject)} can be configured to use, by the name set under
+ * {@link Constants#DB_ENGINE_KEY}. Engines are found with {@link ServiceLoader}, so a jar on the classpath adds one by
+ * listing its implementation in {@code META-INF/services/cloud.floc.cc.db.DBEngine}.
+ */
+public interface DBEngine {
+
+  /**
+   * @return the name the engine is configured by.
+   */
+  String name();
+
+  /**
+   * @return a new DB stored by this engine, set up from the server config.
+   */
+  DB create(JsonObject pConfig);
+
+  /**
+   * @return the engine with the given name among those on the classpath.
+   */
+  static DBEngine named(String pName) {
+    for (DBEngine engine : ServiceLoader.load(DBEngine.class, DBEngine.class.getClassLoader())) {
+      if (engine.name().equals(pName)) return engine;
+    }
+
+    throw new IllegalArgumentException("Unknown DB engine: " + pName);
+  }
+}
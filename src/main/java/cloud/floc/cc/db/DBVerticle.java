@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Lock;
+
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Verticle that owns the process' {@link DB} and serves its operations on the event bus, so that any number of
+ * verticle instances can share it through {@link AsyncDB#connect}. Requests and replies never leave the JVM, so they
+ * are passed by reference with local codecs instead of being serialized.
+ * <p>
+ * Every change of the DB is also published to {@link #CHANGES_ADDRESS}. When configured, the verticle also runs the
+ * DB's {@link Replication}, as leader or follower.
+ */
+public class DBVerticle
+    extends AbstractVerticle {
+
+  /**
+   * Event bus address the DB operations are served on.
+   */
+  public static final String DB_ADDRESS = "fcc.db";
+
+  /**
+   * Event bus address every DB change is published to.
+   */
+  public static final String CHANGES_ADDRESS = "fcc.db.changes";
+
+  private static final Logger LOGGER = Logger.getLogger(DBVerticle.class.getName());
+
+  private static final String DEPLOYMENTS_MAP = "fcc.db.deployments";
+
+  private DB mDB;
+  private Replication mReplication;
+  private MessageConsumer<Request> mConsumer;
+
+  /**
+   * Deploys the verticle unless it's already deployed on the given Vert.x instance. Safe to call concurrently, e.g.
+   * from every instance of a verticle that needs the DB.
+   */
+  public static Future<Void> deployOnce(Vertx pVertx, JsonObject pConfig) {
+    Promise<Lock> lockPromise = Promise.promise();
+    pVertx.sharedData().getLocalLock(DEPLOYMENTS_MAP, lockPromise);
+
+    return lockPromise.future().compose(lock -> {
+      LocalMap<String, String> deployments = pVertx.sharedData().getLocalMap(DEPLOYMENTS_MAP);
+      if (deployments.get(DB_ADDRESS) != null) {
+        lock.release();
+        return Future.succeededFuture();
+      }
+
+      Promise<String> deployPromise = Promise.promise();
+      pVertx.deployVerticle(new DBVerticle(), new DeploymentOptions().setConfig(pConfig), deployPromise);
+
+      return deployPromise.future()
+          .onComplete(ar -> {
+            if (ar.succeeded()) deployments.put(DB_ADDRESS, ar.result());
+            lock.release();
+          })
+          .mapEmpty();
+    });
+  }
+
+  @Override
+  public void start(Promise<Void> pStartPromise) {
+    Promise<DB> dbPromise = Promise.promise();
+    vertx.executeBlocking(blocking -> {
+      mReplication = Replication.fromConfig(vertx, config());
+      blocking.complete(DB.newDB(config()));
+    }, false, dbPromise);
+
+    dbPromise.future()
+        .compose(db -> {
+          mDB = mReplication == null ? db : new ForwardingDB(db) {
+
+            @Override
+            public JsonObject metrics() {
+              return mDelegate.metrics().copy().put("replication", mReplication.metrics());
+            }
+          };
+
+          AsyncDB asyncDB = AsyncDB.newAsyncDB(vertx, mDB, config());
+          EventBus eventBus = vertx.eventBus();
+
+          eventBus.registerDefaultCodec(Request.class, new LocalCodec<>(Request.class));
+          eventBus.registerDefaultCodec(Reply.class, new LocalCodec<>(Reply.class));
+
+          try {
+            mDB.changeFeed().subscribe(change -> eventBus.publish(CHANGES_ADDRESS, change));
+
+          } catch (UnsupportedOperationException ex) {
+            LOGGER.info("DB changes feed is disabled, changes won't be published");
+          }
+
+          Promise<Void> registered = Promise.promise();
+          mConsumer = eventBus.consumer(DB_ADDRESS, message -> handle(asyncDB, message));
+          mConsumer.completionHandler(registered);
+
+          return mReplication == null
+              ? registered.future()
+              : registered.future().compose(v -> mReplication.start(mDB, asyncDB));
+        })
+        .onComplete(ar -> {
+          if (ar.succeeded()) {
+            pStartPromise.complete();
+            return;
+          }
+
+          // Vert.x doesn't stop a verticle that failed to start, so the DB would stay open.
+          Promise<Void> stopped = Promise.promise();
+          stop(stopped);
+          stopped.future().onComplete(v -> pStartPromise.fail(ar.cause()));
+        });
+  }
+
+  @Override
+  public void stop(Promise<Void> pStopPromise) {
+    vertx.sharedData().getLocalMap(DEPLOYMENTS_MAP).remove(DB_ADDRESS);
+    if (mDB == null) {
+      pStopPromise.complete();
+      return;
+    }
+
+    if (mConsumer != null) mConsumer.unregister();
+    vertx.eventBus().unregisterDefaultCodec(Request.class);
+    vertx.eventBus().unregisterDefaultCodec(Reply.class);
+
+    vertx.executeBlocking(blocking -> {
+      if (mReplication != null) mReplication.close();
+      mDB.close();
+      blocking.complete();
+    }, false, pStopPromise);
+  }
+
+  private static void handle(AsyncDB pDB, Message<Request> pMessage) {
+    Future<?> result;
+    try {
+      result = pMessage.body().mOperation.apply(pDB);
+
+    } catch (RuntimeException ex) {
+      result = Future.failedFuture(ex);
+    }
+
+    result.onComplete(ar -> pMessage.reply(new Reply(ar)));
+  }
+
+  /**
+   * A DB operation sent to the verticle.
+   */
+  static final class Request {
+
+    private final Function<AsyncDB, Future<?>> mOperation;
+
+    Request(Function<AsyncDB, Future<?>> pOperation) {
+      mOperation = pOperation;
+    }
+  }
+
+  /**
+   * The outcome of a {@link Request}. Failures keep their original exception, which the event bus' own failure replies
+   * would reduce to a code and a message.
+   */
+  static final class Reply {
+
+    private final Object mResult;
+    private final Throwable mCause;
+
+    Reply(AsyncResult<?> pResult) {
+      mResult = pResult.result();
+      mCause = pResult.cause();
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> Future<T> future() {
+      return mCause == null ? Future.succeededFuture((T) mResult) : Future.failedFuture(mCause);
+    }
+  }
+
+  /**
+   * Codec for messages that are only ever delivered inside this JVM; the receiver gets the sent object itself.
+   */
+  private static final class LocalCodec<T>
+      implements MessageCodec<T, T> {
+
+    private final String mName;
+
+    LocalCodec(Class<T> pType) {
+      mName = "fcc-local-" + pType.getSimpleName();
+    }
+
+    @Override
+    public void encodeToWire(Buffer pBuffer, T pMessage) {
+      throw new UnsupportedOperationException(mName + " messages can't leave the JVM");
+    }
+
+    @Override
+    public T decodeFromWire(int pPos, Buffer pBuffer) {
+      throw new UnsupportedOperationException(mName + " messages can't leave the JVM");
+    }
+
+    @Override
+    public T transform(T pMessage) {
+      return pMessage;
+    }
+
+    @Override
+    public String name() {
+      return mName;
+    }
+
+    @Override
+    public byte systemCodecID() {
+      return -1;
+    }
+  }
+}
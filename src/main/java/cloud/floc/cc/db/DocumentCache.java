@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Document;
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Size-bounded map of cached documents that counts hits, misses and evictions. Subclasses decide which entry is
+ * evicted when the cache is full, and guard their entries by synchronizing on the cache itself.
+ */
+abstract class DocumentCache {
+
+  protected final int mMaxEntries;
+
+  private final LongAdder mHits = new LongAdder();
+  private final LongAdder mMisses = new LongAdder();
+  private final LongAdder mEvictions = new LongAdder();
+
+  DocumentCache(int pMaxEntries) {
+    if (pMaxEntries < 1) {
+      throw new IllegalArgumentException("Cache should hold at least one entry");
+    }
+
+    mMaxEntries = pMaxEntries;
+  }
+
+  static DocumentCache newCache(String pEviction, int pMaxEntries) {
+    switch (pEviction) {
+      case "lru":
+        return new LruDocumentCache(pMaxEntries);
+
+      case "lfu":
+        return new LfuDocumentCache(pMaxEntries);
+
+      default:
+        throw new IllegalArgumentException("Unknown cache eviction policy: " + pEviction);
+    }
+  }
+
+  Document get(String pKey) {
+    Document doc = lookup(pKey);
+
+    if (doc != null) {
+      mHits.increment();
+    } else {
+      mMisses.increment();
+    }
+
+    return doc;
+  }
+
+  void put(String pKey, Document pDoc) {
+    if (store(pKey, pDoc)) {
+      mEvictions.increment();
+    }
+  }
+
+  /**
+   * Stores the document only if {@code pCurrent} still holds once the cache is locked. A writer that makes it false
+   * and then removes the entry either stops the store, or removes what was stored after it.
+   */
+  synchronized void putIf(String pKey, Document pDoc, BooleanSupplier pCurrent) {
+    if (pCurrent.getAsBoolean()) {
+      put(pKey, pDoc);
+    }
+  }
+
+  JsonObject metrics() {
+    return new JsonObject()
+        .put("policy", policy())
+        .put("size", size())
+        .put("maxEntries", mMaxEntries)
+        .put("hits", mHits.sum())
+        .put("misses", mMisses.sum())
+        .put("evictions", mEvictions.sum());
+  }
+
+  abstract String policy();
+
+  abstract int size();
+
+  abstract Document lookup(String pKey);
+
+  /**
+   * @return whether an entry had to be evicted to make room.
+   */
+  abstract boolean store(String pKey, Document pDoc);
+
+  abstract void remove(String pKey);
+
+  abstract void removeIf(Predicate<String> pKeyFilter);
+}
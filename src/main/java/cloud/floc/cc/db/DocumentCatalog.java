@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.Collections;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory copy of which collections and documents a {@link JsonDB} holds on disk, so existence checks and listings
+ * don't touch the file system. The catalog is exact rather than probabilistic: a document missing from it is missing
+ * on disk, and one present in it has a file, so both answers skip the syscall.
+ * <p>
+ * It's loaded from the collection folders on startup and updated by every write after the files were written, under
+ * the same locks, so it only sees what's on disk.
+ */
+final class DocumentCatalog {
+
+  private final ConcurrentMap<String, NavigableSet<String>> mCollections;
+  private final LongAdder mDocuments;
+  private final LongAdder mLookups;
+  private final LongAdder mMisses;
+  private final LongAdder mListings;
+
+  DocumentCatalog() {
+    mCollections = new ConcurrentHashMap<>();
+    mDocuments = new LongAdder();
+    mLookups = new LongAdder();
+    mMisses = new LongAdder();
+    mListings = new LongAdder();
+  }
+
+  boolean hasCollection(String pCollectionId) {
+    return counted(mCollections.containsKey(pCollectionId));
+  }
+
+  boolean hasDocument(String pCollectionId, String pDocId) {
+    NavigableSet<String> docIds = mCollections.get(pCollectionId);
+    return counted(docIds != null && docIds.contains(pDocId));
+  }
+
+  /**
+   * @return the ids of the collection's documents in order, as a live view, or an empty set if there's no such
+   * collection.
+   */
+  NavigableSet<String> documents(String pCollectionId) {
+    mListings.increment();
+    NavigableSet<String> docIds = mCollections.get(pCollectionId);
+    return docIds != null ? Collections.unmodifiableNavigableSet(docIds) : Collections.emptyNavigableSet();
+  }
+
+  void addCollection(String pCollectionId) {
+    mCollections.putIfAbsent(pCollectionId, new ConcurrentSkipListSet<>());
+  }
+
+  void removeCollection(String pCollectionId) {
+    NavigableSet<String> docIds = mCollections.remove(pCollectionId);
+    if (docIds != null) {
+      mDocuments.add(-docIds.size());
+    }
+  }
+
+  void addDocument(String pCollectionId, String pDocId) {
+    NavigableSet<String> docIds = mCollections.get(pCollectionId);
+    if (docIds != null && docIds.add(pDocId)) {
+      mDocuments.increment();
+    }
+  }
+
+  void removeDocument(String pCollectionId, String pDocId) {
+    NavigableSet<String> docIds = mCollections.get(pCollectionId);
+    if (docIds != null && docIds.remove(pDocId)) {
+      mDocuments.decrement();
+    }
+  }
+
+  JsonObject metrics() {
+    return new JsonObject()
+        .put("collections", mCollections.size())
+        .put("documents", mDocuments.sum())
+        .put("avoidedSyscalls", mLookups.sum())
+        .put("avoidedListings", mListings.sum())
+        .put("misses", mMisses.sum());
+  }
+
+  private boolean counted(boolean pFound) {
+    mLookups.increment();
+    if (!pFound) {
+      mMisses.increment();
+    }
+    return pFound;
+  }
+}
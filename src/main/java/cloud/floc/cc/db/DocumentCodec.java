@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Constants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * On-disk encoding of stored documents. Every encoding starts with a distinct header, so {@link #detect(byte[])} can
+ * tell which codec wrote a file and collections can switch codecs without rewriting existing documents.
+ */
+enum DocumentCodec {
+  /**
+   * Plain JSON text.
+   */
+  JSON(new JsonFactory()),
+  /**
+   * Jackson's binary JSON, which starts with a {@code :)\n} header and back-references repeated field names.
+   */
+  SMILE(new SmileFactory()),
+  /**
+   * RFC 8949 CBOR, starting with the self-describe tag {@code 0xd9d9f7}.
+   */
+  CBOR(new CBORFactory().enable(CBORGenerator.Feature.WRITE_TYPE_HEADER));
+
+  /**
+   * Number of leading bytes {@link #detect(byte[])} needs.
+   */
+  static final int HEADER_LENGTH = 3;
+
+  private static final TypeReference<LinkedHashMap<String, Object>> MAP_TYPE =
+      new TypeReference<LinkedHashMap<String, Object>>() {};
+
+  private final JsonFactory mFactory;
+  private final ObjectMapper mMapper;
+
+  DocumentCodec(JsonFactory pFactory) {
+    mFactory = pFactory;
+    mMapper = new ObjectMapper(pFactory);
+  }
+
+  static DocumentCodec of(String pName) {
+    try {
+      return valueOf(pName.toUpperCase(Locale.ROOT));
+
+    } catch (IllegalArgumentException ex) {
+      throw new IllegalArgumentException("Unknown DB codec: " + pName);
+    }
+  }
+
+  /**
+   * @return the codec each collection is written with, as set by {@link Constants#DB_CODEC_KEY} and
+   * {@link Constants#DB_COLLECTION_CODECS_KEY}.
+   */
+  static Function<String, DocumentCodec> fromConfig(JsonObject pConfig) {
+    DocumentCodec codec = of(pConfig.getString(Constants.DB_CODEC_KEY, Constants.DEFAULT_DB_CODEC_VALUE));
+    Map<String, DocumentCodec> collectionCodecs = new HashMap<>();
+
+    JsonObject config = pConfig.getJsonObject(Constants.DB_COLLECTION_CODECS_KEY, new JsonObject());
+    for (String collectionId : config.fieldNames()) {
+      collectionCodecs.put(collectionId, of(config.getString(collectionId)));
+    }
+
+    return collectionId -> collectionCodecs.getOrDefault(collectionId, codec);
+  }
+
+  /**
+   * @return the codec that wrote the document starting with the given bytes; anything without a binary header is JSON.
+   */
+  static DocumentCodec detect(byte[] pHeader) {
+    if (pHeader.length >= HEADER_LENGTH) {
+      if (pHeader[0] == ':' && pHeader[1] == ')' && pHeader[2] == '\n') return SMILE;
+      if ((pHeader[0] & 0xff) == 0xd9 && (pHeader[1] & 0xff) == 0xd9 && (pHeader[2] & 0xff) == 0xf7) return CBOR;
+    }
+
+    return JSON;
+  }
+
+  byte[] encode(JsonObject pStored)
+      throws IOException {
+    var out = new ByteArrayOutputStream(256);
+
+    try (JsonGenerator generator = mFactory.createGenerator(out)) {
+      write(generator, pStored.getMap());
+    }
+
+    return out.toByteArray();
+  }
+
+  Map<String, Object> decode(byte[] pBytes)
+      throws IOException {
+    return mMapper.readValue(pBytes, MAP_TYPE);
+  }
+
+  JsonParser parser(byte[] pBytes)
+      throws IOException {
+    return mFactory.createParser(pBytes);
+  }
+
+  JsonParser parser(InputStream pIn)
+      throws IOException {
+    return mFactory.createParser(pIn);
+  }
+
+  /**
+   * Writes a JSON value the way Vert.x encodes it, without going through data binding.
+   */
+  @SuppressWarnings("unchecked")
+  private static void write(JsonGenerator pGenerator, Object pValue)
+      throws IOException {
+    if (pValue == null) {
+      pGenerator.writeNull();
+    } else if (pValue instanceof JsonObject || pValue instanceof Map) {
+      Map<String, Object> map = pValue instanceof JsonObject
+          ? ((JsonObject) pValue).getMap()
+          : (Map<String, Object>) pValue;
+
+      pGenerator.writeStartObject();
+      for (Map.Entry<String, Object> entry : map.entrySet()) {
+        pGenerator.writeFieldName(entry.getKey());
+        write(pGenerator, entry.getValue());
+      }
+      pGenerator.writeEndObject();
+    } else if (pValue instanceof JsonArray || pValue instanceof List) {
+      List<Object> list = pValue instanceof JsonArray ? ((JsonArray) pValue).getList() : (List<Object>) pValue;
+
+      pGenerator.writeStartArray();
+      for (Object item : list) {
+        write(pGenerator, item);
+      }
+      pGenerator.writeEndArray();
+    } else if (pValue instanceof CharSequence) {
+      pGenerator.writeString(pValue.toString());
+    } else if (pValue instanceof Boolean) {
+      pGenerator.writeBoolean((Boolean) pValue);
+    } else if (pValue instanceof Integer || pValue instanceof Short || pValue instanceof Byte) {
+      pGenerator.writeNumber(((Number) pValue).intValue());
+    } else if (pValue instanceof Long) {
+      pGenerator.writeNumber((Long) pValue);
+    } else if (pValue instanceof Double || pValue instanceof Float) {
+      pGenerator.writeNumber(((Number) pValue).doubleValue());
+    } else if (pValue instanceof BigInteger) {
+      pGenerator.writeNumber((BigInteger) pValue);
+    } else if (pValue instanceof BigDecimal) {
+      pGenerator.writeNumber((BigDecimal) pValue);
+    } else if (pValue instanceof byte[]) {
+      pGenerator.writeString(Base64.getEncoder().encodeToString((byte[]) pValue));
+    } else if (pValue instanceof Instant) {
+      pGenerator.writeString(DateTimeFormatter.ISO_INSTANT.format((Instant) pValue));
+    } else if (pValue instanceof Enum) {
+      pGenerator.writeString(((Enum<?>) pValue).name());
+    } else {
+      throw new IOException("Unsupported JSON value: " + pValue.getClass().getName());
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Re-encodes the documents of a {@link JsonDB} or {@link WalDB} state folder with another {@link DocumentCodec}.
+ * Documents are read with whichever codec wrote them, so a migration can be interrupted and run again. The DB must not
+ * be running while its files are migrated, and {@link cloud.floc.cc.common.Constants#DB_CODEC_KEY} should be set to
+ * the new codec afterwards so that new writes use it too.
+ * <p>
+ * Usage: {@code DocumentCodecMigration <state-folder> <db-name> <json|smile|cbor> [collection...]}
+ */
+public class DocumentCodecMigration {
+
+  private static final Logger LOGGER = Logger.getLogger(DocumentCodecMigration.class.getName());
+
+  private static final int BATCH_SIZE = 256;
+
+  public static void main(String[] pArgs)
+      throws IOException {
+    if (pArgs.length < 3) {
+      System.err.println("Usage: DocumentCodecMigration <state-folder> <db-name> <json|smile|cbor> [collection...]");
+      System.exit(1);
+    }
+
+    File rootFolder = new File(pArgs[0], pArgs[1]);
+    DocumentCodec codec = DocumentCodec.of(pArgs[2]);
+    List<String> collectionIds = Arrays.asList(pArgs).subList(3, pArgs.length);
+
+    File[] folders = rootFolder.listFiles(File::isDirectory);
+    if (folders == null) {
+      throw new IOException("Not a DB folder: " + rootFolder);
+    }
+
+    AtomicFileWriter writer = new AtomicFileWriter(AtomicFileWriter.Durability.FSYNC, 0, pArgs[1]);
+    try {
+      for (File folder : folders) {
+        if (collectionIds.isEmpty() || collectionIds.contains(folder.getName())) {
+          migrate(folder, codec, writer);
+        }
+      }
+
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static void migrate(File pFolder, DocumentCodec pCodec, AtomicFileWriter pWriter)
+      throws IOException {
+    List<File> files = documentFiles(pFolder);
+
+    Map<File, byte[]> batch = new LinkedHashMap<>();
+    long migrated = 0;
+    long bytesBefore = 0;
+    long bytesAfter = 0;
+
+    for (File file : files) {
+      byte[] stored = Files.readAllBytes(file.toPath());
+      bytesBefore += stored.length;
+
+      DocumentCodec codec = DocumentCodec.detect(stored);
+      if (codec == pCodec) {
+        bytesAfter += stored.length;
+        continue;
+      }
+
+      byte[] encoded = pCodec.encode(new JsonObject(codec.decode(stored)));
+      bytesAfter += encoded.length;
+      batch.put(file, encoded);
+      migrated++;
+
+      if (batch.size() >= BATCH_SIZE) {
+        pWriter.writeAll(batch);
+        batch.clear();
+      }
+    }
+
+    if (!batch.isEmpty()) {
+      pWriter.writeAll(batch);
+    }
+
+    LOGGER.info(String.format("%s: re-encoded %d of %d documents as %s, %,d -> %,d bytes",
+        pFolder.getName(), migrated, files.size(), pCodec, bytesBefore, bytesAfter));
+  }
+
+  /**
+   * @return the document files of a collection folder, whichever {@link DocumentLayout} it has: those right under it,
+   * and those in its shard folders.
+   */
+  private static List<File> documentFiles(File pFolder) {
+    List<File> files = new ArrayList<>();
+    List<File> folders = new ArrayList<>(List.of(pFolder));
+
+    for (int f = 0; f < folders.size(); f++) {
+      File folder = folders.get(f);
+      AtomicFileWriter.deleteTempFiles(folder);
+
+      File[] entries = folder.listFiles();
+      for (File entry : entries != null ? entries : new File[0]) {
+        if (entry.isDirectory()) {
+          if (folder == pFolder) folders.add(entry);
+        } else if (!AtomicFileWriter.isTempFile(entry.getName())) {
+          files.add(entry);
+        }
+      }
+    }
+
+    return files;
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Constants;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * How {@link JsonDB} and {@link WalDB} lay out the document files of a collection folder.
+ * <p>
+ * On startup, {@link #migrate(File)} moves the documents of every collection to where its configured layout expects
+ * them, so collections can switch layouts without being exported.
+ */
+enum DocumentLayout {
+  /**
+   * Every document right under the collection folder.
+   */
+  FLAT,
+  /**
+   * Documents spread over {@value #SHARDS} subfolders named after a hash of their id, which keeps folders small enough
+   * for fast lookups and listings with hundreds of thousands of documents.
+   */
+  SHARDED;
+
+  static final int SHARDS = 256;
+
+  /**
+   * Suffix of documents parked at the top of the collection folder while being migrated; they're hidden from listings
+   * like temp files, but unlike them survive a crash so the migration can finish on the next startup.
+   */
+  private static final String MIGRATING_SUFFIX = ".migrating";
+
+  static DocumentLayout of(String pName) {
+    try {
+      return valueOf(pName.toUpperCase(Locale.ROOT));
+
+    } catch (IllegalArgumentException ex) {
+      throw new IllegalArgumentException("Unknown DB layout: " + pName);
+    }
+  }
+
+  /**
+   * @return the layout of each collection, as set by {@link Constants#DB_LAYOUT_KEY} and
+   * {@link Constants#DB_COLLECTION_LAYOUTS_KEY}.
+   */
+  static Function<String, DocumentLayout> fromConfig(JsonObject pConfig) {
+    DocumentLayout layout = of(pConfig.getString(Constants.DB_LAYOUT_KEY, Constants.DEFAULT_DB_LAYOUT_VALUE));
+    Map<String, DocumentLayout> collectionLayouts = new HashMap<>();
+
+    JsonObject config = pConfig.getJsonObject(Constants.DB_COLLECTION_LAYOUTS_KEY, new JsonObject());
+    for (String collectionId : config.fieldNames()) {
+      collectionLayouts.put(collectionId, of(config.getString(collectionId)));
+    }
+
+    return collectionId -> collectionLayouts.getOrDefault(collectionId, layout);
+  }
+
+  File documentFile(File pFolder, String pDocId) {
+    return this == SHARDED ? new File(new File(pFolder, shard(pDocId)), pDocId) : new File(pFolder, pDocId);
+  }
+
+  /**
+   * Creates the subfolders of a new collection folder.
+   */
+  void prepare(File pFolder)
+      throws IOException {
+    if (this != SHARDED) return;
+
+    for (int shard = 0; shard < SHARDS; shard++) {
+      File shardFolder = new File(pFolder, shardName(shard));
+      if (!shardFolder.isDirectory() && !shardFolder.mkdir()) {
+        throw new IOException("Unable to create shard folder: " + shardFolder);
+      }
+    }
+  }
+
+  /**
+   * Moves the documents of the collection folder that aren't where this layout expects them. Misplaced documents are
+   * first parked at the top of the folder, which clears the way whatever their ids, then moved into place; either move
+   * is atomic, so a crash never loses a document.
+   *
+   * @return the number of documents moved.
+   */
+  int migrate(File pFolder)
+      throws IOException {
+    List<File> parked = new ArrayList<>();
+    List<File> misplaced = new ArrayList<>();
+
+    // Documents only ever get into a shard folder through documentFile, so a sharded collection can only have
+    // misplaced documents at its top, and a flat one only in subfolders.
+    File[] entries = pFolder.listFiles();
+    for (File entry : entries != null ? entries : new File[0]) {
+      String name = entry.getName();
+      if (isParked(name)) {
+        parked.add(entry);
+
+      } else if (entry.isDirectory()) {
+        if (this == FLAT) forEachFile(entry, path -> misplaced.add(path.toFile()));
+
+      } else if (this == SHARDED && !AtomicFileWriter.isTempFile(name)) {
+        misplaced.add(entry);
+      }
+    }
+
+    for (File file : misplaced) {
+      File parkedFile = new File(pFolder, "." + file.getName() + MIGRATING_SUFFIX);
+      Files.move(file.toPath(), parkedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      parked.add(parkedFile);
+    }
+
+    if (this == FLAT) {
+      File[] shardFolders = pFolder.listFiles(File::isDirectory);
+      for (File shardFolder : shardFolders != null ? shardFolders : new File[0]) {
+        AtomicFileWriter.deleteTempFiles(shardFolder);
+        Files.delete(shardFolder.toPath());
+      }
+    }
+
+    prepare(pFolder);
+
+    for (File file : parked) {
+      String name = file.getName();
+      String docId = name.substring(1, name.length() - MIGRATING_SUFFIX.length());
+      Files.move(file.toPath(), documentFile(pFolder, docId).toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    return parked.size();
+  }
+
+  /**
+   * Calls the consumer with every document file of a collection folder laid out this way. Only folder entries are
+   * read, files aren't looked at one by one.
+   */
+  void forEachDocumentFile(File pFolder, Consumer<Path> pConsumer)
+      throws IOException {
+    for (File folder : folders(pFolder)) {
+      if (folder != pFolder || this == FLAT) forEachFile(folder, pConsumer);
+    }
+  }
+
+  /**
+   * @return the folders of a collection laid out this way, e.g. to look for temp files in all of them.
+   */
+  List<File> folders(File pFolder) {
+    List<File> folders = new ArrayList<>();
+    folders.add(pFolder);
+
+    if (this == SHARDED) {
+      for (int shard = 0; shard < SHARDS; shard++) {
+        folders.add(new File(pFolder, shardName(shard)));
+      }
+    }
+
+    return folders;
+  }
+
+  /**
+   * @return when a document was last added to or removed from a collection folder laid out this way.
+   */
+  long lastModified(File pFolder) {
+    long lastModified = 0;
+    for (File folder : folders(pFolder)) {
+      lastModified = Math.max(lastModified, folder.lastModified());
+    }
+
+    return lastModified;
+  }
+
+  private static void forEachFile(File pFolder, Consumer<Path> pConsumer)
+      throws IOException {
+    if (!pFolder.isDirectory()) return;
+
+    try (var paths = Files.newDirectoryStream(pFolder.toPath())) {
+      for (Path path : paths) {
+        String name = path.getFileName().toString();
+        if (!AtomicFileWriter.isTempFile(name) && !isParked(name)) pConsumer.accept(path);
+      }
+    }
+  }
+
+  /**
+   * @return whether the file name belongs to a document parked by an interrupted {@link #migrate}.
+   */
+  private static boolean isParked(String pName) {
+    return pName.startsWith(".") && pName.endsWith(MIGRATING_SUFFIX);
+  }
+
+  private static String shard(String pDocId) {
+    var crc = new CRC32();
+    crc.update(pDocId.getBytes(StandardCharsets.UTF_8));
+    return shardName((int) crc.getValue() & (SHARDS - 1));
+  }
+
+  private static String shardName(int pShard) {
+    return Integer.toHexString(SHARDS | pShard).substring(1);
+  }
+}
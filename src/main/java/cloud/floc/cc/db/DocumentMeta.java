@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentVersionException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * Stored form of a document: its payload preceded by a {@code _meta} object holding the document's version and, for
+ * documents that expire, their deadline. The meta key comes first so that it can be read without parsing the rest of
+ * the document. Documents stored before versions existed have no meta key and count as version 1.
+ * <p>
+ * Stored documents may be encoded with any {@link DocumentCodec}; readers detect the codec from the leading bytes.
+ */
+final class DocumentMeta {
+
+  static final String META_KEY = "_meta";
+  static final String VERSION_KEY = "version";
+  static final String EXPIRES_AT_KEY = "expiresAt";
+
+  private static final byte[] OPEN_BRACE = {'{'};
+  private static final byte[] EMPTY_OBJECT = {'{', '}'};
+
+  private DocumentMeta() {}
+
+  static JsonObject wrap(JsonObject pPayload, long pVersion) {
+    return wrap(pPayload, pVersion, 0);
+  }
+
+  /**
+   * @return the stored form of the payload, led by a meta object with the given version and deadline.
+   * @throws IllegalArgumentException if the payload has a top-level {@code _meta} key, which would be lost to the meta
+   * object.
+   */
+  static JsonObject wrap(JsonObject pPayload, long pVersion, long pExpiresAt) {
+    checkPayload(pPayload);
+
+    var meta = new JsonObject().put(VERSION_KEY, pVersion);
+    if (pExpiresAt > 0) meta.put(EXPIRES_AT_KEY, pExpiresAt);
+
+    var stored = new JsonObject().put(META_KEY, meta);
+    stored.getMap().putAll(pPayload.getMap());
+    return stored;
+  }
+
+  /**
+   * @throws IllegalArgumentException if the payload can't be stored as is, for having a top-level {@code _meta} key.
+   */
+  static void checkPayload(JsonObject pPayload) {
+    if (pPayload.containsKey(META_KEY)) {
+      throw new IllegalArgumentException("Document payload can't have a top-level " + META_KEY + " key");
+    }
+  }
+
+  /**
+   * Turns a stored document back into a {@link Document}. The given object becomes the payload, so it must not be
+   * shared.
+   */
+  static Document unwrap(String pCollectionId, String pDocId, JsonObject pStored) {
+    long version = version(pStored);
+    JsonObject meta = pStored.getJsonObject(META_KEY);
+    pStored.remove(META_KEY);
+
+    return Document
+        .newBuilder()
+        .underCollection(pCollectionId)
+        .withId(pDocId)
+        .withPayload(pStored)
+        .withVersion(version)
+        .expiringAt(meta != null ? meta.getLong(EXPIRES_AT_KEY, 0L) : 0L)
+        .build();
+  }
+
+  /**
+   * Turns an encoded stored document back into a {@link Document}. Only the version is read up front; the payload is
+   * decoded when it's first accessed. JSON documents keep the stored bytes past the meta key as their raw payload, so
+   * they can be written out without being decoded at all.
+   */
+  static Document unwrap(String pCollectionId, String pDocId, byte[] pStored)
+      throws IOException {
+    DocumentCodec codec = DocumentCodec.detect(pStored);
+    long[] meta;
+    try (JsonParser parser = codec.parser(pStored)) {
+      meta = readMeta(parser);
+    }
+
+    var builder = Document
+        .newBuilder()
+        .underCollection(pCollectionId)
+        .withId(pDocId)
+        .withVersion(meta[0])
+        .expiringAt(meta[1]);
+
+    Buffer rawPayload = codec == DocumentCodec.JSON ? rawPayload(pStored) : null;
+    if (rawPayload != null) {
+      builder.withRawPayload(rawPayload);
+    } else {
+      builder.withPayload(new JsonObject(new LazyJsonMap(codec, pStored)));
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * @return the stored form of the document in the given file, decoded with whichever codec wrote it.
+   */
+  static JsonObject read(File pFile)
+      throws IOException {
+    byte[] stored = Files.readAllBytes(pFile.toPath());
+    return new JsonObject(DocumentCodec.detect(stored).decode(stored));
+  }
+
+  static long version(JsonObject pStored) {
+    JsonObject meta = pStored.getJsonObject(META_KEY);
+    return meta != null ? meta.getLong(VERSION_KEY, 1L) : 1L;
+  }
+
+  static long readVersion(File pFile)
+      throws IOException {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(pFile))) {
+      in.mark(DocumentCodec.HEADER_LENGTH);
+      byte[] header = in.readNBytes(DocumentCodec.HEADER_LENGTH);
+      in.reset();
+
+      try (JsonParser parser = DocumentCodec.detect(header).parser(in)) {
+        return readMeta(parser)[0];
+      }
+    }
+  }
+
+  static long readVersion(byte[] pStored)
+      throws IOException {
+    try (JsonParser parser = DocumentCodec.detect(pStored).parser(pStored)) {
+      return readMeta(parser)[0];
+    }
+  }
+
+  /**
+   * @return the version an update of a document currently at {@code pCurrentVersion} should get.
+   * @throws DocumentVersionException if the update expects another version.
+   */
+  static long nextVersion(Document pUpdate, long pCurrentVersion)
+      throws DocumentVersionException {
+    if (pUpdate.version() > 0 && pUpdate.version() != pCurrentVersion) {
+      throw new DocumentVersionException("Document " + pUpdate.id() + " is at version " + pCurrentVersion
+          + ", not " + pUpdate.version());
+    }
+
+    return pCurrentVersion + 1;
+  }
+
+  /**
+   * @return the payload of a JSON stored document, sharing its bytes: a brace followed by whatever comes after the meta
+   * object. {@code null} if the meta key doesn't come first, in which case the payload can't be cut out as is.
+   */
+  private static Buffer rawPayload(byte[] pStored)
+      throws IOException {
+    int offset;
+    try (JsonParser parser = DocumentCodec.JSON.parser(pStored)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT || parser.nextToken() != JsonToken.FIELD_NAME
+          || !META_KEY.equals(parser.getCurrentName()) || parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+
+      parser.skipChildren();
+      offset = (int) parser.getCurrentLocation().getByteOffset();
+    }
+
+    int end = pStored.length;
+    while (end > offset && Character.isWhitespace(pStored[end - 1])) end--;
+    while (offset < end && Character.isWhitespace(pStored[offset])) offset++;
+
+    if (offset == end - 1 && pStored[offset] == '}') {
+      return Buffer.buffer(Unpooled.wrappedBuffer(EMPTY_OBJECT));
+    }
+
+    if (offset >= end || pStored[offset] != ',') return null;
+
+    return Buffer.buffer(Unpooled.wrappedBuffer(
+        Unpooled.wrappedBuffer(OPEN_BRACE),
+        Unpooled.wrappedBuffer(pStored, offset + 1, end - offset - 1)));
+  }
+
+  /**
+   * @return the version and the deadline of a stored document, read from its leading meta object.
+   */
+  private static long[] readMeta(JsonParser pParser)
+      throws IOException {
+    if (pParser.nextToken() != JsonToken.START_OBJECT) {
+      throw new IOException("Stored document should be an object");
+    }
+
+    long[] meta = {1L, 0L};
+    if (pParser.nextToken() != JsonToken.FIELD_NAME || !META_KEY.equals(pParser.getCurrentName())
+        || pParser.nextToken() != JsonToken.START_OBJECT) {
+      return meta;
+    }
+
+    while (pParser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = pParser.getCurrentName();
+      pParser.nextToken();
+
+      if (VERSION_KEY.equals(name)) {
+        meta[0] = pParser.getLongValue();
+      } else if (EXPIRES_AT_KEY.equals(name)) {
+        meta[1] = pParser.getLongValue();
+      } else {
+        pParser.skipChildren();
+      }
+    }
+
+    return meta;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.Page;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * {@link AsyncDB} whose operations are performed by the {@link DBVerticle}, reached over the event bus. The verticle
+ * may run on any event loop of the same Vert.x instance.
+ */
+class EventBusDB
+    implements AsyncDB {
+
+  private final Vertx mVertx;
+  private final DeliveryOptions mOptions;
+  private final String mName;
+  private final ChangeFeed mChangeFeed;
+
+  private EventBusDB(Vertx pVertx, DeliveryOptions pOptions, String pName, ChangeFeed pChangeFeed) {
+    mVertx = pVertx;
+    mOptions = pOptions;
+    mName = pName;
+    mChangeFeed = pChangeFeed;
+  }
+
+  static Future<AsyncDB> connect(Vertx pVertx, long pTimeout) {
+    DeliveryOptions options = new DeliveryOptions().setSendTimeout(pTimeout);
+    Future<String> name = request(pVertx, options, db -> Future.succeededFuture(db.name()));
+    Future<ChangeFeed> changeFeed = request(pVertx, options, db -> {
+      try {
+        return Future.succeededFuture(db.changeFeed());
+
+      } catch (UnsupportedOperationException ex) {
+        return Future.succeededFuture();
+      }
+    });
+
+    return name.compose(n -> changeFeed.map(feed -> new EventBusDB(pVertx, options, n, feed)));
+  }
+
+  @Override
+  public String name() {
+    return mName;
+  }
+
+  @Override
+  public Future<Document> createDocument(Document pDoc) {
+    return request(db -> db.createDocument(pDoc));
+  }
+
+  @Override
+  public Future<Document> getDocument(String pCollectionId, String pDocId) {
+    return request(db -> db.getDocument(pCollectionId, pDocId));
+  }
+
+  @Override
+  public Future<Document> updateDocument(Document pDoc) {
+    return request(db -> db.updateDocument(pDoc));
+  }
+
+  @Override
+  public Future<Document> deleteDocument(String pCollectionId, String pDocId) {
+    return request(db -> db.deleteDocument(pCollectionId, pDocId));
+  }
+
+  @Override
+  public Future<Document> patchDocument(Document pPatch) {
+    return request(db -> db.patchDocument(pPatch));
+  }
+
+  @Override
+  public Future<Boolean> hasDocument(String pCollectionId, String pDocId) {
+    return request(db -> db.hasDocument(pCollectionId, pDocId));
+  }
+
+  @Override
+  public Future<Collection> createCollection(Collection pCol) {
+    return request(db -> db.createCollection(pCol));
+  }
+
+  @Override
+  public Future<Collection> getCollection(String pId) {
+    return request(db -> db.getCollection(pId));
+  }
+
+  @Override
+  public Future<Collection> updateCollection(Collection pCol) {
+    return request(db -> db.updateCollection(pCol));
+  }
+
+  @Override
+  public Future<Collection> deleteCollection(String pId) {
+    return request(db -> db.deleteCollection(pId));
+  }
+
+  @Override
+  public Future<Boolean> hasCollection(String pId) {
+    return request(db -> db.hasCollection(pId));
+  }
+
+  @Override
+  public Future<Collection> getDocuments(String pCollectionId, List<String> pDocIds) {
+    return request(db -> db.getDocuments(pCollectionId, pDocIds));
+  }
+
+  @Override
+  public Future<Collection> putDocuments(String pCollectionId, List<Document> pDocs) {
+    return request(db -> db.putDocuments(pCollectionId, pDocs));
+  }
+
+  @Override
+  public Future<Collection> deleteDocuments(String pCollectionId, List<String> pDocIds) {
+    return request(db -> db.deleteDocuments(pCollectionId, pDocIds));
+  }
+
+  @Override
+  public Future<Page> getPage(String pCollectionId, String pCursor, int pLimit) {
+    return request(db -> db.getPage(pCollectionId, pCursor, pLimit));
+  }
+
+  @Override
+  public Future<Collection> getRange(String pCollectionId, String pFromId, String pToId, int pLimit,
+                                     boolean pDescending) {
+    return request(db -> db.getRange(pCollectionId, pFromId, pToId, pLimit, pDescending));
+  }
+
+  @Override
+  public Future<Collection> findDocuments(String pCollectionId, JsonObject pFilter) {
+    return request(db -> db.findDocuments(pCollectionId, pFilter));
+  }
+
+  @Override
+  public Future<JsonObject> aggregates(String pCollectionId) {
+    return request(db -> db.aggregates(pCollectionId));
+  }
+
+  @Override
+  public Future<Void> exportSnapshot(File pFile) {
+    return request(db -> db.exportSnapshot(pFile));
+  }
+
+  @Override
+  public Future<JsonObject> metrics() {
+    return request(AsyncDB::metrics);
+  }
+
+  @Override
+  public ChangeFeed changeFeed() {
+    if (mChangeFeed == null) {
+      throw new UnsupportedOperationException("No change feed for DB: " + mName);
+    }
+
+    return mChangeFeed;
+  }
+
+  private <T> Future<T> request(Function<AsyncDB, Future<T>> pOperation) {
+    return request(mVertx, mOptions, pOperation);
+  }
+
+  private static <T> Future<T> request(Vertx pVertx, DeliveryOptions pOptions,
+                                       Function<AsyncDB, Future<T>> pOperation) {
+    Promise<Message<DBVerticle.Reply>> promise = Promise.promise();
+    pVertx.eventBus().request(DBVerticle.DB_ADDRESS, new DBVerticle.Request(pOperation::apply), pOptions, promise);
+
+    return promise.future().compose(message -> message.body().future());
+  }
+}
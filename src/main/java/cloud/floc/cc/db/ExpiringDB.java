@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.Page;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link DB} decorator that expires documents of the collections declared as {@code {"sessions": 3600}}: the number
+ * of seconds documents written without an {@link Document#expiresAt()} of their own live, or {@code 0} if only
+ * documents given a deadline expire. Deadlines in other collections are stored but ignored.
+ * <p>
+ * Expired documents are hidden from every read as soon as their deadline passes. A sweeper then deletes up to a batch
+ * of them on each tick, through the wrapped DB so that indexes and the change feed see the deletions. Deadlines live
+ * in memory, ordered by deadline, so the sweeper never scans documents; like {@link IndexedDB}, they're built from the
+ * wrapped DB on startup and kept up to date by every write that goes through this decorator.
+ */
+public class ExpiringDB
+    extends ForwardingDB {
+
+  private static final Logger LOGGER = Logger.getLogger(ExpiringDB.class.getName());
+
+  private final Map<String, Long> mTimeToLive;
+  private final ConcurrentMap<String, Deadline> mDeadlines;
+  private final ConcurrentSkipListSet<Deadline> mQueue;
+  private final LockStripes mDocumentLocks;
+  private final int mSweepBatch;
+  private final LongAdder mSwept;
+  private final ScheduledExecutorService mSweeper;
+
+  public ExpiringDB(DB pDelegate, JsonObject pConfig) {
+    super(pDelegate);
+
+    mTimeToLive = new HashMap<>();
+    mDeadlines = new ConcurrentHashMap<>();
+    mQueue = new ConcurrentSkipListSet<>();
+    mDocumentLocks = new LockStripes(Constants.DEFAULT_DB_DOCUMENT_LOCK_STRIPES_VALUE);
+    mSweepBatch = pConfig.getInteger("sweepBatch", Constants.DEFAULT_DB_TTL_SWEEP_BATCH_VALUE);
+    mSwept = new LongAdder();
+
+    JsonObject collections = pConfig.getJsonObject("collections", new JsonObject());
+    for (String collectionId : collections.fieldNames()) {
+      mTimeToLive.put(collectionId, TimeUnit.SECONDS.toMillis(collections.getLong(collectionId, 0L)));
+
+      if (mDelegate.hasCollection(collectionId)) {
+        try {
+          mDelegate.getCollection(collectionId).documents().forEach(this::track);
+
+        } catch (DocumentNotFoundException | DocumentException ex) {
+          throw new RuntimeException("Unable to initialize DB. Failed to load deadlines of " + collectionId, ex);
+        }
+      }
+    }
+
+    long sweepInterval = pConfig.getLong("sweepIntervalMs", Constants.DEFAULT_DB_TTL_SWEEP_INTERVAL_VALUE);
+    mSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "expiry-sweeper-" + name());
+      thread.setDaemon(true);
+      return thread;
+    });
+    mSweeper.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public Document createDocument(Document pDoc)
+      throws DocumentExistsException, DocumentException {
+    Document doc = withDeadline(pDoc);
+    Lock lock = mDocumentLocks.forKey(doc.collectionId(), doc.id()).writeLock();
+    lock.lock();
+
+    try {
+      if (isExpired(doc.collectionId(), doc.id())) {
+        reclaim(doc.collectionId(), List.of(doc.id()));
+      }
+
+      Document created = mDelegate.createDocument(doc);
+      track(created);
+      return created;
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document getDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    Document doc = mDelegate.getDocument(pCollectionId, pDocId);
+    if (isExpired(doc, System.currentTimeMillis())) {
+      throw new DocumentNotFoundException("Document not found: " + pDocId);
+    }
+
+    return doc;
+  }
+
+  @Override
+  public Document updateDocument(Document pDoc)
+      throws DocumentNotFoundException, DocumentException {
+    Document doc = withDeadline(pDoc);
+    Lock lock = mDocumentLocks.forKey(doc.collectionId(), doc.id()).writeLock();
+    lock.lock();
+
+    try {
+      if (isExpired(doc.collectionId(), doc.id())) {
+        throw new DocumentNotFoundException("Document not found: " + doc.id());
+      }
+
+      Document updated = mDelegate.updateDocument(doc);
+      track(updated);
+      return updated;
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document patchDocument(Document pPatch)
+      throws DocumentNotFoundException, DocumentException {
+    Lock lock = mDocumentLocks.forKey(pPatch.collectionId(), pPatch.id()).writeLock();
+    lock.lock();
+
+    try {
+      if (isExpired(pPatch.collectionId(), pPatch.id())) {
+        throw new DocumentNotFoundException("Document not found: " + pPatch.id());
+      }
+
+      Document patched = mDelegate.patchDocument(pPatch);
+      track(patched);
+      return patched;
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document deleteDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    Lock lock = mDocumentLocks.forKey(pCollectionId, pDocId).writeLock();
+    lock.lock();
+
+    try {
+      if (isExpired(pCollectionId, pDocId)) {
+        reclaim(pCollectionId, List.of(pDocId));
+        throw new DocumentNotFoundException("Document not found: " + pDocId);
+      }
+
+      Document doc = mDelegate.deleteDocument(pCollectionId, pDocId);
+      untrack(pCollectionId, pDocId);
+      return doc;
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean hasDocument(String pCollectionId, String pDocId) {
+    return !isExpired(pCollectionId, pDocId) && mDelegate.hasDocument(pCollectionId, pDocId);
+  }
+
+  @Override
+  public Collection getCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    return visible(mDelegate.getCollection(pId));
+  }
+
+  @Override
+  public Collection getDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    return visible(mDelegate.getDocuments(pCollectionId, pDocIds));
+  }
+
+  @Override
+  public Collection putDocuments(String pCollectionId, List<Document> pDocs)
+      throws DocumentNotFoundException, DocumentException {
+    List<Document> docs = new ArrayList<>();
+    List<String> docIds = new ArrayList<>();
+    for (Document doc : pDocs) {
+      docs.add(withDeadline(pCollectionId, doc));
+      docIds.add(doc.id());
+    }
+
+    List<Lock> locks = lockDocuments(pCollectionId, docIds);
+
+    try {
+      // Expired documents are replaced by new ones rather than updated, like createDocument does.
+      List<String> expired = new ArrayList<>();
+      docIds.stream().distinct().filter(docId -> isExpired(pCollectionId, docId)).forEach(expired::add);
+      if (!expired.isEmpty()) reclaim(pCollectionId, expired);
+
+      Collection col = mDelegate.putDocuments(pCollectionId, docs);
+      col.documents().forEach(this::track);
+      return col;
+
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public Collection deleteDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    List<Lock> locks = lockDocuments(pCollectionId, pDocIds);
+
+    try {
+      Collection col = visible(mDelegate.deleteDocuments(pCollectionId, pDocIds));
+      pDocIds.forEach(docId -> untrack(pCollectionId, docId));
+      return col;
+
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public Page getPage(String pCollectionId, String pCursor, int pLimit)
+      throws DocumentNotFoundException, DocumentException {
+    Page page = mDelegate.getPage(pCollectionId, pCursor, pLimit);
+    if (!mTimeToLive.containsKey(pCollectionId)) return page;
+
+    // Expired documents leave the page short rather than pulling in documents from the next one.
+    long now = System.currentTimeMillis();
+    var builder = Page
+        .newBuilder()
+        .underCollection(pCollectionId)
+        .continueAfter(Page.decodeCursor(page.cursor()));
+    page.documents().stream().filter(doc -> !isExpired(doc, now)).forEach(builder::addDocument);
+    return builder.build();
+  }
+
+  @Override
+  public Collection getRange(String pCollectionId, String pFromId, String pToId, int pLimit, boolean pDescending)
+      throws DocumentNotFoundException, DocumentException {
+    // Like pages, ranges come back short by the documents that expired.
+    return visible(mDelegate.getRange(pCollectionId, pFromId, pToId, pLimit, pDescending));
+  }
+
+  @Override
+  public Collection findDocuments(String pCollectionId, JsonObject pFilter)
+      throws DocumentNotFoundException, DocumentException {
+    return visible(mDelegate.findDocuments(pCollectionId, pFilter));
+  }
+
+  @Override
+  public Collection deleteCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    Collection col = mDelegate.deleteCollection(pId);
+    mDeadlines.values().removeIf(deadline -> {
+      if (!deadline.mCollectionId.equals(pId)) return false;
+      mQueue.remove(deadline);
+      return true;
+    });
+    return col;
+  }
+
+  @Override
+  public JsonObject metrics() {
+    Deadline next = mQueue.isEmpty() ? null : mQueue.first();
+    return mDelegate.metrics().copy().put("expiry", new JsonObject()
+        .put("tracked", mDeadlines.size())
+        .put("swept", mSwept.sum())
+        .put("nextDeadline", next != null ? next.mExpiresAt : null));
+  }
+
+  @Override
+  public void close() {
+    mSweeper.shutdown();
+
+    try {
+      mSweeper.awaitTermination(1, TimeUnit.MINUTES);
+
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+
+    mDelegate.close();
+  }
+
+  /**
+   * Deletes up to a batch of the documents whose deadline has passed, a collection at a time.
+   */
+  void sweep() {
+    long now = System.currentTimeMillis();
+    Map<String, List<String>> due = new LinkedHashMap<>();
+    int count = 0;
+
+    for (Deadline deadline : mQueue) {
+      if (deadline.mExpiresAt > now || count++ >= mSweepBatch) break;
+      due.computeIfAbsent(deadline.mCollectionId, id -> new ArrayList<>()).add(deadline.mDocId);
+    }
+
+    due.forEach((collectionId, docIds) -> {
+      List<Lock> locks = lockDocuments(collectionId, docIds);
+
+      try {
+        // Documents written since they were picked have a new deadline.
+        docIds.removeIf(docId -> !isExpired(collectionId, docId));
+        reclaim(collectionId, docIds);
+        mSwept.add(docIds.size());
+
+      } catch (DocumentException | RuntimeException ex) {
+        LOGGER.log(Level.WARNING, "Unable to delete expired documents from collection " + collectionId, ex);
+
+      } finally {
+        unlock(locks);
+      }
+    });
+  }
+
+  /**
+   * Deletes expired documents from the wrapped DB. Callers hold their locks.
+   */
+  private void reclaim(String pCollectionId, List<String> pDocIds)
+      throws DocumentException {
+    if (pDocIds.isEmpty()) return;
+
+    try {
+      mDelegate.deleteDocuments(pCollectionId, pDocIds);
+
+    } catch (DocumentNotFoundException ex) {
+      // The collection is gone, and its documents with it.
+    }
+
+    pDocIds.forEach(docId -> untrack(pCollectionId, docId));
+  }
+
+  private Document withDeadline(Document pDoc) {
+    return withDeadline(pDoc.collectionId(), pDoc);
+  }
+
+  /**
+   * @return the document with the default deadline of its collection, if it has none of its own.
+   */
+  private Document withDeadline(String pCollectionId, Document pDoc) {
+    long timeToLive = mTimeToLive.getOrDefault(pCollectionId, 0L);
+    if (pDoc.expiresAt() > 0 || timeToLive <= 0) return pDoc;
+
+    return Document
+        .newBuilder()
+        .underCollection(pDoc.collectionId())
+        .withId(pDoc.id())
+        .withPayload(pDoc.payload())
+        .withVersion(pDoc.version())
+        .expiringAt(System.currentTimeMillis() + timeToLive)
+        .build();
+  }
+
+  private void track(Document pDoc) {
+    if (!mTimeToLive.containsKey(pDoc.collectionId())) return;
+
+    untrack(pDoc.collectionId(), pDoc.id());
+    if (pDoc.expiresAt() > 0) {
+      var deadline = new Deadline(pDoc.expiresAt(), pDoc.collectionId(), pDoc.id());
+      mDeadlines.put(key(pDoc.collectionId(), pDoc.id()), deadline);
+      mQueue.add(deadline);
+    }
+  }
+
+  private void untrack(String pCollectionId, String pDocId) {
+    Deadline deadline = mDeadlines.remove(key(pCollectionId, pDocId));
+    if (deadline != null) mQueue.remove(deadline);
+  }
+
+  private boolean isExpired(String pCollectionId, String pDocId) {
+    Deadline deadline = mDeadlines.get(key(pCollectionId, pDocId));
+    return deadline != null && deadline.mExpiresAt <= System.currentTimeMillis();
+  }
+
+  private boolean isExpired(Document pDoc, long pNow) {
+    return pDoc.expiresAt() > 0 && pDoc.expiresAt() <= pNow && mTimeToLive.containsKey(pDoc.collectionId());
+  }
+
+  private Collection visible(Collection pCol) {
+    if (!mTimeToLive.containsKey(pCol.id())) return pCol;
+
+    long now = System.currentTimeMillis();
+    var builder = Collection
+        .newBuilder()
+        .withId(pCol.id())
+        .withPayload(pCol.payload());
+    pCol.documents().stream().filter(doc -> !isExpired(doc, now)).forEach(builder::addDocument);
+    return builder.build();
+  }
+
+  private List<Lock> lockDocuments(String pCollectionId, List<String> pDocIds) {
+    List<Lock> locks = new ArrayList<>();
+
+    for (var stripe : mDocumentLocks.forKeys(pCollectionId, pDocIds)) {
+      Lock lock = stripe.writeLock();
+      lock.lock();
+      locks.add(lock);
+    }
+
+    return locks;
+  }
+
+  private void unlock(List<Lock> pLocks) {
+    for (int l = pLocks.size() - 1; l >= 0; l--) {
+      pLocks.get(l).unlock();
+    }
+  }
+
+  private static String key(String pCollectionId, String pDocId) {
+    return pCollectionId + '/' + pDocId;
+  }
+
+  /**
+   * A document's deadline, ordered by time, then by collection and document id.
+   */
+  private static final class Deadline
+      implements Comparable<Deadline> {
+
+    private static final Comparator<Deadline> ORDER = Comparator
+        .<Deadline>comparingLong(deadline -> deadline.mExpiresAt)
+        .thenComparing(deadline -> deadline.mCollectionId)
+        .thenComparing(deadline -> deadline.mDocId);
+
+    final long mExpiresAt;
+    final String mCollectionId;
+    final String mDocId;
+
+    Deadline(long pExpiresAt, String pCollectionId, String pDocId) {
+      mExpiresAt = pExpiresAt;
+      mCollectionId = pCollectionId;
+      mDocId = pDocId;
+    }
+
+    @Override
+    public int compareTo(Deadline pOther) {
+      return ORDER.compare(this, pOther);
+    }
+  }
+}
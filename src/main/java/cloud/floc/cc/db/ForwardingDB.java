@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.Page;
+import io.vertx.core.json.JsonObject;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Base class for {@link DB} decorators. Every operation is forwarded to the wrapped DB unless overridden.
+ */
+public abstract class ForwardingDB
+    implements DB {
+
+  protected final DB mDelegate;
+
+  protected ForwardingDB(DB pDelegate) {
+    mDelegate = Objects.requireNonNull(pDelegate, "Delegate DB should be provided");
+  }
+
+  @Override
+  public String name() {
+    return mDelegate.name();
+  }
+
+  @Override
+  public Document createDocument(Document pDoc)
+      throws DocumentExistsException, DocumentException {
+    return mDelegate.createDocument(pDoc);
+  }
+
+  @Override
+  public Document getDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.getDocument(pCollectionId, pDocId);
+  }
+
+  @Override
+  public Document updateDocument(Document pDoc)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.updateDocument(pDoc);
+  }
+
+  @Override
+  public Document deleteDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.deleteDocument(pCollectionId, pDocId);
+  }
+
+  @Override
+  public Document patchDocument(Document pPatch)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.patchDocument(pPatch);
+  }
+
+  @Override
+  public boolean hasDocument(String pCollectionId, String pDocId) {
+    return mDelegate.hasDocument(pCollectionId, pDocId);
+  }
+
+  @Override
+  public Collection createCollection(Collection pCol)
+      throws DocumentExistsException, DocumentException {
+    return mDelegate.createCollection(pCol);
+  }
+
+  @Override
+  public Collection getCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.getCollection(pId);
+  }
+
+  @Override
+  public Collection updateCollection(Collection pCol)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.updateCollection(pCol);
+  }
+
+  @Override
+  public Collection deleteCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.deleteCollection(pId);
+  }
+
+  @Override
+  public boolean hasCollection(String pId) {
+    return mDelegate.hasCollection(pId);
+  }
+
+  @Override
+  public Collection getDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.getDocuments(pCollectionId, pDocIds);
+  }
+
+  @Override
+  public Collection putDocuments(String pCollectionId, List<Document> pDocs)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.putDocuments(pCollectionId, pDocs);
+  }
+
+  @Override
+  public Collection deleteDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.deleteDocuments(pCollectionId, pDocIds);
+  }
+
+  @Override
+  public Page getPage(String pCollectionId, String pCursor, int pLimit)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.getPage(pCollectionId, pCursor, pLimit);
+  }
+
+  @Override
+  public Collection getRange(String pCollectionId, String pFromId, String pToId, int pLimit, boolean pDescending)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.getRange(pCollectionId, pFromId, pToId, pLimit, pDescending);
+  }
+
+  @Override
+  public Collection findDocuments(String pCollectionId, JsonObject pFilter)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.findDocuments(pCollectionId, pFilter);
+  }
+
+  @Override
+  public JsonObject aggregates(String pCollectionId)
+      throws DocumentNotFoundException, DocumentException {
+    return mDelegate.aggregates(pCollectionId);
+  }
+
+  @Override
+  public void exportSnapshot(OutputStream pOut)
+      throws DocumentException {
+    mDelegate.exportSnapshot(pOut);
+  }
+
+  @Override
+  public ChangeFeed changeFeed() {
+    return mDelegate.changeFeed();
+  }
+
+  @Override
+  public JsonObject metrics() {
+    return mDelegate.metrics();
+  }
+
+  @Override
+  public void close() {
+    mDelegate.close();
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+
+/**
+ * Helpers for engines serving {@link DB#getRange} from documents kept sorted by id.
+ */
+final class IdRanges {
+
+  private IdRanges() {}
+
+  static boolean contains(String pFromId, String pToId, String pId) {
+    return (pFromId == null || pId.compareTo(pFromId) >= 0) && (pToId == null || pId.compareTo(pToId) < 0);
+  }
+
+  /**
+   * @return a view of the documents with ids from {@code pFromId}, inclusive, to {@code pToId}, exclusive, in the
+   * requested order.
+   */
+  static <V> NavigableMap<String, V> of(NavigableMap<String, V> pDocs, String pFromId, String pToId,
+      boolean pDescending) {
+    if (pFromId != null && pToId != null && pFromId.compareTo(pToId) >= 0) return Collections.emptyNavigableMap();
+
+    NavigableMap<String, V> range = pDocs;
+    if (pFromId != null) range = range.tailMap(pFromId, true);
+    if (pToId != null) range = range.headMap(pToId, false);
+    return pDescending ? range.descendingMap() : range;
+  }
+
+  static NavigableSet<String> of(NavigableSet<String> pIds, String pFromId, String pToId, boolean pDescending) {
+    if (pFromId != null && pToId != null && pFromId.compareTo(pToId) >= 0) return Collections.emptyNavigableSet();
+
+    NavigableSet<String> range = pIds;
+    if (pFromId != null) range = range.tailSet(pFromId, true);
+    if (pToId != null) range = range.headSet(pToId, false);
+    return pDescending ? range.descendingSet() : range;
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.Utils;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * {@link DB} decorator that keeps secondary indexes on top-level payload fields, declared per collection as
+ * {@code {"bots": ["generated"]}}. The indexes live in memory, are built from the wrapped DB on startup and are kept
+ * up to date by every write that goes through this decorator. {@link #findDocuments} only reads the documents whose
+ * indexed fields match; filters without any indexed field fall back to a scan.
+ */
+public class IndexedDB
+    extends ForwardingDB {
+
+  private final Map<String, List<String>> mDeclaredFields;
+  private final ConcurrentMap<String, CollectionIndex> mIndexes;
+  private final LockStripes mDocumentLocks;
+
+  public IndexedDB(DB pDelegate, JsonObject pIndexes) {
+    super(pDelegate);
+
+    mDeclaredFields = new HashMap<>();
+    mIndexes = new ConcurrentHashMap<>();
+    mDocumentLocks = new LockStripes(Constants.DEFAULT_DB_DOCUMENT_LOCK_STRIPES_VALUE);
+
+    for (String collectionId : pIndexes.fieldNames()) {
+      List<String> fields = new ArrayList<>();
+      pIndexes.getJsonArray(collectionId, new JsonArray()).forEach(field -> fields.add(field.toString()));
+      mDeclaredFields.put(collectionId, List.copyOf(fields));
+
+      if (mDelegate.hasCollection(collectionId)) {
+        try {
+          var index = new CollectionIndex(fields);
+          mDelegate.getCollection(collectionId).documents().forEach(doc -> index.put(doc.id(), doc.payload()));
+          mIndexes.put(collectionId, index);
+
+        } catch (DocumentNotFoundException | DocumentException ex) {
+          throw new RuntimeException("Unable to initialize DB. Failed to build indexes of " + collectionId, ex);
+        }
+      }
+    }
+  }
+
+  @Override
+  public Document createDocument(Document pDoc)
+      throws DocumentExistsException, DocumentException {
+    Lock lock = mDocumentLocks.forKey(pDoc.collectionId(), pDoc.id()).writeLock();
+    lock.lock();
+
+    try {
+      Document doc = mDelegate.createDocument(pDoc);
+
+      var index = mIndexes.get(pDoc.collectionId());
+      if (index != null) index.put(pDoc.id(), pDoc.payload());
+
+      return doc;
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document updateDocument(Document pDoc)
+      throws DocumentNotFoundException, DocumentException {
+    Lock lock = mDocumentLocks.forKey(pDoc.collectionId(), pDoc.id()).writeLock();
+    lock.lock();
+
+    try {
+      Document doc = mDelegate.updateDocument(pDoc);
+
+      var index = mIndexes.get(pDoc.collectionId());
+      if (index != null) index.put(pDoc.id(), pDoc.payload());
+
+      return doc;
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document patchDocument(Document pPatch)
+      throws DocumentNotFoundException, DocumentException {
+    Lock lock = mDocumentLocks.forKey(pPatch.collectionId(), pPatch.id()).writeLock();
+    lock.lock();
+
+    try {
+      Document doc = mDelegate.patchDocument(pPatch);
+
+      var index = mIndexes.get(pPatch.collectionId());
+      if (index != null) index.put(pPatch.id(), doc.payload());
+
+      return doc;
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Document deleteDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    Lock lock = mDocumentLocks.forKey(pCollectionId, pDocId).writeLock();
+    lock.lock();
+
+    try {
+      Document doc = mDelegate.deleteDocument(pCollectionId, pDocId);
+
+      var index = mIndexes.get(pCollectionId);
+      if (index != null) index.remove(pDocId);
+
+      return doc;
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Collection putDocuments(String pCollectionId, List<Document> pDocs)
+      throws DocumentNotFoundException, DocumentException {
+    List<String> docIds = new ArrayList<>();
+    pDocs.forEach(doc -> docIds.add(doc.id()));
+    List<Lock> locks = lockDocuments(pCollectionId, docIds);
+
+    try {
+      Collection col = mDelegate.putDocuments(pCollectionId, pDocs);
+
+      var index = mIndexes.get(pCollectionId);
+      if (index != null) pDocs.forEach(doc -> index.put(doc.id(), doc.payload()));
+
+      return col;
+
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public Collection deleteDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    List<Lock> locks = lockDocuments(pCollectionId, pDocIds);
+
+    try {
+      Collection col = mDelegate.deleteDocuments(pCollectionId, pDocIds);
+
+      var index = mIndexes.get(pCollectionId);
+      if (index != null) col.documents().forEach(doc -> index.remove(doc.id()));
+
+      return col;
+
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  @Override
+  public Collection createCollection(Collection pCol)
+      throws DocumentExistsException, DocumentException {
+    Collection col = mDelegate.createCollection(pCol);
+
+    List<String> fields = mDeclaredFields.get(pCol.id());
+    if (fields != null) mIndexes.put(pCol.id(), new CollectionIndex(fields));
+
+    return col;
+  }
+
+  @Override
+  public Collection deleteCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    Collection col = mDelegate.deleteCollection(pId);
+    mIndexes.remove(pId);
+    return col;
+  }
+
+  @Override
+  public Collection findDocuments(String pCollectionId, JsonObject pFilter)
+      throws DocumentNotFoundException, DocumentException {
+    var index = mIndexes.get(pCollectionId);
+    Set<String> docIds = index != null ? index.lookup(pFilter) : null;
+
+    if (docIds == null) {
+      return mDelegate.findDocuments(pCollectionId, pFilter);
+    }
+
+    var builder = Collection
+        .newBuilder()
+        .withId(pCollectionId)
+        .withPayload(new JsonObject());
+
+    for (String docId : new TreeSet<>(docIds)) {
+      try {
+        // Re-check the payload: the document may have changed between the lookup and this read.
+        Document doc = mDelegate.getDocument(pCollectionId, docId);
+        if (Utils.matches(doc.payload(), pFilter)) {
+          builder.addDocument(doc);
+        }
+
+      } catch (DocumentNotFoundException ex) {
+        // Deleted since the lookup.
+      }
+    }
+
+    return builder.build();
+  }
+
+  @Override
+  public JsonObject metrics() {
+    var indexes = new JsonObject();
+    mIndexes.forEach((collectionId, index) -> indexes.put(collectionId, index.metrics()));
+    return mDelegate.metrics().copy().put("indexes", indexes);
+  }
+
+  private List<Lock> lockDocuments(String pCollectionId, List<String> pDocIds) {
+    List<Lock> locks = new ArrayList<>();
+
+    for (var stripe : mDocumentLocks.forKeys(pCollectionId, pDocIds)) {
+      Lock lock = stripe.writeLock();
+      lock.lock();
+      locks.add(lock);
+    }
+
+    return locks;
+  }
+
+  private void unlock(List<Lock> pLocks) {
+    for (int l = pLocks.size() - 1; l >= 0; l--) {
+      pLocks.get(l).unlock();
+    }
+  }
+
+  /**
+   * Indexes of one collection: for every declared field, the ids of the documents holding each value. Callers
+   * serialize changes to the same document.
+   */
+  private static class CollectionIndex {
+
+    private final List<String> mFields;
+    private final Map<String, ConcurrentMap<String, Set<String>>> mPostings;
+    private final ConcurrentMap<String, String[]> mDocKeys;
+
+    CollectionIndex(List<String> pFields) {
+      mFields = pFields;
+      mPostings = new HashMap<>();
+      mDocKeys = new ConcurrentHashMap<>();
+
+      for (String field : pFields) {
+        mPostings.put(field, new ConcurrentHashMap<>());
+      }
+    }
+
+    void put(String pDocId, JsonObject pPayload) {
+      remove(pDocId);
+
+      String[] keys = new String[mFields.size()];
+      for (int f = 0; f < keys.length; f++) {
+        keys[f] = Utils.fieldKey(pPayload.getValue(mFields.get(f)));
+        mPostings.get(mFields.get(f)).compute(keys[f], (key, docIds) -> {
+          Set<String> ids = docIds != null ? docIds : ConcurrentHashMap.newKeySet();
+          ids.add(pDocId);
+          return ids;
+        });
+      }
+
+      mDocKeys.put(pDocId, keys);
+    }
+
+    void remove(String pDocId) {
+      String[] keys = mDocKeys.remove(pDocId);
+      if (keys == null) return;
+
+      for (int f = 0; f < keys.length; f++) {
+        mPostings.get(mFields.get(f)).computeIfPresent(keys[f], (key, docIds) -> {
+          docIds.remove(pDocId);
+          return docIds.isEmpty() ? null : docIds;
+        });
+      }
+    }
+
+    /**
+     * @return the ids matching every indexed field of the filter, or {@code null} if none of its fields is indexed.
+     */
+    Set<String> lookup(JsonObject pFilter) {
+      List<Set<String>> matches = new ArrayList<>();
+
+      for (String field : pFilter.fieldNames()) {
+        var postings = mPostings.get(field);
+        if (postings == null) continue;
+
+        Set<String> docIds = postings.get(Utils.fieldKey(pFilter.getValue(field)));
+        if (docIds == null) return Set.of();
+
+        matches.add(docIds);
+      }
+
+      if (matches.isEmpty()) return null;
+
+      matches.sort(Comparator.comparingInt(Set::size));
+      Set<String> result = new TreeSet<>(matches.get(0));
+      for (int m = 1; m < matches.size(); m++) {
+        result.retainAll(matches.get(m));
+      }
+
+      return result;
+    }
+
+    JsonObject metrics() {
+      var metrics = new JsonObject().put("documents", mDocKeys.size());
+      mPostings.forEach((field, postings) -> metrics.put(field, new JsonObject().put("values", postings.size())));
+      return metrics;
+    }
+  }
+}
@@ -22,35 +22,135 @@ import cloud.floc.cc.common.Document;
 import cloud.floc.cc.common.DocumentException;
 import cloud.floc.cc.common.DocumentExistsException;
 import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.Page;
 import cloud.floc.cc.common.Utils;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * {@link DB} that stores every document as a JSON file under a folder per collection.
+ * <p>
+ * Document operations share their collection's lock and take an exclusive lock on a stripe keyed by collection and
+ * document id, so writes to unrelated documents proceed in parallel. Collection-level operations such as
+ * {@link #deleteCollection(String)} take the collection lock exclusively.
+ * <p>
+ * Documents are replaced atomically through a temp file, so a crash never leaves a torn document behind; temp files
+ * are hidden from listings. How writes are synced to disk is set by {@link Constants#DB_DURABILITY_KEY}. Each file
+ * holds the {@link DocumentMeta} stored form of its document, which starts with the document's version.
+ * <p>
+ * Files are encoded with the {@link DocumentCodec} configured by {@link Constants#DB_CODEC_KEY}, which
+ * {@link Constants#DB_COLLECTION_CODECS_KEY} can override per collection. Reads detect the codec of each file and
+ * leave the payload encoded until it's first accessed.
+ * <p>
+ * Every write also updates the {@link CollectionAggregates} of its collection, so {@link #aggregates(String)} never
+ * reads documents. The aggregates are saved on {@link #close()} along with the modification time of each collection
+ * folder; on startup, collections whose folder changed since then, e.g. after a crash, are counted again, as are those
+ * modified too close to the save for their modification time to tell.
+ * <p>
+ * Since documents are only ever replaced by renaming a new file over them, {@link #exportSnapshot} gets a
+ * point-in-time view by hard-linking every document file while holding all collection locks, which is much shorter
+ * than reading the documents. The snapshot is then written from the links while writes continue.
+ * <p>
+ * {@link #getCollection(String)} reads large collections on a fork-join pool of
+ * {@link Constants#DB_LOAD_PARALLELISM_KEY} threads, so several files are read at once. Documents come back ordered by
+ * id either way.
+ * <p>
+ * Collections with many documents can use the {@link DocumentLayout#SHARDED} layout, set by
+ * {@link Constants#DB_LAYOUT_KEY} or per collection by {@link Constants#DB_COLLECTION_LAYOUTS_KEY}. Documents are then
+ * kept in hash-named subfolders instead of one folder. Collections are migrated to their layout on startup.
+ * <p>
+ * Which collections and documents exist is answered from a {@link DocumentCatalog} listed on startup and updated by
+ * every write, so lookups of missing ids, existence checks and listings don't hit the file system. Files added to or
+ * removed from the state folder behind the DB's back are only seen after a restart.
+ */
 public class JsonDB
     implements DB {
 
   private static final Logger LOGGER = Logger.getLogger(JsonDB.class.getName());
 
+  private static final String AGGREGATES_FILE = "aggregates.json";
+  private static final String MODIFIED_KEY = "modified";
+  private static final String SNAPSHOT_FOLDER_INFIX = ".snapshot-";
+  private static final int LOAD_BATCH_SIZE = 64;
+
   private final String mName;
   private final File mRootFolder;
-  private final ReentrantReadWriteLock mReadWriteLock;
+  private final LockStripes mCollectionLocks;
+  private final LockStripes mDocumentLocks;
+  private final AtomicFileWriter mWriter;
+  private final Function<String, DocumentCodec> mCodecs;
+  private final Function<String, DocumentLayout> mLayouts;
+  private final JsonObject mAggregatedFields;
+  private final ConcurrentMap<String, CollectionAggregates> mAggregates;
+  private final ForkJoinPool mLoadPool;
+  private final DocumentCatalog mCatalog;
 
   public JsonDB(JsonObject pConfig) {
     mName = pConfig.getString(Constants.DB_NAME_KEY, Constants.DEFAULT_DB_NAME_VALUE);
     String stateFolder = pConfig.getString(Constants.STATE_FOLDER_KEY, Constants.DEFAULT_STATE_FOLDER_VALUE);
     mRootFolder = new File(stateFolder, mName);
-    mReadWriteLock = new ReentrantReadWriteLock();
+    mCollectionLocks = new LockStripes(pConfig.getInteger(
+        Constants.DB_COLLECTION_LOCK_STRIPES_KEY, Constants.DEFAULT_DB_COLLECTION_LOCK_STRIPES_VALUE));
+    mDocumentLocks = new LockStripes(pConfig.getInteger(
+        Constants.DB_DOCUMENT_LOCK_STRIPES_KEY, Constants.DEFAULT_DB_DOCUMENT_LOCK_STRIPES_VALUE));
+    mWriter = new AtomicFileWriter(
+        AtomicFileWriter.Durability.of(
+            pConfig.getString(Constants.DB_DURABILITY_KEY, Constants.DEFAULT_DB_DURABILITY_VALUE)),
+        pConfig.getLong(Constants.DB_GROUP_COMMIT_INTERVAL_KEY, Constants.DEFAULT_DB_GROUP_COMMIT_INTERVAL_VALUE),
+        mName);
+    mCodecs = DocumentCodec.fromConfig(pConfig);
+    mLayouts = DocumentLayout.fromConfig(pConfig);
+    mAggregatedFields = pConfig.getJsonObject(Constants.DB_AGGREGATES_KEY,
+        new JsonObject(Constants.DEFAULT_DB_AGGREGATES_VALUE));
+    mAggregates = new ConcurrentHashMap<>();
+    mCatalog = new DocumentCatalog();
+
+    int loadParallelism = pConfig.getInteger(
+        Constants.DB_LOAD_PARALLELISM_KEY, Constants.DEFAULT_DB_LOAD_PARALLELISM_VALUE);
+    mLoadPool = loadParallelism > 1 ? new ForkJoinPool(loadParallelism, pool -> {
+      var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("fcc-db-load-" + mName + "-" + thread.getPoolIndex());
+      return thread;
+    }, null, false) : null;
 
     if (!mRootFolder.exists() && !mRootFolder.mkdirs()) {
       throw new RuntimeException("Unable to initialize DB. Failed to create root folder.");
     }
+
+    File[] folders = mRootFolder.listFiles(File::isDirectory);
+    for (File folder : folders != null ? folders : new File[0]) {
+      DocumentLayout layout = mLayouts.apply(folder.getName());
+      layout.folders(folder).forEach(AtomicFileWriter::deleteTempFiles);
+      migrate(folder, layout);
+    }
+
+    AtomicFileWriter.deleteTempFiles(mRootFolder);
+    deleteSnapshotFolders();
+    loadCatalog(folders != null ? folders : new File[0]);
+    loadAggregates(folders != null ? folders : new File[0]);
   }
 
   @Override
@@ -61,130 +161,117 @@ public class JsonDB
   @Override
   public Document createDocument(Document pDoc)
       throws DocumentExistsException, DocumentException {
-    Lock lock = mReadWriteLock.writeLock();
-    lock.lock();
+    Lock collectionLock = mCollectionLocks.forKey(pDoc.collectionId()).readLock();
+    Lock documentLock = mDocumentLocks.forKey(pDoc.collectionId(), pDoc.id()).writeLock();
+    collectionLock.lock();
+    documentLock.lock();
 
     try {
-      File file = new File(new File(mRootFolder, pDoc.collectionId()), pDoc.id());
-      if (file.exists()) {
+      if (mCatalog.hasDocument(pDoc.collectionId(), pDoc.id())) {
         throw new DocumentExistsException("There's an existing document: " + pDoc.id());
       }
 
-      Utils.jsonToFile(file, pDoc.payload());
+      byte[] stored = encode(pDoc.collectionId(), DocumentMeta.wrap(pDoc.payload(), 1, pDoc.expiresAt()));
+      mWriter.write(documentFile(pDoc.collectionId(), pDoc.id()), stored);
+      mCatalog.addDocument(pDoc.collectionId(), pDoc.id());
+      aggregatesOf(pDoc.collectionId()).add(stored.length, pDoc.payload());
 
       return Document
           .newBuilder()
           .underCollection(pDoc.collectionId())
           .withId(pDoc.id())
           .withPayload(pDoc.payload())
+          .withVersion(1)
+          .expiringAt(pDoc.expiresAt())
           .build();
 
     } catch (IOException ex) {
       throw new DocumentException("Unable to create document: " + pDoc.id(), ex);
 
     } finally {
-      lock.unlock();
+      documentLock.unlock();
+      collectionLock.unlock();
     }
   }
 
   @Override
   public Document getDocument(String pCollectionId, String pDocId)
       throws DocumentNotFoundException, DocumentException {
-    Lock lock = mReadWriteLock.readLock();
-    lock.lock();
+    Lock collectionLock = mCollectionLocks.forKey(pCollectionId).readLock();
+    Lock documentLock = mDocumentLocks.forKey(pCollectionId, pDocId).readLock();
+    collectionLock.lock();
+    documentLock.lock();
 
     try {
-      File file = new File(new File(mRootFolder, pCollectionId), pDocId);
-
-      if (!file.exists()) {
+      if (!mCatalog.hasDocument(pCollectionId, pDocId)) {
         throw new DocumentNotFoundException("Document not found: " + pDocId);
       }
 
-      return Document
-          .newBuilder()
-          .underCollection(pCollectionId)
-          .withId(pDocId)
-          .withPayload(Utils.fileToJson(file))
-          .build();
+      return DocumentMeta.unwrap(pCollectionId, pDocId,
+          Files.readAllBytes(documentFile(pCollectionId, pDocId).toPath()));
 
     } catch (IOException ex) {
       throw new DocumentException("Unable to get document: " + pDocId, ex);
 
     } finally {
-      lock.unlock();
+      documentLock.unlock();
+      collectionLock.unlock();
     }
   }
 
   @Override
   public Document updateDocument(Document pDoc)
       throws DocumentNotFoundException, DocumentException {
-    Lock lock = mReadWriteLock.writeLock();
-    lock.lock();
-
-    try {
-      File file = new File(new File(mRootFolder, pDoc.collectionId()), pDoc.id());
-
-      if (!file.exists()) {
-        throw new DocumentNotFoundException("Document not found: " + pDoc.id());
-      }
-
-      Utils.jsonToFile(file, pDoc.payload());
-
-      return Document
-          .newBuilder()
-          .underCollection(pDoc.collectionId())
-          .withId(pDoc.id())
-          .withPayload(pDoc.payload())
-          .build();
-    } catch (IOException ex) {
-      throw new DocumentException("Unable to update document: " + pDoc.id(), ex);
+    return update(pDoc, false);
+  }
 
-    } finally {
-      lock.unlock();
-    }
+  /**
+   * Patches the document under its lock, so unlike the default there's no read to redo when writers race.
+   */
+  @Override
+  public Document patchDocument(Document pPatch)
+      throws DocumentNotFoundException, DocumentException {
+    return update(pPatch, true);
   }
 
   @Override
   public Document deleteDocument(String pCollectionId, String pDocId)
       throws DocumentNotFoundException, DocumentException {
-    Lock lock = mReadWriteLock.writeLock();
-    lock.lock();
+    Lock collectionLock = mCollectionLocks.forKey(pCollectionId).readLock();
+    Lock documentLock = mDocumentLocks.forKey(pCollectionId, pDocId).writeLock();
+    collectionLock.lock();
+    documentLock.lock();
 
     try {
-      File file = new File(new File(mRootFolder, pCollectionId), pDocId);
-
-      if (!file.exists()) {
+      if (!mCatalog.hasDocument(pCollectionId, pDocId)) {
         throw new DocumentNotFoundException("Document not found: " + pDocId);
       }
 
-      var json = Utils.fileToJson(file);
+      File file = documentFile(pCollectionId, pDocId);
+      byte[] current = Files.readAllBytes(file.toPath());
+      var doc = DocumentMeta.unwrap(pCollectionId, pDocId, current);
+      mWriter.delete(file);
+      mCatalog.removeDocument(pCollectionId, pDocId);
+      aggregatesOf(pCollectionId).remove(current.length, doc.payload());
 
-      if (!file.delete()) {
-        throw new DocumentException("Unable to delete document: " + pDocId);
-      }
-
-      return Document
-          .newBuilder()
-          .underCollection(pCollectionId)
-          .withId(pDocId)
-          .withPayload(json)
-          .build();
+      return doc;
 
     } catch (IOException ex) {
       throw new DocumentException("Unable to delete document: " + pDocId, ex);
 
     } finally {
-      lock.unlock();
+      documentLock.unlock();
+      collectionLock.unlock();
     }
   }
 
   @Override
   public boolean hasDocument(String pCollectionId, String pDocId) {
-    Lock lock = mReadWriteLock.readLock();
+    Lock lock = mCollectionLocks.forKey(pCollectionId).readLock();
     lock.lock();
 
     try {
-      return new File(new File(mRootFolder, pCollectionId), pDocId).exists();
+      return mCatalog.hasDocument(pCollectionId, pDocId);
 
     } finally {
       lock.unlock();
@@ -194,25 +281,33 @@ public class JsonDB
   @Override
   public Collection createCollection(Collection pCol)
       throws DocumentExistsException, DocumentException {
-    Lock lock = mReadWriteLock.writeLock();
+    Lock lock = mCollectionLocks.forKey(pCol.id()).writeLock();
     lock.lock();
 
     try {
-      File file = new File(mRootFolder, pCol.id());
-      if (file.exists()) {
+      if (mCatalog.hasCollection(pCol.id())) {
         throw new DocumentExistsException("There's an existing collection: " + pCol.id());
       }
 
+      File file = new File(mRootFolder, pCol.id());
       if (!file.mkdir()) {
         throw new DocumentException("Unable to create collection: " + pCol.id());
       }
 
+      mLayouts.apply(pCol.id()).prepare(file);
+      mWriter.synced(file);
+      mAggregates.put(pCol.id(), new CollectionAggregates(aggregatedFields(pCol.id())));
+      mCatalog.addCollection(pCol.id());
+
       return Collection
           .newBuilder()
           .withId(pCol.id())
           .withPayload(new JsonObject())
           .build();
 
+    } catch (IOException ex) {
+      throw new DocumentException("Unable to create collection: " + pCol.id(), ex);
+
     } finally {
       lock.unlock();
     }
@@ -221,12 +316,11 @@ public class JsonDB
   @Override
   public Collection getCollection(String pId)
       throws DocumentNotFoundException, DocumentException {
-    Lock lock = mReadWriteLock.readLock();
+    Lock lock = mCollectionLocks.forKey(pId).readLock();
     lock.lock();
 
     try {
-      File file = new File(mRootFolder, pId);
-      if (!file.exists()) {
+      if (!mCatalog.hasCollection(pId)) {
         throw new DocumentNotFoundException("Collection not found: " + pId);
       }
 
@@ -235,27 +329,273 @@ public class JsonDB
           .withId(pId)
           .withPayload(new JsonObject());
 
-      Files.walk(file.toPath()).skip(1).forEach(path -> {
-        File docFile = path.toFile();
-        try {
-          var json = Utils.fileToJson(docFile);
-          var doc = Document
-              .newBuilder()
-              .underCollection(pId)
-              .withId(docFile.getName())
-              .withPayload(json)
-              .build();
+      List<File> files = new ArrayList<>();
+      mCatalog.documents(pId).forEach(docId -> files.add(documentFile(pId, docId)));
+
+      var docs = new Document[files.size()];
+      var load = new LoadTask(pId, files, docs, 0, docs.length);
+      if (mLoadPool != null && docs.length > LOAD_BATCH_SIZE) {
+        mLoadPool.invoke(load);
+      } else {
+        load.compute();
+      }
+
+      for (Document doc : docs) {
+        if (doc != null) {
           builder.addDocument(doc);
+        }
+      }
+
+      return builder.build();
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Collection getDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    Lock lock = mCollectionLocks.forKey(pCollectionId).readLock();
+    lock.lock();
 
-        } catch (IOException ex) {
-          LOGGER.log(Level.SEVERE, "Unable to read JSON from " + docFile, ex);
+    try {
+      if (!mCatalog.hasCollection(pCollectionId)) {
+        throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+      }
+
+      var builder = Collection
+          .newBuilder()
+          .withId(pCollectionId)
+          .withPayload(new JsonObject());
+
+      for (String docId : pDocIds) {
+        var doc = readDocumentFile(pCollectionId, documentFile(pCollectionId, docId));
+        if (doc != null) {
+          builder.addDocument(doc);
         }
-      });
+      }
 
       return builder.build();
 
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Collection putDocuments(String pCollectionId, List<Document> pDocs)
+      throws DocumentNotFoundException, DocumentException {
+    Lock collectionLock = mCollectionLocks.forKey(pCollectionId).readLock();
+    collectionLock.lock();
+    List<Lock> documentLocks = lockDocuments(pCollectionId,
+        pDocs.stream().map(Document::id).collect(Collectors.toList()));
+
+    try {
+      if (!mCatalog.hasCollection(pCollectionId)) {
+        throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+      }
+
+      var builder = Collection
+          .newBuilder()
+          .withId(pCollectionId)
+          .withPayload(new JsonObject());
+      Map<File, byte[]> files = new LinkedHashMap<>();
+      Map<File, JsonObject> payloads = new HashMap<>();
+      Map<File, Document> replaced = new HashMap<>();
+      Map<File, Long> replacedBytes = new HashMap<>();
+      Map<File, Long> versions = new HashMap<>();
+
+      for (Document doc : pDocs) {
+        File file = documentFile(pCollectionId, doc.id());
+        if (!versions.containsKey(file) && mCatalog.hasDocument(pCollectionId, doc.id())) {
+          byte[] current = Files.readAllBytes(file.toPath());
+          replaced.put(file, DocumentMeta.unwrap(pCollectionId, doc.id(), current));
+          replacedBytes.put(file, (long) current.length);
+        }
+
+        long version = versions.getOrDefault(file, replaced.containsKey(file) ? replaced.get(file).version() : 0) + 1;
+        versions.put(file, version);
+        files.put(file, encode(pCollectionId, DocumentMeta.wrap(doc.payload(), version, doc.expiresAt())));
+        payloads.put(file, doc.payload());
+        builder.addDocument(Document
+            .newBuilder()
+            .underCollection(pCollectionId)
+            .withId(doc.id())
+            .withPayload(doc.payload())
+            .withVersion(version)
+            .expiringAt(doc.expiresAt())
+            .build());
+      }
+
+      IOException failure = null;
+      try {
+        mWriter.writeAll(files);
+
+      } catch (IOException ex) {
+        // The files replaced before the failure are accounted for all the same, so that the catalog and aggregates
+        // keep matching what's on disk.
+        failure = ex;
+        files.entrySet().removeIf(entry -> !holds(entry.getKey(), entry.getValue()));
+      }
+
+      files.keySet().forEach(file -> mCatalog.addDocument(pCollectionId, file.getName()));
+
+      var aggregates = aggregatesOf(pCollectionId);
+      for (var entry : files.entrySet()) {
+        Document replacedDoc = replaced.get(entry.getKey());
+        if (replacedDoc != null) {
+          aggregates.remove(replacedBytes.get(entry.getKey()), replacedDoc.payload());
+        }
+        aggregates.add(entry.getValue().length, payloads.get(entry.getKey()));
+      }
+
+      if (failure != null) throw failure;
+      return builder.build();
+
+    } catch (IOException ex) {
+      throw new DocumentException("Unable to put documents into collection: " + pCollectionId, ex);
+
+    } finally {
+      unlock(documentLocks);
+      collectionLock.unlock();
+    }
+  }
+
+  @Override
+  public Collection deleteDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    Lock collectionLock = mCollectionLocks.forKey(pCollectionId).readLock();
+    collectionLock.lock();
+    List<Lock> documentLocks = lockDocuments(pCollectionId, pDocIds);
+
+    try {
+      if (!mCatalog.hasCollection(pCollectionId)) {
+        throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+      }
+
+      var builder = Collection
+          .newBuilder()
+          .withId(pCollectionId)
+          .withPayload(new JsonObject());
+      Map<File, Document> files = new LinkedHashMap<>();
+      Map<File, Long> fileBytes = new HashMap<>();
+
+      for (String docId : pDocIds) {
+        File file = documentFile(pCollectionId, docId);
+        if (files.containsKey(file) || !mCatalog.hasDocument(pCollectionId, docId)) continue;
+
+        byte[] current = Files.readAllBytes(file.toPath());
+        var doc = DocumentMeta.unwrap(pCollectionId, docId, current);
+        builder.addDocument(doc);
+        files.put(file, doc);
+        fileBytes.put(file, (long) current.length);
+      }
+
+      IOException failure = null;
+      try {
+        mWriter.deleteAll(new ArrayList<>(files.keySet()));
+
+      } catch (IOException ex) {
+        failure = ex;
+        files.keySet().removeIf(File::exists);
+      }
+
+      files.forEach((file, doc) -> mCatalog.removeDocument(pCollectionId, doc.id()));
+
+      var aggregates = aggregatesOf(pCollectionId);
+      files.forEach((file, doc) -> aggregates.remove(fileBytes.get(file), doc.payload()));
+
+      if (failure != null) throw failure;
+      return builder.build();
+
     } catch (IOException ex) {
-      throw new DocumentException("Unable to get collection: " + pId, ex);
+      throw new DocumentException("Unable to delete documents from collection: " + pCollectionId, ex);
+
+    } finally {
+      unlock(documentLocks);
+      collectionLock.unlock();
+    }
+  }
+
+  @Override
+  public Page getPage(String pCollectionId, String pCursor, int pLimit)
+      throws DocumentNotFoundException, DocumentException {
+    if (pLimit < 1) throw new IllegalArgumentException("Page limit should be positive");
+
+    String afterId = Page.decodeCursor(pCursor);
+    Lock lock = mCollectionLocks.forKey(pCollectionId).readLock();
+    lock.lock();
+
+    try {
+      if (!mCatalog.hasCollection(pCollectionId)) {
+        throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+      }
+
+      // The catalog keeps ids in order, so the page is read straight after the cursor, plus one id telling whether
+      // there are more; only the documents on the page are read and parsed.
+      NavigableSet<String> catalogIds = mCatalog.documents(pCollectionId);
+      List<String> docIds = new ArrayList<>(pLimit + 1);
+      for (String docId : afterId != null ? catalogIds.tailSet(afterId, false) : catalogIds) {
+        docIds.add(docId);
+        if (docIds.size() > pLimit) break;
+      }
+
+      boolean hasMore = docIds.size() > pLimit;
+      if (hasMore) {
+        docIds.remove(pLimit);
+      }
+
+      var builder = Page
+          .newBuilder()
+          .underCollection(pCollectionId);
+
+      for (String docId : docIds) {
+        var doc = readDocumentFile(pCollectionId, documentFile(pCollectionId, docId));
+        if (doc != null) {
+          builder.addDocument(doc);
+        }
+      }
+
+      if (hasMore) {
+        builder.continueAfter(docIds.get(docIds.size() - 1));
+      }
+
+      return builder.build();
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Collection getRange(String pCollectionId, String pFromId, String pToId, int pLimit, boolean pDescending)
+      throws DocumentNotFoundException, DocumentException {
+    if (pLimit < 1) throw new IllegalArgumentException("Range limit should be positive");
+
+    Lock lock = mCollectionLocks.forKey(pCollectionId).readLock();
+    lock.lock();
+
+    try {
+      if (!mCatalog.hasCollection(pCollectionId)) {
+        throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+      }
+
+      var builder = Collection
+          .newBuilder()
+          .withId(pCollectionId)
+          .withPayload(new JsonObject());
+
+      int count = 0;
+      for (String docId : IdRanges.of(mCatalog.documents(pCollectionId), pFromId, pToId, pDescending)) {
+        var doc = readDocumentFile(pCollectionId, documentFile(pCollectionId, docId));
+        if (doc == null) continue;
+
+        builder.addDocument(doc);
+        if (++count == pLimit) break;
+      }
+
+      return builder.build();
 
     } finally {
       lock.unlock();
@@ -265,12 +605,11 @@ public class JsonDB
   @Override
   public Collection updateCollection(Collection pCol)
       throws DocumentNotFoundException, DocumentException {
-    Lock lock = mReadWriteLock.writeLock();
+    Lock lock = mCollectionLocks.forKey(pCol.id()).readLock();
     lock.lock();
 
     try {
-      File file = new File(mRootFolder, pCol.id());
-      if (!file.exists()) {
+      if (!mCatalog.hasCollection(pCol.id())) {
         throw new DocumentNotFoundException("Collection not found: " + pCol.id());
       }
 
@@ -287,16 +626,29 @@ public class JsonDB
   @Override
   public Collection deleteCollection(String pId)
       throws DocumentNotFoundException, DocumentException {
-    Lock lock = mReadWriteLock.writeLock();
+    Lock lock = mCollectionLocks.forKey(pId).writeLock();
     lock.lock();
 
     try {
-      File file = new File(mRootFolder, pId);
-      if (!file.exists()) {
+      if (!mCatalog.hasCollection(pId)) {
         throw new DocumentNotFoundException("Collection not found: " + pId);
       }
 
+      File file = new File(mRootFolder, pId);
       Utils.deleteFolder(file);
+      if (file.exists()) {
+        // Whatever is left is still the collection, as the next startup would list it.
+        mCatalog.documents(pId).stream()
+            .filter(docId -> !documentFile(pId, docId).exists())
+            .collect(Collectors.toList())
+            .forEach(docId -> mCatalog.removeDocument(pId, docId));
+        mAggregates.put(pId, countAggregates(pId, file, aggregatedFields(pId)));
+        throw new DocumentException("Unable to delete collection: " + pId);
+      }
+
+      mWriter.synced(file);
+      mAggregates.remove(pId);
+      mCatalog.removeCollection(pId);
 
       return Collection
           .newBuilder()
@@ -313,14 +665,420 @@ public class JsonDB
 
   @Override
   public boolean hasCollection(String pId) {
-    Lock lock = mReadWriteLock.readLock();
+    Lock lock = mCollectionLocks.forKey(pId).readLock();
     lock.lock();
 
     try {
-      return new File(mRootFolder, pId).exists();
+      return mCatalog.hasCollection(pId);
 
     } finally {
       lock.unlock();
     }
   }
+
+  @Override
+  public JsonObject aggregates(String pCollectionId)
+      throws DocumentNotFoundException, DocumentException {
+    Lock lock = mCollectionLocks.forKey(pCollectionId).readLock();
+    lock.lock();
+
+    try {
+      if (!mCatalog.hasCollection(pCollectionId)) {
+        throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+      }
+
+      return aggregatesOf(pCollectionId).toJson();
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void exportSnapshot(OutputStream pOut)
+      throws DocumentException {
+    File linkFolder = new File(mRootFolder.getParentFile(),
+        "." + mName + SNAPSHOT_FOLDER_INFIX + Long.toHexString(System.nanoTime()));
+
+    try {
+      linkDocuments(linkFolder);
+
+      try (var writer = new Snapshot.Writer(pOut, mName)) {
+        for (File folder : sortedFiles(linkFolder)) {
+          writer.collection(folder.getName());
+
+          for (File file : sortedFiles(folder)) {
+            byte[] stored = Files.readAllBytes(file.toPath());
+            writer.document(folder.getName(), file.getName(),
+                new JsonObject(DocumentCodec.detect(stored).decode(stored)));
+          }
+        }
+      }
+
+    } catch (IOException ex) {
+      throw new DocumentException("Unable to export snapshot of DB: " + mName, ex);
+
+    } finally {
+      deleteSnapshotFolder(linkFolder);
+    }
+  }
+
+  @Override
+  public JsonObject metrics() {
+    return new JsonObject()
+        .put("writes", mWriter.metrics())
+        .put("catalog", mCatalog.metrics());
+  }
+
+  @Override
+  public void close() {
+    if (mLoadPool != null) mLoadPool.shutdown();
+    saveAggregates();
+    mWriter.close();
+  }
+
+  private List<String> aggregatedFields(String pCollectionId) {
+    List<String> fields = new ArrayList<>();
+    mAggregatedFields.getJsonArray(pCollectionId, new JsonArray()).forEach(field -> fields.add(field.toString()));
+    return List.copyOf(fields);
+  }
+
+  private CollectionAggregates aggregatesOf(String pCollectionId) {
+    return mAggregates.computeIfAbsent(pCollectionId, id -> new CollectionAggregates(aggregatedFields(id)));
+  }
+
+  private void loadCatalog(File[] pFolders) {
+    for (File folder : pFolders) {
+      String collectionId = folder.getName();
+      mCatalog.addCollection(collectionId);
+
+      try {
+        mLayouts.apply(collectionId).forEachDocumentFile(folder,
+            path -> mCatalog.addDocument(collectionId, path.getFileName().toString()));
+
+      } catch (IOException ex) {
+        throw new RuntimeException("Unable to initialize DB. Failed to list collection: " + collectionId, ex);
+      }
+    }
+  }
+
+  private void loadAggregates(File[] pFolders) {
+    JsonObject saved = new JsonObject();
+    File file = new File(mRootFolder, AGGREGATES_FILE);
+    long savedAt = file.lastModified();
+
+    if (file.exists()) {
+      try {
+        saved = new JsonObject(Files.readString(file.toPath()));
+
+      } catch (IOException | RuntimeException ex) {
+        LOGGER.log(Level.WARNING, "Unable to read saved aggregates, recounting all collections", ex);
+      }
+    }
+
+    for (File folder : pFolders) {
+      String collectionId = folder.getName();
+      List<String> fields = aggregatedFields(collectionId);
+      JsonObject collection = saved.getJsonObject(collectionId);
+
+      // A folder modified in the same clock tick as the aggregates were saved may have been written to right after,
+      // without its modification time changing, so only folders last modified before that tick are trusted.
+      long modified = mLayouts.apply(collectionId).lastModified(folder);
+      CollectionAggregates aggregates = null;
+      if (collection != null && collection.getLong(MODIFIED_KEY, -1L) == modified && modified < savedAt) {
+        aggregates = CollectionAggregates.fromJson(fields, collection);
+      }
+
+      mAggregates.put(collectionId, aggregates != null ? aggregates : countAggregates(collectionId, folder, fields));
+    }
+  }
+
+  private CollectionAggregates countAggregates(String pCollectionId, File pFolder, List<String> pFields) {
+    var aggregates = new CollectionAggregates(pFields);
+    List<File> files = new ArrayList<>();
+    try {
+      mLayouts.apply(pCollectionId).forEachDocumentFile(pFolder, path -> files.add(path.toFile()));
+
+    } catch (IOException ex) {
+      LOGGER.log(Level.SEVERE, "Unable to list documents in " + pFolder, ex);
+    }
+
+    for (File file : files) {
+      if (!aggregates.countsFields()) {
+        aggregates.add(file.length(), null);
+        continue;
+      }
+
+      try {
+        byte[] stored = Files.readAllBytes(file.toPath());
+        aggregates.add(stored.length, DocumentMeta.unwrap(pCollectionId, file.getName(), stored).payload());
+
+      } catch (IOException | RuntimeException ex) {
+        LOGGER.log(Level.SEVERE, "Unable to read document from " + file, ex);
+      }
+    }
+
+    LOGGER.info("Counted aggregates of collection " + pCollectionId);
+    return aggregates;
+  }
+
+  /**
+   * Saves the aggregates along with the modification time of their folder, which tells on startup whether the
+   * collection was changed after they were saved.
+   */
+  private void saveAggregates() {
+    var saved = new JsonObject();
+
+    mAggregates.forEach((collectionId, aggregates) -> {
+      File folder = new File(mRootFolder, collectionId);
+      if (folder.exists()) {
+        saved.put(collectionId,
+            aggregates.toJson().put(MODIFIED_KEY, mLayouts.apply(collectionId).lastModified(folder)));
+      }
+    });
+
+    try {
+      mWriter.write(new File(mRootFolder, AGGREGATES_FILE), saved.toBuffer().getBytes());
+
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Unable to save aggregates, they'll be recounted on startup", ex);
+    }
+  }
+
+  private byte[] encode(String pCollectionId, JsonObject pStored)
+      throws IOException {
+    return mCodecs.apply(pCollectionId).encode(pStored);
+  }
+
+  private void linkDocuments(File pLinkFolder)
+      throws IOException {
+    List<Lock> locks = new ArrayList<>();
+    for (var stripe : mCollectionLocks.all()) {
+      Lock lock = stripe.writeLock();
+      lock.lock();
+      locks.add(lock);
+    }
+
+    try {
+      File[] folders = mRootFolder.listFiles(File::isDirectory);
+
+      for (File folder : folders != null ? folders : new File[0]) {
+        File linkFolder = new File(pLinkFolder, folder.getName());
+        if (!linkFolder.mkdirs()) {
+          throw new IOException("Unable to create snapshot folder: " + linkFolder);
+        }
+
+        List<Path> paths = new ArrayList<>();
+        mLayouts.apply(folder.getName()).forEachDocumentFile(folder, paths::add);
+
+        for (Path path : paths) {
+          try {
+            Files.createLink(linkFolder.toPath().resolve(path.getFileName()), path);
+
+          } catch (UnsupportedOperationException ex) {
+            Files.copy(path, linkFolder.toPath().resolve(path.getFileName()));
+          }
+        }
+      }
+
+    } finally {
+      unlock(locks);
+    }
+  }
+
+  private File[] sortedFiles(File pFolder) {
+    File[] files = pFolder.listFiles();
+    if (files == null) return new File[0];
+
+    Arrays.sort(files);
+    return files;
+  }
+
+  private void deleteSnapshotFolders() {
+    File[] folders = mRootFolder.getParentFile().listFiles(
+        (dir, name) -> name.startsWith("." + mName + SNAPSHOT_FOLDER_INFIX));
+
+    for (File folder : folders != null ? folders : new File[0]) {
+      deleteSnapshotFolder(folder);
+    }
+  }
+
+  private void deleteSnapshotFolder(File pFolder) {
+    try {
+      if (pFolder.exists()) {
+        Utils.deleteFolder(pFolder);
+      }
+
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Unable to delete snapshot folder " + pFolder, ex);
+    }
+  }
+
+  private List<Lock> lockDocuments(String pCollectionId, List<String> pDocIds) {
+    List<Lock> locks = new ArrayList<>();
+
+    for (var stripe : mDocumentLocks.forKeys(pCollectionId, pDocIds)) {
+      Lock lock = stripe.writeLock();
+      lock.lock();
+      locks.add(lock);
+    }
+
+    return locks;
+  }
+
+  private void unlock(List<Lock> pLocks) {
+    for (int l = pLocks.size() - 1; l >= 0; l--) {
+      pLocks.get(l).unlock();
+    }
+  }
+
+  /**
+   * Replaces the payload of a document with the given one, or merges the given one into it when patching.
+   */
+  private Document update(Document pDoc, boolean pPatch)
+      throws DocumentNotFoundException, DocumentException {
+    Lock collectionLock = mCollectionLocks.forKey(pDoc.collectionId()).readLock();
+    Lock documentLock = mDocumentLocks.forKey(pDoc.collectionId(), pDoc.id()).writeLock();
+    collectionLock.lock();
+    documentLock.lock();
+
+    try {
+      if (!mCatalog.hasDocument(pDoc.collectionId(), pDoc.id())) {
+        throw new DocumentNotFoundException("Document not found: " + pDoc.id());
+      }
+
+      File file = documentFile(pDoc.collectionId(), pDoc.id());
+
+      byte[] current = Files.readAllBytes(file.toPath());
+      Document currentDoc = DocumentMeta.unwrap(pDoc.collectionId(), pDoc.id(), current);
+      long version = DocumentMeta.nextVersion(pDoc, currentDoc.version());
+      JsonObject payload = pPatch ? Utils.mergePatch(currentDoc.payload(), pDoc.payload()) : pDoc.payload();
+      long expiresAt = pPatch && pDoc.expiresAt() == 0 ? currentDoc.expiresAt() : pDoc.expiresAt();
+      byte[] stored = encode(pDoc.collectionId(), DocumentMeta.wrap(payload, version, expiresAt));
+      mWriter.write(file, stored);
+
+      var aggregates = aggregatesOf(pDoc.collectionId());
+      aggregates.remove(current.length, currentDoc.payload());
+      aggregates.add(stored.length, payload);
+
+      return Document
+          .newBuilder()
+          .underCollection(pDoc.collectionId())
+          .withId(pDoc.id())
+          .withPayload(payload)
+          .withVersion(version)
+          .expiringAt(expiresAt)
+          .build();
+    } catch (IOException ex) {
+      throw new DocumentException("Unable to update document: " + pDoc.id(), ex);
+
+    } finally {
+      documentLock.unlock();
+      collectionLock.unlock();
+    }
+  }
+
+  /**
+   * @return whether the file holds exactly the given bytes, which tells the files a failed write replaced from the
+   * ones it didn't.
+   */
+  private static boolean holds(File pFile, byte[] pBytes) {
+    try {
+      return pFile.length() == pBytes.length && Arrays.equals(Files.readAllBytes(pFile.toPath()), pBytes);
+
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  private File documentFile(String pCollectionId, String pDocId) {
+    return mLayouts.apply(pCollectionId).documentFile(new File(mRootFolder, pCollectionId), pDocId);
+  }
+
+  private void migrate(File pFolder, DocumentLayout pLayout) {
+    try {
+      int moved = pLayout.migrate(pFolder);
+      if (moved > 0) {
+        LOGGER.info("Moved " + moved + " documents of collection " + pFolder.getName() + " to the "
+            + pLayout.name().toLowerCase(Locale.ROOT) + " layout");
+      }
+
+    } catch (IOException ex) {
+      throw new RuntimeException("Unable to initialize DB. Failed to migrate collection: " + pFolder.getName(), ex);
+    }
+  }
+
+  private Document readDocumentFile(String pCollectionId, File pFile) {
+    Lock documentLock = mDocumentLocks.forKey(pCollectionId, pFile.getName()).readLock();
+    documentLock.lock();
+
+    try {
+      if (!mCatalog.hasDocument(pCollectionId, pFile.getName())) return null;
+
+      return DocumentMeta.unwrap(pCollectionId, pFile.getName(), Files.readAllBytes(pFile.toPath()));
+
+    } catch (IOException ex) {
+      LOGGER.log(Level.SEVERE, "Unable to read document from " + pFile, ex);
+      return null;
+
+    } finally {
+      documentLock.unlock();
+    }
+  }
+
+  /**
+   * Reads a range of a collection's files into the same slots of an array, splitting the range in halves until it's
+   * small enough for one thread.
+   */
+  @SuppressWarnings("serial")
+  private final class LoadTask
+      extends RecursiveAction {
+
+    private final String mCollectionId;
+    private final List<File> mFiles;
+    private final Document[] mDocs;
+    private final int mFrom;
+    private final int mTo;
+
+    LoadTask(String pCollectionId, List<File> pFiles, Document[] pDocs, int pFrom, int pTo) {
+      mCollectionId = pCollectionId;
+      mFiles = pFiles;
+      mDocs = pDocs;
+      mFrom = pFrom;
+      mTo = pTo;
+    }
+
+    @Override
+    protected void compute() {
+      // Run directly by getCollection for small collections, where there's nothing to fork into.
+      if (mTo - mFrom <= LOAD_BATCH_SIZE || getPool() == null || getPool() != mLoadPool) {
+        for (int i = mFrom; i < mTo; i++) {
+          mDocs[i] = readDocumentFile(mCollectionId, mFiles.get(i));
+        }
+        return;
+      }
+
+      int middle = (mFrom + mTo) >>> 1;
+      invokeAll(
+          new LoadTask(mCollectionId, mFiles, mDocs, mFrom, middle),
+          new LoadTask(mCollectionId, mFiles, mDocs, middle, mTo));
+    }
+  }
+
+  /**
+   * Engine named {@code json}.
+   */
+  public static class Engine
+      implements DBEngine {
+
+    @Override
+    public String name() {
+      return "json";
+    }
+
+    @Override
+    public DB create(JsonObject pConfig) {
+      return new JsonDB(pConfig);
+    }
+  }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import io.vertx.core.json.DecodeException;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Document payload that keeps the encoded document and only decodes it when one of its fields is first accessed.
+ * Reading a document therefore costs no parsing until its payload is actually used, and callers that only need the
+ * document's id or version never pay for it. The {@link DocumentMeta#META_KEY} object is dropped while decoding.
+ */
+final class LazyJsonMap
+    extends AbstractMap<String, Object> {
+
+  private final DocumentCodec mCodec;
+  private byte[] mBytes;
+  private volatile Map<String, Object> mMap;
+
+  LazyJsonMap(DocumentCodec pCodec, byte[] pBytes) {
+    mCodec = pCodec;
+    mBytes = pBytes;
+  }
+
+  @Override
+  public int size() {
+    return map().size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return map().isEmpty();
+  }
+
+  @Override
+  public boolean containsKey(Object pKey) {
+    return map().containsKey(pKey);
+  }
+
+  @Override
+  public boolean containsValue(Object pValue) {
+    return map().containsValue(pValue);
+  }
+
+  @Override
+  public Object get(Object pKey) {
+    return map().get(pKey);
+  }
+
+  @Override
+  public Object put(String pKey, Object pValue) {
+    return map().put(pKey, pValue);
+  }
+
+  @Override
+  public Object remove(Object pKey) {
+    return map().remove(pKey);
+  }
+
+  @Override
+  public void putAll(Map<? extends String, ?> pMap) {
+    map().putAll(pMap);
+  }
+
+  @Override
+  public void clear() {
+    map().clear();
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return map().keySet();
+  }
+
+  @Override
+  public Collection<Object> values() {
+    return map().values();
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return map().entrySet();
+  }
+
+  private Map<String, Object> map() {
+    Map<String, Object> map = mMap;
+    if (map != null) return map;
+
+    synchronized (this) {
+      if (mMap == null) {
+        try {
+          Map<String, Object> decoded = mCodec.decode(mBytes);
+          decoded.remove(DocumentMeta.META_KEY);
+          mMap = decoded;
+          mBytes = null;
+
+        } catch (IOException ex) {
+          throw new DecodeException("Failed to decode stored document: " + ex.getMessage(), ex);
+        }
+      }
+
+      return mMap;
+    }
+  }
+}
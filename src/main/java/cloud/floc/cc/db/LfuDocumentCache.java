@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Document;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * {@link DocumentCache} that evicts the least frequently used document, breaking ties by age.
+ */
+class LfuDocumentCache
+    extends DocumentCache {
+
+  private static class Entry {
+    Document mDoc;
+    int mFrequency;
+
+    Entry(Document pDoc) {
+      mDoc = pDoc;
+      mFrequency = 1;
+    }
+  }
+
+  private final Map<String, Entry> mEntries;
+  private final TreeMap<Integer, LinkedHashSet<String>> mFrequencies;
+
+  LfuDocumentCache(int pMaxEntries) {
+    super(pMaxEntries);
+    mEntries = new HashMap<>();
+    mFrequencies = new TreeMap<>();
+  }
+
+  @Override
+  String policy() {
+    return "lfu";
+  }
+
+  @Override
+  synchronized int size() {
+    return mEntries.size();
+  }
+
+  @Override
+  synchronized Document lookup(String pKey) {
+    Entry entry = mEntries.get(pKey);
+    if (entry == null) return null;
+
+    touch(pKey, entry);
+    return entry.mDoc;
+  }
+
+  @Override
+  synchronized boolean store(String pKey, Document pDoc) {
+    Entry entry = mEntries.get(pKey);
+    if (entry != null) {
+      entry.mDoc = pDoc;
+      touch(pKey, entry);
+      return false;
+    }
+
+    boolean evict = mEntries.size() >= mMaxEntries;
+    if (evict) {
+      var leastFrequent = mFrequencies.firstEntry();
+      var victims = leastFrequent.getValue().iterator();
+      mEntries.remove(victims.next());
+      victims.remove();
+
+      if (leastFrequent.getValue().isEmpty()) {
+        mFrequencies.remove(leastFrequent.getKey());
+      }
+    }
+
+    mEntries.put(pKey, new Entry(pDoc));
+    mFrequencies.computeIfAbsent(1, f -> new LinkedHashSet<>()).add(pKey);
+    return evict;
+  }
+
+  @Override
+  synchronized void remove(String pKey) {
+    Entry entry = mEntries.remove(pKey);
+    if (entry != null) {
+      unlink(pKey, entry.mFrequency);
+    }
+  }
+
+  @Override
+  synchronized void removeIf(Predicate<String> pKeyFilter) {
+    var entries = mEntries.entrySet().iterator();
+
+    while (entries.hasNext()) {
+      var entry = entries.next();
+      if (pKeyFilter.test(entry.getKey())) {
+        unlink(entry.getKey(), entry.getValue().mFrequency);
+        entries.remove();
+      }
+    }
+  }
+
+  private void touch(String pKey, Entry pEntry) {
+    unlink(pKey, pEntry.mFrequency);
+    pEntry.mFrequency++;
+    mFrequencies.computeIfAbsent(pEntry.mFrequency, f -> new LinkedHashSet<>()).add(pKey);
+  }
+
+  private void unlink(String pKey, int pFrequency) {
+    var keys = mFrequencies.get(pFrequency);
+    keys.remove(pKey);
+
+    if (keys.isEmpty()) {
+      mFrequencies.remove(pFrequency);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Fixed set of read/write locks that keys are hashed onto, so unrelated keys rarely contend.
+ */
+class LockStripes {
+
+  private final ReentrantReadWriteLock[] mStripes;
+
+  LockStripes(int pStripes) {
+    if (pStripes < 1) {
+      throw new IllegalArgumentException("At least one lock stripe is required");
+    }
+
+    mStripes = new ReentrantReadWriteLock[pStripes];
+    for (int s = 0; s < pStripes; s++) {
+      mStripes[s] = new ReentrantReadWriteLock();
+    }
+  }
+
+  ReadWriteLock forKey(String pKey) {
+    return mStripes[stripe(pKey)];
+  }
+
+  ReadWriteLock forKey(String pCollectionId, String pDocId) {
+    return mStripes[stripe(pCollectionId, pDocId)];
+  }
+
+  /**
+   * @return the locks of the given documents, each stripe once and in stripe order, so that callers taking them in
+   * sequence can't deadlock each other.
+   */
+  List<ReadWriteLock> forKeys(String pCollectionId, Iterable<String> pDocIds) {
+    var stripes = new TreeSet<Integer>();
+    pDocIds.forEach(docId -> stripes.add(stripe(pCollectionId, docId)));
+
+    List<ReadWriteLock> locks = new ArrayList<>(stripes.size());
+    stripes.forEach(stripe -> locks.add(mStripes[stripe]));
+    return locks;
+  }
+
+  /**
+   * @return every lock, in stripe order.
+   */
+  List<ReadWriteLock> all() {
+    return List.of(mStripes);
+  }
+
+  int stripe(String pKey) {
+    return spread(pKey.hashCode());
+  }
+
+  int stripe(String pCollectionId, String pDocId) {
+    return spread(31 * pCollectionId.hashCode() + pDocId.hashCode());
+  }
+
+  private int spread(int pHash) {
+    int h = pHash ^ (pHash >>> 16);
+    return (h & 0x7FFFFFFF) % mStripes.length;
+  }
+}
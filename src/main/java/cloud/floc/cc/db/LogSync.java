@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import io.vertx.core.json.JsonObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Syncs appends to a log file according to the DB's {@link AtomicFileWriter.Durability}: {@code fsync} forces each
+ * append before its write returns, {@code batch} has writers wait for a shared sync covering everything appended
+ * during the commit interval, and {@code none} leaves the log to the OS to flush.
+ * <p>
+ * The log's owner calls {@link #appended} and {@link #rotate} under its own write lock and {@link #await} after
+ * releasing it, so writers keep appending while a batch is being synced.
+ */
+class LogSync {
+
+  /**
+   * The file being appended to.
+   */
+  @FunctionalInterface
+  interface Log {
+    void force()
+        throws IOException;
+  }
+
+  private final AtomicFileWriter.Durability mDurability;
+  private final long mCommitInterval;
+  private final LongAdder mSyncs;
+  private final LongAdder mCommits;
+  private final LongAdder mCommittedWrites;
+
+  // Guarded by this.
+  private Log mLog;
+  private long mAppended;
+  private long mSynced;
+  private boolean mSyncing;
+
+  LogSync(AtomicFileWriter.Durability pDurability, long pCommitInterval) {
+    mDurability = pDurability;
+    mCommitInterval = pCommitInterval;
+    mSyncs = new LongAdder();
+    mCommits = new LongAdder();
+    mCommittedWrites = new LongAdder();
+  }
+
+  /**
+   * Records an append to the given log, forcing it right away under {@code fsync}.
+   */
+  void appended(Log pLog)
+      throws IOException {
+    switch (mDurability) {
+      case FSYNC:
+        pLog.force();
+        mSyncs.increment();
+        mCommits.increment();
+        mCommittedWrites.increment();
+        break;
+
+      case BATCH:
+        synchronized (this) {
+          mLog = pLog;
+          mAppended++;
+        }
+        break;
+
+      default:
+    }
+  }
+
+  /**
+   * @return the ticket to {@link #await} for every append recorded so far, once the owner's write lock is released.
+   */
+  synchronized long ticket() {
+    return mAppended;
+  }
+
+  /**
+   * Waits until the append with the given ticket is synced. The first writer to wait syncs on behalf of every writer
+   * that appends during the commit interval; the others wait for it.
+   */
+  void await(long pTicket)
+      throws IOException {
+    if (pTicket == 0) return;
+
+    synchronized (this) {
+      while (mSyncing && mSynced < pTicket) {
+        try {
+          wait();
+
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for the log to sync");
+        }
+      }
+
+      if (mSynced >= pTicket) return;
+      mSyncing = true;
+    }
+
+    try {
+      // Give concurrent writers a chance to join this sync.
+      if (mCommitInterval > 0) {
+        Thread.sleep(mCommitInterval);
+      }
+
+      Log log;
+      long target;
+      synchronized (this) {
+        log = mLog;
+        target = mAppended;
+      }
+
+      try {
+        log.force();
+        mSyncs.increment();
+
+      } catch (ClosedChannelException ex) {
+        // The log was rotated in the meantime, which synced it.
+        synchronized (this) {
+          if (mSynced < target) throw ex;
+        }
+      }
+
+      synchronized (this) {
+        mCommits.increment();
+        mCommittedWrites.add(target - Math.min(mSynced, target));
+        mSynced = Math.max(mSynced, target);
+      }
+
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the log to sync");
+
+    } finally {
+      synchronized (this) {
+        mSyncing = false;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Syncs the given log before its owner closes it, so waiting writers don't need it anymore.
+   */
+  void rotate(Log pLog)
+      throws IOException {
+    if (mDurability != AtomicFileWriter.Durability.BATCH) return;
+
+    synchronized (this) {
+      if (mSynced == mAppended) return;
+
+      pLog.force();
+      mSyncs.increment();
+      mCommits.increment();
+      mCommittedWrites.add(mAppended - mSynced);
+      mSynced = mAppended;
+      notifyAll();
+    }
+  }
+
+  JsonObject metrics() {
+    long commits = mCommits.sum();
+
+    return new JsonObject()
+        .put("durability", mDurability.name().toLowerCase(Locale.ROOT))
+        .put("fsyncs", mSyncs.sum())
+        .put("groupCommits", commits)
+        .put("writesPerGroupCommit", commits > 0 ? (double) mCommittedWrites.sum() / commits : 0.0);
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Document;
+
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * {@link DocumentCache} that evicts the least recently used document.
+ */
+class LruDocumentCache
+    extends DocumentCache {
+
+  private final LinkedHashMap<String, Document> mEntries;
+
+  LruDocumentCache(int pMaxEntries) {
+    super(pMaxEntries);
+    mEntries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  @Override
+  String policy() {
+    return "lru";
+  }
+
+  @Override
+  synchronized int size() {
+    return mEntries.size();
+  }
+
+  @Override
+  synchronized Document lookup(String pKey) {
+    return mEntries.get(pKey);
+  }
+
+  @Override
+  synchronized boolean store(String pKey, Document pDoc) {
+    boolean evict = !mEntries.containsKey(pKey) && mEntries.size() >= mMaxEntries;
+
+    if (evict) {
+      var eldest = mEntries.keySet().iterator();
+      eldest.next();
+      eldest.remove();
+    }
+
+    mEntries.put(pKey, pDoc);
+    return evict;
+  }
+
+  @Override
+  synchronized void remove(String pKey) {
+    mEntries.remove(pKey);
+  }
+
+  @Override
+  synchronized void removeIf(Predicate<String> pKeyFilter) {
+    mEntries.keySet().removeIf(pKeyFilter);
+  }
+}
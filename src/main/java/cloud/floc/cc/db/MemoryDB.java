@@ -0,0 +1,642 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.Page;
+import cloud.floc.cc.common.Utils;
+import io.vertx.core.json.JsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link DB} that keeps every document in memory, in its {@link DocumentMeta} stored form, and never touches disk
+ * unless {@link Constants#MEMORY_SNAPSHOT_INTERVAL_KEY} is set. It's meant for ephemeral nodes and tests.
+ * <p>
+ * With a snapshot interval, the whole DB is written as a {@link Snapshot} to {@code <state-folder>/<db-name>/snapshot}
+ * whenever it changed, and once more on {@link #close()}; on startup the DB is loaded back from that file. The file is
+ * replaced atomically and synced according to {@link Constants#DB_DURABILITY_KEY}. Writes made since the last snapshot
+ * are lost if the process dies.
+ */
+public class MemoryDB
+    implements DB {
+
+  private static final Logger LOGGER = Logger.getLogger(MemoryDB.class.getName());
+
+  private static final String SNAPSHOT_FILE = "snapshot";
+
+  private final String mName;
+  private final LockStripes mCollectionLocks;
+  private final LockStripes mDocumentLocks;
+  private final ConcurrentMap<String, ConcurrentSkipListMap<String, JsonObject>> mCollections;
+
+  private final File mSnapshotFile;
+  private final AtomicLong mChanges;
+  private final AtomicLong mSnapshots;
+  private final AtomicFileWriter mWriter;
+  private final ScheduledExecutorService mSnapshotExecutor;
+  private long mSnapshotChanges;
+
+  public MemoryDB(JsonObject pConfig) {
+    mName = pConfig.getString(Constants.DB_NAME_KEY, Constants.DEFAULT_DB_NAME_VALUE);
+    mCollectionLocks = new LockStripes(pConfig.getInteger(
+        Constants.DB_COLLECTION_LOCK_STRIPES_KEY, Constants.DEFAULT_DB_COLLECTION_LOCK_STRIPES_VALUE));
+    mDocumentLocks = new LockStripes(pConfig.getInteger(
+        Constants.DB_DOCUMENT_LOCK_STRIPES_KEY, Constants.DEFAULT_DB_DOCUMENT_LOCK_STRIPES_VALUE));
+    mCollections = new ConcurrentHashMap<>();
+    mChanges = new AtomicLong();
+    mSnapshots = new AtomicLong();
+
+    long snapshotInterval = pConfig.getLong(
+        Constants.MEMORY_SNAPSHOT_INTERVAL_KEY, Constants.DEFAULT_MEMORY_SNAPSHOT_INTERVAL_VALUE);
+    if (snapshotInterval <= 0) {
+      mSnapshotFile = null;
+      mWriter = null;
+      mSnapshotExecutor = null;
+      return;
+    }
+
+    File rootFolder = new File(
+        pConfig.getString(Constants.STATE_FOLDER_KEY, Constants.DEFAULT_STATE_FOLDER_VALUE), mName);
+    mSnapshotFile = new File(rootFolder, SNAPSHOT_FILE);
+    mWriter = new AtomicFileWriter(
+        AtomicFileWriter.Durability.of(
+            pConfig.getString(Constants.DB_DURABILITY_KEY, Constants.DEFAULT_DB_DURABILITY_VALUE)),
+        pConfig.getLong(Constants.DB_GROUP_COMMIT_INTERVAL_KEY, Constants.DEFAULT_DB_GROUP_COMMIT_INTERVAL_VALUE),
+        mName);
+
+    try {
+      if (!rootFolder.isDirectory() && !rootFolder.mkdirs()) {
+        throw new IOException("Unable to create root folder: " + rootFolder);
+      }
+
+      AtomicFileWriter.deleteTempFiles(rootFolder);
+      if (mSnapshotFile.isFile()) load();
+
+    } catch (IOException ex) {
+      throw new RuntimeException("Unable to initialize DB. Failed to load snapshot.", ex);
+    }
+
+    mSnapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "memory-snapshot-" + mName);
+      thread.setDaemon(true);
+      return thread;
+    });
+    mSnapshotExecutor.scheduleWithFixedDelay(this::snapshot, snapshotInterval, snapshotInterval,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public String name() {
+    return mName;
+  }
+
+  @Override
+  public Document createDocument(Document pDoc)
+      throws DocumentExistsException, DocumentException {
+    Lock collectionLock = mCollectionLocks.forKey(pDoc.collectionId()).readLock();
+    Lock documentLock = mDocumentLocks.forKey(pDoc.collectionId(), pDoc.id()).writeLock();
+    collectionLock.lock();
+    documentLock.lock();
+
+    try {
+      var docs = mCollections.get(pDoc.collectionId());
+      if (docs == null) {
+        throw new DocumentException("Unable to create document: " + pDoc.id());
+      }
+
+      if (docs.containsKey(pDoc.id())) {
+        throw new DocumentExistsException("There's an existing document: " + pDoc.id());
+      }
+
+      return put(docs, pDoc.collectionId(), pDoc.id(), pDoc.payload(), 1, pDoc.expiresAt());
+
+    } finally {
+      documentLock.unlock();
+      collectionLock.unlock();
+    }
+  }
+
+  @Override
+  public Document getDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    var docs = mCollections.get(pCollectionId);
+    JsonObject stored = docs != null ? docs.get(pDocId) : null;
+
+    if (stored == null) {
+      throw new DocumentNotFoundException("Document not found: " + pDocId);
+    }
+
+    return DocumentMeta.unwrap(pCollectionId, pDocId, stored.copy());
+  }
+
+  @Override
+  public Document updateDocument(Document pDoc)
+      throws DocumentNotFoundException, DocumentException {
+    return update(pDoc, false);
+  }
+
+  @Override
+  public Document patchDocument(Document pPatch)
+      throws DocumentNotFoundException, DocumentException {
+    return update(pPatch, true);
+  }
+
+  @Override
+  public Document deleteDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    Lock collectionLock = mCollectionLocks.forKey(pCollectionId).readLock();
+    Lock documentLock = mDocumentLocks.forKey(pCollectionId, pDocId).writeLock();
+    collectionLock.lock();
+    documentLock.lock();
+
+    try {
+      var docs = mCollections.get(pCollectionId);
+      JsonObject stored = docs != null ? docs.remove(pDocId) : null;
+      if (stored == null) {
+        throw new DocumentNotFoundException("Document not found: " + pDocId);
+      }
+
+      mChanges.incrementAndGet();
+      return DocumentMeta.unwrap(pCollectionId, pDocId, stored.copy());
+
+    } finally {
+      documentLock.unlock();
+      collectionLock.unlock();
+    }
+  }
+
+  @Override
+  public boolean hasDocument(String pCollectionId, String pDocId) {
+    var docs = mCollections.get(pCollectionId);
+    return docs != null && docs.containsKey(pDocId);
+  }
+
+  @Override
+  public Collection createCollection(Collection pCol)
+      throws DocumentExistsException, DocumentException {
+    Lock lock = mCollectionLocks.forKey(pCol.id()).writeLock();
+    lock.lock();
+
+    try {
+      if (mCollections.putIfAbsent(pCol.id(), new ConcurrentSkipListMap<>()) != null) {
+        throw new DocumentExistsException("There's an existing collection: " + pCol.id());
+      }
+
+      mChanges.incrementAndGet();
+      return Collection
+          .newBuilder()
+          .withId(pCol.id())
+          .withPayload(new JsonObject())
+          .build();
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Collection getCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    var builder = bulkResult(pId);
+    documentsOf(pId).forEach((docId, stored) -> builder.addDocument(DocumentMeta.unwrap(pId, docId, stored.copy())));
+    return builder.build();
+  }
+
+  @Override
+  public Collection updateCollection(Collection pCol)
+      throws DocumentNotFoundException, DocumentException {
+    if (!mCollections.containsKey(pCol.id())) {
+      throw new DocumentNotFoundException("Collection not found: " + pCol.id());
+    }
+
+    return Collection
+        .newBuilder()
+        .withId(pCol.id())
+        .build();
+  }
+
+  @Override
+  public Collection deleteCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    Lock lock = mCollectionLocks.forKey(pId).writeLock();
+    lock.lock();
+
+    try {
+      if (mCollections.remove(pId) == null) {
+        throw new DocumentNotFoundException("Collection not found: " + pId);
+      }
+
+      mChanges.incrementAndGet();
+      return Collection
+          .newBuilder()
+          .withId(pId)
+          .build();
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean hasCollection(String pId) {
+    return mCollections.containsKey(pId);
+  }
+
+  @Override
+  public Collection getDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    var builder = bulkResult(pCollectionId);
+    var docs = documentsOf(pCollectionId);
+
+    for (String docId : pDocIds) {
+      JsonObject stored = docs.get(docId);
+      if (stored != null) builder.addDocument(DocumentMeta.unwrap(pCollectionId, docId, stored.copy()));
+    }
+
+    return builder.build();
+  }
+
+  @Override
+  public Collection putDocuments(String pCollectionId, List<Document> pDocs)
+      throws DocumentNotFoundException, DocumentException {
+    List<String> docIds = new ArrayList<>();
+    pDocs.forEach(doc -> {
+      DocumentMeta.checkPayload(doc.payload());
+      docIds.add(doc.id());
+    });
+
+    Lock collectionLock = mCollectionLocks.forKey(pCollectionId).readLock();
+    collectionLock.lock();
+    List<Lock> locks = lockDocuments(pCollectionId, docIds);
+
+    try {
+      var builder = bulkResult(pCollectionId);
+      var docs = documentsOf(pCollectionId);
+
+      for (Document doc : pDocs) {
+        JsonObject current = docs.get(doc.id());
+        long version = current != null ? DocumentMeta.version(current) + 1 : 1;
+        builder.addDocument(put(docs, pCollectionId, doc.id(), doc.payload(), version, doc.expiresAt()));
+      }
+
+      return builder.build();
+
+    } finally {
+      unlock(locks);
+      collectionLock.unlock();
+    }
+  }
+
+  @Override
+  public Collection deleteDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    Lock collectionLock = mCollectionLocks.forKey(pCollectionId).readLock();
+    collectionLock.lock();
+    List<Lock> locks = lockDocuments(pCollectionId, pDocIds);
+
+    try {
+      var builder = bulkResult(pCollectionId);
+      var docs = documentsOf(pCollectionId);
+
+      for (String docId : pDocIds) {
+        JsonObject stored = docs.remove(docId);
+        if (stored == null) continue;
+
+        mChanges.incrementAndGet();
+        builder.addDocument(DocumentMeta.unwrap(pCollectionId, docId, stored.copy()));
+      }
+
+      return builder.build();
+
+    } finally {
+      unlock(locks);
+      collectionLock.unlock();
+    }
+  }
+
+  @Override
+  public Page getPage(String pCollectionId, String pCursor, int pLimit)
+      throws DocumentNotFoundException, DocumentException {
+    if (pLimit < 1) throw new IllegalArgumentException("Page limit should be positive");
+
+    var docs = documentsOf(pCollectionId);
+    String afterId = Page.decodeCursor(pCursor);
+    var tail = afterId != null ? docs.tailMap(afterId, false) : docs;
+    var builder = Page
+        .newBuilder()
+        .underCollection(pCollectionId);
+
+    int count = 0;
+    for (var entry : tail.entrySet()) {
+      if (count == pLimit) {
+        builder.continueAfter(afterId);
+        break;
+      }
+
+      builder.addDocument(DocumentMeta.unwrap(pCollectionId, entry.getKey(), entry.getValue().copy()));
+      afterId = entry.getKey();
+      count++;
+    }
+
+    return builder.build();
+  }
+
+  @Override
+  public Collection getRange(String pCollectionId, String pFromId, String pToId, int pLimit, boolean pDescending)
+      throws DocumentNotFoundException, DocumentException {
+    if (pLimit < 1) throw new IllegalArgumentException("Range limit should be positive");
+
+    var docs = documentsOf(pCollectionId);
+
+    var builder = Collection
+        .newBuilder()
+        .withId(pCollectionId)
+        .withPayload(new JsonObject());
+
+    int count = 0;
+    for (var entry : IdRanges.of(docs, pFromId, pToId, pDescending).entrySet()) {
+      if (count++ == pLimit) break;
+      builder.addDocument(DocumentMeta.unwrap(pCollectionId, entry.getKey(), entry.getValue().copy()));
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * Copies the document references of every collection while holding all collection locks, then writes them out while
+   * writes continue. Stored documents are replaced rather than modified, so the copy stays a consistent view.
+   */
+  @Override
+  public void exportSnapshot(OutputStream pOut)
+      throws DocumentException {
+    Map<String, ConcurrentSkipListMap<String, JsonObject>> view = new TreeMap<>();
+
+    List<Lock> locks = new ArrayList<>();
+    for (ReadWriteLock stripe : mCollectionLocks.all()) {
+      Lock lock = stripe.writeLock();
+      lock.lock();
+      locks.add(lock);
+    }
+
+    try {
+      mCollections.forEach((collectionId, docs) -> view.put(collectionId, docs.clone()));
+
+    } finally {
+      unlock(locks);
+    }
+
+    try (var writer = new Snapshot.Writer(pOut, mName)) {
+      for (var collection : view.entrySet()) {
+        writer.collection(collection.getKey());
+
+        for (var doc : collection.getValue().entrySet()) {
+          writer.document(collection.getKey(), doc.getKey(), doc.getValue());
+        }
+      }
+
+    } catch (IOException ex) {
+      throw new DocumentException("Unable to export snapshot of DB: " + mName, ex);
+    }
+  }
+
+  @Override
+  public JsonObject metrics() {
+    long documents = 0;
+    for (var docs : mCollections.values()) {
+      documents += docs.size();
+    }
+
+    return new JsonObject()
+        .put("collections", mCollections.size())
+        .put("documents", documents)
+        .put("snapshots", mSnapshots.get());
+  }
+
+  @Override
+  public void close() {
+    if (mSnapshotExecutor == null) return;
+
+    mSnapshotExecutor.shutdown();
+
+    try {
+      mSnapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+
+    snapshot();
+    mWriter.close();
+  }
+
+  /**
+   * Writes the DB to its snapshot file, unless nothing changed since the previous snapshot.
+   */
+  synchronized void snapshot() {
+    long changes = mChanges.get();
+    if (changes == mSnapshotChanges) return;
+
+    try {
+      var out = new ByteArrayOutputStream();
+      exportSnapshot(out);
+      mWriter.write(mSnapshotFile, out.toByteArray());
+
+      mSnapshotChanges = changes;
+      mSnapshots.incrementAndGet();
+
+    } catch (DocumentException | IOException | RuntimeException ex) {
+      LOGGER.log(Level.SEVERE, "Unable to write snapshot of DB " + mName + " to " + mSnapshotFile, ex);
+    }
+  }
+
+  private void load()
+      throws IOException {
+    int[] documents = {0};
+
+    Snapshot.read(mSnapshotFile, new Snapshot.Visitor() {
+
+      @Override
+      public void collection(String pCollectionId) {
+        mCollections.put(pCollectionId, new ConcurrentSkipListMap<>());
+      }
+
+      @Override
+      public void document(String pCollectionId, String pDocId, JsonObject pStored) {
+        mCollections.computeIfAbsent(pCollectionId, id -> new ConcurrentSkipListMap<>()).put(pDocId, pStored);
+        documents[0]++;
+      }
+    });
+
+    LOGGER.info("Loaded " + documents[0] + " documents of DB " + mName + " from snapshot " + mSnapshotFile);
+  }
+
+  /**
+   * Copies a snapshot into the given folder as the snapshot file a DB with a snapshot interval loads on startup,
+   * reading it through first so that a snapshot that can't be loaded is refused.
+   *
+   * @return the number of documents restored.
+   */
+  static int restore(File pSnapshot, File pFolder, AtomicFileWriter pWriter)
+      throws IOException {
+    if (pFolder.exists() || !pFolder.mkdirs()) {
+      throw new IOException("Unable to create restore folder: " + pFolder);
+    }
+
+    int[] documents = {0};
+    Snapshot.read(pSnapshot, new Snapshot.Visitor() {
+
+      @Override
+      public void collection(String pCollectionId) {}
+
+      @Override
+      public void document(String pCollectionId, String pDocId, JsonObject pStored) {
+        documents[0]++;
+      }
+    });
+
+    pWriter.write(new File(pFolder, SNAPSHOT_FILE), Files.readAllBytes(pSnapshot.toPath()));
+    pWriter.synced(pFolder);
+    return documents[0];
+  }
+
+  /**
+   * Replaces the payload of a document with the given one, or merges the given one into it when patching.
+   */
+  private Document update(Document pDoc, boolean pPatch)
+      throws DocumentNotFoundException, DocumentException {
+    Lock collectionLock = mCollectionLocks.forKey(pDoc.collectionId()).readLock();
+    Lock documentLock = mDocumentLocks.forKey(pDoc.collectionId(), pDoc.id()).writeLock();
+    collectionLock.lock();
+    documentLock.lock();
+
+    try {
+      var docs = mCollections.get(pDoc.collectionId());
+      JsonObject current = docs != null ? docs.get(pDoc.id()) : null;
+      if (current == null) {
+        throw new DocumentNotFoundException("Document not found: " + pDoc.id());
+      }
+
+      long version = DocumentMeta.nextVersion(pDoc, DocumentMeta.version(current));
+      if (!pPatch) {
+        return put(docs, pDoc.collectionId(), pDoc.id(), pDoc.payload(), version, pDoc.expiresAt());
+      }
+
+      Document currentDoc = DocumentMeta.unwrap(pDoc.collectionId(), pDoc.id(), current.copy());
+      return put(docs, pDoc.collectionId(), pDoc.id(), Utils.mergePatch(currentDoc.payload(), pDoc.payload()), version,
+          pDoc.expiresAt() > 0 ? pDoc.expiresAt() : currentDoc.expiresAt());
+
+    } finally {
+      documentLock.unlock();
+      collectionLock.unlock();
+    }
+  }
+
+  /**
+   * Stores a copy of the given payload; callers hold the document's lock.
+   */
+  private Document put(Map<String, JsonObject> pDocs, String pCollectionId, String pDocId, JsonObject pPayload,
+                       long pVersion, long pExpiresAt) {
+    pDocs.put(pDocId, DocumentMeta.wrap(pPayload.copy(), pVersion, pExpiresAt));
+    mChanges.incrementAndGet();
+
+    return Document
+        .newBuilder()
+        .underCollection(pCollectionId)
+        .withId(pDocId)
+        .withPayload(pPayload)
+        .withVersion(pVersion)
+        .expiringAt(pExpiresAt)
+        .build();
+  }
+
+  private ConcurrentSkipListMap<String, JsonObject> documentsOf(String pCollectionId)
+      throws DocumentNotFoundException {
+    var docs = mCollections.get(pCollectionId);
+    if (docs == null) {
+      throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+    }
+
+    return docs;
+  }
+
+  private Collection.Builder bulkResult(String pCollectionId) {
+    return Collection
+        .newBuilder()
+        .withId(pCollectionId)
+        .withPayload(new JsonObject());
+  }
+
+  private List<Lock> lockDocuments(String pCollectionId, List<String> pDocIds) {
+    List<Lock> locks = new ArrayList<>();
+
+    for (var stripe : mDocumentLocks.forKeys(pCollectionId, pDocIds)) {
+      Lock lock = stripe.writeLock();
+      lock.lock();
+      locks.add(lock);
+    }
+
+    return locks;
+  }
+
+  private void unlock(List<Lock> pLocks) {
+    for (int l = pLocks.size() - 1; l >= 0; l--) {
+      pLocks.get(l).unlock();
+    }
+  }
+
+  /**
+   * Engine named {@code memory}.
+   */
+  public static class Engine
+      implements DBEngine {
+
+    @Override
+    public String name() {
+      return "memory";
+    }
+
+    @Override
+    public DB create(JsonObject pConfig) {
+      return new MemoryDB(pConfig);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Constants;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+
+/**
+ * Log-shipping replication between processes. A {@link ReplicationLeader} streams the mutations recorded in its
+ * {@link ChangeFeed} over TCP, as NDJSON, to any number of {@link ReplicationFollower}s, which apply them to their own
+ * DB. A follower that is new, or has fallen further behind than the leader's change feed reaches, is first sent a
+ * {@link Snapshot} and then the mutations made since it was taken.
+ * <p>
+ * The protocol is line based; the only exception is the snapshot itself, sent as raw bytes right after its header:
+ * <pre>
+ * follower: {"follow":seq}                              resume after the given sequence number, 0 if none
+ * leader:   {"seq":..,"collection":..,"id":..,"type":..,"version":..,"expiresAt":..,"payload":{..}}
+ * leader:   {"snapshot":{"seq":..,"bytes":..}}          followed by the gzipped snapshot
+ * leader:   {"heartbeat":{"seq":..,"time":..}}          the leader's last sequence number
+ * follower: {"ack":seq}                                 everything up to seq is applied
+ * </pre>
+ * Followers keep their own document versions, so they match the leader's only as long as the follower applied all of
+ * the leader's writes from an empty DB.
+ */
+interface Replication {
+
+  String FOLLOW_KEY = "follow";
+  String ACK_KEY = "ack";
+  String SNAPSHOT_KEY = "snapshot";
+  String HEARTBEAT_KEY = "heartbeat";
+  String BYTES_KEY = "bytes";
+  String TIME_KEY = "time";
+
+  /**
+   * Starts replicating the given DB, which {@code pAsyncDB} wraps. Must be called on the context that owns the DB.
+   */
+  Future<Void> start(DB pDB, AsyncDB pAsyncDB);
+
+  /**
+   * Stops replicating; may block.
+   */
+  void close();
+
+  JsonObject metrics();
+
+  /**
+   * @return the replication configured by {@link Constants#REPLICATION_ROLE_KEY}, or {@code null} if there's none.
+   */
+  static Replication fromConfig(Vertx pVertx, JsonObject pConfig) {
+    String role = pConfig.getString(Constants.REPLICATION_ROLE_KEY);
+    if (role == null) return null;
+
+    switch (role) {
+      case Constants.REPLICATION_LEADER_VALUE:
+        return new ReplicationLeader(pVertx,
+            pConfig.getInteger(Constants.REPLICATION_PORT_KEY, Constants.DEFAULT_REPLICATION_PORT_VALUE));
+
+      case Constants.REPLICATION_FOLLOWER_VALUE:
+        String leader = pConfig.getString(Constants.REPLICATION_LEADER_KEY,
+            Constants.DEFAULT_REPLICATION_LEADER_VALUE);
+        int colon = leader.lastIndexOf(':');
+        if (colon < 1) {
+          throw new IllegalArgumentException("Replication leader should be host:port, not: " + leader);
+        }
+
+        String name = pConfig.getString(Constants.DB_NAME_KEY, Constants.DEFAULT_DB_NAME_VALUE);
+        File stateFolder = new File(pConfig.getString(Constants.STATE_FOLDER_KEY,
+            Constants.DEFAULT_STATE_FOLDER_VALUE));
+        return new ReplicationFollower(pVertx, leader.substring(0, colon), Integer.parseInt(leader.substring(colon + 1)),
+            new File(stateFolder, name + ".replication.json"));
+
+      default:
+        throw new IllegalArgumentException("Unknown replication role: " + role);
+    }
+  }
+}
@@ -0,0 +1,589 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Follower side of {@link Replication}: applies the leader's mutations, one batch at a time and in order, and keeps
+ * reconnecting while the leader is unreachable. The sequence number of the last applied mutation is saved next to the
+ * DB, so that a restarted follower resumes where it left off if the leader still has the changes since then.
+ */
+final class ReplicationFollower
+    implements Replication {
+
+  private static final Logger LOGGER = Logger.getLogger(ReplicationFollower.class.getName());
+
+  private static final long RECONNECT_INTERVAL = 2000L;
+  private static final long SAVE_INTERVAL = 1000L;
+  private static final int BATCH_SIZE = 256;
+  private static final int MAX_QUEUED = 4096;
+  private static final int SNAPSHOT_CHUNK = 64 * 1024;
+
+  private final Vertx mVertx;
+  private final String mHost;
+  private final int mPort;
+  private final File mStateFile;
+  private final Deque<JsonObject> mQueue;
+  private DB mDB;
+  private AsyncDB mAsyncDB;
+  private NetClient mClient;
+  private NetSocket mSocket;
+  private RecordParser mParser;
+  private Download mDownload;
+  private long mSaveTimer;
+  private long mReceived;
+  private long mSaved;
+  private boolean mApplying;
+  private volatile boolean mClosed;
+  private volatile boolean mConnected;
+  private volatile long mApplied;
+  private volatile long mLeaderSequence;
+  private volatile long mCaughtUpAt;
+  private volatile int mQueued;
+  private volatile int mSnapshots;
+
+  ReplicationFollower(Vertx pVertx, String pHost, int pPort, File pStateFile) {
+    mVertx = pVertx;
+    mHost = pHost;
+    mPort = pPort;
+    mStateFile = pStateFile;
+    mQueue = new ArrayDeque<>();
+  }
+
+  @Override
+  public Future<Void> start(DB pDB, AsyncDB pAsyncDB) {
+    mDB = pDB;
+    mAsyncDB = pAsyncDB;
+    mClient = mVertx.createNetClient(new NetClientOptions().setTcpNoDelay(true));
+
+    Promise<Buffer> state = Promise.promise();
+    mVertx.fileSystem().readFile(mStateFile.getPath(), state);
+
+    return state.future()
+        .map(buffer -> buffer.toJsonObject().getLong(ChangeFeed.SEQUENCE_KEY, 0L))
+        .otherwise(0L)
+        .onSuccess(sequence -> {
+          mApplied = sequence;
+          mSaved = sequence;
+          mReceived = sequence;
+          mCaughtUpAt = System.currentTimeMillis();
+          mSaveTimer = mVertx.setPeriodic(SAVE_INTERVAL, id -> saveState());
+          connect();
+        })
+        .mapEmpty();
+  }
+
+  @Override
+  public void close() {
+    mClosed = true;
+    mVertx.cancelTimer(mSaveTimer);
+    if (mClient != null) mClient.close();
+
+    try {
+      writeState(mApplied);
+
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Unable to save replication state to " + mStateFile, ex);
+    }
+  }
+
+  @Override
+  public JsonObject metrics() {
+    long applied = mApplied;
+    long lag = Math.max(0, mLeaderSequence - applied);
+
+    return new JsonObject()
+        .put("role", "follower")
+        .put("leader", mHost + ":" + mPort)
+        .put("connected", mConnected)
+        .put("appliedSequence", applied)
+        .put("leaderSequence", mLeaderSequence)
+        .put("lag", lag)
+        .put("lagMillis", lag == 0 ? 0 : System.currentTimeMillis() - mCaughtUpAt)
+        .put("queued", mQueued)
+        .put("snapshots", mSnapshots);
+  }
+
+  private void connect() {
+    if (mClosed) return;
+
+    mClient.connect(mPort, mHost, ar -> {
+      if (ar.failed()) {
+        LOGGER.fine("Unable to reach replication leader " + mHost + ":" + mPort + ": " + ar.cause().getMessage());
+        mVertx.setTimer(RECONNECT_INTERVAL, id -> connect());
+        return;
+      }
+
+      mSocket = ar.result();
+      mConnected = true;
+      LOGGER.info("Following " + mHost + ":" + mPort + " from " + mReceived);
+
+      mParser = RecordParser.newDelimited("\n", mSocket);
+      mParser.handler(this::receive);
+      mSocket.exceptionHandler(ex -> {
+        LOGGER.log(Level.FINE, "Replication connection failed", ex);
+        mSocket.close();
+      });
+      mSocket.closeHandler(v -> disconnected());
+      send(new JsonObject().put(FOLLOW_KEY, mReceived));
+    });
+  }
+
+  private void disconnected() {
+    mConnected = false;
+    mSocket = null;
+    if (mDownload != null) {
+      mDownload.abort();
+      mDownload = null;
+    }
+
+    if (!mClosed) {
+      LOGGER.warning("Lost replication leader " + mHost + ":" + mPort + ", reconnecting");
+      mVertx.setTimer(RECONNECT_INTERVAL, id -> connect());
+    }
+  }
+
+  private void receive(Buffer pRecord) {
+    if (mDownload != null) {
+      receiveSnapshot(pRecord);
+      return;
+    }
+
+    JsonObject message;
+    try {
+      message = pRecord.toJsonObject();
+
+    } catch (RuntimeException ex) {
+      LOGGER.log(Level.WARNING, "Bad message from replication leader", ex);
+      mSocket.close();
+      return;
+    }
+
+    if (message.containsKey(HEARTBEAT_KEY)) {
+      mLeaderSequence = Math.max(mLeaderSequence, message.getJsonObject(HEARTBEAT_KEY)
+          .getLong(ChangeFeed.SEQUENCE_KEY));
+      if (mApplied >= mLeaderSequence) mCaughtUpAt = System.currentTimeMillis();
+
+    } else if (message.containsKey(SNAPSHOT_KEY)) {
+      JsonObject header = message.getJsonObject(SNAPSHOT_KEY);
+      mLeaderSequence = Math.max(mLeaderSequence, header.getLong(ChangeFeed.SEQUENCE_KEY));
+      startDownload(header.getLong(ChangeFeed.SEQUENCE_KEY), header.getLong(BYTES_KEY));
+
+    } else {
+      mReceived = message.getLong(ChangeFeed.SEQUENCE_KEY);
+      mLeaderSequence = Math.max(mLeaderSequence, mReceived);
+      enqueue(message);
+    }
+  }
+
+  private void startDownload(long pSequence, long pBytes) {
+    RecordParser parser = mParser;
+    parser.pause();
+
+    Promise<String> tempFile = Promise.promise();
+    mVertx.fileSystem().createTempFile("fcc-replica-", ".snapshot.gz", tempFile);
+    tempFile.future()
+        .compose(path -> {
+          Promise<AsyncFile> file = Promise.promise();
+          mVertx.fileSystem().open(path, new OpenOptions().setWrite(true), file);
+          return file.future().map(f -> new Download(path, f, pSequence, pBytes));
+        })
+        .onComplete(ar -> {
+          if (ar.failed()) {
+            LOGGER.log(Level.SEVERE, "Unable to receive snapshot from replication leader", ar.cause());
+            if (mSocket != null) mSocket.close();
+            return;
+          }
+
+          if (parser != mParser) {
+            ar.result().abort();
+            return;
+          }
+
+          mDownload = ar.result();
+          if (pBytes == 0) {
+            finishDownload();
+          } else {
+            parser.fixedSizeMode((int) Math.min(pBytes, SNAPSHOT_CHUNK));
+          }
+          parser.resume();
+        });
+  }
+
+  private void receiveSnapshot(Buffer pChunk) {
+    Download download = mDownload;
+    download.mFile.write(pChunk);
+    download.mRemaining -= pChunk.length();
+
+    if (download.mRemaining > 0) {
+      mParser.fixedSizeMode((int) Math.min(download.mRemaining, SNAPSHOT_CHUNK));
+      if (download.mFile.writeQueueFull()) {
+        mParser.pause();
+        download.mFile.drainHandler(v -> mParser.resume());
+      }
+    } else {
+      finishDownload();
+    }
+  }
+
+  private void finishDownload() {
+    Download download = mDownload;
+    RecordParser parser = mParser;
+    mDownload = null;
+    parser.delimitedMode("\n");
+    parser.pause();
+
+    download.mFile.close(ar -> {
+      if (ar.failed() || parser != mParser) {
+        download.abort();
+        return;
+      }
+
+      mReceived = download.mSequence;
+      mSnapshots++;
+      enqueue(new JsonObject().put(SNAPSHOT_KEY, new JsonObject()
+          .put(ChangeFeed.SEQUENCE_KEY, download.mSequence)
+          .put("file", download.mPath)));
+      parser.resume();
+    });
+  }
+
+  private void enqueue(JsonObject pItem) {
+    mQueue.add(pItem);
+    mQueued = mQueue.size();
+    if (mQueue.size() >= MAX_QUEUED) mParser.pause();
+
+    apply();
+  }
+
+  /**
+   * Applies the next queued item, unless one is being applied already. Consecutive writes to the same collection are
+   * applied as a single {@link AsyncDB#putDocuments} call.
+   */
+  private void apply() {
+    if (mApplying || mQueue.isEmpty()) return;
+
+    mApplying = true;
+    JsonObject next = mQueue.poll();
+    Future<Long> applied;
+
+    if (next.containsKey(SNAPSHOT_KEY)) {
+      applied = applySnapshot(next.getJsonObject(SNAPSHOT_KEY));
+
+    } else if (isWrite(next)) {
+      List<JsonObject> batch = new ArrayList<>();
+      batch.add(next);
+      String collectionId = next.getString(ChangeFeed.COLLECTION_KEY);
+      while (batch.size() < BATCH_SIZE && !mQueue.isEmpty() && isWrite(mQueue.peek())
+          && collectionId.equals(mQueue.peek().getString(ChangeFeed.COLLECTION_KEY))) {
+        batch.add(mQueue.poll());
+      }
+
+      applied = applyWrites(collectionId, batch);
+
+    } else {
+      applied = applyDeletion(next);
+    }
+
+    mQueued = mQueue.size();
+    applied.onComplete(ar -> {
+      mApplying = false;
+
+      if (ar.succeeded()) {
+        mApplied = Math.max(mApplied, ar.result());
+        if (mApplied >= mLeaderSequence) mCaughtUpAt = System.currentTimeMillis();
+        if (mQueue.isEmpty()) send(new JsonObject().put(ACK_KEY, mApplied));
+
+      } else {
+        // Start over from the last applied change; whatever was queued is sent again.
+        LOGGER.log(Level.SEVERE, "Unable to apply replicated changes, resynchronizing", ar.cause());
+        mQueue.clear();
+        mQueued = 0;
+        mReceived = mApplied;
+        if (mSocket != null) mSocket.close();
+      }
+
+      if (mParser != null && mQueue.size() < MAX_QUEUED / 4) mParser.resume();
+      apply();
+    });
+  }
+
+  private Future<Long> applyWrites(String pCollectionId, List<JsonObject> pChanges) {
+    List<Document> docs = new ArrayList<>();
+    for (JsonObject change : pChanges) {
+      docs.add(Document
+          .newBuilder()
+          .underCollection(pCollectionId)
+          .withId(change.getString(ChangeFeed.ID_KEY))
+          .withPayload(change.getJsonObject(ChangeFeed.PAYLOAD_KEY))
+          .expiringAt(change.getLong(ChangeFeed.EXPIRES_AT_KEY, 0L))
+          .build());
+    }
+
+    long sequence = pChanges.get(pChanges.size() - 1).getLong(ChangeFeed.SEQUENCE_KEY);
+    return mAsyncDB.putDocuments(pCollectionId, docs)
+        .recover(ex -> ex instanceof DocumentNotFoundException
+            ? mAsyncDB.createCollection(Collection.newBuilder().withId(pCollectionId).build())
+            .recover(ReplicationFollower::ignoreExisting)
+            .compose(col -> mAsyncDB.putDocuments(pCollectionId, docs))
+            : Future.failedFuture(ex))
+        .map(sequence);
+  }
+
+  private Future<Long> applyDeletion(JsonObject pChange) {
+    String collectionId = pChange.getString(ChangeFeed.COLLECTION_KEY);
+    Future<Collection> deleted = ChangeFeed.DROP.equals(pChange.getString(ChangeFeed.TYPE_KEY))
+        ? mAsyncDB.deleteCollection(collectionId)
+        : mAsyncDB.deleteDocuments(collectionId, List.of(pChange.getString(ChangeFeed.ID_KEY)));
+
+    return deleted
+        .recover(ex -> ex instanceof DocumentNotFoundException ? Future.succeededFuture() : Future.failedFuture(ex))
+        .map(pChange.getLong(ChangeFeed.SEQUENCE_KEY));
+  }
+
+  /**
+   * Makes the DB hold exactly what the snapshot holds: its documents are put, and the documents and collections it
+   * doesn't have are deleted.
+   */
+  private Future<Long> applySnapshot(JsonObject pSnapshot) {
+    File snapshot = new File(pSnapshot.getString("file"));
+    Promise<Long> promise = Promise.promise();
+
+    mVertx.<Long>executeBlocking(blocking -> {
+      try {
+        Map<String, Set<String>> local = listDocuments();
+        Set<String> collections = new HashSet<>();
+        int documents = putSnapshot(snapshot, local, collections);
+
+        for (var entry : local.entrySet()) {
+          if (!collections.contains(entry.getKey())) {
+            mDB.deleteCollection(entry.getKey());
+          } else if (!entry.getValue().isEmpty()) {
+            mDB.deleteDocuments(entry.getKey(), new ArrayList<>(entry.getValue()));
+          }
+        }
+
+        LOGGER.info("Caught up with a snapshot of " + documents + " documents from " + mHost + ":" + mPort);
+        blocking.complete(pSnapshot.getLong(ChangeFeed.SEQUENCE_KEY));
+
+      } catch (Exception ex) {
+        blocking.fail(ex);
+
+      } finally {
+        if (!snapshot.delete()) snapshot.deleteOnExit();
+      }
+    }, false, promise);
+
+    return promise.future();
+  }
+
+  /**
+   * Puts every document of the snapshot, removing it from {@code pLocal}, and adds the snapshot's collections to
+   * {@code pCollections}.
+   *
+   * @return the number of documents put.
+   */
+  private int putSnapshot(File pSnapshot, Map<String, Set<String>> pLocal, Set<String> pCollections)
+      throws IOException {
+    List<Document> batch = new ArrayList<>();
+    int[] documents = {0};
+
+    Snapshot.read(pSnapshot, new Snapshot.Visitor() {
+
+      @Override
+      public void collection(String pCollectionId)
+          throws IOException {
+        flush(batch);
+        pCollections.add(pCollectionId);
+
+        try {
+          if (!mDB.hasCollection(pCollectionId)) {
+            mDB.createCollection(Collection.newBuilder().withId(pCollectionId).build());
+          }
+
+        } catch (DocumentExistsException | DocumentException ex) {
+          throw new IOException(ex);
+        }
+      }
+
+      @Override
+      public void document(String pCollectionId, String pDocId, JsonObject pStored)
+          throws IOException {
+        if (!batch.isEmpty() && !batch.get(0).collectionId().equals(pCollectionId)) flush(batch);
+
+        Set<String> localDocs = pLocal.get(pCollectionId);
+        if (localDocs != null) localDocs.remove(pDocId);
+        batch.add(DocumentMeta.unwrap(pCollectionId, pDocId, pStored));
+        documents[0]++;
+
+        if (batch.size() >= BATCH_SIZE) flush(batch);
+      }
+    });
+
+    flush(batch);
+    return documents[0];
+  }
+
+  private void flush(List<Document> pBatch)
+      throws IOException {
+    if (pBatch.isEmpty()) return;
+
+    try {
+      mDB.putDocuments(pBatch.get(0).collectionId(), new ArrayList<>(pBatch));
+      pBatch.clear();
+
+    } catch (DocumentNotFoundException | DocumentException ex) {
+      throw new IOException(ex);
+    }
+  }
+
+  /**
+   * @return the ids of every collection of the DB, each mapped to the ids of its documents.
+   */
+  private Map<String, Set<String>> listDocuments()
+      throws IOException, DocumentException {
+    Map<String, Set<String>> documents = new HashMap<>();
+    File local = File.createTempFile("fcc-replica-", ".local.gz");
+
+    try {
+      try (var out = new FileOutputStream(local)) {
+        mDB.exportSnapshot(out);
+      }
+
+      Snapshot.read(local, new Snapshot.Visitor() {
+
+        @Override
+        public void collection(String pCollectionId) {
+          documents.put(pCollectionId, new HashSet<>());
+        }
+
+        @Override
+        public void document(String pCollectionId, String pDocId, JsonObject pStored) {
+          documents.get(pCollectionId).add(pDocId);
+        }
+      });
+
+    } catch (UnsupportedOperationException ex) {
+      LOGGER.warning("DB " + mDB.name() + " can't list its documents, those the leader deleted are kept");
+
+    } finally {
+      if (!local.delete()) local.deleteOnExit();
+    }
+
+    return documents;
+  }
+
+  private static Future<Collection> ignoreExisting(Throwable pCause) {
+    return pCause instanceof DocumentExistsException ? Future.succeededFuture() : Future.failedFuture(pCause);
+  }
+
+  private static boolean isWrite(JsonObject pChange) {
+    String type = pChange.getString(ChangeFeed.TYPE_KEY);
+    return ChangeFeed.CREATE.equals(type) || ChangeFeed.UPDATE.equals(type);
+  }
+
+  private void send(JsonObject pMessage) {
+    if (mSocket != null) mSocket.write(pMessage.toBuffer().appendByte((byte) '\n'));
+  }
+
+  private void saveState() {
+    long applied = mApplied;
+    if (applied == mSaved) return;
+
+    mVertx.executeBlocking(blocking -> {
+      try {
+        writeState(applied);
+        blocking.complete();
+
+      } catch (IOException ex) {
+        blocking.fail(ex);
+      }
+    }, false, ar -> {
+      if (ar.succeeded()) {
+        mSaved = applied;
+      } else {
+        LOGGER.log(Level.WARNING, "Unable to save replication state to " + mStateFile, ar.cause());
+      }
+    });
+  }
+
+  private synchronized void writeState(long pApplied)
+      throws IOException {
+    File temp = new File(mStateFile.getPath() + ".tmp");
+    Files.write(temp.toPath(), new JsonObject()
+        .put(ChangeFeed.SEQUENCE_KEY, pApplied)
+        .put("leader", mHost + ":" + mPort)
+        .toBuffer()
+        .getBytes());
+    Files.move(temp.toPath(), mStateFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * A snapshot being received into a temporary file.
+   */
+  private final class Download {
+
+    private final String mPath;
+    private final AsyncFile mFile;
+    private final long mSequence;
+    private long mRemaining;
+
+    Download(String pPath, AsyncFile pFile, long pSequence, long pBytes) {
+      mPath = pPath;
+      mFile = pFile;
+      mSequence = pSequence;
+      mRemaining = pBytes;
+    }
+
+    void abort() {
+      mFile.close(ar -> mVertx.fileSystem().delete(mPath, deleted -> {}));
+    }
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetServerOptions;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Leader side of {@link Replication}: accepts followers and keeps each of them fed with the DB's mutations, in change
+ * feed order, as fast as its connection drains.
+ */
+final class ReplicationLeader
+    implements Replication {
+
+  private static final Logger LOGGER = Logger.getLogger(ReplicationLeader.class.getName());
+
+  private static final int BATCH_SIZE = 256;
+  private static final long HEARTBEAT_INTERVAL = 1000L;
+
+  private final Vertx mVertx;
+  private final int mPort;
+  private final Set<Follower> mFollowers;
+  private final AtomicBoolean mPumpScheduled;
+  private AsyncDB mDB;
+  private ChangeFeed mFeed;
+  private Context mContext;
+  private NetServer mServer;
+  private long mHeartbeatTimer;
+  private volatile boolean mClosed;
+
+  ReplicationLeader(Vertx pVertx, int pPort) {
+    mVertx = pVertx;
+    mPort = pPort;
+    mFollowers = ConcurrentHashMap.newKeySet();
+    mPumpScheduled = new AtomicBoolean();
+  }
+
+  @Override
+  public Future<Void> start(DB pDB, AsyncDB pAsyncDB) {
+    try {
+      mFeed = pDB.changeFeed();
+
+    } catch (UnsupportedOperationException ex) {
+      return Future.failedFuture(new IllegalStateException("Replication needs the DB's change feed", ex));
+    }
+
+    mDB = pAsyncDB;
+    mContext = mVertx.getOrCreateContext();
+    mFeed.subscribe(change -> schedulePump());
+    mHeartbeatTimer = mVertx.setPeriodic(HEARTBEAT_INTERVAL, id -> heartbeat());
+
+    Promise<NetServer> promise = Promise.promise();
+    mServer = mVertx.createNetServer(new NetServerOptions().setPort(mPort).setTcpNoDelay(true))
+        .connectHandler(this::accept)
+        .listen(promise);
+
+    return promise.future()
+        .onSuccess(server -> LOGGER.info("Replication leader listening on " + server.actualPort()))
+        .mapEmpty();
+  }
+
+  @Override
+  public void close() {
+    mClosed = true;
+    mVertx.cancelTimer(mHeartbeatTimer);
+    if (mServer != null) mServer.close();
+  }
+
+  @Override
+  public JsonObject metrics() {
+    long last = mFeed.lastSequence();
+    var followers = new JsonArray();
+
+    for (Follower follower : mFollowers) {
+      followers.add(new JsonObject()
+          .put("address", follower.mAddress)
+          .put("sentSequence", follower.mCursor)
+          .put("ackedSequence", follower.mAcked)
+          .put("lag", Math.max(0, last - follower.mAcked))
+          .put("snapshots", follower.mSnapshots));
+    }
+
+    return new JsonObject()
+        .put("role", "leader")
+        .put("port", mPort)
+        .put("lastSequence", last)
+        .put("followers", followers);
+  }
+
+  private void accept(NetSocket pSocket) {
+    var follower = new Follower(pSocket);
+    RecordParser parser = RecordParser.newDelimited("\n", pSocket);
+
+    parser.handler(line -> {
+      try {
+        receive(follower, line.toJsonObject());
+
+      } catch (RuntimeException ex) {
+        LOGGER.log(Level.WARNING, "Dropping follower " + follower.mAddress + " after a bad message", ex);
+        pSocket.close();
+      }
+    });
+    pSocket.exceptionHandler(ex -> {
+      LOGGER.log(Level.FINE, "Follower " + follower.mAddress + " failed", ex);
+      pSocket.close();
+    });
+    pSocket.closeHandler(v -> {
+      mFollowers.remove(follower);
+      LOGGER.info("Follower " + follower.mAddress + " disconnected");
+    });
+  }
+
+  private void receive(Follower pFollower, JsonObject pMessage) {
+    if (pMessage.containsKey(FOLLOW_KEY)) {
+      pFollower.mCursor = pMessage.getLong(FOLLOW_KEY);
+      pFollower.mAcked = pFollower.mCursor;
+      mFollowers.add(pFollower);
+      LOGGER.info("Follower " + pFollower.mAddress + " following from " + pFollower.mCursor);
+      pump(pFollower);
+
+    } else if (pMessage.containsKey(ACK_KEY)) {
+      pFollower.mAcked = pMessage.getLong(ACK_KEY);
+    }
+  }
+
+  private void schedulePump() {
+    if (mClosed || !mPumpScheduled.compareAndSet(false, true)) return;
+
+    mContext.runOnContext(v -> {
+      mPumpScheduled.set(false);
+      mFollowers.forEach(this::pump);
+    });
+  }
+
+  private void pump(Follower pFollower) {
+    if (pFollower.mSnapshotting) return;
+
+    NetSocket socket = pFollower.mSocket;
+    while (!socket.writeQueueFull()) {
+      JsonObject batch = mFeed.mutationsSince(pFollower.mCursor, BATCH_SIZE);
+      if (batch.getBoolean("reset")) {
+        sendSnapshot(pFollower);
+        return;
+      }
+
+      JsonArray items = batch.getJsonArray("items");
+      if (items.isEmpty()) return;
+
+      Buffer buffer = Buffer.buffer();
+      for (Object item : items) {
+        buffer.appendBuffer(((JsonObject) item).toBuffer()).appendByte((byte) '\n');
+      }
+
+      socket.write(buffer);
+      pFollower.mCursor = batch.getLong(ChangeFeed.SEQUENCE_KEY);
+    }
+
+    socket.drainHandler(v -> pump(pFollower));
+  }
+
+  /**
+   * Sends a snapshot, then resumes from the last change made before it was taken. Changes made while the snapshot is
+   * exported are thus sent again, which followers apply harmlessly since each one carries the whole document.
+   */
+  private void sendSnapshot(Follower pFollower) {
+    pFollower.mSnapshotting = true;
+    pFollower.mSnapshots++;
+    long sequence = mFeed.lastSequence();
+
+    Promise<String> tempFile = Promise.promise();
+    mVertx.fileSystem().createTempFile("fcc-replication-", ".snapshot.gz", tempFile);
+
+    tempFile.future()
+        .compose(path -> mDB.exportSnapshot(new File(path)).map(path))
+        .onComplete(ar -> {
+          if (ar.failed()) {
+            LOGGER.log(Level.SEVERE, "Unable to snapshot DB for follower " + pFollower.mAddress, ar.cause());
+            pFollower.mSocket.close();
+            return;
+          }
+
+          String path = ar.result();
+          long bytes = new File(path).length();
+          pFollower.mSocket.write(new JsonObject()
+              .put(SNAPSHOT_KEY, new JsonObject()
+                  .put(ChangeFeed.SEQUENCE_KEY, sequence)
+                  .put(BYTES_KEY, bytes))
+              .toBuffer()
+              .appendByte((byte) '\n'));
+
+          pFollower.mSocket.sendFile(path, sent -> {
+            mVertx.fileSystem().delete(path, deleted -> {});
+            if (sent.failed()) {
+              pFollower.mSocket.close();
+              return;
+            }
+
+            LOGGER.info("Sent snapshot of " + bytes + " bytes to follower " + pFollower.mAddress);
+            pFollower.mCursor = sequence;
+            pFollower.mSnapshotting = false;
+            pump(pFollower);
+          });
+        });
+  }
+
+  private void heartbeat() {
+    Buffer heartbeat = new JsonObject()
+        .put(HEARTBEAT_KEY, new JsonObject()
+            .put(ChangeFeed.SEQUENCE_KEY, mFeed.lastSequence())
+            .put(TIME_KEY, System.currentTimeMillis()))
+        .toBuffer()
+        .appendByte((byte) '\n');
+
+    for (Follower follower : mFollowers) {
+      if (!follower.mSnapshotting && !follower.mSocket.writeQueueFull()) {
+        follower.mSocket.write(heartbeat);
+      }
+    }
+  }
+
+  /**
+   * A connected follower. Only modified on the leader's context; the volatile fields are read by {@link #metrics}.
+   */
+  private static final class Follower {
+
+    private final NetSocket mSocket;
+    private final String mAddress;
+    private volatile long mCursor;
+    private volatile long mAcked;
+    private volatile int mSnapshots;
+    private boolean mSnapshotting;
+
+    Follower(NetSocket pSocket) {
+      mSocket = pSocket;
+      mAddress = pSocket.remoteAddress().toString();
+    }
+  }
+}
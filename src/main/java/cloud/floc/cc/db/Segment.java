@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of checksummed records used by {@link SegmentDB}.
+ * <p>
+ * Each record is framed as {@code [length][crc32][op, collection id, document id, payload length, payload]}. While a
+ * segment is active, records are appended and read back with positional reads. Once sealed, the segment is
+ * memory-mapped for reads and a hint file listing each record's key and payload position is written next to it, so
+ * the index can be rebuilt without reading payloads.
+ */
+class Segment {
+
+  static final byte OP_PUT = 1;
+  static final byte OP_DELETE = 2;
+  static final byte OP_CREATE_COLLECTION = 3;
+  static final byte OP_DELETE_COLLECTION = 4;
+
+  static final String TMP_SUFFIX = ".tmp";
+
+  private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+  /**
+   * Position of a record's payload, as written to a hint file and kept in the index.
+   */
+  static class Entry {
+    final byte mOp;
+    final String mCollectionId;
+    final String mDocId;
+    final Location mLocation;
+
+    Entry(byte pOp, String pCollectionId, String pDocId, Location pLocation) {
+      mOp = pOp;
+      mCollectionId = pCollectionId;
+      mDocId = pDocId;
+      mLocation = pLocation;
+    }
+  }
+
+  /**
+   * Where a document's current payload lives. Compared by identity, so a location only matches itself.
+   */
+  static class Location {
+    final Segment mSegment;
+    final long mPayloadOffset;
+    final int mPayloadLength;
+    final int mRecordLength;
+
+    Location(Segment pSegment, long pPayloadOffset, int pPayloadLength, int pRecordLength) {
+      mSegment = pSegment;
+      mPayloadOffset = pPayloadOffset;
+      mPayloadLength = pPayloadLength;
+      mRecordLength = pRecordLength;
+    }
+
+    byte[] read()
+        throws IOException {
+      return mSegment.read(mPayloadOffset, mPayloadLength);
+    }
+  }
+
+  final long mId;
+  final AtomicLong mLiveBytes;
+
+  private File mFile;
+  private File mHintFile;
+  private final FileChannel mChannel;
+  private final List<Entry> mEntries;
+  private volatile MappedByteBuffer mMapped;
+  private long mSize;
+
+  private Segment(long pId, File pFile, File pHintFile, FileChannel pChannel, long pSize) {
+    mId = pId;
+    mFile = pFile;
+    mHintFile = pHintFile;
+    mChannel = pChannel;
+    mSize = pSize;
+    mEntries = new ArrayList<>();
+    mLiveBytes = new AtomicLong();
+  }
+
+  static Segment create(long pId, File pFile, File pHintFile)
+      throws IOException {
+    FileChannel channel = FileChannel.open(pFile.toPath(),
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    return new Segment(pId, pFile, pHintFile, channel, 0);
+  }
+
+  /**
+   * Opens an existing segment, reading its entries from the hint file when there is one and scanning the records
+   * otherwise. A torn record at the end of a scanned segment is truncated away.
+   */
+  static Segment open(long pId, File pFile, File pHintFile, List<Entry> pEntries)
+      throws IOException {
+    FileChannel channel = FileChannel.open(pFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    Segment segment = new Segment(pId, pFile, pHintFile, channel, channel.size());
+
+    if (pHintFile.exists()) {
+      segment.readHints(pEntries);
+
+    } else {
+      segment.scan(pEntries);
+      channel.truncate(segment.mSize);
+      segment.seal();
+    }
+
+    segment.map();
+    return segment;
+  }
+
+  File file() {
+    return mFile;
+  }
+
+  File hintFile() {
+    return mHintFile;
+  }
+
+  long size() {
+    return mSize;
+  }
+
+  Location append(byte pOp, String pCollectionId, String pDocId, byte[] pPayload)
+      throws IOException {
+    var bodyBytes = new ByteArrayOutputStream();
+    var body = new DataOutputStream(bodyBytes);
+    body.writeByte(pOp);
+    body.writeUTF(pCollectionId);
+    body.writeUTF(pDocId != null ? pDocId : "");
+    body.writeInt(pPayload != null ? pPayload.length : 0);
+    int payloadStart = body.size();
+
+    if (pPayload != null) {
+      body.write(pPayload);
+    }
+
+    body.flush();
+    byte[] record = bodyBytes.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(record);
+
+    ByteBuffer frame = ByteBuffer.allocate(8 + record.length);
+    frame.putInt(record.length);
+    frame.putInt((int) crc.getValue());
+    frame.put(record);
+    frame.flip();
+
+    long position = mSize;
+    while (frame.hasRemaining()) {
+      position += mChannel.write(frame, position);
+    }
+
+    var location = new Location(this, mSize + 8 + payloadStart,
+        pPayload != null ? pPayload.length : 0, 8 + record.length);
+    mEntries.add(new Entry(pOp, pCollectionId, pDocId, location));
+    mSize = position;
+    return location;
+  }
+
+  byte[] read(long pOffset, int pLength)
+      throws IOException {
+    byte[] bytes = new byte[pLength];
+    MappedByteBuffer mapped = mMapped;
+
+    if (mapped != null) {
+      mapped.duplicate().position((int) pOffset).get(bytes);
+
+    } else {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      long position = pOffset;
+
+      while (buffer.hasRemaining()) {
+        int read = mChannel.read(buffer, position);
+        if (read < 0) throw new EOFException("Unexpected end of segment " + mFile);
+        position += read;
+      }
+    }
+
+    return bytes;
+  }
+
+  void force()
+      throws IOException {
+    mChannel.force(false);
+  }
+
+  /**
+   * Writes the hint file and switches reads to a memory mapping. No records may be appended afterwards.
+   */
+  void seal()
+      throws IOException {
+    mChannel.force(true);
+
+    // The hint file only appears once complete, so its presence also marks the segment as fully written.
+    File tmpHintFile = new File(mHintFile.getPath() + TMP_SUFFIX);
+    try (var out = new FileOutputStream(tmpHintFile);
+         var hints = new DataOutputStream(new BufferedOutputStream(out))) {
+      for (Entry entry : mEntries) {
+        hints.writeByte(entry.mOp);
+        hints.writeUTF(entry.mCollectionId);
+        hints.writeUTF(entry.mDocId != null ? entry.mDocId : "");
+        hints.writeLong(entry.mLocation.mPayloadOffset);
+        hints.writeInt(entry.mLocation.mPayloadLength);
+        hints.writeInt(entry.mLocation.mRecordLength);
+      }
+
+      hints.flush();
+      out.getFD().sync();
+    }
+
+    if (!tmpHintFile.renameTo(mHintFile)) {
+      throw new IOException("Unable to write hint file " + mHintFile);
+    }
+
+    mEntries.clear();
+    map();
+  }
+
+  void renameTo(File pFile, File pHintFile)
+      throws IOException {
+    if (!mFile.renameTo(pFile) || !mHintFile.renameTo(pHintFile)) {
+      throw new IOException("Unable to rename segment " + mFile + " to " + pFile);
+    }
+
+    mFile = pFile;
+    mHintFile = pHintFile;
+  }
+
+  void delete() {
+    try {
+      mChannel.close();
+
+    } catch (IOException ex) {
+      // The mapping stays valid for readers still holding this segment; the file is gone either way.
+    }
+
+    mFile.delete();
+    mHintFile.delete();
+  }
+
+  void close()
+      throws IOException {
+    mChannel.close();
+  }
+
+  private void map()
+      throws IOException {
+    mMapped = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, mSize);
+  }
+
+  private void readHints(List<Entry> pEntries)
+      throws IOException {
+    try (var hints = new DataInputStream(new BufferedInputStream(new FileInputStream(mHintFile)))) {
+      while (true) {
+        byte op;
+        try {
+          op = hints.readByte();
+        } catch (EOFException ex) {
+          return;
+        }
+
+        String collectionId = hints.readUTF();
+        String docId = hints.readUTF();
+        var location = new Location(this, hints.readLong(), hints.readInt(), hints.readInt());
+        pEntries.add(new Entry(op, collectionId, docId, location));
+      }
+    }
+  }
+
+  private void scan(List<Entry> pEntries)
+      throws IOException {
+    long position = 0;
+
+    try (var input = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+      while (true) {
+        int length;
+        try {
+          length = input.readInt();
+        } catch (EOFException ex) {
+          break;
+        }
+
+        try {
+          if (length <= 0 || length > MAX_RECORD_LENGTH) break;
+
+          long checksum = input.readInt() & 0xFFFFFFFFL;
+          byte[] record = new byte[length];
+          input.readFully(record);
+
+          CRC32 crc = new CRC32();
+          crc.update(record);
+          if (crc.getValue() != checksum) break;
+
+          var body = new DataInputStream(new ByteArrayInputStream(record));
+          byte op = body.readByte();
+          String collectionId = body.readUTF();
+          String docId = body.readUTF();
+          int payloadLength = body.readInt();
+          int payloadStart = length - payloadLength;
+
+          var location = new Location(this, position + 8 + payloadStart, payloadLength, 8 + length);
+          var entry = new Entry(op, collectionId, docId, location);
+          pEntries.add(entry);
+          mEntries.add(entry);
+          position += 8 + length;
+
+        } catch (EOFException ex) {
+          break;
+        }
+      }
+    }
+
+    mSize = position;
+  }
+}
@@ -0,0 +1,914 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.Page;
+import cloud.floc.cc.db.Segment.Location;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static cloud.floc.cc.db.Segment.OP_CREATE_COLLECTION;
+import static cloud.floc.cc.db.Segment.OP_DELETE;
+import static cloud.floc.cc.db.Segment.OP_DELETE_COLLECTION;
+import static cloud.floc.cc.db.Segment.OP_PUT;
+
+/**
+ * {@link DB} that stores every document version as a record in append-only segment files instead of one file per
+ * document. An in-memory index maps each document to the segment and offset of its latest record; sealed segments are
+ * memory-mapped for reads. A background compactor merges the sealed segments into one once enough of their bytes
+ * belong to overwritten or deleted documents, and every sealed segment carries a hint file so that startup rebuilds
+ * the index without reading payloads.
+ * <p>
+ * Appends to the active segment are synced according to {@link Constants#DB_DURABILITY_KEY}, the same way
+ * {@link WalDB} syncs its log.
+ */
+public class SegmentDB
+    implements DB {
+
+  private static final Logger LOGGER = Logger.getLogger(SegmentDB.class.getName());
+
+  private static final String FOLDER_SUFFIX = "-segments";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String HINT_SUFFIX = ".hint";
+  private static final String COMPACT_SUFFIX = ".compact";
+
+  private final String mName;
+  private final File mRootFolder;
+  private final long mMaxSegmentBytes;
+  private final double mCompactionGarbageRatio;
+  private final LogSync mLogSync;
+
+  private final ConcurrentMap<String, ConcurrentSkipListMap<String, Location>> mIndex;
+
+  // Guarded by mWriteLock.
+  private final ReentrantLock mWriteLock;
+  private final List<Segment> mSealedSegments;
+  private Segment mActiveSegment;
+  private long mNextSegmentId;
+
+  private final ReentrantLock mCompactionLock;
+  private final ScheduledExecutorService mCompactionExecutor;
+  private final LongAdder mCompactions;
+
+  public SegmentDB(JsonObject pConfig) {
+    mName = pConfig.getString(Constants.DB_NAME_KEY, Constants.DEFAULT_DB_NAME_VALUE);
+    File stateFolder = new File(pConfig.getString(Constants.STATE_FOLDER_KEY, Constants.DEFAULT_STATE_FOLDER_VALUE));
+    mRootFolder = rootFolder(stateFolder, mName);
+    mMaxSegmentBytes = pConfig.getLong(Constants.SEGMENT_MAX_BYTES_KEY, Constants.DEFAULT_SEGMENT_MAX_BYTES_VALUE);
+    mCompactionGarbageRatio = pConfig.getDouble(
+        Constants.SEGMENT_COMPACTION_GARBAGE_RATIO_KEY, Constants.DEFAULT_SEGMENT_COMPACTION_GARBAGE_RATIO_VALUE);
+    long compactionInterval = pConfig.getLong(
+        Constants.SEGMENT_COMPACTION_INTERVAL_KEY, Constants.DEFAULT_SEGMENT_COMPACTION_INTERVAL_VALUE);
+    mLogSync = new LogSync(
+        AtomicFileWriter.Durability.of(
+            pConfig.getString(Constants.DB_DURABILITY_KEY, Constants.DEFAULT_DB_DURABILITY_VALUE)),
+        pConfig.getLong(Constants.DB_GROUP_COMMIT_INTERVAL_KEY, Constants.DEFAULT_DB_GROUP_COMMIT_INTERVAL_VALUE));
+
+    mIndex = new ConcurrentHashMap<>();
+    mWriteLock = new ReentrantLock();
+    mCompactionLock = new ReentrantLock();
+    mSealedSegments = new ArrayList<>();
+    mCompactions = new LongAdder();
+    mNextSegmentId = 1;
+
+    if (!mRootFolder.exists() && !mRootFolder.mkdirs()) {
+      throw new RuntimeException("Unable to initialize DB. Failed to create root folder.");
+    }
+
+    try {
+      finishCompaction();
+      recover();
+      mActiveSegment = newSegment();
+
+    } catch (IOException ex) {
+      throw new RuntimeException("Unable to initialize DB. Failed to load segments.", ex);
+    }
+
+    mCompactionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "segment-compaction-" + mName);
+      thread.setDaemon(true);
+      return thread;
+    });
+    mCompactionExecutor.scheduleWithFixedDelay(this::compact, compactionInterval, compactionInterval,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public String name() {
+    return mName;
+  }
+
+  @Override
+  public Document createDocument(Document pDoc)
+      throws DocumentExistsException, DocumentException {
+    return logged("Unable to create document: " + pDoc.id(), () -> {
+      var docs = mIndex.get(pDoc.collectionId());
+      if (docs == null) {
+        throw new DocumentException("Unable to create document: " + pDoc.id());
+      }
+
+      if (docs.containsKey(pDoc.id())) {
+        throw new DocumentExistsException("There's an existing document: " + pDoc.id());
+      }
+
+      write(OP_PUT, pDoc.collectionId(), pDoc.id(),
+          DocumentMeta.wrap(pDoc.payload(), 1, pDoc.expiresAt()).toBuffer().getBytes());
+
+      return Document
+          .newBuilder()
+          .underCollection(pDoc.collectionId())
+          .withId(pDoc.id())
+          .withPayload(pDoc.payload())
+          .withVersion(1)
+          .expiringAt(pDoc.expiresAt())
+          .build();
+    });
+  }
+
+  @Override
+  public Document getDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    var docs = mIndex.get(pCollectionId);
+    Location location = docs != null ? docs.get(pDocId) : null;
+
+    if (location == null) {
+      throw new DocumentNotFoundException("Document not found: " + pDocId);
+    }
+
+    return read(pCollectionId, pDocId, location);
+  }
+
+  @Override
+  public Document updateDocument(Document pDoc)
+      throws DocumentNotFoundException, DocumentException {
+    return logged("Unable to update document: " + pDoc.id(), () -> {
+      var docs = mIndex.get(pDoc.collectionId());
+      Location location = docs != null ? docs.get(pDoc.id()) : null;
+      if (location == null) {
+        throw new DocumentNotFoundException("Document not found: " + pDoc.id());
+      }
+
+      long version = DocumentMeta.nextVersion(pDoc, DocumentMeta.readVersion(location.read()));
+      write(OP_PUT, pDoc.collectionId(), pDoc.id(),
+          DocumentMeta.wrap(pDoc.payload(), version, pDoc.expiresAt()).toBuffer().getBytes());
+
+      return Document
+          .newBuilder()
+          .underCollection(pDoc.collectionId())
+          .withId(pDoc.id())
+          .withPayload(pDoc.payload())
+          .withVersion(version)
+          .expiringAt(pDoc.expiresAt())
+          .build();
+    });
+  }
+
+  @Override
+  public Document deleteDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    return logged("Unable to delete document: " + pDocId, () -> {
+      var docs = mIndex.get(pCollectionId);
+      Location location = docs != null ? docs.get(pDocId) : null;
+      if (location == null) {
+        throw new DocumentNotFoundException("Document not found: " + pDocId);
+      }
+
+      Document doc = read(pCollectionId, pDocId, location);
+      write(OP_DELETE, pCollectionId, pDocId, null);
+
+      return doc;
+    });
+  }
+
+  @Override
+  public boolean hasDocument(String pCollectionId, String pDocId) {
+    var docs = mIndex.get(pCollectionId);
+    return docs != null && docs.containsKey(pDocId);
+  }
+
+  @Override
+  public Collection createCollection(Collection pCol)
+      throws DocumentExistsException, DocumentException {
+    return logged("Unable to create collection: " + pCol.id(), () -> {
+      if (mIndex.containsKey(pCol.id())) {
+        throw new DocumentExistsException("There's an existing collection: " + pCol.id());
+      }
+
+      write(OP_CREATE_COLLECTION, pCol.id(), null, null);
+
+      return Collection
+          .newBuilder()
+          .withId(pCol.id())
+          .withPayload(new JsonObject())
+          .build();
+    });
+  }
+
+  @Override
+  public Collection getCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    var docs = mIndex.get(pId);
+    if (docs == null) {
+      throw new DocumentNotFoundException("Collection not found: " + pId);
+    }
+
+    var builder = Collection
+        .newBuilder()
+        .withId(pId)
+        .withPayload(new JsonObject());
+
+    for (var entry : docs.entrySet()) {
+      builder.addDocument(read(pId, entry.getKey(), entry.getValue()));
+    }
+
+    return builder.build();
+  }
+
+  @Override
+  public Collection updateCollection(Collection pCol)
+      throws DocumentNotFoundException, DocumentException {
+    if (!mIndex.containsKey(pCol.id())) {
+      throw new DocumentNotFoundException("Collection not found: " + pCol.id());
+    }
+
+    return Collection
+        .newBuilder()
+        .withId(pCol.id())
+        .build();
+  }
+
+  @Override
+  public Collection deleteCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    return logged("Unable to delete collection: " + pId, () -> {
+      if (!mIndex.containsKey(pId)) {
+        throw new DocumentNotFoundException("Collection not found: " + pId);
+      }
+
+      write(OP_DELETE_COLLECTION, pId, null, null);
+
+      return Collection
+          .newBuilder()
+          .withId(pId)
+          .build();
+    });
+  }
+
+  @Override
+  public boolean hasCollection(String pId) {
+    return mIndex.containsKey(pId);
+  }
+
+  @Override
+  public Collection getDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    var docs = mIndex.get(pCollectionId);
+    if (docs == null) {
+      throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+    }
+
+    var builder = Collection
+        .newBuilder()
+        .withId(pCollectionId)
+        .withPayload(new JsonObject());
+
+    for (String docId : pDocIds) {
+      Location location = docs.get(docId);
+      if (location == null) continue;
+
+      builder.addDocument(read(pCollectionId, docId, location));
+    }
+
+    return builder.build();
+  }
+
+  @Override
+  public Collection putDocuments(String pCollectionId, List<Document> pDocs)
+      throws DocumentNotFoundException, DocumentException {
+    return logged("Unable to put documents into collection: " + pCollectionId, () -> {
+      var docs = mIndex.get(pCollectionId);
+      if (docs == null) {
+        throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+      }
+      pDocs.forEach(doc -> DocumentMeta.checkPayload(doc.payload()));
+
+      var builder = Collection
+          .newBuilder()
+          .withId(pCollectionId)
+          .withPayload(new JsonObject());
+
+      for (Document doc : pDocs) {
+        Location current = docs.get(doc.id());
+        long version = current != null ? DocumentMeta.readVersion(current.read()) + 1 : 1;
+
+        write(OP_PUT, pCollectionId, doc.id(),
+            DocumentMeta.wrap(doc.payload(), version, doc.expiresAt()).toBuffer().getBytes());
+        builder.addDocument(Document
+            .newBuilder()
+            .underCollection(pCollectionId)
+            .withId(doc.id())
+            .withPayload(doc.payload())
+            .withVersion(version)
+            .expiringAt(doc.expiresAt())
+            .build());
+      }
+
+      return builder.build();
+    });
+  }
+
+  @Override
+  public Collection deleteDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    return logged("Unable to delete documents from collection: " + pCollectionId, () -> {
+      var docs = mIndex.get(pCollectionId);
+      if (docs == null) {
+        throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+      }
+
+      var builder = Collection
+          .newBuilder()
+          .withId(pCollectionId)
+          .withPayload(new JsonObject());
+
+      for (String docId : pDocIds) {
+        Location location = docs.get(docId);
+        if (location == null) continue;
+
+        builder.addDocument(read(pCollectionId, docId, location));
+        write(OP_DELETE, pCollectionId, docId, null);
+      }
+
+      return builder.build();
+    });
+  }
+
+  @Override
+  public Page getPage(String pCollectionId, String pCursor, int pLimit)
+      throws DocumentNotFoundException, DocumentException {
+    if (pLimit < 1) throw new IllegalArgumentException("Page limit should be positive");
+
+    var docs = mIndex.get(pCollectionId);
+    if (docs == null) {
+      throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+    }
+
+    String afterId = Page.decodeCursor(pCursor);
+    var tail = afterId != null ? docs.tailMap(afterId, false) : docs;
+    var builder = Page
+        .newBuilder()
+        .underCollection(pCollectionId);
+
+    int count = 0;
+    for (var entry : tail.entrySet()) {
+      if (count == pLimit) {
+        builder.continueAfter(afterId);
+        break;
+      }
+
+      builder.addDocument(read(pCollectionId, entry.getKey(), entry.getValue()));
+      afterId = entry.getKey();
+      count++;
+    }
+
+    return builder.build();
+  }
+
+  @Override
+  public Collection getRange(String pCollectionId, String pFromId, String pToId, int pLimit, boolean pDescending)
+      throws DocumentNotFoundException, DocumentException {
+    if (pLimit < 1) throw new IllegalArgumentException("Range limit should be positive");
+
+    var docs = mIndex.get(pCollectionId);
+    if (docs == null) {
+      throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+    }
+
+    var builder = Collection
+        .newBuilder()
+        .withId(pCollectionId)
+        .withPayload(new JsonObject());
+
+    int count = 0;
+    for (var entry : IdRanges.of(docs, pFromId, pToId, pDescending).entrySet()) {
+      if (count++ == pLimit) break;
+      builder.addDocument(read(pCollectionId, entry.getKey(), entry.getValue()));
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * Copies the index's document locations under the write lock, then reads and writes them out while writes continue.
+   * Records are never modified and a segment merged away by compaction stays mapped for the locations still pointing
+   * into it, so the copy stays a consistent view.
+   */
+  @Override
+  public void exportSnapshot(OutputStream pOut)
+      throws DocumentException {
+    Map<String, ConcurrentSkipListMap<String, Location>> view = new TreeMap<>();
+
+    mWriteLock.lock();
+    try {
+      mIndex.forEach((collectionId, docs) -> view.put(collectionId, docs.clone()));
+
+    } finally {
+      mWriteLock.unlock();
+    }
+
+    try (var writer = new Snapshot.Writer(pOut, mName)) {
+      for (var collection : view.entrySet()) {
+        writer.collection(collection.getKey());
+
+        for (var doc : collection.getValue().entrySet()) {
+          byte[] stored = doc.getValue().read();
+          writer.document(collection.getKey(), doc.getKey(),
+              new JsonObject(DocumentCodec.detect(stored).decode(stored)));
+        }
+      }
+
+    } catch (IOException ex) {
+      throw new DocumentException("Unable to export snapshot of DB: " + mName, ex);
+    }
+  }
+
+  @Override
+  public JsonObject metrics() {
+    long totalBytes;
+    long liveBytes = 0;
+    int segments;
+
+    mWriteLock.lock();
+    try {
+      segments = mSealedSegments.size() + 1;
+      totalBytes = mActiveSegment.size();
+      liveBytes += mActiveSegment.mLiveBytes.get();
+
+      for (Segment segment : mSealedSegments) {
+        totalBytes += segment.size();
+        liveBytes += segment.mLiveBytes.get();
+      }
+
+    } finally {
+      mWriteLock.unlock();
+    }
+
+    return new JsonObject()
+        .put("segments", new JsonObject()
+            .put("count", segments)
+            .put("totalBytes", totalBytes)
+            .put("liveBytes", liveBytes)
+            .put("compactions", mCompactions.sum()))
+        .put("log", mLogSync.metrics());
+  }
+
+  @Override
+  public void close() {
+    mCompactionExecutor.shutdown();
+
+    try {
+      mCompactionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+
+    mWriteLock.lock();
+    try {
+      if (mActiveSegment.size() > 0) {
+        mLogSync.rotate(mActiveSegment::force);
+        mActiveSegment.seal();
+        mActiveSegment.close();
+
+      } else {
+        mActiveSegment.delete();
+      }
+
+      for (Segment segment : mSealedSegments) {
+        segment.close();
+      }
+
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Unable to close segments of DB: " + mName, ex);
+
+    } finally {
+      mWriteLock.unlock();
+    }
+  }
+
+  /**
+   * Merges all sealed segments into a single one holding only their live records, once the share of dead bytes in
+   * them reaches the configured ratio. Records are copied without holding the write lock; documents written while
+   * copying keep their newer location, since the copy only replaces locations that are still current.
+   */
+  void compact() {
+    mCompactionLock.lock();
+    Segment output = null;
+
+    try {
+      List<Segment> sealed;
+      mWriteLock.lock();
+      try {
+        sealed = new ArrayList<>(mSealedSegments);
+
+      } finally {
+        mWriteLock.unlock();
+      }
+
+      long totalBytes = 0;
+      long liveBytes = 0;
+      for (Segment segment : sealed) {
+        totalBytes += segment.size();
+        liveBytes += segment.mLiveBytes.get();
+      }
+
+      if (totalBytes == 0 || (double) (totalBytes - liveBytes) / totalBytes < mCompactionGarbageRatio) return;
+
+      // The output takes the id of the newest merged segment, so it still replays before every segment it doesn't
+      // cover. Every collection is recreated in it because the merged segments may hold the only creation records.
+      Set<Segment> merged = Collections.newSetFromMap(new IdentityHashMap<>());
+      merged.addAll(sealed);
+      long id = sealed.get(sealed.size() - 1).mId;
+      output = Segment.create(id, compactFile(id), new File(compactFile(id).getPath() + HINT_SUFFIX));
+
+      List<Location[]> moves = new ArrayList<>();
+      List<String[]> keys = new ArrayList<>();
+
+      for (var collection : mIndex.entrySet()) {
+        Location created = output.append(OP_CREATE_COLLECTION, collection.getKey(), null, null);
+        output.mLiveBytes.addAndGet(created.mRecordLength);
+
+        for (var doc : collection.getValue().entrySet()) {
+          Location location = doc.getValue();
+          if (!merged.contains(location.mSegment)) continue;
+
+          Location copy = output.append(OP_PUT, collection.getKey(), doc.getKey(), location.read());
+          moves.add(new Location[] {location, copy});
+          keys.add(new String[] {collection.getKey(), doc.getKey()});
+        }
+      }
+
+      output.seal();
+
+      mWriteLock.lock();
+      try {
+        for (int i = 0; i < moves.size(); i++) {
+          var docs = mIndex.get(keys.get(i)[0]);
+          Location[] move = moves.get(i);
+
+          if (docs != null && docs.replace(keys.get(i)[1], move[0], move[1])) {
+            output.mLiveBytes.addAndGet(move[1].mRecordLength);
+          }
+        }
+
+        mSealedSegments.removeAll(sealed);
+        mSealedSegments.add(0, output);
+
+      } finally {
+        mWriteLock.unlock();
+      }
+
+      for (Segment segment : sealed) {
+        segment.delete();
+      }
+
+      output.renameTo(segmentFile(id), hintFile(id));
+      mCompactions.increment();
+      LOGGER.info("Compacted " + sealed.size() + " segments of DB " + mName + " from " + totalBytes + " to "
+          + output.size() + " bytes");
+
+    } catch (IOException ex) {
+      LOGGER.log(Level.SEVERE, "Unable to compact segments of DB: " + mName, ex);
+
+      if (output != null && output.file().getName().endsWith(COMPACT_SUFFIX)
+          && !mSealedSegments.contains(output)) {
+        output.delete();
+      }
+
+    } finally {
+      mCompactionLock.unlock();
+    }
+  }
+
+  /**
+   * Runs a write under the write lock, syncing its records as one append, and waits for a {@code batch} sync once the
+   * lock is released. Records that went to a segment sealed along the way were synced by the seal.
+   */
+  private <T, E extends Exception> T logged(String pFailure, LoggedWrite<T, E> pWrite)
+      throws E, DocumentException {
+    T result;
+    long ticket;
+    mWriteLock.lock();
+
+    try {
+      result = pWrite.run();
+      Segment active = mActiveSegment;
+      mLogSync.appended(active::force);
+      ticket = mLogSync.ticket();
+
+    } catch (IOException ex) {
+      throw new DocumentException(pFailure, ex);
+
+    } finally {
+      mWriteLock.unlock();
+    }
+
+    try {
+      mLogSync.await(ticket);
+
+    } catch (IOException ex) {
+      throw new DocumentException(pFailure, ex);
+    }
+
+    return result;
+  }
+
+  private void write(byte pOp, String pCollectionId, String pDocId, byte[] pPayload)
+      throws IOException {
+    Location location = mActiveSegment.append(pOp, pCollectionId, pDocId, pPayload);
+    apply(pOp, pCollectionId, pDocId, location);
+
+    if (mActiveSegment.size() >= mMaxSegmentBytes) {
+      mLogSync.rotate(mActiveSegment::force);
+      mActiveSegment.seal();
+      mSealedSegments.add(mActiveSegment);
+      mActiveSegment = newSegment();
+    }
+  }
+
+  private void apply(byte pOp, String pCollectionId, String pDocId, Location pLocation) {
+    switch (pOp) {
+      case OP_PUT:
+        pLocation.mSegment.mLiveBytes.addAndGet(pLocation.mRecordLength);
+        release(mIndex.computeIfAbsent(pCollectionId, k -> new ConcurrentSkipListMap<>()).put(pDocId, pLocation));
+        break;
+
+      case OP_DELETE:
+        var docs = mIndex.get(pCollectionId);
+        if (docs != null) release(docs.remove(pDocId));
+        break;
+
+      case OP_CREATE_COLLECTION:
+        mIndex.putIfAbsent(pCollectionId, new ConcurrentSkipListMap<>());
+        break;
+
+      case OP_DELETE_COLLECTION:
+        var dropped = mIndex.remove(pCollectionId);
+        if (dropped != null) dropped.values().forEach(this::release);
+        break;
+
+      default:
+        throw new IllegalStateException("Unknown segment operation: " + pOp);
+    }
+  }
+
+  private void release(Location pLocation) {
+    if (pLocation != null) {
+      pLocation.mSegment.mLiveBytes.addAndGet(-pLocation.mRecordLength);
+    }
+  }
+
+  private Document read(String pCollectionId, String pDocId, Location pLocation)
+      throws DocumentException {
+    try {
+      return DocumentMeta.unwrap(pCollectionId, pDocId, pLocation.read());
+
+    } catch (IOException | RuntimeException ex) {
+      throw new DocumentException("Unable to read document: " + pDocId, ex);
+    }
+  }
+
+  private void recover()
+      throws IOException {
+    File[] files = mRootFolder.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+    if (files == null) return;
+
+    Arrays.sort(files, Comparator.comparingLong(this::segmentId));
+
+    for (File file : files) {
+      long id = segmentId(file);
+      List<Segment.Entry> entries = new ArrayList<>();
+      Segment segment = Segment.open(id, file, hintFile(id), entries);
+
+      for (Segment.Entry entry : entries) {
+        apply(entry.mOp, entry.mCollectionId, entry.mDocId, entry.mLocation);
+      }
+
+      mSealedSegments.add(segment);
+      mNextSegmentId = Math.max(mNextSegmentId, id + 1);
+    }
+
+    LOGGER.info("Loaded " + files.length + " segments of DB " + mName);
+  }
+
+  /**
+   * Completes a compaction interrupted by a crash. A compacted segment with a hint file is complete and replaces every
+   * segment up to its id; one without is discarded.
+   */
+  private void finishCompaction()
+      throws IOException {
+    File[] files = mRootFolder.listFiles((dir, name) ->
+        name.endsWith(COMPACT_SUFFIX) || name.endsWith(COMPACT_SUFFIX + HINT_SUFFIX)
+            || name.endsWith(Segment.TMP_SUFFIX));
+    if (files == null) return;
+
+    for (File file : files) {
+      if (file.getName().endsWith(Segment.TMP_SUFFIX)) {
+        file.delete();
+        continue;
+      }
+
+      if (!file.getName().endsWith(HINT_SUFFIX)) continue;
+
+      long id = segmentId(file);
+      File compactFile = compactFile(id);
+
+      if (compactFile.exists()) {
+        File[] replaced = mRootFolder.listFiles((dir, name) ->
+            (name.endsWith(SEGMENT_SUFFIX) || name.endsWith(SEGMENT_SUFFIX + HINT_SUFFIX))
+                && segmentId(new File(dir, name)) <= id);
+
+        for (File segment : replaced != null ? replaced : new File[0]) {
+          segment.delete();
+        }
+
+        if (!compactFile.renameTo(segmentFile(id))) {
+          throw new IOException("Unable to rename compacted segment " + compactFile);
+        }
+      }
+
+      if (!file.renameTo(hintFile(id))) {
+        throw new IOException("Unable to rename compacted hint file " + file);
+      }
+    }
+
+    File[] incomplete = mRootFolder.listFiles((dir, name) -> name.endsWith(COMPACT_SUFFIX));
+    for (File file : incomplete != null ? incomplete : new File[0]) {
+      file.delete();
+    }
+  }
+
+  private Segment newSegment()
+      throws IOException {
+    long id = mNextSegmentId++;
+    return Segment.create(id, segmentFile(id), hintFile(id));
+  }
+
+  private File segmentFile(long pId) {
+    return segmentFile(mRootFolder, pId);
+  }
+
+  private File hintFile(long pId) {
+    return hintFile(mRootFolder, pId);
+  }
+
+  private static File segmentFile(File pFolder, long pId) {
+    return new File(pFolder, String.format("%020d", pId) + SEGMENT_SUFFIX);
+  }
+
+  private static File hintFile(File pFolder, long pId) {
+    return new File(pFolder, String.format("%020d", pId) + SEGMENT_SUFFIX + HINT_SUFFIX);
+  }
+
+  private File compactFile(long pId) {
+    return new File(mRootFolder, String.format("%020d", pId) + COMPACT_SUFFIX);
+  }
+
+  private long segmentId(File pFile) {
+    String name = pFile.getName();
+    try {
+      return Long.parseLong(name.substring(0, name.indexOf('.')));
+
+    } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+      return 0;
+    }
+  }
+
+  /**
+   * @return the folder holding the segments of the named DB.
+   */
+  static File rootFolder(File pStateFolder, String pName) {
+    return new File(pStateFolder, pName + FOLDER_SUFFIX);
+  }
+
+  /**
+   * Writes the collections and documents of a snapshot into sealed segments in the given folder, documents in their
+   * stored form so their versions and deadlines are kept. A new segment is started whenever one reaches
+   * {@link Constants#SEGMENT_MAX_BYTES_KEY}.
+   *
+   * @return the number of documents restored.
+   */
+  static int restore(File pSnapshot, File pFolder, JsonObject pConfig, AtomicFileWriter pWriter)
+      throws IOException {
+    if (pFolder.exists() || !pFolder.mkdirs()) {
+      throw new IOException("Unable to create restore folder: " + pFolder);
+    }
+
+    long maxSegmentBytes = pConfig.getLong(Constants.SEGMENT_MAX_BYTES_KEY, Constants.DEFAULT_SEGMENT_MAX_BYTES_VALUE);
+    Segment[] segment = {Segment.create(1, segmentFile(pFolder, 1), hintFile(pFolder, 1))};
+    int[] documents = {0};
+
+    try {
+      Snapshot.read(pSnapshot, new Snapshot.Visitor() {
+
+        @Override
+        public void collection(String pCollectionId)
+            throws IOException {
+          append(OP_CREATE_COLLECTION, pCollectionId, null, null);
+        }
+
+        @Override
+        public void document(String pCollectionId, String pDocId, JsonObject pStored)
+            throws IOException {
+          append(OP_PUT, pCollectionId, pDocId, pStored.toBuffer().getBytes());
+          documents[0]++;
+        }
+
+        private void append(byte pOp, String pCollectionId, String pDocId, byte[] pPayload)
+            throws IOException {
+          if (segment[0].size() >= maxSegmentBytes) {
+            segment[0].seal();
+            segment[0].close();
+            long id = segment[0].mId + 1;
+            segment[0] = Segment.create(id, segmentFile(pFolder, id), hintFile(pFolder, id));
+          }
+
+          segment[0].append(pOp, pCollectionId, pDocId, pPayload);
+        }
+      });
+
+      segment[0].seal();
+
+    } finally {
+      segment[0].close();
+    }
+
+    pWriter.synced(pFolder);
+    return documents[0];
+  }
+
+  @FunctionalInterface
+  private interface LoggedWrite<T, E extends Exception> {
+    T run()
+        throws E, DocumentException, IOException;
+  }
+
+  /**
+   * Engine named {@code segment}.
+   */
+  public static class Engine
+      implements DBEngine {
+
+    @Override
+    public String name() {
+      return "segment";
+    }
+
+    @Override
+    public DB create(JsonObject pConfig) {
+      return new SegmentDB(pConfig);
+    }
+  }
+}
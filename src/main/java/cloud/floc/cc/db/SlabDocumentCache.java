@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Document;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * {@link DocumentCache} that keeps the JSON encoded payloads of documents off the heap, in direct buffers, so a large
+ * cache neither grows the heap nor adds to garbage collection pauses. Only a small entry per document, holding its
+ * version and where its payload lives, stays on the heap. Documents are rebuilt from a copy of their bytes on every
+ * hit and their payload is only parsed when it's asked for.
+ * <p>
+ * Memory is handed out in slabs of a fixed size, up to a total budget. Each slab is cut into chunks of one size
+ * class, classes growing by a quarter from {@link #MIN_CHUNK_BYTES} up to the slab size, and a payload takes a chunk
+ * of the smallest class it fits in. When a class runs out of chunks it gets a new slab, takes over a slab another
+ * class no longer uses, or evicts its least recently used entry. Payloads larger than a slab aren't cached.
+ */
+class SlabDocumentCache
+    extends DocumentCache {
+
+  static final int MIN_CHUNK_BYTES = 64;
+
+  private static final double GROWTH_FACTOR = 1.25;
+
+  private static class Entry {
+    final Slab mSlab;
+    final int mOffset;
+    final int mLength;
+    final String mCollectionId;
+    final String mDocId;
+    final long mVersion;
+    final long mExpiresAt;
+
+    Entry(Slab pSlab, int pOffset, int pLength, Document pDoc) {
+      mSlab = pSlab;
+      mOffset = pOffset;
+      mLength = pLength;
+      mCollectionId = pDoc.collectionId();
+      mDocId = pDoc.id();
+      mVersion = pDoc.version();
+      mExpiresAt = pDoc.expiresAt();
+    }
+  }
+
+  private static class SizeClass {
+    final int mChunkBytes;
+    final ArrayDeque<Slab> mSlabsWithFreeChunks = new ArrayDeque<>();
+    // In access order, so the first entry is the least recently used one.
+    final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    SizeClass(int pChunkBytes) {
+      mChunkBytes = pChunkBytes;
+    }
+  }
+
+  private static class Slab {
+    final ByteBuffer mBuffer;
+    SizeClass mClass;
+    int[] mFreeOffsets;
+    int mFreeChunks;
+
+    Slab(ByteBuffer pBuffer) {
+      mBuffer = pBuffer;
+    }
+
+    int chunks() {
+      return mFreeOffsets.length;
+    }
+  }
+
+  private final long mBudgetBytes;
+  private final int mSlabBytes;
+  private final SizeClass[] mClasses;
+  private final List<Slab> mSlabs;
+  private final Map<String, Entry> mEntries;
+  private long mPayloadBytes;
+  private long mChunkBytes;
+  private long mOversized;
+  private long mRejected;
+
+  SlabDocumentCache(long pBudgetBytes, int pSlabBytes) {
+    super((int) Math.max(1, Math.min(Integer.MAX_VALUE, pBudgetBytes / MIN_CHUNK_BYTES)));
+
+    if (pSlabBytes < MIN_CHUNK_BYTES || pBudgetBytes < pSlabBytes) {
+      throw new IllegalArgumentException("Off-heap cache budget should hold at least one slab of "
+          + MIN_CHUNK_BYTES + " bytes or more");
+    }
+
+    mBudgetBytes = pBudgetBytes;
+    mSlabBytes = pSlabBytes;
+    mSlabs = new ArrayList<>();
+    mEntries = new HashMap<>();
+
+    List<SizeClass> classes = new ArrayList<>();
+    for (int chunkBytes = MIN_CHUNK_BYTES; chunkBytes < pSlabBytes; ) {
+      classes.add(new SizeClass(chunkBytes));
+      chunkBytes = Math.max(chunkBytes + 8, (int) (chunkBytes * GROWTH_FACTOR) & ~7);
+    }
+    classes.add(new SizeClass(pSlabBytes));
+    mClasses = classes.toArray(new SizeClass[0]);
+  }
+
+  @Override
+  String policy() {
+    return "slab";
+  }
+
+  @Override
+  synchronized int size() {
+    return mEntries.size();
+  }
+
+  synchronized boolean contains(String pKey) {
+    return mEntries.containsKey(pKey);
+  }
+
+  @Override
+  synchronized Document lookup(String pKey) {
+    Entry entry = mEntries.get(pKey);
+    if (entry == null) return null;
+
+    // Moves the entry to the most recently used end of its class.
+    entry.mSlab.mClass.mEntries.get(pKey);
+
+    byte[] payload = new byte[entry.mLength];
+    entry.mSlab.mBuffer.position(entry.mOffset);
+    entry.mSlab.mBuffer.get(payload);
+
+    return Document
+        .newBuilder()
+        .underCollection(entry.mCollectionId)
+        .withId(entry.mDocId)
+        .withRawPayload(Buffer.buffer(payload))
+        .withVersion(entry.mVersion)
+        .expiringAt(entry.mExpiresAt)
+        .build();
+  }
+
+  @Override
+  synchronized boolean store(String pKey, Document pDoc) {
+    remove(pKey);
+
+    Buffer rawPayload = pDoc.rawPayload();
+    byte[] payload = rawPayload != null ? rawPayload.getBytes() : pDoc.payload().toBuffer().getBytes();
+    if (payload.length > mSlabBytes) {
+      mOversized++;
+      return false;
+    }
+
+    SizeClass sizeClass = classFor(payload.length);
+    boolean evicted = false;
+    Slab slab = slabWithFreeChunk(sizeClass);
+
+    if (slab == null && !sizeClass.mEntries.isEmpty()) {
+      var eldest = sizeClass.mEntries.keySet().iterator().next();
+      remove(eldest);
+      evicted = true;
+      slab = sizeClass.mSlabsWithFreeChunks.peekFirst();
+    }
+
+    if (slab == null) {
+      mRejected++;
+      return false;
+    }
+
+    int offset = slab.mFreeOffsets[--slab.mFreeChunks];
+    if (slab.mFreeChunks == 0) {
+      sizeClass.mSlabsWithFreeChunks.remove(slab);
+    }
+
+    slab.mBuffer.position(offset);
+    slab.mBuffer.put(payload);
+
+    var entry = new Entry(slab, offset, payload.length, pDoc);
+    mEntries.put(pKey, entry);
+    sizeClass.mEntries.put(pKey, entry);
+    mPayloadBytes += payload.length;
+    mChunkBytes += sizeClass.mChunkBytes;
+
+    return evicted;
+  }
+
+  @Override
+  synchronized void remove(String pKey) {
+    Entry entry = mEntries.remove(pKey);
+    if (entry == null) return;
+
+    Slab slab = entry.mSlab;
+    slab.mClass.mEntries.remove(pKey);
+    if (slab.mFreeChunks == 0) {
+      slab.mClass.mSlabsWithFreeChunks.addLast(slab);
+    }
+    slab.mFreeOffsets[slab.mFreeChunks++] = entry.mOffset;
+
+    mPayloadBytes -= entry.mLength;
+    mChunkBytes -= slab.mClass.mChunkBytes;
+  }
+
+  @Override
+  synchronized void removeIf(Predicate<String> pKeyFilter) {
+    List<String> keys = new ArrayList<>();
+    mEntries.keySet().forEach(key -> {
+      if (pKeyFilter.test(key)) keys.add(key);
+    });
+
+    keys.forEach(this::remove);
+  }
+
+  /**
+   * Drops every entry and every slab, leaving the buffers to be freed by the garbage collector.
+   */
+  synchronized void clear() {
+    mEntries.clear();
+    mSlabs.clear();
+    for (SizeClass sizeClass : mClasses) {
+      sizeClass.mEntries.clear();
+      sizeClass.mSlabsWithFreeChunks.clear();
+    }
+
+    mPayloadBytes = 0;
+    mChunkBytes = 0;
+  }
+
+  /**
+   * Adds to the cache metrics how much of the budget is held in slabs, how much of the slabs is taken by chunks in
+   * use, and how much of those chunks is left unused by the payloads they hold.
+   */
+  @Override
+  synchronized JsonObject metrics() {
+    long slabBytes = (long) mSlabs.size() * mSlabBytes;
+
+    return super.metrics()
+        .put("budgetBytes", mBudgetBytes)
+        .put("slabBytes", mSlabBytes)
+        .put("slabs", mSlabs.size())
+        .put("allocatedBytes", slabBytes)
+        .put("chunkBytes", mChunkBytes)
+        .put("payloadBytes", mPayloadBytes)
+        .put("occupancy", slabBytes > 0 ? (double) mChunkBytes / slabBytes : 0.0)
+        .put("fragmentation", mChunkBytes > 0 ? 1.0 - (double) mPayloadBytes / mChunkBytes : 0.0)
+        .put("oversized", mOversized)
+        .put("rejected", mRejected);
+  }
+
+  private SizeClass classFor(int pLength) {
+    int low = 0;
+    int high = mClasses.length - 1;
+
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (mClasses[middle].mChunkBytes < pLength) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    return mClasses[low];
+  }
+
+  /**
+   * @return a slab of the class with a free chunk: one it already has, a new one while the budget allows, or one that
+   * another class left entirely free. {@code null} if there's none of these.
+   */
+  private Slab slabWithFreeChunk(SizeClass pClass) {
+    Slab slab = pClass.mSlabsWithFreeChunks.peekFirst();
+    if (slab != null) return slab;
+
+    if ((long) (mSlabs.size() + 1) * mSlabBytes <= mBudgetBytes) {
+      slab = new Slab(ByteBuffer.allocateDirect(mSlabBytes));
+      mSlabs.add(slab);
+      assign(slab, pClass);
+      return slab;
+    }
+
+    for (Slab unused : mSlabs) {
+      if (unused.mClass != pClass && unused.mFreeChunks == unused.chunks()) {
+        unused.mClass.mSlabsWithFreeChunks.remove(unused);
+        assign(unused, pClass);
+        return unused;
+      }
+    }
+
+    return null;
+  }
+
+  private void assign(Slab pSlab, SizeClass pClass) {
+    int chunks = mSlabBytes / pClass.mChunkBytes;
+
+    pSlab.mClass = pClass;
+    pSlab.mFreeOffsets = new int[chunks];
+    for (int c = 0; c < chunks; c++) {
+      pSlab.mFreeOffsets[c] = (chunks - 1 - c) * pClass.mChunkBytes;
+    }
+    pSlab.mFreeChunks = chunks;
+
+    pClass.mSlabsWithFreeChunks.addLast(pSlab);
+  }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Utils;
+import io.vertx.core.json.JsonObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Point-in-time copy of a whole DB as gzipped NDJSON. The first line is a header, followed by a line per collection
+ * and a line per document of that collection holding the document's {@link DocumentMeta} stored form, so versions
+ * survive a restore:
+ * <pre>
+ * {"snapshot":1,"db":"fcc","created":1600000000000}
+ * {"collection":"bots"}
+ * {"collection":"bots","id":"...","document":{"_meta":{"version":3},...}}
+ * </pre>
+ * Snapshots are restored on startup when {@link Constants#DB_RESTORE_SNAPSHOT_KEY} is set: into the
+ * one-file-per-document layout shared by {@link JsonDB} and {@link WalDB}, into segments for {@link SegmentDB}, and
+ * as the snapshot file of a {@link MemoryDB} that has one.
+ */
+final class Snapshot {
+
+  private static final Logger LOGGER = Logger.getLogger(Snapshot.class.getName());
+
+  static final int FORMAT_VERSION = 1;
+
+  private static final String SNAPSHOT_KEY = "snapshot";
+  private static final String DB_KEY = "db";
+  private static final String CREATED_KEY = "created";
+  private static final String COLLECTION_KEY = "collection";
+  private static final String ID_KEY = "id";
+  private static final String DOCUMENT_KEY = "document";
+
+  private static final String RESTORED_FILE = "restored-snapshot.json";
+  private static final String RESTORE_FOLDER_PREFIX = ".";
+  private static final String RESTORE_FOLDER_INFIX = ".restore-";
+  private static final int BATCH_SIZE = 256;
+
+  private Snapshot() {}
+
+  /**
+   * Writes a snapshot; collections must be written one at a time, each followed by its documents.
+   */
+  static class Writer
+      implements Closeable {
+
+    private final GZIPOutputStream mGzip;
+    private final BufferedWriter mOut;
+
+    Writer(OutputStream pOut, String pDbName)
+        throws IOException {
+      mGzip = new GZIPOutputStream(pOut, 64 * 1024);
+      mOut = new BufferedWriter(new OutputStreamWriter(mGzip, StandardCharsets.UTF_8));
+      line(new JsonObject()
+          .put(SNAPSHOT_KEY, FORMAT_VERSION)
+          .put(DB_KEY, pDbName)
+          .put(CREATED_KEY, System.currentTimeMillis()));
+    }
+
+    void collection(String pCollectionId)
+        throws IOException {
+      line(new JsonObject().put(COLLECTION_KEY, pCollectionId));
+    }
+
+    void document(String pCollectionId, String pDocId, JsonObject pStored)
+        throws IOException {
+      line(new JsonObject()
+          .put(COLLECTION_KEY, pCollectionId)
+          .put(ID_KEY, pDocId)
+          .put(DOCUMENT_KEY, pStored));
+    }
+
+    /**
+     * Finishes the snapshot, leaving the underlying stream open.
+     */
+    @Override
+    public void close()
+        throws IOException {
+      mOut.flush();
+      mGzip.finish();
+      mGzip.flush();
+    }
+
+    private void line(JsonObject pLine)
+        throws IOException {
+      mOut.write(pLine.encode());
+      mOut.write('\n');
+    }
+  }
+
+  /**
+   * Restores the snapshot named by {@link Constants#DB_RESTORE_SNAPSHOT_KEY}, unless it's the one the DB was last
+   * restored from. The snapshot is written next to the DB folder first; only once it's complete, the current DB
+   * folder, and any write-ahead logs, are moved aside to {@code <folder>.before-restore-<time>}. A restore that fails
+   * or is interrupted before then leaves the DB as it was; its partial copy is deleted.
+   *
+   * @throws IllegalArgumentException if the configured engine keeps nothing on disk to restore into.
+   */
+  static void restoreOnStartup(JsonObject pConfig)
+      throws IOException {
+    String path = pConfig.getString(Constants.DB_RESTORE_SNAPSHOT_KEY);
+    if (path == null) return;
+
+    String engine = pConfig.getString(Constants.DB_ENGINE_KEY, Constants.DEFAULT_DB_ENGINE_VALUE);
+    String name = pConfig.getString(Constants.DB_NAME_KEY, Constants.DEFAULT_DB_NAME_VALUE);
+    File stateFolder = new File(pConfig.getString(Constants.STATE_FOLDER_KEY, Constants.DEFAULT_STATE_FOLDER_VALUE));
+    File rootFolder;
+
+    switch (engine) {
+      case "json":
+      case "wal":
+        rootFolder = new File(stateFolder, name);
+        break;
+
+      case "segment":
+        rootFolder = SegmentDB.rootFolder(stateFolder, name);
+        break;
+
+      case "memory":
+        if (pConfig.getLong(Constants.MEMORY_SNAPSHOT_INTERVAL_KEY,
+            Constants.DEFAULT_MEMORY_SNAPSHOT_INTERVAL_VALUE) <= 0) {
+          throw new IllegalArgumentException("Snapshots can only be restored into the memory DB engine when "
+              + Constants.MEMORY_SNAPSHOT_INTERVAL_KEY + " is set, since it has nowhere else to load them from");
+        }
+
+        rootFolder = new File(stateFolder, name);
+        break;
+
+      default:
+        throw new IllegalArgumentException("Snapshots can't be restored into the " + engine + " DB engine");
+    }
+
+    File snapshot = new File(path).getAbsoluteFile();
+
+    JsonObject source = new JsonObject()
+        .put("file", snapshot.getPath())
+        .put("size", snapshot.length())
+        .put("modified", snapshot.lastModified());
+    File restoredFile = new File(rootFolder, RESTORED_FILE);
+    if (restoredFile.exists() && source.equals(new JsonObject(Files.readString(restoredFile.toPath())))) {
+      return;
+    }
+
+    if (!snapshot.isFile()) {
+      throw new IOException("Snapshot not found: " + snapshot);
+    }
+
+    deleteRestoreFolders(stateFolder, name);
+
+    long now = System.currentTimeMillis();
+    File restoreFolder = new File(stateFolder, RESTORE_FOLDER_PREFIX + name + RESTORE_FOLDER_INFIX + now);
+    var writer = new AtomicFileWriter(AtomicFileWriter.Durability.FSYNC, 0, name);
+
+    try {
+      int documents;
+      try {
+        documents = restore(engine, snapshot, restoreFolder, pConfig, writer);
+
+      } catch (IOException | RuntimeException ex) {
+        if (restoreFolder.exists()) Utils.deleteFolder(restoreFolder);
+        throw ex;
+      }
+
+      if (rootFolder.exists()) {
+        File backupFolder = new File(stateFolder, rootFolder.getName() + ".before-restore-" + now);
+        Files.move(rootFolder.toPath(), backupFolder.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        for (File log : WalDB.logFiles(stateFolder, name)) {
+          Files.move(log.toPath(), new File(backupFolder, log.getName()).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        LOGGER.info("Moved DB " + name + " aside to " + backupFolder);
+      }
+
+      Files.move(restoreFolder.toPath(), rootFolder.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      writer.synced(rootFolder);
+      writer.write(restoredFile, source.toBuffer().getBytes());
+      LOGGER.info("Restored " + documents + " documents of DB " + name + " from snapshot " + snapshot);
+
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Writes the documents of a snapshot into the given folder, in the layout of the given engine.
+   *
+   * @return the number of documents restored.
+   */
+  private static int restore(String pEngine, File pSnapshot, File pFolder, JsonObject pConfig,
+      AtomicFileWriter pWriter)
+      throws IOException {
+    switch (pEngine) {
+      case "segment":
+        return SegmentDB.restore(pSnapshot, pFolder, pConfig, pWriter);
+
+      case "memory":
+        return MemoryDB.restore(pSnapshot, pFolder, pWriter);
+
+      default:
+        return restore(pSnapshot, pFolder, DocumentCodec.fromConfig(pConfig), pWriter);
+    }
+  }
+
+  /**
+   * Deletes the folders of restores that were interrupted before they could replace the DB folder.
+   */
+  private static void deleteRestoreFolders(File pStateFolder, String pName)
+      throws IOException {
+    File[] folders = pStateFolder.listFiles(
+        (dir, fileName) -> fileName.startsWith(RESTORE_FOLDER_PREFIX + pName + RESTORE_FOLDER_INFIX));
+
+    for (File folder : folders != null ? folders : new File[0]) {
+      Utils.deleteFolder(folder);
+      LOGGER.info("Deleted folder of an interrupted restore: " + folder);
+    }
+  }
+
+  /**
+   * Receives the content of a snapshot, in the order it was written.
+   */
+  interface Visitor {
+
+    void collection(String pCollectionId)
+        throws IOException;
+
+    void document(String pCollectionId, String pDocId, JsonObject pStored)
+        throws IOException;
+  }
+
+  /**
+   * Reads a whole snapshot into the given visitor.
+   */
+  static void read(File pSnapshot, Visitor pVisitor)
+      throws IOException {
+    try (var in = new BufferedReader(new InputStreamReader(
+        new GZIPInputStream(new FileInputStream(pSnapshot), 64 * 1024), StandardCharsets.UTF_8))) {
+      String first = in.readLine();
+      JsonObject header = first == null ? new JsonObject() : new JsonObject(first);
+      if (header.getInteger(SNAPSHOT_KEY, 0) != FORMAT_VERSION) {
+        throw new IOException("Unsupported snapshot format: " + header.encode());
+      }
+
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (line.isEmpty()) continue;
+
+        JsonObject entry = new JsonObject(line);
+        String collectionId = entry.getString(COLLECTION_KEY);
+        if (entry.containsKey(ID_KEY)) {
+          pVisitor.document(collectionId, entry.getString(ID_KEY), entry.getJsonObject(DOCUMENT_KEY));
+        } else {
+          pVisitor.collection(collectionId);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the documents of a snapshot into the given folder, one subfolder per collection.
+   *
+   * @return the number of documents restored.
+   */
+  static int restore(File pSnapshot, File pFolder, Function<String, DocumentCodec> pCodecs, AtomicFileWriter pWriter)
+      throws IOException {
+    if (pFolder.exists() || !pFolder.mkdirs()) {
+      throw new IOException("Unable to create restore folder: " + pFolder);
+    }
+
+    Map<File, byte[]> batch = new LinkedHashMap<>();
+    int[] documents = {0};
+
+    read(pSnapshot, new Visitor() {
+
+      @Override
+      public void collection(String pCollectionId)
+          throws IOException {
+        File collectionFolder = new File(pFolder, pCollectionId);
+        if (!collectionFolder.mkdir()) {
+          throw new IOException("Unable to create collection folder: " + collectionFolder);
+        }
+
+        pWriter.synced(collectionFolder);
+      }
+
+      @Override
+      public void document(String pCollectionId, String pDocId, JsonObject pStored)
+          throws IOException {
+        byte[] stored = pCodecs.apply(pCollectionId).encode(pStored);
+        batch.put(new File(new File(pFolder, pCollectionId), pDocId), stored);
+        documents[0]++;
+
+        if (batch.size() >= BATCH_SIZE) {
+          pWriter.writeAll(batch);
+          batch.clear();
+        }
+      }
+    });
+
+    pWriter.writeAll(batch);
+    pWriter.synced(pFolder);
+
+    return documents[0];
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.DocumentException;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Command line entry point to export or restore DB snapshots, using the same config file as the server.
+ * <p>
+ * {@code SnapshotTool export <snapshot-file> [config-file]} writes a snapshot of the configured DB. The server should
+ * not be running; use {@code GET /api/v1/admin/snapshot} to snapshot a running server instead.
+ * <p>
+ * {@code SnapshotTool restore <snapshot-file> [config-file]} replaces the configured DB with the snapshot, as the server
+ * does on startup when {@link Constants#DB_RESTORE_SNAPSHOT_KEY} is set.
+ */
+public class SnapshotTool {
+
+  public static void main(String[] pArgs)
+      throws Exception {
+    if (pArgs.length < 2 || !(pArgs[0].equals("export") || pArgs[0].equals("restore"))) {
+      System.err.println("Usage: SnapshotTool export|restore <snapshot-file> [config-file]");
+      System.exit(1);
+    }
+
+    File snapshot = new File(pArgs[1]);
+    JsonObject config = pArgs.length > 2
+        ? new JsonObject(Files.readString(new File(pArgs[2]).toPath()))
+        : new JsonObject();
+
+    if (pArgs[0].equals("export")) {
+      export(snapshot, config);
+    } else {
+      Snapshot.restoreOnStartup(config.copy().put(Constants.DB_RESTORE_SNAPSHOT_KEY, snapshot.getPath()));
+    }
+  }
+
+  private static void export(File pSnapshot, JsonObject pConfig)
+      throws IOException, DocumentException {
+    DB db = DB.newEngine(pConfig);
+
+    try (var out = new FileOutputStream(pSnapshot)) {
+      db.exportSnapshot(out);
+
+    } finally {
+      db.close();
+    }
+  }
+}
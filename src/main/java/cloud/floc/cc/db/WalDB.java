@@ -0,0 +1,964 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.Page;
+import cloud.floc.cc.common.Utils;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * {@link DB} that appends every mutation to a sequential write-ahead log and serves reads from an in-memory memtable.
+ * The memtable is checkpointed in the background to the one-file-per-document layout used by {@link JsonDB}, after
+ * which the log segments it covers are discarded. On startup the checkpointed files are loaded and the remaining log
+ * segments are replayed on top of them. Collection folders follow the {@link DocumentLayout} configured for them and
+ * are migrated to it on startup, like {@link JsonDB}'s, so either engine can open the other's state folder.
+ * <p>
+ * Patches are logged as given, along with the patched document's meta, so a small change to a large document only adds
+ * a small record to the log; the whole document is rewritten once, by the next checkpoint.
+ * <p>
+ * The memtable, the log and the checkpointed files all hold documents in their {@link DocumentMeta} stored form.
+ * Log appends are synced according to {@link Constants#DB_DURABILITY_KEY}; with {@code batch}, a write is visible to
+ * readers as soon as it's applied to the memtable, but only returns once the group commit covering it has synced the
+ * log. Checkpointed files are replaced atomically and synced the same way before the log segments covering them are
+ * deleted. They're encoded like {@link JsonDB}'s files, with the configured
+ * {@link DocumentCodec}.
+ */
+public class WalDB
+    implements DB {
+
+  private static final Logger LOGGER = Logger.getLogger(WalDB.class.getName());
+
+  private static final String WAL_SUFFIX = ".wal.";
+  private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+  private static final byte OP_PUT = 1;
+  private static final byte OP_DELETE = 2;
+  private static final byte OP_CREATE_COLLECTION = 3;
+  private static final byte OP_DELETE_COLLECTION = 4;
+  private static final byte OP_PATCH = 5;
+
+  private final String mName;
+  private final File mRootFolder;
+  private final File mStateFolder;
+  private final LogSync mLogSync;
+  private final AtomicFileWriter mWriter;
+  private final Function<String, DocumentCodec> mCodecs;
+  private final Function<String, DocumentLayout> mLayouts;
+
+  private final ConcurrentMap<String, ConcurrentSkipListMap<String, JsonObject>> mMemtable;
+
+  // Guarded by mWriteLock.
+  private final ReentrantLock mWriteLock;
+  private Map<String, Set<String>> mDirtyDocs;
+  private Set<String> mDroppedCollections;
+  private List<File> mSealedLogs;
+  private File mLogFile;
+  private FileChannel mLogChannel;
+  private long mLogSequence;
+
+  private final ReentrantLock mCheckpointLock;
+  private final ScheduledExecutorService mCheckpointExecutor;
+
+  public WalDB(JsonObject pConfig) {
+    mName = pConfig.getString(Constants.DB_NAME_KEY, Constants.DEFAULT_DB_NAME_VALUE);
+    mStateFolder = new File(pConfig.getString(Constants.STATE_FOLDER_KEY, Constants.DEFAULT_STATE_FOLDER_VALUE));
+    mRootFolder = new File(mStateFolder, mName);
+    long checkpointInterval = pConfig.getLong(
+        Constants.WAL_CHECKPOINT_INTERVAL_KEY, Constants.DEFAULT_WAL_CHECKPOINT_INTERVAL_VALUE);
+    var durability = AtomicFileWriter.Durability.of(
+        pConfig.getString(Constants.DB_DURABILITY_KEY, Constants.DEFAULT_DB_DURABILITY_VALUE));
+    long commitInterval = pConfig.getLong(
+        Constants.DB_GROUP_COMMIT_INTERVAL_KEY, Constants.DEFAULT_DB_GROUP_COMMIT_INTERVAL_VALUE);
+    mWriter = new AtomicFileWriter(durability, commitInterval, mName);
+    mLogSync = new LogSync(durability, commitInterval);
+    mCodecs = DocumentCodec.fromConfig(pConfig);
+    mLayouts = DocumentLayout.fromConfig(pConfig);
+
+    mMemtable = new ConcurrentHashMap<>();
+    mWriteLock = new ReentrantLock();
+    mCheckpointLock = new ReentrantLock();
+    mDirtyDocs = new HashMap<>();
+    mDroppedCollections = new HashSet<>();
+    mSealedLogs = new ArrayList<>();
+
+    if (!mRootFolder.exists() && !mRootFolder.mkdirs()) {
+      throw new RuntimeException("Unable to initialize DB. Failed to create root folder.");
+    }
+
+    try {
+      loadCheckpoint();
+      recover();
+      openLog(mLogSequence + 1);
+
+    } catch (IOException ex) {
+      throw new RuntimeException("Unable to initialize DB. Failed to recover write-ahead log.", ex);
+    }
+
+    mCheckpointExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "wal-checkpoint-" + mName);
+      thread.setDaemon(true);
+      return thread;
+    });
+    mCheckpointExecutor.scheduleWithFixedDelay(this::checkpoint, checkpointInterval, checkpointInterval,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public String name() {
+    return mName;
+  }
+
+  @Override
+  public Document createDocument(Document pDoc)
+      throws DocumentExistsException, DocumentException {
+    return logged("Unable to create document: " + pDoc.id(), () -> {
+      var docs = mMemtable.get(pDoc.collectionId());
+      if (docs == null) {
+        throw new DocumentException("Unable to create document: " + pDoc.id());
+      }
+
+      if (docs.containsKey(pDoc.id())) {
+        throw new DocumentExistsException("There's an existing document: " + pDoc.id());
+      }
+
+      JsonObject stored = DocumentMeta.wrap(pDoc.payload().copy(), 1, pDoc.expiresAt());
+      append(OP_PUT, pDoc.collectionId(), pDoc.id(), stored);
+      apply(OP_PUT, pDoc.collectionId(), pDoc.id(), stored);
+
+      return Document
+          .newBuilder()
+          .underCollection(pDoc.collectionId())
+          .withId(pDoc.id())
+          .withPayload(pDoc.payload())
+          .withVersion(1)
+          .expiringAt(pDoc.expiresAt())
+          .build();
+    });
+  }
+
+  @Override
+  public Document getDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    var docs = mMemtable.get(pCollectionId);
+    JsonObject stored = docs != null ? docs.get(pDocId) : null;
+
+    if (stored == null) {
+      throw new DocumentNotFoundException("Document not found: " + pDocId);
+    }
+
+    return DocumentMeta.unwrap(pCollectionId, pDocId, stored.copy());
+  }
+
+  @Override
+  public Document updateDocument(Document pDoc)
+      throws DocumentNotFoundException, DocumentException {
+    return logged("Unable to update document: " + pDoc.id(), () -> {
+      var docs = mMemtable.get(pDoc.collectionId());
+      JsonObject current = docs != null ? docs.get(pDoc.id()) : null;
+      if (current == null) {
+        throw new DocumentNotFoundException("Document not found: " + pDoc.id());
+      }
+
+      long version = DocumentMeta.nextVersion(pDoc, DocumentMeta.version(current));
+      JsonObject stored = DocumentMeta.wrap(pDoc.payload().copy(), version, pDoc.expiresAt());
+      append(OP_PUT, pDoc.collectionId(), pDoc.id(), stored);
+      apply(OP_PUT, pDoc.collectionId(), pDoc.id(), stored);
+
+      return Document
+          .newBuilder()
+          .underCollection(pDoc.collectionId())
+          .withId(pDoc.id())
+          .withPayload(pDoc.payload())
+          .withVersion(version)
+          .expiringAt(pDoc.expiresAt())
+          .build();
+    });
+  }
+
+  @Override
+  public Document patchDocument(Document pPatch)
+      throws DocumentNotFoundException, DocumentException {
+    return logged("Unable to patch document: " + pPatch.id(), () -> {
+      var docs = mMemtable.get(pPatch.collectionId());
+      JsonObject current = docs != null ? docs.get(pPatch.id()) : null;
+      if (current == null) {
+        throw new DocumentNotFoundException("Document not found: " + pPatch.id());
+      }
+
+      long version = DocumentMeta.nextVersion(pPatch, DocumentMeta.version(current));
+      JsonObject patch = DocumentMeta.wrap(pPatch.payload(), version, pPatch.expiresAt());
+      append(OP_PATCH, pPatch.collectionId(), pPatch.id(), patch);
+      apply(OP_PATCH, pPatch.collectionId(), pPatch.id(), patch);
+
+      return DocumentMeta.unwrap(pPatch.collectionId(), pPatch.id(), docs.get(pPatch.id()).copy());
+    });
+  }
+
+  @Override
+  public Document deleteDocument(String pCollectionId, String pDocId)
+      throws DocumentNotFoundException, DocumentException {
+    return logged("Unable to delete document: " + pDocId, () -> {
+      var docs = mMemtable.get(pCollectionId);
+      JsonObject stored = docs != null ? docs.get(pDocId) : null;
+      if (stored == null) {
+        throw new DocumentNotFoundException("Document not found: " + pDocId);
+      }
+
+      append(OP_DELETE, pCollectionId, pDocId, null);
+      apply(OP_DELETE, pCollectionId, pDocId, null);
+
+      return DocumentMeta.unwrap(pCollectionId, pDocId, stored.copy());
+    });
+  }
+
+  @Override
+  public boolean hasDocument(String pCollectionId, String pDocId) {
+    var docs = mMemtable.get(pCollectionId);
+    return docs != null && docs.containsKey(pDocId);
+  }
+
+  @Override
+  public Collection createCollection(Collection pCol)
+      throws DocumentExistsException, DocumentException {
+    return logged("Unable to create collection: " + pCol.id(), () -> {
+      if (mMemtable.containsKey(pCol.id())) {
+        throw new DocumentExistsException("There's an existing collection: " + pCol.id());
+      }
+
+      append(OP_CREATE_COLLECTION, pCol.id(), null, null);
+      apply(OP_CREATE_COLLECTION, pCol.id(), null, null);
+
+      return Collection
+          .newBuilder()
+          .withId(pCol.id())
+          .withPayload(new JsonObject())
+          .build();
+    });
+  }
+
+  @Override
+  public Collection getCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    var docs = mMemtable.get(pId);
+    if (docs == null) {
+      throw new DocumentNotFoundException("Collection not found: " + pId);
+    }
+
+    var builder = Collection
+        .newBuilder()
+        .withId(pId)
+        .withPayload(new JsonObject());
+
+    docs.forEach((docId, stored) -> builder.addDocument(DocumentMeta.unwrap(pId, docId, stored.copy())));
+
+    return builder.build();
+  }
+
+  @Override
+  public Collection updateCollection(Collection pCol)
+      throws DocumentNotFoundException, DocumentException {
+    if (!mMemtable.containsKey(pCol.id())) {
+      throw new DocumentNotFoundException("Collection not found: " + pCol.id());
+    }
+
+    return Collection
+        .newBuilder()
+        .withId(pCol.id())
+        .build();
+  }
+
+  @Override
+  public Collection deleteCollection(String pId)
+      throws DocumentNotFoundException, DocumentException {
+    return logged("Unable to delete collection: " + pId, () -> {
+      if (!mMemtable.containsKey(pId)) {
+        throw new DocumentNotFoundException("Collection not found: " + pId);
+      }
+
+      append(OP_DELETE_COLLECTION, pId, null, null);
+      apply(OP_DELETE_COLLECTION, pId, null, null);
+
+      return Collection
+          .newBuilder()
+          .withId(pId)
+          .build();
+    });
+  }
+
+  @Override
+  public boolean hasCollection(String pId) {
+    return mMemtable.containsKey(pId);
+  }
+
+  @Override
+  public Collection getDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    var docs = mMemtable.get(pCollectionId);
+    if (docs == null) {
+      throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+    }
+
+    var builder = Collection
+        .newBuilder()
+        .withId(pCollectionId)
+        .withPayload(new JsonObject());
+
+    for (String docId : pDocIds) {
+      JsonObject stored = docs.get(docId);
+      if (stored == null) continue;
+
+      builder.addDocument(DocumentMeta.unwrap(pCollectionId, docId, stored.copy()));
+    }
+
+    return builder.build();
+  }
+
+  @Override
+  public Collection putDocuments(String pCollectionId, List<Document> pDocs)
+      throws DocumentNotFoundException, DocumentException {
+    return logged("Unable to put documents into collection: " + pCollectionId, () -> {
+      var docs = mMemtable.get(pCollectionId);
+      if (docs == null) {
+        throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+      }
+
+      var builder = Collection
+          .newBuilder()
+          .withId(pCollectionId)
+          .withPayload(new JsonObject());
+      List<JsonObject> payloads = new ArrayList<>(pDocs.size());
+      Map<String, Long> versions = new HashMap<>();
+      ByteBuffer[] frames = new ByteBuffer[pDocs.size()];
+
+      for (int d = 0; d < frames.length; d++) {
+        Document doc = pDocs.get(d);
+        JsonObject current = docs.get(doc.id());
+        long version = versions.getOrDefault(doc.id(), current != null ? DocumentMeta.version(current) : 0) + 1;
+        versions.put(doc.id(), version);
+
+        payloads.add(DocumentMeta.wrap(doc.payload().copy(), version, doc.expiresAt()));
+        frames[d] = frame(OP_PUT, pCollectionId, doc.id(), payloads.get(d));
+        builder.addDocument(Document
+            .newBuilder()
+            .underCollection(pCollectionId)
+            .withId(doc.id())
+            .withPayload(doc.payload())
+            .withVersion(version)
+            .expiringAt(doc.expiresAt())
+            .build());
+      }
+
+      append(frames);
+      for (int d = 0; d < frames.length; d++) {
+        apply(OP_PUT, pCollectionId, pDocs.get(d).id(), payloads.get(d));
+      }
+
+      return builder.build();
+    });
+  }
+
+  @Override
+  public Collection deleteDocuments(String pCollectionId, List<String> pDocIds)
+      throws DocumentNotFoundException, DocumentException {
+    return logged("Unable to delete documents from collection: " + pCollectionId, () -> {
+      var docs = mMemtable.get(pCollectionId);
+      if (docs == null) {
+        throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+      }
+
+      var builder = Collection
+          .newBuilder()
+          .withId(pCollectionId)
+          .withPayload(new JsonObject());
+      Set<String> deletedIds = new LinkedHashSet<>();
+      List<ByteBuffer> frames = new ArrayList<>();
+
+      for (String docId : pDocIds) {
+        JsonObject stored = docs.get(docId);
+        if (stored == null || deletedIds.contains(docId)) continue;
+
+        deletedIds.add(docId);
+        frames.add(frame(OP_DELETE, pCollectionId, docId, null));
+        builder.addDocument(DocumentMeta.unwrap(pCollectionId, docId, stored.copy()));
+      }
+
+      append(frames.toArray(new ByteBuffer[0]));
+      for (String docId : deletedIds) {
+        apply(OP_DELETE, pCollectionId, docId, null);
+      }
+
+      return builder.build();
+    });
+  }
+
+  @Override
+  public Page getPage(String pCollectionId, String pCursor, int pLimit)
+      throws DocumentNotFoundException, DocumentException {
+    if (pLimit < 1) throw new IllegalArgumentException("Page limit should be positive");
+
+    var docs = mMemtable.get(pCollectionId);
+    if (docs == null) {
+      throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+    }
+
+    String afterId = Page.decodeCursor(pCursor);
+    var tail = afterId != null ? docs.tailMap(afterId, false) : docs;
+    var builder = Page
+        .newBuilder()
+        .underCollection(pCollectionId);
+
+    int count = 0;
+    for (var entry : tail.entrySet()) {
+      if (count == pLimit) {
+        builder.continueAfter(afterId);
+        break;
+      }
+
+      builder.addDocument(DocumentMeta.unwrap(pCollectionId, entry.getKey(), entry.getValue().copy()));
+      afterId = entry.getKey();
+      count++;
+    }
+
+    return builder.build();
+  }
+
+  @Override
+  public Collection getRange(String pCollectionId, String pFromId, String pToId, int pLimit, boolean pDescending)
+      throws DocumentNotFoundException, DocumentException {
+    if (pLimit < 1) throw new IllegalArgumentException("Range limit should be positive");
+
+    var docs = mMemtable.get(pCollectionId);
+    if (docs == null) {
+      throw new DocumentNotFoundException("Collection not found: " + pCollectionId);
+    }
+
+    var builder = Collection
+        .newBuilder()
+        .withId(pCollectionId)
+        .withPayload(new JsonObject());
+
+    int count = 0;
+    for (var entry : IdRanges.of(docs, pFromId, pToId, pDescending).entrySet()) {
+      if (count++ == pLimit) break;
+      builder.addDocument(DocumentMeta.unwrap(pCollectionId, entry.getKey(), entry.getValue().copy()));
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * Copies the memtable's document references under the write lock, then writes them out while writes continue.
+   * Stored documents are replaced rather than modified, so the copy stays a consistent view.
+   */
+  @Override
+  public void exportSnapshot(OutputStream pOut)
+      throws DocumentException {
+    Map<String, ConcurrentSkipListMap<String, JsonObject>> view = new TreeMap<>();
+
+    mWriteLock.lock();
+    try {
+      mMemtable.forEach((collectionId, docs) -> view.put(collectionId, docs.clone()));
+
+    } finally {
+      mWriteLock.unlock();
+    }
+
+    try (var writer = new Snapshot.Writer(pOut, mName)) {
+      for (var collection : view.entrySet()) {
+        writer.collection(collection.getKey());
+
+        for (var doc : collection.getValue().entrySet()) {
+          writer.document(collection.getKey(), doc.getKey(), doc.getValue());
+        }
+      }
+
+    } catch (IOException ex) {
+      throw new DocumentException("Unable to export snapshot of DB: " + mName, ex);
+    }
+  }
+
+  @Override
+  public JsonObject metrics() {
+    return new JsonObject()
+        .put("writes", mWriter.metrics())
+        .put("log", mLogSync.metrics());
+  }
+
+  @Override
+  public void close() {
+    mCheckpointExecutor.shutdown();
+
+    try {
+      mCheckpointExecutor.awaitTermination(1, TimeUnit.MINUTES);
+
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+
+    checkpoint();
+    mWriter.close();
+
+    mWriteLock.lock();
+    try {
+      FileChannel channel = mLogChannel;
+      mLogSync.rotate(() -> channel.force(false));
+      mLogChannel.close();
+
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Unable to close write-ahead log " + mLogFile, ex);
+
+    } finally {
+      mWriteLock.unlock();
+    }
+  }
+
+  /**
+   * Writes every document changed since the previous checkpoint to its file and discards the log segments that are
+   * now covered by those files. Writers only wait for the log rotation, never for the file writes.
+   */
+  void checkpoint() {
+    mCheckpointLock.lock();
+
+    try {
+      Map<String, Set<String>> dirtyDocs;
+      Set<String> droppedCollections;
+      List<File> sealedLogs;
+
+      mWriteLock.lock();
+      try {
+        if (mDirtyDocs.isEmpty() && mDroppedCollections.isEmpty() && mSealedLogs.isEmpty()) return;
+
+        dirtyDocs = mDirtyDocs;
+        droppedCollections = mDroppedCollections;
+        sealedLogs = mSealedLogs;
+        mDirtyDocs = new HashMap<>();
+        mDroppedCollections = new HashSet<>();
+        mSealedLogs = new ArrayList<>();
+
+        sealedLogs.add(mLogFile);
+        FileChannel channel = mLogChannel;
+        mLogSync.rotate(() -> channel.force(false));
+        mLogChannel.close();
+        openLog(mLogSequence + 1);
+
+      } catch (IOException ex) {
+        LOGGER.log(Level.SEVERE, "Unable to rotate write-ahead log " + mLogFile, ex);
+        return;
+
+      } finally {
+        mWriteLock.unlock();
+      }
+
+      try {
+        writeCheckpoint(dirtyDocs, droppedCollections);
+
+        for (File log : sealedLogs) {
+          if (!log.delete()) {
+            LOGGER.warning("Unable to delete checkpointed write-ahead log " + log);
+          }
+        }
+
+      } catch (IOException ex) {
+        LOGGER.log(Level.SEVERE, "Unable to checkpoint DB: " + mName, ex);
+
+        // Hand the work back so that the next checkpoint retries it; the sealed logs still cover it.
+        mWriteLock.lock();
+        try {
+          dirtyDocs.forEach((collectionId, docIds) ->
+              mDirtyDocs.computeIfAbsent(collectionId, k -> new HashSet<>()).addAll(docIds));
+          mDroppedCollections.addAll(droppedCollections);
+          sealedLogs.addAll(mSealedLogs);
+          mSealedLogs = sealedLogs;
+
+        } finally {
+          mWriteLock.unlock();
+        }
+      }
+
+    } finally {
+      mCheckpointLock.unlock();
+    }
+  }
+
+  private void writeCheckpoint(Map<String, Set<String>> pDirtyDocs, Set<String> pDroppedCollections)
+      throws IOException {
+    for (String collectionId : pDroppedCollections) {
+      File folder = new File(mRootFolder, collectionId);
+      if (folder.exists()) {
+        Utils.deleteFolder(folder);
+        mWriter.synced(folder);
+      }
+    }
+
+    for (String collectionId : mMemtable.keySet()) {
+      File folder = new File(mRootFolder, collectionId);
+      if (!folder.exists()) {
+        if (!folder.mkdirs()) {
+          throw new IOException("Unable to create collection folder: " + folder);
+        }
+
+        mLayouts.apply(collectionId).prepare(folder);
+        mWriter.synced(folder);
+      }
+    }
+
+    // The memtable may already be ahead of the rotated log; writing the newer state is safe because replaying the
+    // sealed logs and then the active log always converges on the latest state.
+    for (var entry : pDirtyDocs.entrySet()) {
+      var docs = mMemtable.get(entry.getKey());
+      File folder = new File(mRootFolder, entry.getKey());
+      DocumentLayout layout = mLayouts.apply(entry.getKey());
+
+      for (String docId : entry.getValue()) {
+        JsonObject payload = docs != null ? docs.get(docId) : null;
+        File file = layout.documentFile(folder, docId);
+
+        if (payload != null) {
+          mWriter.write(file, mCodecs.apply(entry.getKey()).encode(payload));
+
+        } else if (file.exists()) {
+          mWriter.delete(file);
+        }
+      }
+    }
+  }
+
+  private void loadCheckpoint()
+      throws IOException {
+    File[] folders = mRootFolder.listFiles(File::isDirectory);
+    if (folders == null) return;
+
+    for (File folder : folders) {
+      DocumentLayout layout = mLayouts.apply(folder.getName());
+      layout.folders(folder).forEach(AtomicFileWriter::deleteTempFiles);
+
+      int moved = layout.migrate(folder);
+      if (moved > 0) {
+        LOGGER.info("Moved " + moved + " documents of collection " + folder.getName() + " to the "
+            + layout.name().toLowerCase(Locale.ROOT) + " layout");
+      }
+
+      var docs = new ConcurrentSkipListMap<String, JsonObject>();
+      layout.forEachDocumentFile(folder, path -> {
+        File file = path.toFile();
+        try {
+          docs.put(file.getName(), DocumentMeta.read(file));
+
+        } catch (IOException | RuntimeException ex) {
+          LOGGER.log(Level.SEVERE, "Unable to read document from " + file, ex);
+        }
+      });
+
+      mMemtable.put(folder.getName(), docs);
+    }
+  }
+
+  /**
+   * @return the write-ahead log segments of the named DB.
+   */
+  static File[] logFiles(File pStateFolder, String pName) {
+    String prefix = pName + WAL_SUFFIX;
+    File[] logs = pStateFolder.listFiles((dir, name) -> name.startsWith(prefix));
+    return logs != null ? logs : new File[0];
+  }
+
+  private void recover()
+      throws IOException {
+    File[] logs = logFiles(mStateFolder, mName);
+    Arrays.sort(logs, Comparator.comparingLong(this::logSequence));
+
+    for (File log : logs) {
+      int records = replay(log);
+      LOGGER.info("Replayed " + records + " records from write-ahead log " + log);
+
+      mSealedLogs.add(log);
+      mLogSequence = Math.max(mLogSequence, logSequence(log));
+    }
+  }
+
+  /**
+   * Applies the records of the given log to the memtable. A crash can leave a torn record at the tail of the last log,
+   * which is truncated away so that the log only holds intact records.
+   */
+  private int replay(File pLog)
+      throws IOException {
+    int records = 0;
+    long valid = 0;
+
+    try (var input = new DataInputStream(new BufferedInputStream(new FileInputStream(pLog)))) {
+      while (true) {
+        int length;
+        try {
+          length = input.readInt();
+        } catch (EOFException ex) {
+          break;
+        }
+
+        try {
+          if (length <= 0 || length > MAX_RECORD_LENGTH) {
+            throw new IOException("Invalid record length " + length);
+          }
+
+          long checksum = input.readInt() & 0xFFFFFFFFL;
+          byte[] record = new byte[length];
+          input.readFully(record);
+
+          CRC32 crc = new CRC32();
+          crc.update(record);
+          if (crc.getValue() != checksum) {
+            throw new IOException("Record checksum mismatch");
+          }
+
+          var recordInput = new DataInputStream(new ByteArrayInputStream(record));
+          byte op = recordInput.readByte();
+          String collectionId = recordInput.readUTF();
+          String docId = recordInput.readUTF();
+          JsonObject payload = null;
+
+          if (op == OP_PUT || op == OP_PATCH) {
+            byte[] payloadBytes = new byte[recordInput.readInt()];
+            recordInput.readFully(payloadBytes);
+            payload = new JsonObject(Buffer.buffer(payloadBytes));
+          }
+
+          apply(op, collectionId, docId, payload);
+          records++;
+          valid += 8 + length;
+
+        } catch (IOException ex) {
+          // Only the tail of the last log can be torn by a crash; everything before it is intact.
+          LOGGER.log(Level.WARNING, "Discarding torn write-ahead log tail in " + pLog + " after " + records
+              + " records", ex);
+          break;
+        }
+      }
+    }
+
+    if (valid < pLog.length()) {
+      try (var channel = FileChannel.open(pLog.toPath(), StandardOpenOption.WRITE)) {
+        channel.truncate(valid);
+      }
+    }
+
+    return records;
+  }
+
+  /**
+   * Runs a write under the write lock, then waits for its log records to be synced once the lock is released.
+   */
+  private <T, E extends Exception> T logged(String pFailure, LoggedWrite<T, E> pWrite)
+      throws E, DocumentException {
+    T result;
+    long ticket;
+    mWriteLock.lock();
+
+    try {
+      result = pWrite.run();
+      ticket = mLogSync.ticket();
+
+    } catch (IOException ex) {
+      throw new DocumentException(pFailure, ex);
+
+    } finally {
+      mWriteLock.unlock();
+    }
+
+    try {
+      mLogSync.await(ticket);
+
+    } catch (IOException ex) {
+      throw new DocumentException(pFailure, ex);
+    }
+
+    return result;
+  }
+
+  private void append(byte pOp, String pCollectionId, String pDocId, JsonObject pPayload)
+      throws IOException {
+    append(new ByteBuffer[]{frame(pOp, pCollectionId, pDocId, pPayload)});
+  }
+
+  /**
+   * Writes the given records with a single gathering write, synced as one append.
+   */
+  private void append(ByteBuffer[] pFrames)
+      throws IOException {
+    if (pFrames.length == 0) return;
+
+    long remaining = 0;
+    for (ByteBuffer frame : pFrames) {
+      remaining += frame.remaining();
+    }
+
+    while (remaining > 0) {
+      remaining -= mLogChannel.write(pFrames);
+    }
+
+    FileChannel channel = mLogChannel;
+    mLogSync.appended(() -> channel.force(false));
+  }
+
+  private ByteBuffer frame(byte pOp, String pCollectionId, String pDocId, JsonObject pPayload)
+      throws IOException {
+    var recordBytes = new ByteArrayOutputStream();
+    var record = new DataOutputStream(recordBytes);
+    record.writeByte(pOp);
+    record.writeUTF(pCollectionId);
+    record.writeUTF(pDocId != null ? pDocId : "");
+
+    if (pPayload != null) {
+      byte[] payloadBytes = pPayload.toBuffer().getBytes();
+      record.writeInt(payloadBytes.length);
+      record.write(payloadBytes);
+    }
+
+    record.flush();
+    byte[] body = recordBytes.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(body);
+
+    ByteBuffer frame = ByteBuffer.allocate(8 + body.length);
+    frame.putInt(body.length);
+    frame.putInt((int) crc.getValue());
+    frame.put(body);
+    frame.flip();
+    return frame;
+  }
+
+  private void apply(byte pOp, String pCollectionId, String pDocId, JsonObject pPayload) {
+    switch (pOp) {
+      case OP_PUT:
+        mMemtable.computeIfAbsent(pCollectionId, k -> new ConcurrentSkipListMap<>()).put(pDocId, pPayload);
+        markDirty(pCollectionId, pDocId);
+        break;
+
+      case OP_DELETE:
+        var docs = mMemtable.get(pCollectionId);
+        if (docs != null) docs.remove(pDocId);
+        markDirty(pCollectionId, pDocId);
+        break;
+
+      case OP_PATCH:
+        // The patch carries the document's new meta, which merges into the stored one like any other object.
+        var patched = mMemtable.get(pCollectionId);
+        if (patched != null) patched.computeIfPresent(pDocId, (docId, stored) -> Utils.mergePatch(stored, pPayload));
+        markDirty(pCollectionId, pDocId);
+        break;
+
+      case OP_CREATE_COLLECTION:
+        mMemtable.putIfAbsent(pCollectionId, new ConcurrentSkipListMap<>());
+        break;
+
+      case OP_DELETE_COLLECTION:
+        mMemtable.remove(pCollectionId);
+        mDirtyDocs.remove(pCollectionId);
+        mDroppedCollections.add(pCollectionId);
+        break;
+
+      default:
+        throw new IllegalStateException("Unknown write-ahead log operation: " + pOp);
+    }
+  }
+
+  private void markDirty(String pCollectionId, String pDocId) {
+    mDirtyDocs.computeIfAbsent(pCollectionId, k -> new HashSet<>()).add(pDocId);
+  }
+
+  private void openLog(long pSequence)
+      throws IOException {
+    mLogSequence = pSequence;
+    mLogFile = new File(mStateFolder, mName + WAL_SUFFIX + pSequence);
+    mLogChannel = FileChannel.open(mLogFile.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  private long logSequence(File pLog) {
+    String name = pLog.getName();
+    try {
+      return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+
+    } catch (NumberFormatException ex) {
+      return 0;
+    }
+  }
+
+  @FunctionalInterface
+  private interface LoggedWrite<T, E extends Exception> {
+    T run()
+        throws E, DocumentException, IOException;
+  }
+
+  /**
+   * Engine named {@code wal}.
+   */
+  public static class Engine
+      implements DBEngine {
+
+    @Override
+    public String name() {
+      return "wal";
+    }
+
+    @Override
+    public DB create(JsonObject pConfig) {
+      return new WalDB(pConfig);
+    }
+  }
+}
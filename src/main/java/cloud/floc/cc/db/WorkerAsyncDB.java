@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.Page;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link AsyncDB} that runs each call of a blocking {@link DB} on a named worker pool of fixed size. Results are
+ * delivered back on the calling context.
+ */
+class WorkerAsyncDB
+    implements AsyncDB {
+
+  private final DB mDB;
+  private final WorkerExecutor mExecutor;
+
+  WorkerAsyncDB(Vertx pVertx, DB pDB, int pPoolSize) {
+    mDB = pDB;
+    mExecutor = pVertx.createSharedWorkerExecutor("fcc-db-" + pDB.name(), pPoolSize);
+  }
+
+  @Override
+  public String name() {
+    return mDB.name();
+  }
+
+  @Override
+  public Future<Document> createDocument(Document pDoc) {
+    return execute(() -> mDB.createDocument(pDoc));
+  }
+
+  @Override
+  public Future<Document> getDocument(String pCollectionId, String pDocId) {
+    return execute(() -> mDB.getDocument(pCollectionId, pDocId));
+  }
+
+  @Override
+  public Future<Document> updateDocument(Document pDoc) {
+    return execute(() -> mDB.updateDocument(pDoc));
+  }
+
+  @Override
+  public Future<Document> deleteDocument(String pCollectionId, String pDocId) {
+    return execute(() -> mDB.deleteDocument(pCollectionId, pDocId));
+  }
+
+  @Override
+  public Future<Document> patchDocument(Document pPatch) {
+    return execute(() -> mDB.patchDocument(pPatch));
+  }
+
+  @Override
+  public Future<Boolean> hasDocument(String pCollectionId, String pDocId) {
+    return execute(() -> mDB.hasDocument(pCollectionId, pDocId));
+  }
+
+  @Override
+  public Future<Collection> createCollection(Collection pCol) {
+    return execute(() -> mDB.createCollection(pCol));
+  }
+
+  @Override
+  public Future<Collection> getCollection(String pId) {
+    return execute(() -> mDB.getCollection(pId));
+  }
+
+  @Override
+  public Future<Collection> updateCollection(Collection pCol) {
+    return execute(() -> mDB.updateCollection(pCol));
+  }
+
+  @Override
+  public Future<Collection> deleteCollection(String pId) {
+    return execute(() -> mDB.deleteCollection(pId));
+  }
+
+  @Override
+  public Future<Boolean> hasCollection(String pId) {
+    return execute(() -> mDB.hasCollection(pId));
+  }
+
+  @Override
+  public Future<Collection> getDocuments(String pCollectionId, List<String> pDocIds) {
+    return execute(() -> mDB.getDocuments(pCollectionId, pDocIds));
+  }
+
+  @Override
+  public Future<Collection> putDocuments(String pCollectionId, List<Document> pDocs) {
+    return execute(() -> mDB.putDocuments(pCollectionId, pDocs));
+  }
+
+  @Override
+  public Future<Collection> deleteDocuments(String pCollectionId, List<String> pDocIds) {
+    return execute(() -> mDB.deleteDocuments(pCollectionId, pDocIds));
+  }
+
+  @Override
+  public Future<Page> getPage(String pCollectionId, String pCursor, int pLimit) {
+    return execute(() -> mDB.getPage(pCollectionId, pCursor, pLimit));
+  }
+
+  @Override
+  public Future<Collection> getRange(String pCollectionId, String pFromId, String pToId, int pLimit,
+                                     boolean pDescending) {
+    return execute(() -> mDB.getRange(pCollectionId, pFromId, pToId, pLimit, pDescending));
+  }
+
+  @Override
+  public Future<Collection> findDocuments(String pCollectionId, JsonObject pFilter) {
+    return execute(() -> mDB.findDocuments(pCollectionId, pFilter));
+  }
+
+  @Override
+  public Future<JsonObject> aggregates(String pCollectionId) {
+    return execute(() -> mDB.aggregates(pCollectionId));
+  }
+
+  @Override
+  public Future<Void> exportSnapshot(File pFile) {
+    return execute(() -> {
+      try (var out = new FileOutputStream(pFile)) {
+        mDB.exportSnapshot(out);
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public Future<JsonObject> metrics() {
+    return execute(mDB::metrics);
+  }
+
+  @Override
+  public ChangeFeed changeFeed() {
+    return mDB.changeFeed();
+  }
+
+  private <T> Future<T> execute(Callable<T> pOperation) {
+    Promise<T> promise = Promise.promise();
+
+    mExecutor.<T>executeBlocking(blocking -> {
+      try {
+        blocking.complete(pOperation.call());
+
+      } catch (Exception ex) {
+        blocking.fail(ex);
+      }
+    }, false, promise);
+
+    return promise.future();
+  }
+}
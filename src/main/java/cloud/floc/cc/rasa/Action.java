@@ -16,9 +16,7 @@
 
 package cloud.floc.cc.rasa;
 
-import cloud.floc.cc.common.DocumentException;
-import cloud.floc.cc.common.DocumentExistsException;
-import cloud.floc.cc.common.DocumentNotFoundException;
+import io.vertx.core.Future;
 
 public interface Action {
 
@@ -33,8 +31,8 @@ public interface Action {
    * Run the action and send a response back. Might include creating user messages and setting slots.
    *
    * @param pRequest the {@link ActionRequest} used to run this action.
-   * @return the {@link ActionResult} of running this action.
+   * @return a future completed with the {@link ActionResult} of running this action, or failed with an
+   * {@link ActionExecutionRejectionException} or a document exception.
    */
-  ActionResult run(ActionRequest pRequest)
-    throws ActionExecutionRejectionException, DocumentException, DocumentNotFoundException, DocumentExistsException;
+  Future<ActionResult> run(ActionRequest pRequest);
 }
@@ -19,6 +19,8 @@ package cloud.floc.cc.rasa;
 public class ActionExecutionRejectionException
   extends Exception {
 
+  private static final long serialVersionUID = 1L;
+
   public ActionExecutionRejectionException(String pMessage) {
     super(pMessage);
   }
@@ -1,8 +1,6 @@
 package cloud.floc.cc.rasa;
 
-import cloud.floc.cc.common.DocumentException;
-import cloud.floc.cc.common.DocumentExistsException;
-import cloud.floc.cc.common.DocumentNotFoundException;
+import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
@@ -28,12 +26,8 @@ public class ActionsRunner {
     this.mActionsMap = Collections.unmodifiableMap(actionsMap);
   }
 
-  public JsonObject run(JsonObject pJsonRequest)
-    throws ActionExecutionRejectionException,
-    UnsupportedOperationException,
-    DocumentException,
-    DocumentNotFoundException,
-    DocumentExistsException {
+  public Future<JsonObject> run(JsonObject pJsonRequest)
+    throws UnsupportedOperationException {
 
     ActionRequest actionRequest = ActionRequest.newRequest(pJsonRequest);
     Action action = mActionsMap.get(actionRequest.nextAction());
@@ -42,8 +36,7 @@ public class ActionsRunner {
       throw new UnsupportedOperationException(String.format("Action %s not found", actionRequest.nextAction()));
     }
 
-    ActionResult actionResult = action.run(actionRequest);
-    return actionResult.toJson();
+    return action.run(actionRequest).map(ActionResult::toJson);
   }
 }
 
@@ -16,14 +16,11 @@
 
 package cloud.floc.cc.rasa;
 
-import cloud.floc.cc.common.DocumentException;
-import cloud.floc.cc.common.DocumentExistsException;
-import cloud.floc.cc.common.DocumentNotFoundException;
-import cloud.floc.cc.db.DB;
 import cloud.floc.cc.rasa.event.Event;
 import cloud.floc.cc.rasa.event.FormEvent;
 import cloud.floc.cc.rasa.event.SlotSetEvent;
 import cloud.floc.cc.service.ResponsesService;
+import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 
@@ -42,11 +39,10 @@ public abstract class BaseFormAction
 
   protected final ResponsesService mService;
 
-  public BaseFormAction(String pName, Logger pLogger, DB pDB)
-    throws Exception {
+  public BaseFormAction(String pName, Logger pLogger, ResponsesService pService) {
     this.mName = pName;
     this.mLogger = pLogger;
-    this.mService = new ResponsesService(pDB);
+    this.mService = pService;
   }
 
   @Override
@@ -55,35 +51,40 @@ public abstract class BaseFormAction
   }
 
   @Override
-  public ActionResult run(ActionRequest pRequest)
-    throws ActionExecutionRejectionException, DocumentException, DocumentNotFoundException, DocumentExistsException {
+  public Future<ActionResult> run(ActionRequest pRequest) {
+    return mService.getBotBuilderResponse().compose(document -> {
+      ActionResult result = new ActionResult(document.payload());
 
-    var document = mService.getBotBuilderResponse();
-    ActionResult result = new ActionResult(document.payload());
+      // 1) Optionally, activate the form and populate slots from tracker.
+      List<Event> events = tryActivate(pRequest);
 
-    // 1) Optionally, activate the form and populate slots from tracker.
-    List<Event> events = tryActivate(pRequest);
+      // 2) Optionally, validate the form slots.
+      try {
+        events.addAll(tryValidate(pRequest));
 
-    // 2) Optionally, validate the form slots.
-    events.addAll(tryValidate(pRequest));
-
-    // 3) Get the next slot to fill, and ask the user.
-    Tracker updatedTracker = updateTracker(pRequest.tracker(), events);
-    SlotSetEvent nextSlotEvent = tryFillNextSlot(updatedTracker, result);
-    if (nextSlotEvent != null) {
-      events.add(nextSlotEvent);
+      } catch (ActionExecutionRejectionException ex) {
+        return Future.failedFuture(ex);
+      }
 
-    } else {
-      List<Event> submitEvents = submit(updatedTracker, result);
-      if (submitEvents.size() > 0) {
-        events.addAll(submitEvents);
+      // 3) Get the next slot to fill, and ask the user.
+      Tracker updatedTracker = updateTracker(pRequest.tracker(), events);
+      SlotSetEvent nextSlotEvent = tryFillNextSlot(updatedTracker, result);
+      if (nextSlotEvent != null) {
+        events.add(nextSlotEvent);
+        result.setEvents(events);
+        return Future.succeededFuture(result);
       }
 
-      events.addAll(deactivate());
-    }
+      return submit(updatedTracker, result).map(submitEvents -> {
+        if (submitEvents.size() > 0) {
+          events.addAll(submitEvents);
+        }
 
-    result.setEvents(events);
-    return result;
+        events.addAll(deactivate());
+        result.setEvents(events);
+        return result;
+      });
+    });
   }
 
   private List<Event> tryActivate(ActionRequest pRequest) {
@@ -16,10 +16,8 @@
 
 package cloud.floc.cc.rasa;
 
-import cloud.floc.cc.common.DocumentException;
-import cloud.floc.cc.common.DocumentExistsException;
-import cloud.floc.cc.common.DocumentNotFoundException;
 import cloud.floc.cc.rasa.event.Event;
+import io.vertx.core.Future;
 
 import java.util.List;
 import java.util.Map;
@@ -31,6 +29,5 @@ public interface FormAction
 
   Map<String, List<SlotExtractor>> slotExtractorsMap();
 
-  List<Event> submit(Tracker pTracker, ActionResult pResult)
-    throws DocumentException, DocumentNotFoundException, DocumentExistsException;
+  Future<List<Event>> submit(Tracker pTracker, ActionResult pResult);
 }
@@ -18,8 +18,9 @@ package cloud.floc.cc.routes;
 
 import cloud.floc.cc.bot.MainMenuForm;
 import cloud.floc.cc.bot.MainMenuOptionsForm;
-import cloud.floc.cc.db.DB;
 import cloud.floc.cc.rasa.ActionsRunner;
+import cloud.floc.cc.service.MenusService;
+import cloud.floc.cc.service.ResponsesService;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.JsonObject;
@@ -34,11 +35,14 @@ public class ActionsRouter
 
   private final ActionsRunner mActionsRunner;
 
-  public ActionsRouter(Vertx pVertx, JWTAuth pJwtAuth, DB pDB)
+  public ActionsRouter(Vertx pVertx, JWTAuth pJwtAuth, ResponsesService pResponsesService,
+                       MenusService pMenusService)
     throws Exception {
     super(pVertx, LOGGER, pJwtAuth, null);
 
-    mActionsRunner = new ActionsRunner(new MainMenuForm(pDB), new MainMenuOptionsForm(pDB));
+    mActionsRunner = new ActionsRunner(
+      new MainMenuForm(pResponsesService, pMenusService),
+      new MainMenuOptionsForm(pResponsesService, pMenusService));
   }
 
   @Override
@@ -55,12 +59,7 @@ public class ActionsRouter
     mRouter.route(HttpMethod.POST, basePath()).handler(routingContext -> {
       try {
         JsonObject payload = routingContext.getBodyAsJson();
-        JsonObject result = mActionsRunner.run(payload);
-
-        routingContext.response().setStatusCode(200);
-        routingContext.response().putHeader(CONTENT_TYPE, CONTENT_JSON);
-        routingContext.response().setChunked(true);
-        routingContext.response().write(result.toBuffer()).end();
+        mActionsRunner.run(payload).onComplete(ar -> sendJson(ar, routingContext.response(), 200));
 
       } catch (Exception ex) {
         sendError(ex, routingContext.response());
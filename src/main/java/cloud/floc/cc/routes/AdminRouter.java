@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.routes;
+
+import cloud.floc.cc.service.AdminService;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.auth.jwt.JWTAuth;
+
+import java.util.List;
+
+public class AdminRouter
+  extends ApiRouter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(AdminRouter.class);
+
+  private static final String SNAPSHOT_PATH = "/snapshot";
+  private static final String ADMIN_AUTHORITY = "admin";
+
+  private final AdminService mService;
+
+  public AdminRouter(Vertx pVertx, JWTAuth pJwtAuth, AdminService pService)
+    throws Exception {
+    super(pVertx, LOGGER, pJwtAuth, List.of(ADMIN_AUTHORITY));
+
+    mService = pService;
+  }
+
+  @Override
+  protected String basePath() {
+    return "/admin";
+  }
+
+  @Override
+  protected void configureRoutes(String pCollectionPath, Vertx pVertx) {
+    configureGetSnapshotRoute();
+  }
+
+  /**
+   * Serves a snapshot of the whole DB. Without an auth handler, the admin authority can't be checked, so the route
+   * refuses every request instead of handing out the DB to anyone.
+   */
+  private void configureGetSnapshotRoute() {
+    if (!isSecured()) {
+      mLogger.warn("Snapshots can't be downloaded without an auth handler: " + basePath() + SNAPSHOT_PATH);
+
+      mRouter.route(HttpMethod.GET, basePath() + SNAPSHOT_PATH).handler(routingContext -> routingContext.response()
+        .setStatusCode(403)
+        .putHeader(CONTENT_TYPE, CONTENT_JSON)
+        .end(new JsonObject().put("error", "Snapshots require authentication, which isn't configured").toBuffer()));
+      return;
+    }
+
+    mRouter.route(HttpMethod.GET, basePath() + SNAPSHOT_PATH).handler(routingContext -> {
+      var response = routingContext.response();
+
+      mService.exportSnapshot().onComplete(ar -> {
+        if (ar.failed()) {
+          sendError(ar.cause(), response);
+          return;
+        }
+
+        String path = ar.result().getPath();
+        response
+          .putHeader(CONTENT_TYPE, "application/gzip")
+          .putHeader("Content-Disposition", "attachment; filename=\"" + ar.result().getName() + "\"")
+          .sendFile(path, sent -> mVertx.fileSystem().delete(path, deleted -> {
+            if (deleted.failed()) {
+              mLogger.warn("Unable to delete snapshot file " + path, deleted.cause());
+            }
+          }));
+      });
+    });
+  }
+}
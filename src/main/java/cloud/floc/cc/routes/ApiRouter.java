@@ -20,9 +20,15 @@ import cloud.floc.cc.common.Collection;
 import cloud.floc.cc.common.Document;
 import cloud.floc.cc.common.DocumentExistsException;
 import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.DocumentVersionException;
+import cloud.floc.cc.common.Page;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.MultiMap;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerResponse;
-import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.ext.auth.jwt.JWTAuth;
@@ -34,7 +40,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import static cloud.floc.cc.common.Utils.documentToJson;
+import static cloud.floc.cc.common.Utils.appendDocument;
 
 /**
  * Base class that provides common methods to write back REST API responses to the client.
@@ -44,8 +50,20 @@ public abstract class ApiRouter {
   static final String ID_PARAM = "id";
   static final String ID_PATH = "/:" + ID_PARAM;
 
+  static final String LIMIT_PARAM = "limit";
+  static final String CURSOR_PARAM = "cursor";
+  static final String NEWEST_PARAM = "newest";
+  static final int DEFAULT_PAGE_LIMIT = 100;
+  static final int MAX_PAGE_LIMIT = 1000;
+
+  static final String IDS_PARAM = "ids";
+  static final String BULK_PATH = "/_bulk";
+  static final int MAX_BULK_SIZE = 1000;
+
   static final String CONTENT_TYPE = "Content-Type";
   static final String CONTENT_JSON = "application/json";
+  static final String ETAG = "ETag";
+  static final String IF_MATCH = "If-Match";
 
   protected final Vertx mVertx;
   protected final Router mRouter;
@@ -87,27 +105,159 @@ public abstract class ApiRouter {
     return mRouter;
   }
 
+  /**
+   * @return whether requests to this router have to be authenticated. Routes only fit for admins should refuse
+   * requests when they don't.
+   */
+  protected boolean isSecured() {
+    return mJwtAuth != null;
+  }
+
+  /**
+   * Turns the query parameters other than paging ones into an equality filter on payload fields. Values are read as
+   * JSON when possible, so {@code ?generated=true} matches the boolean, and as plain strings otherwise.
+   *
+   * @param pFields the fields that can be filtered on. Any other parameter, such as a cache buster, is rejected rather
+   * than silently matching no document.
+   */
+  JsonObject filterParams(MultiMap pParams, Set<String> pFields) {
+    var filter = new JsonObject();
+
+    pParams.forEach(param -> {
+      if (param.getKey().equals(LIMIT_PARAM) || param.getKey().equals(CURSOR_PARAM)
+        || param.getKey().equals(NEWEST_PARAM)) return;
+
+      if (!pFields.contains(param.getKey())) {
+        throw new IllegalArgumentException("Unknown query parameter: " + param.getKey());
+      }
+
+      try {
+        filter.put(param.getKey(), Json.decodeValue(param.getValue()));
+      } catch (DecodeException ex) {
+        filter.put(param.getKey(), param.getValue());
+      }
+    });
+
+    return filter;
+  }
+
+  void sendCollection(AsyncResult<Collection> pResult, HttpServerResponse pResp, int pStatus) {
+    if (pResult.succeeded()) {
+      sendCollection(pResult.result(), pResp, pStatus);
+    } else {
+      sendError(pResult.cause(), pResp);
+    }
+  }
+
   void sendCollection(Collection pCollection, HttpServerResponse pResp, int pStatus) {
-    var result = new JsonObject();
-    result.put("item", documentToJson(pCollection));
+    var result = Buffer.buffer();
+    appendDocument(result.appendString("{\"item\":"), pCollection);
+    appendDocuments(result.appendString(",\"items\":"), pCollection.documents()).appendString("}");
+
+    pResp.setChunked(true);
+    pResp.setStatusCode(pStatus);
+    pResp.putHeader(CONTENT_TYPE, CONTENT_JSON);
+    pResp.write(result).end();
+  }
+
+  void sendPage(AsyncResult<Page> pResult, HttpServerResponse pResp, int pStatus) {
+    if (pResult.succeeded()) {
+      sendPage(pResult.result(), pResp, pStatus);
+    } else {
+      sendError(pResult.cause(), pResp);
+    }
+  }
 
-    var itemsJson = new JsonArray();
-    pCollection.documents().forEach(doc -> itemsJson.add(documentToJson(doc)));
-    result.put("items", itemsJson);
+  void sendPage(Page pPage, HttpServerResponse pResp, int pStatus) {
+    var result = Buffer.buffer();
+    result.appendString("{\"item\":").appendBuffer(new JsonObject().put("id", pPage.collectionId()).toBuffer());
+    appendDocuments(result.appendString(",\"items\":"), pPage.documents());
+    result.appendString(",\"cursor\":").appendString(Json.encode(pPage.cursor())).appendString("}");
 
     pResp.setChunked(true);
     pResp.setStatusCode(pStatus);
     pResp.putHeader(CONTENT_TYPE, CONTENT_JSON);
-    pResp.write(result.toBuffer()).end();
+    pResp.write(result).end();
+  }
+
+  void sendDocument(AsyncResult<Document> pResult, HttpServerResponse pResp, int pStatus) {
+    if (pResult.succeeded()) {
+      sendDocument(pResult.result(), pResp, pStatus);
+    } else {
+      sendError(pResult.cause(), pResp);
+    }
+  }
+
+  void sendJson(AsyncResult<JsonObject> pResult, HttpServerResponse pResp, int pStatus) {
+    if (pResult.succeeded()) {
+      pResp.setStatusCode(pStatus);
+      pResp.putHeader(CONTENT_TYPE, CONTENT_JSON);
+      pResp.setChunked(true);
+      pResp.write(pResult.result().toBuffer()).end();
+    } else {
+      sendError(pResult.cause(), pResp);
+    }
   }
 
   void sendDocument(Document pDocument, HttpServerResponse pResp, int pStatus) {
-    var result = new JsonObject();
-    result.put("item", documentToJson(pDocument));
+    var result = appendDocument(Buffer.buffer().appendString("{\"item\":"), pDocument).appendString("}");
+    if (pDocument.version() > 0) {
+      pResp.putHeader(ETAG, "\"" + pDocument.version() + "\"");
+    }
     pResp.setChunked(true);
     pResp.setStatusCode(pStatus);
     pResp.putHeader(CONTENT_TYPE, CONTENT_JSON);
-    pResp.write(result.toBuffer()).end();
+    pResp.write(result).end();
+  }
+
+  private static Buffer appendDocuments(Buffer pBuffer, List<Document> pDocuments) {
+    pBuffer.appendString("[");
+    for (int i = 0; i < pDocuments.size(); i++) {
+      if (i > 0) pBuffer.appendString(",");
+      appendDocument(pBuffer, pDocuments.get(i));
+    }
+    return pBuffer.appendString("]");
+  }
+
+  int pageLimit(String pLimit) {
+    if (pLimit == null) return DEFAULT_PAGE_LIMIT;
+
+    int limit = Integer.parseInt(pLimit);
+    if (limit < 1) throw new IllegalArgumentException("Page limit should be positive");
+    return Math.min(limit, MAX_PAGE_LIMIT);
+  }
+
+  /**
+   * @return the document version an {@code If-Match} header asks for, or {@code 0} if the write is unconditional.
+   */
+  long expectedVersion(String pIfMatch) {
+    if (pIfMatch == null || pIfMatch.trim().equals("*")) return 0;
+
+    String etag = pIfMatch.trim();
+    if (etag.startsWith("W/")) etag = etag.substring(2);
+
+    try {
+      long version = Long.parseLong(etag.replace("\"", ""));
+      if (version < 1) throw new NumberFormatException();
+      return version;
+
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("Invalid If-Match header: " + pIfMatch);
+    }
+  }
+
+  List<String> idsParam(String pIds) {
+    if (pIds == null || pIds.isBlank()) throw new IllegalArgumentException("Ids should be provided");
+
+    List<String> ids = List.of(pIds.split(","));
+    checkBulkSize(ids.size());
+    return ids;
+  }
+
+  void checkBulkSize(int pSize) {
+    if (pSize > MAX_BULK_SIZE) {
+      throw new IllegalArgumentException("At most " + MAX_BULK_SIZE + " documents can be handled at once");
+    }
   }
 
   void sendError(Throwable pEx, HttpServerResponse pResp) {
@@ -116,9 +266,15 @@ public abstract class ApiRouter {
     if (pEx instanceof DocumentNotFoundException) {
       result.put("error", pEx.getMessage());
       pResp.setStatusCode(404);
+    } else if (pEx instanceof DocumentVersionException) {
+      result.put("error", pEx.getMessage());
+      pResp.setStatusCode(412);
     } else if (pEx instanceof DocumentExistsException) {
       result.put("error", pEx.getMessage());
       pResp.setStatusCode(409);
+    } else if (pEx instanceof IllegalArgumentException) {
+      result.put("error", pEx.getMessage());
+      pResp.setStatusCode(400);
     } else {
       mLogger.error(pEx.getMessage(), pEx);
       result.put("error", "Unable to process request");
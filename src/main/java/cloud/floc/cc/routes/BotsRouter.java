@@ -16,10 +16,10 @@
 
 package cloud.floc.cc.routes;
 
-import cloud.floc.cc.db.DB;
 import cloud.floc.cc.service.BotsService;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
@@ -32,11 +32,11 @@ public class BotsRouter
 
   private final BotsService mService;
 
-  public BotsRouter(Vertx pVertx, JWTAuth pJwtAuth, DB pDB, JsonObject pConfig)
+  public BotsRouter(Vertx pVertx, JWTAuth pJwtAuth, BotsService pService)
     throws Exception {
     super(pVertx, LOGGER, pJwtAuth, null);
 
-    mService = new BotsService(pDB, pVertx.fileSystem(), pConfig);
+    mService = pService;
   }
 
   @Override
@@ -49,15 +49,43 @@ public class BotsRouter
     configureGetBotsRoute();
     configureGetBotRoute();
     configureCreateBotRoute();
+    configureCreateBotsRoute();
     configureUpdateBotRoute();
+    configurePatchBotRoute();
     configureDeleteBotRoute();
     configureZipBotRoute();
   }
 
   private void configureGetBotsRoute() {
     mRouter.route(HttpMethod.GET, basePath()).handler(routingContext -> {
+      String cursor = routingContext.request().getParam(CURSOR_PARAM);
+      String limit = routingContext.request().getParam(LIMIT_PARAM);
+      String newest = routingContext.request().getParam(NEWEST_PARAM);
+
       try {
-        sendCollection(mService.getBots(), routingContext.response(), 200);
+        JsonObject filter = filterParams(routingContext.request().params(), mService.filterFields());
+        if (newest != null) {
+          if (!filter.isEmpty() || cursor != null || limit != null) {
+            throw new IllegalArgumentException("Newest bots can't be filtered or paged");
+          }
+
+          mService
+            .getNewestBots(pageLimit(newest))
+            .onComplete(ar -> sendCollection(ar, routingContext.response(), 200));
+
+        } else if (!filter.isEmpty()) {
+          if (cursor != null || limit != null) {
+            throw new IllegalArgumentException("Filtered bots can't be paged");
+          }
+
+          mService.findBots(filter).onComplete(ar -> sendCollection(ar, routingContext.response(), 200));
+
+        } else if (cursor == null && limit == null) {
+          mService.getBots().onComplete(ar -> sendCollection(ar, routingContext.response(), 200));
+
+        } else {
+          mService.getBots(cursor, pageLimit(limit)).onComplete(ar -> sendPage(ar, routingContext.response(), 200));
+        }
 
       } catch (Exception ex) {
         sendError(ex, routingContext.response());
@@ -70,7 +98,7 @@ public class BotsRouter
       String botId = routingContext.pathParam(ID_PARAM);
 
       try {
-        sendDocument(mService.getBot(botId), routingContext.response(), 200);
+        mService.getBot(botId).onComplete(ar -> sendDocument(ar, routingContext.response(), 200));
 
       } catch (Exception ex) {
         sendError(ex, routingContext.response());
@@ -81,7 +109,23 @@ public class BotsRouter
   private void configureCreateBotRoute() {
     mRouter.route(HttpMethod.POST, basePath()).handler(routingContext -> {
       try {
-        sendDocument(mService.createBot(routingContext.getBodyAsJson()), routingContext.response(), 201);
+        mService
+          .createBot(routingContext.getBodyAsJson())
+          .onComplete(ar -> sendDocument(ar, routingContext.response(), 201));
+      } catch (Exception ex) {
+        sendError(ex, routingContext.response());
+      }
+    });
+  }
+
+  private void configureCreateBotsRoute() {
+    mRouter.route(HttpMethod.POST, basePath() + BULK_PATH).handler(routingContext -> {
+      try {
+        JsonArray payloads = routingContext.getBodyAsJsonArray();
+        checkBulkSize(payloads.size());
+
+        mService.createBots(payloads).onComplete(ar -> sendCollection(ar, routingContext.response(), 201));
+
       } catch (Exception ex) {
         sendError(ex, routingContext.response());
       }
@@ -93,7 +137,25 @@ public class BotsRouter
       String botId = routingContext.pathParam(ID_PARAM);
 
       try {
-        sendDocument(mService.updateBot(botId, routingContext.getBodyAsJson()), routingContext.response(), 202);
+        mService
+          .updateBot(botId, routingContext.getBodyAsJson(),
+            expectedVersion(routingContext.request().getHeader(IF_MATCH)))
+          .onComplete(ar -> sendDocument(ar, routingContext.response(), 202));
+      } catch (Exception ex) {
+        sendError(ex, routingContext.response());
+      }
+    });
+  }
+
+  private void configurePatchBotRoute() {
+    mRouter.route(HttpMethod.PATCH, basePath() + ID_PATH).handler(routingContext -> {
+      String botId = routingContext.pathParam(ID_PARAM);
+
+      try {
+        mService
+          .patchBot(botId, routingContext.getBodyAsJson(),
+            expectedVersion(routingContext.request().getHeader(IF_MATCH)))
+          .onComplete(ar -> sendDocument(ar, routingContext.response(), 202));
       } catch (Exception ex) {
         sendError(ex, routingContext.response());
       }
@@ -104,7 +166,7 @@ public class BotsRouter
     mRouter.route(HttpMethod.DELETE, basePath() + ID_PATH).handler(routingContext -> {
       String botId = routingContext.pathParam(ID_PARAM);
       try {
-        sendDocument(mService.deleteBot(botId), routingContext.response(), 202);
+        mService.deleteBot(botId).onComplete(ar -> sendDocument(ar, routingContext.response(), 202));
       } catch (Exception ex) {
         sendError(ex, routingContext.response());
       }
@@ -115,7 +177,7 @@ public class BotsRouter
     mRouter.route(HttpMethod.POST, basePath() + ID_PATH + "/zip").handler(routingContext -> {
       String botId = routingContext.pathParam(ID_PARAM);
       try {
-        sendDocument(mService.zipBot(botId), routingContext.response(), 201);
+        mService.zipBot(botId).onComplete(ar -> sendDocument(ar, routingContext.response(), 201));
 
       } catch (Exception ex) {
         sendError(ex, routingContext.response());
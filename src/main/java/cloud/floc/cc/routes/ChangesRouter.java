@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.routes;
+
+import cloud.floc.cc.db.ChangeFeed;
+import cloud.floc.cc.service.ChangesService;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.auth.jwt.JWTAuth;
+
+/**
+ * Pushes DB changes to clients, either as a long poll on {@code GET /changes} or as Server-Sent Events on
+ * {@code GET /changes/stream}. Both resume after the sequence number given as {@code since}, or the SSE
+ * {@code Last-Event-ID} header, and can be narrowed to one {@code collection}.
+ */
+public class ChangesRouter
+  extends ApiRouter {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ChangesRouter.class);
+
+  private static final String STREAM_PATH = "/stream";
+  private static final String SINCE_PARAM = "since";
+  private static final String WAIT_PARAM = "wait";
+  private static final String COLLECTION_PARAM = "collection";
+  private static final String LAST_EVENT_ID = "Last-Event-ID";
+
+  private static final long DEFAULT_WAIT_MS = 30_000L;
+  private static final long MAX_WAIT_MS = 60_000L;
+  private static final long KEEP_ALIVE_MS = 15_000L;
+
+  private final ChangesService mService;
+
+  public ChangesRouter(Vertx pVertx, JWTAuth pJwtAuth, ChangesService pService)
+    throws Exception {
+    super(pVertx, LOGGER, pJwtAuth, null);
+
+    mService = pService;
+  }
+
+  @Override
+  protected String basePath() {
+    return "/changes";
+  }
+
+  @Override
+  protected void configureRoutes(String pCollectionPath, Vertx pVertx) {
+    configureGetChangesRoute();
+    configureStreamChangesRoute();
+  }
+
+  private void configureGetChangesRoute() {
+    mRouter.route(HttpMethod.GET, basePath()).handler(routingContext -> {
+      var request = routingContext.request();
+
+      try {
+        long since = sinceParam(request.getParam(SINCE_PARAM));
+        long wait = waitParam(request.getParam(WAIT_PARAM));
+
+        mService
+          .waitForChanges(since, pageLimit(request.getParam(LIMIT_PARAM)), request.getParam(COLLECTION_PARAM), wait)
+          .onComplete(ar -> {
+            if (ar.failed()) {
+              sendError(ar.cause(), routingContext.response());
+              return;
+            }
+
+            routingContext.response()
+              .putHeader(CONTENT_TYPE, CONTENT_JSON)
+              .setChunked(true)
+              .write(ar.result().toBuffer())
+              .end();
+          });
+
+      } catch (Exception ex) {
+        sendError(ex, routingContext.response());
+      }
+    });
+  }
+
+  private void configureStreamChangesRoute() {
+    mRouter.route(HttpMethod.GET, basePath() + STREAM_PATH).handler(routingContext -> {
+      var request = routingContext.request();
+      var response = routingContext.response();
+
+      try {
+        String lastEventId = request.getHeader(LAST_EVENT_ID);
+        long since = sinceParam(lastEventId != null ? lastEventId : request.getParam(SINCE_PARAM));
+        String collectionId = request.getParam(COLLECTION_PARAM);
+
+        response
+          .putHeader(CONTENT_TYPE, "text/event-stream")
+          .putHeader("Cache-Control", "no-cache")
+          .setChunked(true);
+
+        // Subscribe before replaying the backlog so that no change falls in between; both run on this event loop, so
+        // live changes only arrive once the backlog is written. Changes made on different threads can be published out
+        // of order, so a live change only tells that the feed moved on, and what was sent is always read from the feed.
+        long[] lastSent = {since};
+        var consumer = mService.subscribe(collectionId, change -> {
+          if (change.getLong(ChangeFeed.SEQUENCE_KEY) > lastSent[0]) {
+            lastSent[0] = sendChanges(response, lastSent[0], collectionId);
+          }
+        });
+
+        lastSent[0] = sendChanges(response, since, collectionId);
+
+        long keepAlive = mVertx.setPeriodic(KEEP_ALIVE_MS, id -> response.write(":\n\n"));
+        response.closeHandler(v -> {
+          mVertx.cancelTimer(keepAlive);
+          consumer.unregister();
+        });
+
+      } catch (Exception ex) {
+        sendError(ex, response);
+      }
+    });
+  }
+
+  /**
+   * Sends every change made after {@code pSince} as events, or a reset event if they're no longer buffered. Reset
+   * events carry the sequence number to resume from as their id, so that a client reconnecting after one isn't reset
+   * again.
+   *
+   * @return the sequence number of the last change sent.
+   */
+  private long sendChanges(HttpServerResponse pResp, long pSince, String pCollectionId) {
+    long since = pSince;
+
+    while (true) {
+      JsonObject changes = mService.getChanges(since, MAX_PAGE_LIMIT, pCollectionId);
+      long seq = changes.getLong(ChangeFeed.SEQUENCE_KEY);
+
+      if (changes.getBoolean("reset")) {
+        pResp.write("id: " + seq + "\nevent: reset\ndata: " + changes.encode() + "\n\n");
+      } else {
+        changes.getJsonArray("items").forEach(change -> sendEvent(pResp, (JsonObject) change));
+      }
+
+      if (seq == since) return since;
+      since = seq;
+    }
+  }
+
+  private void sendEvent(HttpServerResponse pResp, JsonObject pChange) {
+    pResp.write("id: " + pChange.getLong(ChangeFeed.SEQUENCE_KEY) + "\ndata: " + pChange.encode() + "\n\n");
+  }
+
+  private long sinceParam(String pSince) {
+    return pSince != null ? Long.parseLong(pSince) : mService.lastSequence();
+  }
+
+  private long waitParam(String pWait) {
+    if (pWait == null) return DEFAULT_WAIT_MS;
+
+    long wait = Long.parseLong(pWait);
+    if (wait < 0) throw new IllegalArgumentException("Wait should not be negative");
+    return Math.min(wait, MAX_WAIT_MS);
+  }
+}
@@ -16,7 +16,6 @@
 
 package cloud.floc.cc.routes;
 
-import cloud.floc.cc.db.DB;
 import cloud.floc.cc.service.MenusService;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpMethod;
@@ -24,6 +23,8 @@ import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.auth.jwt.JWTAuth;
 
+import java.util.List;
+
 public class MenusRouter
   extends ApiRouter {
 
@@ -31,11 +32,11 @@ public class MenusRouter
 
   private final MenusService mService;
 
-  public MenusRouter(Vertx pVertx, JWTAuth pJwtAuth, DB pDB)
+  public MenusRouter(Vertx pVertx, JWTAuth pJwtAuth, MenusService pService)
     throws Exception {
     super(pVertx, LOGGER, pJwtAuth, null);
 
-    mService = new MenusService(pDB);
+    mService = pService;
   }
 
   @Override
@@ -46,6 +47,19 @@ public class MenusRouter
   @Override
   protected void configureRoutes(String pCollectionPath, Vertx pVertx) {
     configureGetBotQnARoute();
+    configureGetBotQnAsRoute();
+  }
+
+  private void configureGetBotQnAsRoute() {
+    mRouter.route(HttpMethod.GET, basePath()).handler(routingContext -> {
+      try {
+        List<String> botIds = idsParam(routingContext.request().getParam(IDS_PARAM));
+        mService.getMenus(botIds).onComplete(ar -> sendCollection(ar, routingContext.response(), 200));
+
+      } catch (Exception ex) {
+        sendError(ex, routingContext.response());
+      }
+    });
   }
 
   private void configureGetBotQnARoute() {
@@ -53,7 +67,7 @@ public class MenusRouter
       String botId = routingContext.pathParam(ID_PARAM);
 
       try {
-        sendDocument(mService.getMenu(botId), routingContext.response(), 200);
+        mService.getMenu(botId).onComplete(ar -> sendDocument(ar, routingContext.response(), 200));
 
       } catch (Exception ex) {
         sendError(ex, routingContext.response());
@@ -16,7 +16,6 @@
 
 package cloud.floc.cc.routes;
 
-import cloud.floc.cc.db.DB;
 import cloud.floc.cc.service.ResponsesService;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpMethod;
@@ -32,11 +31,11 @@ public class ResponsesRouter
 
   private final ResponsesService mService;
 
-  public ResponsesRouter(Vertx pVertx, JWTAuth pJwtAuth, DB pDB)
+  public ResponsesRouter(Vertx pVertx, JWTAuth pJwtAuth, ResponsesService pService)
     throws Exception {
     super(pVertx, LOGGER, pJwtAuth, null);
 
-    mService = new ResponsesService(pDB);
+    mService = pService;
   }
 
   @Override
@@ -55,12 +54,7 @@ public class ResponsesRouter
       String botId = routingContext.pathParam(ID_PARAM);
 
       try {
-        JsonObject botResponse = mService.generateResponse(botId, payload);
-
-        routingContext.response().setStatusCode(200);
-        routingContext.response().putHeader(CONTENT_TYPE, CONTENT_JSON);
-        routingContext.response().setChunked(true);
-        routingContext.response().write(botResponse.toBuffer()).end();
+        mService.generateResponse(botId, payload).onComplete(ar -> sendJson(ar, routingContext.response(), 200));
 
       } catch (Exception ex) {
         sendError(ex, routingContext.response());
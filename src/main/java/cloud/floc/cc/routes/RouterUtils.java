@@ -16,6 +16,7 @@
 
 package cloud.floc.cc.routes;
 
+import cloud.floc.cc.common.Constants;
 import cloud.floc.cc.common.Utils;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.json.JsonObject;
@@ -46,6 +47,7 @@ public class RouterUtils {
       allowedMethods.add(HttpMethod.GET);
       allowedMethods.add(HttpMethod.POST);
       allowedMethods.add(HttpMethod.PUT);
+      allowedMethods.add(HttpMethod.PATCH);
       allowedMethods.add(HttpMethod.DELETE);
 
       Set<String> allowedHeaders = new HashSet<>();
@@ -68,4 +70,26 @@ public class RouterUtils {
       pRouter.route().handler(corsHandler);
     }
   }
+
+  /**
+   * Makes a replication follower read-only: only the leader's DB may be written to, so every other method is refused.
+   */
+  public static void configureReplication(Router pRouter, JsonObject pConfig) {
+    String role = pConfig.getString(Constants.REPLICATION_ROLE_KEY);
+    if (!Constants.REPLICATION_FOLLOWER_VALUE.equals(role)) return;
+
+    pRouter.route().handler(ctx -> {
+      HttpMethod method = ctx.request().method();
+      if (method == HttpMethod.GET || method == HttpMethod.HEAD || method == HttpMethod.OPTIONS) {
+        ctx.next();
+        return;
+      }
+
+      ctx.response()
+        .setStatusCode(405)
+        .putHeader("Allow", "GET, HEAD, OPTIONS")
+        .putHeader("Content-Type", "application/json")
+        .end(new JsonObject().put("error", "This node is a read-only replica, write to the leader instead").toBuffer());
+    });
+  }
 }
@@ -16,11 +16,9 @@
 
 package cloud.floc.cc.routes;
 
-import cloud.floc.cc.db.DB;
 import cloud.floc.cc.service.BotsService;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpMethod;
-import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 import io.vertx.ext.auth.jwt.JWTAuth;
@@ -32,11 +30,11 @@ public class StatsRouter
 
   private final BotsService mService;
 
-  public StatsRouter(Vertx pVertx, JWTAuth pJwtAuth, DB pDB, JsonObject pConfig)
+  public StatsRouter(Vertx pVertx, JWTAuth pJwtAuth, BotsService pService)
     throws Exception {
     super(pVertx, LOGGER, pJwtAuth, null);
 
-    mService = new BotsService(pDB, pVertx.fileSystem(), pConfig);
+    mService = pService;
   }
 
   @Override
@@ -52,8 +50,7 @@ public class StatsRouter
   private void configureGetStatsRoute() {
     mRouter.route(HttpMethod.GET, basePath()).handler(routingContext -> {
       try {
-
-        sendDocument(mService.getStats(), routingContext.response(), 200);
+        mService.getStats().onComplete(ar -> sendDocument(ar, routingContext.response(), 200));
 
       } catch (Exception ex) {
         sendError(ex, routingContext.response());
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.service;
+
+import cloud.floc.cc.db.AsyncDB;
+import io.vertx.core.Future;
+
+import java.io.File;
+import java.util.Objects;
+import java.util.UUID;
+
+public class AdminService {
+
+  private final AsyncDB mDB;
+
+  public AdminService(AsyncDB pDB) {
+    this.mDB = Objects.requireNonNull(pDB, "DB should be provided");
+  }
+
+  /**
+   * Writes a snapshot of the DB to a temporary file, which the caller should delete once it's done with it.
+   */
+  public Future<File> exportSnapshot() {
+    File file = new File(System.getProperty("java.io.tmpdir"), "fcc-snapshot-" + UUID.randomUUID() + ".ndjson.gz");
+    return mDB.exportSnapshot(file).map(v -> file);
+  }
+}
@@ -19,23 +19,30 @@ package cloud.floc.cc.service;
 import cloud.floc.cc.common.Collection;
 import cloud.floc.cc.common.Constants;
 import cloud.floc.cc.common.Document;
-import cloud.floc.cc.common.DocumentException;
-import cloud.floc.cc.common.DocumentExistsException;
-import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.Page;
 import cloud.floc.cc.common.Utils;
-import cloud.floc.cc.db.DB;
+import cloud.floc.cc.db.AsyncDB;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import io.vertx.core.file.FileSystem;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 public class BotsService {
 
@@ -55,39 +62,74 @@ public class BotsService {
 
   private static final ObjectMapper OBJECT_MAPPER = new YAMLMapper();
 
-  private final DB mDB;
-  private final FileSystem mFS;
+  /**
+   * Payload fields bots are known to have, which can be filtered on whether they're indexed or not.
+   */
+  private static final Set<String> BOT_FIELDS = Set.of("name", "generated");
+
+  private final AsyncDB mDB;
+  private final Vertx mVertx;
   private final File mStateFolder;
   private final File mZipsFolder;
+  private final Set<String> mFilterFields;
 
-  public BotsService(DB pDB, FileSystem pFS, JsonObject pConfig)
-    throws DocumentExistsException, DocumentException {
+  public BotsService(AsyncDB pDB, Vertx pVertx, JsonObject pConfig) {
     this.mDB = Objects.requireNonNull(pDB, "DB should be provided");
-    this.mFS = Objects.requireNonNull(pFS, "FS should be provided");
+    this.mVertx = Objects.requireNonNull(pVertx, "Vertx should be provided");
 
     this.mStateFolder = new File(pConfig.getString(Constants.STATE_FOLDER_KEY, Constants.DEFAULT_STATE_FOLDER_VALUE));
     this.mZipsFolder = new File(pConfig.getString(Constants.ZIPS_ROOT_KEY, Constants.DEFAULT_ZIPS_ROOT_VALUE));
 
-    if (!mDB.hasCollection(BOTS_COLLECTION_ID)) {
-      mDB.createCollection(Collection
+    Set<String> filterFields = new HashSet<>(BOT_FIELDS);
+    pConfig.getJsonObject(Constants.DB_INDEXES_KEY, new JsonObject(Constants.DEFAULT_DB_INDEXES_VALUE))
+      .getJsonArray(BOTS_COLLECTION_ID, new JsonArray())
+      .forEach(field -> filterFields.add(field.toString()));
+    this.mFilterFields = Set.copyOf(filterFields);
+  }
+
+  public Future<Void> init() {
+    return mDB.hasCollection(BOTS_COLLECTION_ID).compose(exists -> exists
+      ? Future.<Void>succeededFuture()
+      : mDB.createCollection(Collection
         .newBuilder()
         .withId(BOTS_COLLECTION_ID)
-        .build());
-    }
+        .build())
+        .<Void>mapEmpty())
+      .recover(ServiceUtils::ignoreExisting);
   }
 
-  public Collection getBots()
-    throws DocumentNotFoundException, DocumentException {
+  public Future<Collection> getBots() {
     return mDB.getCollection(BOTS_COLLECTION_ID);
   }
 
-  public Document getBot(String pId)
-    throws DocumentNotFoundException, DocumentException {
+  public Future<Page> getBots(String pCursor, int pLimit) {
+    return mDB.getPage(BOTS_COLLECTION_ID, pCursor, pLimit);
+  }
+
+  /**
+   * @return the most recently created bots, newest first. Bots created before ids were time-ordered sort by their
+   * random ids instead.
+   */
+  public Future<Collection> getNewestBots(int pLimit) {
+    return mDB.getRange(BOTS_COLLECTION_ID, null, null, pLimit, true);
+  }
+
+  /**
+   * @return the payload fields bots can be filtered on: the indexed ones and those bots are known to have.
+   */
+  public Set<String> filterFields() {
+    return mFilterFields;
+  }
+
+  public Future<Collection> findBots(JsonObject pFilter) {
+    return mDB.findDocuments(BOTS_COLLECTION_ID, pFilter);
+  }
+
+  public Future<Document> getBot(String pId) {
     return mDB.getDocument(BOTS_COLLECTION_ID, pId);
   }
 
-  public Document createBot(JsonObject pPayload)
-    throws DocumentExistsException, DocumentException {
+  public Future<Document> createBot(JsonObject pPayload) {
     Document newDoc = Document
       .newBuilder()
       .withId(Utils.generateId())
@@ -98,36 +140,76 @@ public class BotsService {
     return mDB.createDocument(newDoc);
   }
 
-  public Document updateBot(String pId, JsonObject pPayload)
-    throws DocumentNotFoundException, DocumentException {
+  public Future<Collection> createBots(JsonArray pPayloads) {
+    List<Document> newDocs = new ArrayList<>();
+
+    for (int p = 0; p < pPayloads.size(); p++) {
+      newDocs.add(Document
+        .newBuilder()
+        .withId(Utils.generateId())
+        .underCollection(BOTS_COLLECTION_ID)
+        .withPayload(pPayloads.getJsonObject(p))
+        .build());
+    }
+
+    return mDB.putDocuments(BOTS_COLLECTION_ID, newDocs);
+  }
+
+  /**
+   * @param pExpectedVersion the version the bot should be at, or {@code 0} to update it regardless.
+   */
+  public Future<Document> updateBot(String pId, JsonObject pPayload, long pExpectedVersion) {
     Document updatedDoc = Document
       .newBuilder()
       .withId(pId)
       .underCollection(BOTS_COLLECTION_ID)
       .withPayload(pPayload)
+      .withVersion(pExpectedVersion)
       .build();
 
     return mDB.updateDocument(updatedDoc);
   }
 
-  public Document deleteBot(String pId)
-    throws DocumentNotFoundException, DocumentException {
-    return mDB.deleteDocument(BOTS_COLLECTION_ID, pId);
+  /**
+   * Merges the given JSON merge patch into the bot.
+   *
+   * @param pExpectedVersion the version the bot should be at, or {@code 0} to patch it regardless.
+   */
+  public Future<Document> patchBot(String pId, JsonObject pPatch, long pExpectedVersion) {
+    Document patch = Document
+      .newBuilder()
+      .withId(pId)
+      .underCollection(BOTS_COLLECTION_ID)
+      .withPayload(pPatch)
+      .withVersion(pExpectedVersion)
+      .build();
+
+    return mDB.patchDocument(patch);
   }
 
-  public Document getStats()
-    throws DocumentNotFoundException, DocumentException {
-    var collection = mDB.getCollection(BOTS_COLLECTION_ID);
-    JsonObject stats = new JsonObject();
-    stats.put("botsCreated", collection.documents().size());
-    // TODO: Gather and report real stats
-    stats.put("reqsPerDay", 0);
+  public Future<Document> deleteBot(String pId) {
+    return mDB.deleteDocument(BOTS_COLLECTION_ID, pId);
+  }
 
-    return Document
-      .newBuilder()
-      .withId("stats")
-      .withPayload(stats)
-      .build();
+  public Future<Document> getStats() {
+    return CompositeFuture.all(mDB.aggregates(BOTS_COLLECTION_ID), mDB.metrics()).map(results -> {
+      JsonObject aggregates = results.resultAt(0);
+      JsonObject generated = aggregates.getJsonObject("counters").getJsonObject("generated");
+      JsonObject stats = new JsonObject();
+      stats.put("botsCreated", aggregates.getLong("documents"));
+      if (generated != null) {
+        stats.put("botsGenerated", generated.getLong("true", 0L));
+      }
+      // TODO: Gather and report real stats
+      stats.put("reqsPerDay", 0);
+      stats.put("db", results.<JsonObject>resultAt(1));
+
+      return Document
+        .newBuilder()
+        .withId("stats")
+        .withPayload(stats)
+        .build();
+    });
   }
 
   public void testBot(String pId) {
@@ -135,30 +217,45 @@ public class BotsService {
     //       to build bot image and run a test container.
   }
 
-  public Document zipBot(String pId)
-    throws DocumentNotFoundException, DocumentException, IOException {
+  public Future<Document> zipBot(String pId) {
+    return mDB.getDocument(MenusService.MENUS_COLLECTION_ID, pId).compose(botDoc -> {
+      Promise<Document> promise = Promise.promise();
+
+      mVertx.<Document>executeBlocking(blocking -> {
+        try {
+          writeZip(pId, botDoc.payload());
+          blocking.complete(botDoc);
+
+        } catch (IOException ex) {
+          blocking.fail(ex);
+        }
+      }, false, promise);
+
+      return promise.future();
+    });
+  }
+
+  private void writeZip(String pId, JsonObject pMenuJsonObject)
+    throws IOException {
+    FileSystem fs = mVertx.fileSystem();
     File templateFolder = new File(mStateFolder, INFO_BOT_TEMPLATE);
     File botFolder = new File(mZipsFolder, pId);
     if (botFolder.exists()) {
-      mFS.deleteRecursiveBlocking(botFolder.getCanonicalPath(), true);
+      fs.deleteRecursiveBlocking(botFolder.getCanonicalPath(), true);
     }
     botFolder.mkdirs();
-    mFS.copyRecursiveBlocking(templateFolder.getCanonicalPath(), botFolder.getCanonicalPath(), true);
+    fs.copyRecursiveBlocking(templateFolder.getCanonicalPath(), botFolder.getCanonicalPath(), true);
 
     File domainFile = new File(botFolder, DOMAIN_YAML);
     var reader = OBJECT_MAPPER.reader();
     JsonNode domainJson = reader.readTree(new FileInputStream(domainFile));
 
-    Document botDoc = mDB.getDocument(MenusService.MENUS_COLLECTION_ID, pId);
-    JsonObject menuJsonObject = botDoc.payload();
-    prepareDomain(domainJson, menuJsonObject);
+    prepareDomain(domainJson, pMenuJsonObject);
     var writer = OBJECT_MAPPER.writer();
     writer.writeValue(domainFile, domainJson);
 
     Utils.zip(botFolder, new File(botFolder.getParent(), pId + ".zip"));
-    mFS.deleteRecursiveBlocking(botFolder.getCanonicalPath(), true);
-
-    return botDoc;
+    fs.deleteRecursiveBlocking(botFolder.getCanonicalPath(), true);
   }
 
   private void prepareDomain(JsonNode pDomainJson, JsonObject pMenuJsonObject) {
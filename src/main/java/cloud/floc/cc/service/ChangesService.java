@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.service;
+
+import cloud.floc.cc.db.AsyncDB;
+import cloud.floc.cc.db.ChangeFeed;
+import cloud.floc.cc.db.DBVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Objects;
+
+public class ChangesService {
+
+  /**
+   * Event bus address every DB change is published to.
+   */
+  public static final String CHANGES_ADDRESS = DBVerticle.CHANGES_ADDRESS;
+
+  private final AsyncDB mDB;
+  private final Vertx mVertx;
+
+  public ChangesService(AsyncDB pDB, Vertx pVertx) {
+    this.mDB = Objects.requireNonNull(pDB, "DB should be provided");
+    this.mVertx = Objects.requireNonNull(pVertx, "Vertx should be provided");
+  }
+
+  public long lastSequence() {
+    return mDB.changeFeed().lastSequence();
+  }
+
+  /**
+   * @param pCollectionId the collection to return changes of, or {@code null} for all of them.
+   * @see ChangeFeed#since(long, int)
+   */
+  public JsonObject getChanges(long pSequence, int pLimit, String pCollectionId) {
+    JsonObject changes = mDB.changeFeed().since(pSequence, pLimit);
+    if (pCollectionId == null) return changes;
+
+    var items = new JsonArray();
+    changes.getJsonArray("items").forEach(change -> {
+      if (matches((JsonObject) change, pCollectionId)) items.add(change);
+    });
+
+    return changes.put("items", items);
+  }
+
+  /**
+   * Like {@link #getChanges}, but if there are no changes yet, waits up to {@code pTimeout} milliseconds for one.
+   */
+  public Future<JsonObject> waitForChanges(long pSequence, int pLimit, String pCollectionId, long pTimeout) {
+    JsonObject changes = getChanges(pSequence, pLimit, pCollectionId);
+    if (!isEmpty(changes) || pTimeout <= 0) {
+      return Future.succeededFuture(changes);
+    }
+
+    Promise<JsonObject> promise = Promise.promise();
+    MessageConsumer<JsonObject> consumer = mVertx.eventBus().consumer(CHANGES_ADDRESS);
+    long timer = mVertx.setTimer(pTimeout, id -> {
+      consumer.unregister();
+      promise.tryComplete(getChanges(pSequence, pLimit, pCollectionId));
+    });
+
+    consumer.handler(message -> {
+      if (!matches(message.body(), pCollectionId)) return;
+
+      mVertx.cancelTimer(timer);
+      consumer.unregister();
+      promise.tryComplete(getChanges(pSequence, pLimit, pCollectionId));
+    });
+
+    // A change made before the consumer was registered is already in the feed.
+    JsonObject registered = getChanges(pSequence, pLimit, pCollectionId);
+    if (!isEmpty(registered)) {
+      mVertx.cancelTimer(timer);
+      consumer.unregister();
+      promise.tryComplete(registered);
+    }
+
+    return promise.future();
+  }
+
+  /**
+   * Calls the handler with every change made from now on. Unregister the returned consumer to stop.
+   */
+  public MessageConsumer<JsonObject> subscribe(String pCollectionId, Handler<JsonObject> pHandler) {
+    return mVertx.eventBus().<JsonObject>consumer(CHANGES_ADDRESS, message -> {
+      if (matches(message.body(), pCollectionId)) pHandler.handle(message.body());
+    });
+  }
+
+  private static boolean matches(JsonObject pChange, String pCollectionId) {
+    return pCollectionId == null || pCollectionId.equals(pChange.getString(ChangeFeed.COLLECTION_KEY));
+  }
+
+  private static boolean isEmpty(JsonObject pChanges) {
+    return pChanges.getJsonArray("items").isEmpty() && !pChanges.getBoolean("reset");
+  }
+}
@@ -18,74 +18,68 @@ package cloud.floc.cc.service;
 
 import cloud.floc.cc.common.Collection;
 import cloud.floc.cc.common.Document;
-import cloud.floc.cc.common.DocumentException;
-import cloud.floc.cc.common.DocumentExistsException;
-import cloud.floc.cc.common.DocumentNotFoundException;
-import cloud.floc.cc.db.DB;
+import cloud.floc.cc.db.AsyncDB;
+import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
 
+import java.util.List;
 import java.util.Objects;
 
 public class MenusService {
 
   public static final String MENUS_COLLECTION_ID = "menus";
 
-  private final DB mDB;
+  private final AsyncDB mDB;
 
-  public MenusService(DB pDB)
-    throws DocumentExistsException, DocumentException {
+  public MenusService(AsyncDB pDB) {
     this.mDB = Objects.requireNonNull(pDB, "DB should be provided");
-
-    if (!mDB.hasCollection(MENUS_COLLECTION_ID)) {
-      mDB.createCollection(Collection
-        .newBuilder()
-        .withId(MENUS_COLLECTION_ID)
-        .build());
-    }
   }
 
-  public void upsertMenu(String pBotId, JsonObject pPayload)
-    throws DocumentExistsException, DocumentNotFoundException, DocumentException {
-    if (mDB.hasDocument(MENUS_COLLECTION_ID, pBotId)) {
-      mDB.updateDocument(Document
+  public Future<Void> init() {
+    return mDB.hasCollection(MENUS_COLLECTION_ID).compose(exists -> exists
+      ? Future.<Void>succeededFuture()
+      : mDB.createCollection(Collection
         .newBuilder()
-        .underCollection(MENUS_COLLECTION_ID)
-        .withId(pBotId)
-        .withPayload(pPayload)
-        .build());
-    } else {
-      mDB.createDocument(Document
-        .newBuilder()
-        .underCollection(MENUS_COLLECTION_ID)
-        .withId(pBotId)
-        .withPayload(pPayload)
-        .build());
-    }
+        .withId(MENUS_COLLECTION_ID)
+        .build())
+        .<Void>mapEmpty())
+      .recover(ServiceUtils::ignoreExisting);
   }
 
-  public void updateMenu(String pBotId, JsonObject pPayload)
-    throws DocumentNotFoundException, DocumentException {
-    mDB.updateDocument(Document
+  public Future<Void> upsertMenu(String pBotId, JsonObject pPayload) {
+    return mDB.putDocuments(MENUS_COLLECTION_ID, List.of(Document
       .newBuilder()
       .underCollection(MENUS_COLLECTION_ID)
       .withId(pBotId)
       .withPayload(pPayload)
-      .build());
-
-    var botDoc = mDB.getDocument(BotsService.BOTS_COLLECTION_ID, pBotId);
-    JsonObject botPayload = new JsonObject(botDoc.payload().getMap());
-    botPayload.put("generated", true);
+      .build()))
+      .mapEmpty();
+  }
 
-    mDB.updateDocument(Document
+  /**
+   * Merges the given fields into the bot's menu and flags the bot as generated, without rewriting either document.
+   */
+  public Future<Void> patchMenu(String pBotId, JsonObject pPatch) {
+    return mDB.patchDocument(Document
       .newBuilder()
-      .underCollection(BotsService.BOTS_COLLECTION_ID)
+      .underCollection(MENUS_COLLECTION_ID)
       .withId(pBotId)
-      .withPayload(botPayload)
-      .build());
+      .withPayload(pPatch)
+      .build())
+      .compose(menuDoc -> mDB.patchDocument(Document
+        .newBuilder()
+        .underCollection(BotsService.BOTS_COLLECTION_ID)
+        .withId(pBotId)
+        .withPayload(new JsonObject().put("generated", true))
+        .build()))
+      .mapEmpty();
   }
 
-  public Document getMenu(String pBotId)
-    throws DocumentNotFoundException, DocumentException {
+  public Future<Document> getMenu(String pBotId) {
     return mDB.getDocument(MENUS_COLLECTION_ID, pBotId);
   }
+
+  public Future<Collection> getMenus(List<String> pBotIds) {
+    return mDB.getDocuments(MENUS_COLLECTION_ID, pBotIds);
+  }
 }
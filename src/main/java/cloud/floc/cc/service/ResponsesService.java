@@ -18,10 +18,8 @@ package cloud.floc.cc.service;
 
 import cloud.floc.cc.common.Collection;
 import cloud.floc.cc.common.Document;
-import cloud.floc.cc.common.DocumentException;
-import cloud.floc.cc.common.DocumentExistsException;
-import cloud.floc.cc.common.DocumentNotFoundException;
-import cloud.floc.cc.db.DB;
+import cloud.floc.cc.db.AsyncDB;
+import io.vertx.core.Future;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
@@ -35,46 +33,50 @@ public class ResponsesService {
   public static final String RESPONSES_COLLECTION_ID = "responses";
   public static final String BOT_BUILDER_ID = "bot-builder";
 
-  private final DB mDB;
+  private final AsyncDB mDB;
 
-  public ResponsesService(DB pDB)
-    throws DocumentExistsException, DocumentException {
+  public ResponsesService(AsyncDB pDB) {
     this.mDB = Objects.requireNonNull(pDB, "DB should be provided");
+  }
 
-    if (!mDB.hasCollection(RESPONSES_COLLECTION_ID)) {
-      mDB.createCollection(Collection
-        .newBuilder()
-        .withId(RESPONSES_COLLECTION_ID)
-        .build());
-    }
-
-    if (!mDB.hasDocument(RESPONSES_COLLECTION_ID, BOT_BUILDER_ID)) {
-      mDB.createDocument(Document
-        .newBuilder()
-        .underCollection(RESPONSES_COLLECTION_ID)
-        .withId(BOT_BUILDER_ID)
-        .withPayload(rawResponsesJson())
-        .build());
-    }
+  public Future<Void> init() {
+    return mDB.hasCollection(RESPONSES_COLLECTION_ID)
+      .compose(exists -> exists
+        ? Future.<Void>succeededFuture()
+        : mDB.createCollection(Collection
+          .newBuilder()
+          .withId(RESPONSES_COLLECTION_ID)
+          .build())
+          .<Void>mapEmpty())
+      .recover(ServiceUtils::ignoreExisting)
+      .compose(v -> mDB.hasDocument(RESPONSES_COLLECTION_ID, BOT_BUILDER_ID))
+      .compose(exists -> exists
+        ? Future.<Void>succeededFuture()
+        : mDB.createDocument(Document
+          .newBuilder()
+          .underCollection(RESPONSES_COLLECTION_ID)
+          .withId(BOT_BUILDER_ID)
+          .withPayload(rawResponsesJson())
+          .build())
+          .<Void>mapEmpty())
+      .recover(ServiceUtils::ignoreExisting);
   }
 
-  public Document getResponse(String pBotId)
-    throws DocumentNotFoundException, DocumentException {
+  public Future<Document> getResponse(String pBotId) {
     return mDB.getDocument(RESPONSES_COLLECTION_ID, pBotId);
   }
 
-  public Document getBotBuilderResponse()
-    throws DocumentNotFoundException, DocumentException {
+  public Future<Document> getBotBuilderResponse() {
     return mDB.getDocument(RESPONSES_COLLECTION_ID, BOT_BUILDER_ID);
   }
 
-  public JsonObject generateResponse(String pBotId, JsonObject pPayload)
-    throws DocumentNotFoundException, DocumentException {
+  public Future<JsonObject> generateResponse(String pBotId, JsonObject pPayload) {
     // TODO: Get tracker and use slots for variable replacement.
     String template = pPayload.getString("template");
-    var doc = mDB.getDocument(RESPONSES_COLLECTION_ID, pBotId);
-    JsonArray response = doc.payload().getJsonArray(template);
-    return response.getJsonObject(0);
+    return mDB.getDocument(RESPONSES_COLLECTION_ID, pBotId).map(doc -> {
+      JsonArray response = doc.payload().getJsonArray(template);
+      return response.getJsonObject(0);
+    });
   }
 
   private static JsonObject rawResponsesJson() {
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2020, Floc Technologies LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cloud.floc.cc.service;
+
+import cloud.floc.cc.common.DocumentExistsException;
+import io.vertx.core.Future;
+
+class ServiceUtils {
+
+  /**
+   * Recovers a failed creation when the document or collection already exists, which happens when several server
+   * instances initialize concurrently.
+   */
+  static Future<Void> ignoreExisting(Throwable pCause) {
+    return pCause instanceof DocumentExistsException
+      ? Future.succeededFuture()
+      : Future.failedFuture(pCause);
+  }
+}
@@ -0,0 +1,127 @@
+package cloud.floc.cc;
+
+import cloud.floc.cc.common.Constants;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the HTTP throughput of {@link CrisisCenterServer} reading a bot, as the number of deployed server instances
+ * grows up to one per core. All instances share a single DB verticle.
+ * <p>
+ * The load is generated from the same JVM with half of the cores, so the absolute figures are pessimistic; what matters
+ * is how they change with the instances. Not part of the regular test run; execute with
+ * {@code mvn test -Dtest=ServerScalingBenchmark}.
+ */
+public class ServerScalingBenchmark {
+
+  private static final int PORT = 18080;
+  private static final String BASE_URI = "http://localhost:" + PORT + "/api/v1";
+  private static final int CONNECTIONS = 128;
+  private static final long WARMUP_MILLIS = 3_000;
+  private static final long MEASURE_MILLIS = 5_000;
+
+  @Test
+  void instancesScale(@TempDir Path pStateFolder)
+      throws Exception {
+    int cores = Runtime.getRuntime().availableProcessors();
+    TreeSet<Integer> instanceCounts = new TreeSet<>();
+    for (int instances = 1; instances < cores; instances *= 2) {
+      instanceCounts.add(instances);
+    }
+    instanceCounts.add(cores);
+
+    System.out.println("instances  req/s");
+    for (int instances : instanceCounts) {
+      System.out.printf("%9d  %,.0f%n", instances, run(pStateFolder, instances, Math.max(1, cores / 2)));
+    }
+  }
+
+  private double run(Path pStateFolder, int pInstances, int pClientThreads)
+      throws Exception {
+    Vertx server = Vertx.vertx();
+    ExecutorService client = Executors.newFixedThreadPool(pClientThreads);
+
+    try {
+      JsonObject config = new JsonObject()
+          .put(Constants.STATE_FOLDER_KEY, pStateFolder.toString())
+          .put(Constants.DB_NAME_KEY, "bench-" + pInstances)
+          .put(Constants.HTTP_PORT_KEY, PORT);
+
+      CompletableFuture<String> deployed = new CompletableFuture<>();
+      server.deployVerticle(CrisisCenterServer.class.getName(),
+          new DeploymentOptions().setInstances(pInstances).setConfig(config),
+          ar -> complete(deployed, ar.succeeded() ? ar.result() : null, ar.cause()));
+      deployed.get(30, TimeUnit.SECONDS);
+
+      HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(client).build();
+
+      HttpRequest read = HttpRequest.newBuilder(URI.create(BASE_URI + "/bots/" + createBot(http))).build();
+      AtomicLong completed = new AtomicLong();
+      long deadline = System.currentTimeMillis() + WARMUP_MILLIS + MEASURE_MILLIS;
+      for (int c = 0; c < CONNECTIONS; c++) {
+        get(http, read, completed, deadline);
+      }
+
+      Thread.sleep(WARMUP_MILLIS);
+      long start = completed.get();
+      long startNanos = System.nanoTime();
+      Thread.sleep(MEASURE_MILLIS);
+      long requests = completed.get() - start;
+      long elapsedNanos = System.nanoTime() - startNanos;
+
+      return requests / (elapsedNanos / 1e9);
+
+    } finally {
+      client.shutdownNow();
+      close(server);
+    }
+  }
+
+  private String createBot(HttpClient pHttp)
+      throws Exception {
+    HttpRequest create = HttpRequest.newBuilder(URI.create(BASE_URI + "/bots"))
+        .header("content-type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString(new JsonObject().put("name", "bench").encode()))
+        .build();
+    String body = pHttp.sendAsync(create, HttpResponse.BodyHandlers.ofString()).get(10, TimeUnit.SECONDS).body();
+
+    return new JsonObject(body).getJsonObject("item").getString("id");
+  }
+
+  private void get(HttpClient pHttp, HttpRequest pRequest, AtomicLong pCompleted, long pDeadline) {
+    pHttp.sendAsync(pRequest, HttpResponse.BodyHandlers.discarding()).whenComplete((response, ex) -> {
+      if (ex == null) pCompleted.incrementAndGet();
+      if (System.currentTimeMillis() < pDeadline) get(pHttp, pRequest, pCompleted, pDeadline);
+    });
+  }
+
+  private static void close(Vertx pVertx)
+      throws Exception {
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    pVertx.close(ar -> complete(closed, null, ar.cause()));
+    closed.get(30, TimeUnit.SECONDS);
+  }
+
+  private static <T> void complete(CompletableFuture<T> pFuture, T pResult, Throwable pCause) {
+    if (pCause == null) {
+      pFuture.complete(pResult);
+    } else {
+      pFuture.completeExceptionally(pCause);
+    }
+  }
+}
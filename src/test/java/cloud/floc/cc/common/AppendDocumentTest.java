@@ -0,0 +1,100 @@
+package cloud.floc.cc.common;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * {@link Utils#appendDocument(Buffer, Document)} either splices the id into a raw payload or falls back on
+ * {@link Utils#documentToJson(Document)}; both must give the same JSON.
+ */
+public class AppendDocumentTest {
+
+  @Test
+  void rawPayloadsGetTheIdSplicedInFront() {
+    String raw = "{\"name\":\"café ☕\",\"nested\":{\"items\":[1,2.5,null]}}";
+    Document doc = raw("a", raw);
+
+    assertEquals("{\"id\":\"a\"," + raw.substring(1), append(doc));
+    assertNotNull(doc.rawPayload(), "Splicing doesn't parse the payload");
+    assertEquals(Utils.documentToJson(parsed("a", raw)), new JsonObject(append(doc)));
+
+    // An escaped "id" inside a string isn't a key.
+    String quoted = "{\"note\":\"the \\\"id\\\" field\"}";
+    assertEquals("{\"id\":\"a\"," + quoted.substring(1), append(raw("a", quoted)));
+  }
+
+  @Test
+  void emptyAndSpacedObjectsStayValid() {
+    for (String raw : List.of("{}", "{ }", "{\n\t}", "{ \"n\":1 }", "{\r\n\"n\" : 1}")) {
+      String appended = append(raw("a", raw));
+
+      assertEquals(Utils.documentToJson(parsed("a", raw)), new JsonObject(appended), raw);
+    }
+
+    assertEquals("{\"id\":\"a\"}", append(raw("a", "{ }")));
+  }
+
+  @Test
+  void idsAreEncodedAsJsonStrings() {
+    String id = "quote\" back\\slash\u0001 ünïcode";
+
+    JsonObject appended = new JsonObject(append(raw(id, "{\"n\":1}")));
+    assertEquals(id, appended.getString("id"));
+    assertEquals(1, appended.getInteger("n"));
+  }
+
+  @Test
+  void payloadsMentioningAnIdFallBackOnTheDocumentsId() {
+    // A top-level "id" would be duplicated by a splice; nested ones are not told apart and fall back too.
+    for (String raw : List.of("{\"id\":\"stale\",\"n\":1}", "{\"n\":{\"id\":2}}", "{\"n\":[\"id\"]}")) {
+      Document doc = raw("a", raw);
+      JsonObject appended = new JsonObject(append(doc));
+
+      assertEquals("a", appended.getString("id"), raw);
+      assertEquals(Utils.documentToJson(parsed("a", raw)), appended, raw);
+      assertNull(doc.rawPayload(), "The fallback parses the payload");
+    }
+  }
+
+  @Test
+  void documentsWithoutAUsableRawPayloadAreEncoded() {
+    Document built = Document.newBuilder().underCollection("bots").withId("a")
+        .withPayload(new JsonObject().put("n", 1)).build();
+    assertEquals(new JsonObject().put("n", 1).put("id", "a"), new JsonObject(append(built)));
+
+    // Leading whitespace or a truncated object can't be spliced, but still parse if they are valid.
+    assertEquals(new JsonObject().put("id", "a").put("n", 1), new JsonObject(append(raw("a", " {\"n\":1}"))));
+
+    Document read = raw("a", "{\"n\":1}");
+    read.payload();
+    assertEquals("{\"n\":1,\"id\":\"a\"}", append(read));
+  }
+
+  @Test
+  void appendsAfterWhatTheBufferAlreadyHolds() {
+    Buffer buffer = Buffer.buffer("[");
+    Utils.appendDocument(buffer, raw("a", "{}")).appendString(",");
+    Utils.appendDocument(buffer, raw("b", "{\"id\":\"b\"}")).appendString("]");
+
+    assertEquals("[{\"id\":\"a\"},{\"id\":\"b\"}]", buffer.toString());
+  }
+
+  private static String append(Document pDocument) {
+    return Utils.appendDocument(Buffer.buffer(), pDocument).toString();
+  }
+
+  private static Document raw(String pId, String pRaw) {
+    return Document.newBuilder().underCollection("bots").withId(pId).withRawPayload(Buffer.buffer(pRaw)).build();
+  }
+
+  private static Document parsed(String pId, String pRaw) {
+    return Document.newBuilder().underCollection("bots").withId(pId).withPayload(new JsonObject(pRaw)).build();
+  }
+}
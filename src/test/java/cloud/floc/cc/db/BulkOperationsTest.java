@@ -0,0 +1,116 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * What bulk operations save over their single-document counterparts: JsonDB commits a bulk write at once, and
+ * CachedDB only reads the misses of a bulk read. The results themselves are checked by {@link DBConformanceTest}.
+ */
+public class BulkOperationsTest {
+
+  private static final String COLLECTION_ID = "bots";
+
+  @TempDir
+  Path mStateFolder;
+
+  @Test
+  void jsonDBSyncsFolderOncePerBulkWrite()
+      throws Exception {
+    JsonDB db = new JsonDB(new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.toString())
+        .put(Constants.DB_DURABILITY_KEY, "fsync"));
+    db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+
+    JsonObject before = db.metrics().getJsonObject("writes");
+    db.putDocuments(COLLECTION_ID, bots("a", "b", "c", "d", "e", "f", "g", "h"));
+    JsonObject afterPut = db.metrics().getJsonObject("writes");
+
+    // One sync per file, then one for their shared folder, all in a single commit.
+    assertEquals(9, afterPut.getLong("fsyncs") - before.getLong("fsyncs"));
+    assertEquals(1, afterPut.getLong("groupCommits") - before.getLong("groupCommits"));
+
+    db.deleteDocuments(COLLECTION_ID, List.of("a", "b", "c", "zz"));
+    JsonObject afterDelete = db.metrics().getJsonObject("writes");
+    assertEquals(1, afterDelete.getLong("fsyncs") - afterPut.getLong("fsyncs"));
+    assertEquals(List.of("d", "e", "f", "g", "h"), ids(db.getCollection(COLLECTION_ID)));
+    db.close();
+  }
+
+  @Test
+  void cachedBulkReadOnlyFetchesMisses()
+      throws Exception {
+    RecordingDB engine = new RecordingDB(new MemoryDB(new JsonObject()));
+    engine.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    engine.putDocuments(COLLECTION_ID, bots("a", "b", "c", "d"));
+    CachedDB db = new CachedDB(engine, "lru", 16, 0, 1 << 16);
+
+    db.getDocument(COLLECTION_ID, "b");
+    db.getDocument(COLLECTION_ID, "d");
+    Collection got = db.getDocuments(COLLECTION_ID, List.of("d", "a", "missing", "b", "c"));
+
+    // Cached and fetched documents come back in the requested order.
+    assertEquals(List.of("d", "a", "b", "c"), ids(got));
+    assertEquals(List.of(List.of("a", "missing", "c")), engine.mBulkReads);
+
+    db.getDocuments(COLLECTION_ID, List.of("a", "b", "c", "d"));
+    assertEquals(1, engine.mBulkReads.size(), "Everything should be cached by now");
+
+    // A bulk delete invalidates each of its documents.
+    db.deleteDocuments(COLLECTION_ID, List.of("a", "c"));
+    assertEquals(List.of("b", "d"), ids(db.getDocuments(COLLECTION_ID, List.of("a", "b", "c", "d"))));
+    assertEquals(List.of("a", "c"), engine.mBulkReads.get(1));
+    db.close();
+  }
+
+  private static List<String> ids(Collection pCol) {
+    return pCol.documents().stream().map(Document::id).collect(Collectors.toList());
+  }
+
+  private static List<Document> bots(String... pIds) {
+    List<Document> docs = new ArrayList<>();
+    for (String id : pIds) {
+      docs.add(bot(id, id));
+    }
+    return docs;
+  }
+
+  private static Document bot(String pId, String pName) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(new JsonObject().put("name", pName))
+        .build();
+  }
+
+  private static class RecordingDB
+      extends ForwardingDB {
+
+    final List<List<String>> mBulkReads = new ArrayList<>();
+
+    RecordingDB(DB pDelegate) {
+      super(pDelegate);
+    }
+
+    @Override
+    public Collection getDocuments(String pCollectionId, List<String> pDocIds)
+        throws DocumentNotFoundException, DocumentException {
+      mBulkReads.add(List.copyOf(pDocIds));
+      return super.getDocuments(pCollectionId, pDocIds);
+    }
+  }
+}
@@ -0,0 +1,216 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CachedDBTest {
+
+  private static final String COLLECTION_ID = "bots";
+
+  @TempDir
+  Path mStateFolder;
+
+  private GatedDB mEngine;
+  private CachedDB mDB;
+  private ExecutorService mReaders;
+
+  @BeforeEach
+  void open()
+      throws Exception {
+    mEngine = new GatedDB(new MemoryDB(new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.toString())));
+    mEngine.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    mEngine.createDocument(bot("a", "before"));
+    mDB = new CachedDB(mEngine, "lru", 16, 1 << 20, 1 << 16);
+    mReaders = Executors.newSingleThreadExecutor();
+  }
+
+  @AfterEach
+  void close() {
+    mReaders.shutdownNow();
+    mDB.close();
+  }
+
+  @Test
+  void readRacingUpdateIsNotCached()
+      throws Exception {
+    mEngine.mGated = true;
+    Future<Document> read = mReaders.submit(() -> mDB.getDocument(COLLECTION_ID, "a"));
+    assertTrue(mEngine.mLoaded.await(5, TimeUnit.SECONDS));
+
+    // The reader holds the old document while the whole update goes through.
+    mDB.updateDocument(bot("a", "after"));
+    mEngine.mResume.countDown();
+    assertEquals("before", read.get().payload().getString("name"));
+
+    assertEquals("after", mDB.getDocument(COLLECTION_ID, "a").payload().getString("name"));
+    Document bulk = mDB.getDocuments(COLLECTION_ID, List.of("a")).documents().get(0);
+    assertEquals("after", bulk.payload().getString("name"));
+  }
+
+  @Test
+  void bulkReadRacingDeleteIsNotCached()
+      throws Exception {
+    mEngine.mGated = true;
+    Future<Collection> read = mReaders.submit(() -> mDB.getDocuments(COLLECTION_ID, List.of("a")));
+    assertTrue(mEngine.mLoaded.await(5, TimeUnit.SECONDS));
+
+    mDB.deleteDocument(COLLECTION_ID, "a");
+    mEngine.mResume.countDown();
+    assertEquals(1, read.get().documents().size());
+
+    assertTrue(mDB.getDocuments(COLLECTION_ID, List.of("a")).documents().isEmpty());
+    assertFalse(mDB.hasDocument(COLLECTION_ID, "a"));
+    assertThrows(DocumentNotFoundException.class, () -> mDB.getDocument(COLLECTION_ID, "a"));
+  }
+
+  @Test
+  void idsWithSlashesGetEntriesOfTheirOwn()
+      throws Exception {
+    mDB.createCollection(Collection.newBuilder().withId("a/b").build());
+    mDB.createCollection(Collection.newBuilder().withId("a").build());
+    mDB.createDocument(bot("a/b", "c", "first"));
+    mDB.createDocument(bot("a", "b/c", "second"));
+
+    assertEquals("first", mDB.getDocument("a/b", "c").payload().getString("name"));
+    assertEquals("second", mDB.getDocument("a", "b/c").payload().getString("name"));
+
+    mDB.updateDocument(bot("a", "b/c", "updated"));
+    assertEquals("first", mDB.getDocument("a/b", "c").payload().getString("name"));
+    assertEquals("updated", mDB.getDocuments("a", List.of("b/c")).documents().get(0).payload().getString("name"));
+
+    mDB.deleteCollection("a");
+    assertFalse(mDB.hasDocument("a", "b/c"));
+    assertEquals("first", mDB.getDocument("a/b", "c").payload().getString("name"));
+
+    // Pushed out of the memory cache, the document comes back from the off-heap tier as it was.
+    for (int d = 0; d < 32; d++) {
+      mDB.createDocument(bot("b" + d, "filler"));
+      mDB.getDocument(COLLECTION_ID, "b" + d);
+    }
+    long offHeapHits = mDB.metrics().getJsonObject("offHeapCache").getLong("hits");
+    Document offHeap = mDB.getDocument("a/b", "c");
+    assertEquals(offHeapHits + 1, mDB.metrics().getJsonObject("offHeapCache").getLong("hits"));
+    assertEquals("a/b", offHeap.collectionId());
+    assertEquals("c", offHeap.id());
+    assertEquals("first", offHeap.payload().getString("name"));
+  }
+
+  /**
+   * Stops the writer between the reader's check and its store: the removal has to wait for the store and then undo
+   * it, or the stale entry would stay cached.
+   */
+  @Test
+  void removalWaitsForCheckedStore()
+      throws Exception {
+    var cache = new LruDocumentCache(4);
+    var current = new AtomicBoolean(true);
+    var checked = new CountDownLatch(1);
+
+    Thread writer = new Thread(() -> {
+      try {
+        checked.await();
+        current.set(false);
+        cache.remove("bots/a");
+
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    writer.start();
+
+    cache.putIf("bots/a", bot("a", "stale"), () -> {
+      boolean result = current.get();
+      checked.countDown();
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+      while (writer.getState() != Thread.State.BLOCKED && writer.isAlive() && System.nanoTime() < deadline) {
+        Thread.onSpinWait();
+      }
+      return result;
+    });
+
+    writer.join();
+    assertNull(cache.lookup("bots/a"));
+  }
+
+  private static Document bot(String pId, String pName) {
+    return bot(COLLECTION_ID, pId, pName);
+  }
+
+  private static Document bot(String pCollectionId, String pId, String pName) {
+    return Document
+        .newBuilder()
+        .underCollection(pCollectionId)
+        .withId(pId)
+        .withPayload(new JsonObject().put("name", pName))
+        .build();
+  }
+
+  /**
+   * Engine whose next read, once gated, waits after loading until the test lets it return.
+   */
+  private static class GatedDB
+      extends ForwardingDB {
+
+    final CountDownLatch mLoaded = new CountDownLatch(1);
+    final CountDownLatch mResume = new CountDownLatch(1);
+    volatile boolean mGated;
+
+    GatedDB(DB pDelegate) {
+      super(pDelegate);
+    }
+
+    @Override
+    public Document getDocument(String pCollectionId, String pDocId)
+        throws DocumentNotFoundException, DocumentException {
+      Document doc = super.getDocument(pCollectionId, pDocId);
+      pause();
+      return doc;
+    }
+
+    @Override
+    public Collection getDocuments(String pCollectionId, List<String> pDocIds)
+        throws DocumentNotFoundException, DocumentException {
+      Collection docs = super.getDocuments(pCollectionId, pDocIds);
+      pause();
+      return docs;
+    }
+
+    private void pause() {
+      if (!mGated) return;
+      mGated = false;
+      mLoaded.countDown();
+
+      try {
+        mResume.await(5, TimeUnit.SECONDS);
+
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package cloud.floc.cc.db;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChangeFeedTest {
+
+  @Test
+  void readersResumeUntilTheRingWrapsPastThem() {
+    var feed = new ChangeFeed(4);
+    long start = feed.lastSequence();
+    for (int c = 0; c < 10; c++) {
+      feed.append("bots", "b" + c, ChangeFeed.CREATE, 1, 0, new JsonObject());
+    }
+
+    // Exactly the last four changes are kept, so a reader four behind is still served.
+    JsonObject oldestKept = feed.since(start + 6, 100);
+    assertFalse(oldestKept.getBoolean("reset"));
+    assertEquals(List.of("b6", "b7", "b8", "b9"), ids(oldestKept.getJsonArray("items")));
+
+    JsonObject lost = feed.since(start + 5, 100);
+    assertTrue(lost.getBoolean("reset"));
+    assertTrue(lost.getJsonArray("items").isEmpty());
+    assertEquals(start + 10, lost.getLong(ChangeFeed.SEQUENCE_KEY), "A reset tells where to resume from");
+  }
+
+  @Test
+  void limitedReadsHandOverTheirResumePoint() {
+    var feed = new ChangeFeed(16);
+    long start = feed.lastSequence();
+    for (int c = 0; c < 5; c++) {
+      feed.append("bots", "b" + c, ChangeFeed.UPDATE, c + 1, 0, new JsonObject());
+    }
+
+    List<String> seen = new ArrayList<>();
+    long seq = start;
+    for (int reads = 0; reads < 3; reads++) {
+      JsonObject page = feed.since(seq, 2);
+      seen.addAll(ids(page.getJsonArray("items")));
+      seq = page.getLong(ChangeFeed.SEQUENCE_KEY);
+    }
+
+    assertEquals(List.of("b0", "b1", "b2", "b3", "b4"), seen);
+    assertEquals(feed.lastSequence(), seq);
+
+    JsonObject upToDate = feed.since(seq, 2);
+    assertFalse(upToDate.getBoolean("reset"));
+    assertTrue(upToDate.getJsonArray("items").isEmpty());
+    assertEquals(seq, upToDate.getLong(ChangeFeed.SEQUENCE_KEY));
+  }
+
+  @Test
+  void sequencesFromAnotherRunAreReset()
+      throws Exception {
+    var before = new ChangeFeed(8);
+    before.append("bots", "a", ChangeFeed.CREATE, 1, 0, new JsonObject());
+    Thread.sleep(2);
+
+    var after = new ChangeFeed(8);
+    after.append("bots", "b", ChangeFeed.CREATE, 1, 0, new JsonObject());
+
+    // Older than anything this run buffered, or ahead of it.
+    assertTrue(after.since(before.lastSequence(), 10).getBoolean("reset"));
+    assertTrue(after.since(after.lastSequence() + 1, 10).getBoolean("reset"));
+    assertFalse(after.since(after.lastSequence() - 1, 10).getBoolean("reset"));
+  }
+
+  @Test
+  void mutationsCarryPayloadsOnlyForWrites() {
+    var feed = new ChangeFeed(4);
+    long start = feed.lastSequence();
+    feed.append("bots", "a", ChangeFeed.CREATE, 1, 4_000_000_000_000L, new JsonObject().put("name", "a"));
+    feed.append("bots", "a", ChangeFeed.DELETE, 1, 0, null);
+
+    JsonArray mutations = feed.mutationsSince(start, 10).getJsonArray("items");
+    assertEquals(new JsonObject().put("name", "a"), mutations.getJsonObject(0).getJsonObject(ChangeFeed.PAYLOAD_KEY));
+    assertNull(mutations.getJsonObject(1).getValue(ChangeFeed.PAYLOAD_KEY));
+
+    // Deadlines go along with the writes, so replicas expire documents when the leader does.
+    assertEquals(4_000_000_000_000L, mutations.getJsonObject(0).getLong(ChangeFeed.EXPIRES_AT_KEY));
+    assertFalse(mutations.getJsonObject(1).containsKey(ChangeFeed.EXPIRES_AT_KEY));
+
+    // Readers of the public feed never see payloads.
+    assertNull(feed.since(start, 10).getJsonArray("items").getJsonObject(0).getValue(ChangeFeed.PAYLOAD_KEY));
+  }
+
+  @Test
+  void listenerFailuresDontStopOthers() {
+    var feed = new ChangeFeed(4);
+    List<Long> heard = new ArrayList<>();
+    feed.subscribe(change -> {
+      throw new IllegalStateException("listener bug");
+    });
+    feed.subscribe(change -> heard.add(change.getLong(ChangeFeed.SEQUENCE_KEY)));
+
+    feed.append("bots", "a", ChangeFeed.CREATE, 1, 0, null);
+    assertEquals(List.of(feed.lastSequence()), heard);
+
+    assertThrows(IllegalArgumentException.class, () -> new ChangeFeed(0));
+  }
+
+  private static List<String> ids(JsonArray pItems) {
+    List<String> ids = new ArrayList<>();
+    pItems.forEach(item -> ids.add(((JsonObject) item).getString(ChangeFeed.ID_KEY)));
+    return ids;
+  }
+}
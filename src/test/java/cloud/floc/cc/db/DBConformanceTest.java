@@ -0,0 +1,323 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.DocumentVersionException;
+import cloud.floc.cc.common.Utils;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Behavior every {@link DBEngine} should share, run against each engine by a subclass naming it. Engines from other
+ * jars can reuse it the same way.
+ */
+abstract class DBConformanceTest {
+
+  private static final String COLLECTION_ID = "bots";
+
+  @TempDir
+  Path mStateFolder;
+
+  private DB mDB;
+
+  /**
+   * @return the name of the engine under test.
+   */
+  protected abstract String engine();
+
+  /**
+   * @return the config the engine is opened with; engines that don't persist by default should be set up to.
+   */
+  protected JsonObject config(Path pStateFolder) {
+    return new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, pStateFolder.toString())
+        .put(Constants.DB_ENGINE_KEY, engine())
+        .put(Constants.DB_DURABILITY_KEY, "none");
+  }
+
+  @BeforeEach
+  void open()
+      throws Exception {
+    mDB = DB.newEngine(config(mStateFolder));
+    mDB.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+  }
+
+  @AfterEach
+  void close() {
+    mDB.close();
+  }
+
+  @Test
+  void documentLifecycle()
+      throws Exception {
+    assertEquals(1, mDB.createDocument(document("a", "first", 0)).version());
+    assertThrows(DocumentExistsException.class, () -> mDB.createDocument(document("a", "again", 0)));
+    assertTrue(mDB.hasDocument(COLLECTION_ID, "a"));
+    assertEquals("first", mDB.getDocument(COLLECTION_ID, "a").payload().getString("name"));
+
+    Document updated = mDB.updateDocument(document("a", "second", 1));
+    assertEquals(2, updated.version());
+    assertThrows(DocumentVersionException.class, () -> mDB.updateDocument(document("a", "stale", 1)));
+
+    Document patched = mDB.patchDocument(Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId("a")
+        .withPayload(new JsonObject().put("generated", true).putNull("index"))
+        .build());
+    assertEquals(3, patched.version());
+    assertEquals(new JsonObject().put("name", "second").put("generated", true), patched.payload());
+    assertEquals(patched.payload(), mDB.getDocument(COLLECTION_ID, "a").payload());
+
+    assertEquals(3, mDB.deleteDocument(COLLECTION_ID, "a").version());
+    assertFalse(mDB.hasDocument(COLLECTION_ID, "a"));
+    assertThrows(DocumentNotFoundException.class, () -> mDB.getDocument(COLLECTION_ID, "a"));
+    assertThrows(DocumentNotFoundException.class, () -> mDB.updateDocument(document("a", "gone", 0)));
+    assertThrows(DocumentNotFoundException.class, () -> mDB.deleteDocument(COLLECTION_ID, "a"));
+  }
+
+  @Test
+  void collections()
+      throws Exception {
+    assertTrue(mDB.hasCollection(COLLECTION_ID));
+    assertThrows(DocumentExistsException.class,
+        () -> mDB.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build()));
+    assertThrows(DocumentNotFoundException.class, () -> mDB.getCollection("missing"));
+    assertThrows(DocumentException.class, () -> mDB.createDocument(Document
+        .newBuilder()
+        .underCollection("missing")
+        .withId("a")
+        .withPayload(new JsonObject())
+        .build()));
+
+    mDB.createDocument(document("a", "a", 0));
+    mDB.deleteCollection(COLLECTION_ID);
+    assertFalse(mDB.hasCollection(COLLECTION_ID));
+    assertFalse(mDB.hasDocument(COLLECTION_ID, "a"));
+    assertThrows(DocumentNotFoundException.class, () -> mDB.deleteCollection(COLLECTION_ID));
+  }
+
+  @Test
+  void bulkOperations()
+      throws Exception {
+    mDB.createDocument(document("b", "b", 0));
+
+    Collection put = mDB.putDocuments(COLLECTION_ID, List.of(document("a", "a", 0), document("b", "b2", 0)));
+    assertEquals(List.of(1L, 2L), put.documents().stream().map(Document::version).collect(Collectors.toList()));
+
+    Collection got = mDB.getDocuments(COLLECTION_ID, List.of("b", "missing", "a"));
+    assertEquals(List.of("b", "a"), ids(got.documents()));
+    assertEquals("b2", got.documents().get(0).payload().getString("name"));
+
+    Collection deleted = mDB.deleteDocuments(COLLECTION_ID, List.of("a", "missing"));
+    assertEquals(List.of("a"), ids(deleted.documents()));
+    assertEquals(List.of("b"), ids(mDB.getCollection(COLLECTION_ID).documents()));
+  }
+
+  @Test
+  void bulkPutOfRepeatedIdsWritesEachInTurn()
+      throws Exception {
+    Collection put = mDB.putDocuments(COLLECTION_ID,
+        List.of(document("a", "a1", 0), document("a", "a2", 0), document("a", "a3", 0)));
+
+    assertEquals(List.of(1L, 2L, 3L), put.documents().stream().map(Document::version).collect(Collectors.toList()));
+    Document stored = mDB.getDocument(COLLECTION_ID, "a");
+    assertEquals(3, stored.version());
+    assertEquals("a3", stored.payload().getString("name"));
+
+    assertThrows(DocumentNotFoundException.class, () -> mDB.putDocuments("nowhere", List.of(document("x", "x", 0))));
+    assertThrows(DocumentNotFoundException.class, () -> mDB.deleteDocuments("nowhere", List.of("x")));
+  }
+
+  @Test
+  void payloadsCantCarryTheirOwnMeta()
+      throws Exception {
+    JsonObject meta = new JsonObject().put("_meta", new JsonObject().put("version", 9));
+    Document doc = document("a", "a", 0);
+    mDB.createDocument(doc);
+
+    assertThrows(IllegalArgumentException.class, () -> mDB.createDocument(withPayload("b", meta)));
+    assertThrows(IllegalArgumentException.class, () -> mDB.updateDocument(withPayload("a", meta)));
+    assertThrows(IllegalArgumentException.class, () -> mDB.patchDocument(withPayload("a", meta)));
+    assertThrows(IllegalArgumentException.class,
+        () -> mDB.putDocuments(COLLECTION_ID, List.of(document("c", "c", 0), withPayload("d", meta))));
+
+    assertEquals(List.of("a"), ids(mDB.getCollection(COLLECTION_ID).documents()));
+    assertEquals(1, mDB.getDocument(COLLECTION_ID, "a").version());
+
+    // Only the top level is reserved.
+    mDB.updateDocument(withPayload("a", new JsonObject().put("nested", meta)));
+    assertEquals(9, mDB.getDocument(COLLECTION_ID, "a").payload().getJsonObject("nested")
+        .getJsonObject("_meta").getInteger("version"));
+  }
+
+  @Test
+  void pagesAndFilters()
+      throws Exception {
+    List<Document> docs = new ArrayList<>();
+    for (int d = 24; d >= 0; d--) {
+      docs.add(Document
+          .newBuilder()
+          .underCollection(COLLECTION_ID)
+          .withId(String.format("doc-%02d", d))
+          .withPayload(new JsonObject().put("name", "doc").put("index", d))
+          .build());
+    }
+    mDB.putDocuments(COLLECTION_ID, docs);
+
+    List<String> pagedIds = new ArrayList<>();
+    String cursor = null;
+    int pages = 0;
+    do {
+      var page = mDB.getPage(COLLECTION_ID, cursor, 10);
+      pagedIds.addAll(ids(page.documents()));
+      cursor = page.cursor();
+      pages++;
+    } while (cursor != null);
+
+    assertEquals(3, pages);
+    assertEquals(pagedIds.stream().sorted().collect(Collectors.toList()), pagedIds);
+    assertEquals(25, pagedIds.size());
+    assertNull(mDB.getPage(COLLECTION_ID, null, 25).cursor());
+
+    var found = mDB.findDocuments(COLLECTION_ID, new JsonObject().put("index", 7));
+    assertEquals(List.of("doc-07"), ids(found.documents()));
+    assertEquals(25, mDB.aggregates(COLLECTION_ID).getLong(CollectionAggregates.DOCUMENTS_KEY));
+  }
+
+  @Test
+  void ranges()
+      throws Exception {
+    List<String> created = new ArrayList<>();
+    for (int d = 0; d < 20; d++) {
+      String id = Utils.generateId();
+      created.add(id);
+      mDB.createDocument(document(id, "doc", 0));
+    }
+    assertEquals(created.stream().sorted().collect(Collectors.toList()), created);
+
+    assertEquals(List.of(created.get(19), created.get(18), created.get(17)),
+        ids(mDB.getRange(COLLECTION_ID, null, null, 3, true).documents()));
+    assertEquals(created.subList(5, 10), ids(mDB.getRange(COLLECTION_ID, created.get(5), created.get(10), 50, false)
+        .documents()));
+    assertEquals(List.of(created.get(9), created.get(8)),
+        ids(mDB.getRange(COLLECTION_ID, created.get(5), created.get(10), 2, true).documents()));
+    assertEquals(created.subList(15, 20), ids(mDB.getRange(COLLECTION_ID, created.get(15), null, 50, false)
+        .documents()));
+    assertTrue(mDB.getRange(COLLECTION_ID, created.get(10), created.get(5), 50, false).documents().isEmpty());
+    assertThrows(DocumentNotFoundException.class, () -> mDB.getRange("missing", null, null, 1, false));
+  }
+
+  @Test
+  void concurrentPatches()
+      throws Exception {
+    mDB.createDocument(document("a", "a", 0));
+    int threads = 4;
+    int patches = 100;
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        String field = "thread-" + t;
+        results.add(executor.submit(() -> {
+          for (int p = 1; p <= patches; p++) {
+            mDB.patchDocument(Document
+                .newBuilder()
+                .underCollection(COLLECTION_ID)
+                .withId("a")
+                .withPayload(new JsonObject().put(field, p))
+                .build());
+          }
+          return null;
+        }));
+      }
+
+      for (Future<?> result : results) {
+        result.get();
+      }
+
+    } finally {
+      executor.shutdown();
+    }
+
+    Document doc = mDB.getDocument(COLLECTION_ID, "a");
+    assertEquals(1 + threads * patches, doc.version());
+    for (int t = 0; t < threads; t++) {
+      assertEquals(patches, doc.payload().getInteger("thread-" + t));
+    }
+  }
+
+  @Test
+  void survivesRestart()
+      throws Exception {
+    mDB.createDocument(document("a", "a", 0));
+    mDB.updateDocument(document("a", "a2", 0));
+    mDB.createDocument(document("b", "b", 0));
+    mDB.deleteDocument(COLLECTION_ID, "b");
+    mDB.close();
+
+    mDB = DB.newEngine(config(mStateFolder));
+    assertEquals(List.of("a"), ids(mDB.getCollection(COLLECTION_ID).documents()));
+    Document doc = mDB.getDocument(COLLECTION_ID, "a");
+    assertEquals(2, doc.version());
+    assertEquals("a2", doc.payload().getString("name"));
+  }
+
+  @Test
+  void dotIdsSurviveRestart()
+      throws Exception {
+    mDB.createDocument(document(".hidden", "hidden", 0));
+    mDB.createDocument(document(".hidden.tmp", "hidden too", 0));
+    mDB.close();
+
+    mDB = DB.newEngine(config(mStateFolder));
+    assertEquals(List.of(".hidden", ".hidden.tmp"), ids(mDB.getCollection(COLLECTION_ID).documents()));
+    assertTrue(mDB.hasDocument(COLLECTION_ID, ".hidden"));
+    assertEquals("hidden too", mDB.getDocument(COLLECTION_ID, ".hidden.tmp").payload().getString("name"));
+  }
+
+  private List<String> ids(List<Document> pDocs) {
+    return pDocs.stream().map(Document::id).collect(Collectors.toList());
+  }
+
+  private Document document(String pId, String pName, long pVersion) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(new JsonObject().put("name", pName).put("index", 0))
+        .withVersion(pVersion)
+        .build();
+  }
+
+  private Document withPayload(String pId, JsonObject pPayload) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(pPayload)
+        .build();
+  }
+}
@@ -0,0 +1,131 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs the same workload against every built-in {@link DBEngine}: bulk inserts, single creates, reads, updates and
+ * patches of random documents, and a full scan by pages. Engines are opened with the default durability, so the
+ * numbers include what each engine pays to persist writes.
+ * <p>
+ * Not part of the regular test run; execute with {@code mvn test -Dtest=DBEngineBenchmark}.
+ */
+public class DBEngineBenchmark {
+
+  private static final String[] ENGINES = {"json", "wal", "segment", "memory"};
+  private static final int DOCUMENTS = 20_000;
+  private static final int BATCH_SIZE = 500;
+  private static final int OPERATIONS = 5_000;
+  private static final int PAGE_LIMIT = 500;
+
+  @Test
+  void compareEngines(@TempDir Path pStateFolder)
+      throws Exception {
+    System.out.println("engine   put ops/s  create ops/s  get ops/s  update ops/s  patch ops/s  scan ms");
+
+    for (String engine : ENGINES) {
+      DB db = DB.newEngine(new JsonObject()
+          .put(Constants.STATE_FOLDER_KEY, pStateFolder.resolve(engine).toString())
+          .put(Constants.DB_ENGINE_KEY, engine));
+
+      try {
+        db.createCollection(Collection.newBuilder().withId("bots").build());
+
+        long put = perSecond(DOCUMENTS, () -> {
+          for (int from = 0; from < DOCUMENTS; from += BATCH_SIZE) {
+            List<Document> batch = new ArrayList<>();
+            for (int d = from; d < from + BATCH_SIZE; d++) {
+              batch.add(document(id(d), d));
+            }
+            db.putDocuments("bots", batch);
+          }
+        });
+
+        long create = perSecond(OPERATIONS, () -> {
+          for (int i = 0; i < OPERATIONS; i++) {
+            db.createDocument(document("new-" + i, i));
+          }
+        });
+
+        long get = perSecond(OPERATIONS, () -> {
+          for (int i = 0; i < OPERATIONS; i++) {
+            db.getDocument("bots", id(random())).payload();
+          }
+        });
+
+        long update = perSecond(OPERATIONS, () -> {
+          for (int i = 0; i < OPERATIONS; i++) {
+            int d = random();
+            db.updateDocument(document(id(d), d));
+          }
+        });
+
+        long patch = perSecond(OPERATIONS, () -> {
+          for (int i = 0; i < OPERATIONS; i++) {
+            db.patchDocument(Document
+                .newBuilder()
+                .underCollection("bots")
+                .withId(id(random()))
+                .withPayload(new JsonObject().put("generated", true))
+                .build());
+          }
+        });
+
+        long startNanos = System.nanoTime();
+        String cursor = null;
+        do {
+          cursor = db.getPage("bots", cursor, PAGE_LIMIT).cursor();
+        } while (cursor != null);
+        long scan = (System.nanoTime() - startNanos) / 1_000_000;
+
+        System.out.printf("%-7s  %9d  %12d  %9d  %12d  %11d  %7d%n", engine, put, create, get, update, patch, scan);
+
+      } finally {
+        db.close();
+      }
+    }
+  }
+
+  private long perSecond(int pOperations, Op pOp)
+      throws Exception {
+    long startNanos = System.nanoTime();
+    pOp.run();
+    return pOperations * 1_000_000_000L / Math.max(1, System.nanoTime() - startNanos);
+  }
+
+  private int random() {
+    return ThreadLocalRandom.current().nextInt(DOCUMENTS);
+  }
+
+  private String id(int pIndex) {
+    return String.format("doc-%06d", pIndex);
+  }
+
+  private Document document(String pId, int pIndex) {
+    return Document
+        .newBuilder()
+        .underCollection("bots")
+        .withId(pId)
+        .withPayload(new JsonObject()
+            .put("name", "Bot " + pIndex)
+            .put("generated", pIndex % 7 == 0)
+            .put("language", "en")
+            .put("tags", new JsonArray().add("help").add("topic-" + pIndex % 100)))
+        .build();
+  }
+
+  private interface Op {
+    void run()
+        throws Exception;
+  }
+}
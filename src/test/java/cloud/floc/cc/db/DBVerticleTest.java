@@ -0,0 +1,213 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Shares the DB of a {@link DBVerticle} between several verticle instances through {@link EventBusDB}s, checking
+ * that there's only ever one owner, that failures come back as they were raised and that requests time out.
+ */
+public class DBVerticleTest {
+
+  private static final String COLLECTION_ID = "bots";
+  private static final long TIMEOUT_MILLIS = 10_000;
+  private static final long REQUEST_TIMEOUT_MILLIS = 200;
+  private static final int INSTANCES = 4;
+
+  @TempDir
+  Path mStateFolder;
+
+  private Vertx mVertx;
+  private JsonObject mConfig;
+
+  @BeforeEach
+  void open() {
+    mVertx = Vertx.vertx();
+    mConfig = new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.toString())
+        .put(Constants.DB_ENGINE_KEY, "memory")
+        .put(Constants.DB_REQUEST_TIMEOUT_KEY, REQUEST_TIMEOUT_MILLIS);
+  }
+
+  @AfterEach
+  void close()
+      throws Exception {
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    mVertx.close(ar -> closed.complete(null));
+    closed.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  void instancesDeployingTheDBShareASingleOwner()
+      throws Exception {
+    List<AsyncDB> dbs = deployClients();
+    assertEquals(INSTANCES, dbs.size());
+    assertEquals(2, mVertx.deploymentIDs().size(), "The clients and a single DB verticle: " + mVertx.deploymentIDs());
+
+    await(dbs.get(0).createCollection(Collection.newBuilder().withId(COLLECTION_ID).build()));
+    for (int d = 0; d < dbs.size(); d++) {
+      await(dbs.get(d).createDocument(document("d" + d)));
+    }
+
+    // Every instance sees what the others wrote.
+    for (AsyncDB db : dbs) {
+      assertEquals(INSTANCES, await(db.getCollection(COLLECTION_ID)).documents().size());
+    }
+
+    // Later calls, e.g. from verticles deployed afterwards, find the DB already there.
+    await(DBVerticle.deployOnce(mVertx, mConfig));
+    assertEquals(2, mVertx.deploymentIDs().size());
+  }
+
+  @Test
+  void failuresReachTheCallerAsRaised()
+      throws Exception {
+    AsyncDB db = deployClients().get(0);
+    await(db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build()));
+    await(db.createDocument(document("a")));
+
+    var exists = assertThrows(ExecutionException.class, () -> await(db.createDocument(document("a"))));
+    assertTrue(exists.getCause() instanceof DocumentExistsException, exists.getCause().toString());
+    var notFound = assertThrows(ExecutionException.class, () -> await(db.getDocument(COLLECTION_ID, "missing")));
+    assertTrue(notFound.getCause() instanceof DocumentNotFoundException, notFound.getCause().toString());
+
+    // Failed futures and operations that throw alike, the very exception is handed back.
+    var failure = new DocumentException("Disk full");
+    var failed = assertThrows(ExecutionException.class, () -> await(request(asyncDB -> Future.failedFuture(failure))));
+    assertSame(failure, failed.getCause());
+
+    var thrown = new IllegalStateException("Closed");
+    var threw = assertThrows(ExecutionException.class, () -> await(request(asyncDB -> {
+      throw thrown;
+    })));
+    assertSame(thrown, threw.getCause());
+  }
+
+  @Test
+  void requestsTimeOutWhenTheDBDoesNotAnswer()
+      throws Exception {
+    AsyncDB db = deployClients().get(0);
+
+    // Takes every other request, round robin with the DB verticle, and never answers it.
+    List<Message<Object>> swallowed = new CopyOnWriteArrayList<>();
+    CompletableFuture<Void> registered = new CompletableFuture<>();
+    mVertx.eventBus().consumer(DBVerticle.DB_ADDRESS, swallowed::add)
+        .completionHandler(ar -> registered.complete(null));
+    registered.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+    long start = System.nanoTime();
+    List<Future<Boolean>> requests = List.of(db.hasCollection(COLLECTION_ID), db.hasCollection(COLLECTION_ID));
+    int timedOut = 0;
+    for (Future<Boolean> request : requests) {
+      try {
+        assertEquals(false, await(request));
+
+      } catch (ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof ReplyException, ex.getCause().toString());
+        assertEquals(ReplyFailure.TIMEOUT, ((ReplyException) ex.getCause()).failureType());
+        timedOut++;
+      }
+    }
+
+    assertEquals(1, timedOut);
+    assertEquals(1, swallowed.size());
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= REQUEST_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * Deploys {@link #INSTANCES} instances of a verticle that deploys the DB and connects to it, like the server does.
+   *
+   * @return the DB each instance connected to.
+   */
+  private List<AsyncDB> deployClients()
+      throws Exception {
+    List<AsyncDB> dbs = new CopyOnWriteArrayList<>();
+    CompletableFuture<String> deployed = new CompletableFuture<>();
+    mVertx.deployVerticle(() -> new AbstractVerticle() {
+
+      @Override
+      public void start(Promise<Void> pStartPromise) {
+        DBVerticle.deployOnce(vertx, config())
+            .compose(v -> AsyncDB.connect(vertx, config()))
+            .onSuccess(dbs::add)
+            .<Void>mapEmpty()
+            .onComplete(pStartPromise);
+      }
+    }, new DeploymentOptions().setConfig(mConfig).setInstances(INSTANCES), ar -> {
+      if (ar.succeeded()) {
+        deployed.complete(ar.result());
+      } else {
+        deployed.completeExceptionally(ar.cause());
+      }
+    });
+
+    deployed.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    return new ArrayList<>(dbs);
+  }
+
+  /**
+   * Sends the given operation to the DB verticle the way {@link EventBusDB} does.
+   */
+  private <T> Future<T> request(Function<AsyncDB, Future<T>> pOperation) {
+    Promise<Message<DBVerticle.Reply>> promise = Promise.promise();
+    mVertx.eventBus().request(DBVerticle.DB_ADDRESS, new DBVerticle.Request(pOperation::apply),
+        new DeliveryOptions().setSendTimeout(TIMEOUT_MILLIS), promise);
+
+    return promise.future().compose(message -> message.body().future());
+  }
+
+  private static <T> T await(Future<T> pFuture)
+      throws Exception {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    pFuture.onComplete(ar -> {
+      if (ar.succeeded()) {
+        result.complete(ar.result());
+      } else {
+        result.completeExceptionally(ar.cause());
+      }
+    });
+
+    return result.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private static Document document(String pId) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(new JsonObject().put("name", pId))
+        .build();
+  }
+}
@@ -0,0 +1,93 @@
+package cloud.floc.cc.db;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares the {@link DocumentCodec}s on a menu-like document: encoded size, time and allocation to fully decode it,
+ * and time and allocation to unwrap it lazily when only its version is read. The first row is the previous read path,
+ * which parsed JSON text into a {@link JsonObject}.
+ * <p>
+ * Not part of the regular test run; execute with {@code mvn test -Dtest=DocumentCodecBenchmark}.
+ */
+public class DocumentCodecBenchmark {
+
+  private static final int WARMUP_OPS = 20_000;
+  private static final int OPS = 50_000;
+
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private static volatile Object sSink;
+
+  @Test
+  void codecs()
+      throws Exception {
+    JsonObject stored = DocumentMeta.wrap(menu(), 7);
+    byte[] json = DocumentCodec.JSON.encode(stored);
+
+    System.out.println("codec        bytes  decode ns/op  decode B/op  lazy ns/op  lazy B/op");
+    print("vertx-json", json.length,
+        measure(() -> sSink = new JsonObject(Buffer.buffer(json))),
+        null);
+
+    for (DocumentCodec codec : DocumentCodec.values()) {
+      byte[] encoded = codec.encode(stored);
+
+      print(codec.name().toLowerCase(), encoded.length,
+          measure(() -> sSink = codec.decode(encoded)),
+          measure(() -> sSink = DocumentMeta.unwrap("menus", "bot", encoded).version()));
+    }
+  }
+
+  private long[] measure(Op pOp)
+      throws Exception {
+    for (int i = 0; i < WARMUP_OPS; i++) {
+      pOp.run();
+    }
+
+    long thread = Thread.currentThread().getId();
+    long startBytes = THREADS.getThreadAllocatedBytes(thread);
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < OPS; i++) {
+      pOp.run();
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+    long allocatedBytes = THREADS.getThreadAllocatedBytes(thread) - startBytes;
+
+    return new long[]{elapsedNanos / OPS, allocatedBytes / OPS};
+  }
+
+  private void print(String pCodec, int pBytes, long[] pDecode, long[] pLazy) {
+    System.out.printf("%-10s %7d %13d %12d %11s %10s%n", pCodec, pBytes, pDecode[0], pDecode[1],
+        pLazy != null ? pLazy[0] : "-", pLazy != null ? pLazy[1] : "-");
+  }
+
+  private JsonObject menu() {
+    var items = new JsonArray();
+    for (int i = 0; i < 40; i++) {
+      items.add(new JsonObject()
+          .put("id", "item-" + i)
+          .put("title", "Where can I find help with topic number " + i + "?")
+          .put("answer", "Call the hotline or visit the nearest help center listed for topic " + i + ".")
+          .put("order", i)
+          .put("enabled", i % 3 != 0)
+          .put("tags", new JsonArray().add("help").add("topic-" + i)));
+    }
+
+    return new JsonObject()
+        .put("name", "Crisis center menu")
+        .put("language", "en")
+        .put("updated", 1_600_000_000_000L)
+        .put("items", items);
+  }
+
+  private interface Op {
+    void run()
+        throws Exception;
+  }
+}
@@ -0,0 +1,169 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DocumentCodecTest {
+
+  private static final JsonObject PAYLOAD = new JsonObject()
+      .put("name", "menu")
+      .put("count", 3)
+      .put("big", Long.MAX_VALUE)
+      .put("price", 4.25)
+      .put("open", false)
+      .putNull("note")
+      .put("items", new JsonArray().add("soup").add(new JsonObject().put("id", 7)).add(new JsonArray()))
+      .put("unicode", "café ☕");
+
+  @TempDir
+  Path mStateFolder;
+
+  @Test
+  void detectsEachCodecFromItsHeader()
+      throws IOException {
+    for (DocumentCodec codec : DocumentCodec.values()) {
+      byte[] encoded = codec.encode(DocumentMeta.wrap(PAYLOAD, 1));
+      assertEquals(codec, DocumentCodec.detect(encoded));
+      assertEquals(codec, DocumentCodec.detect(Arrays.copyOf(encoded, DocumentCodec.HEADER_LENGTH)));
+    }
+
+    // Too short to carry a binary header, or text that merely starts like one.
+    assertEquals(DocumentCodec.JSON, DocumentCodec.detect(new byte[0]));
+    assertEquals(DocumentCodec.JSON, DocumentCodec.detect(":)".getBytes(StandardCharsets.UTF_8)));
+    assertEquals(DocumentCodec.JSON, DocumentCodec.detect(" \n{}".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  void everyCodecKeepsValuesAndFieldOrder()
+      throws IOException {
+    for (DocumentCodec codec : DocumentCodec.values()) {
+      byte[] encoded = codec.encode(DocumentMeta.wrap(PAYLOAD, 5, 1234));
+      Map<String, Object> decoded = codec.decode(encoded);
+
+      assertEquals(List.of("_meta", "name", "count", "big", "price", "open", "note", "items", "unicode"),
+          new ArrayList<>(decoded.keySet()), codec.name());
+      assertEquals(5, DocumentMeta.readVersion(encoded), codec.name());
+
+      Document doc = DocumentMeta.unwrap("menus", "m", encoded);
+      assertEquals(5, doc.version());
+      assertEquals(1234, doc.expiresAt());
+      assertEquals(PAYLOAD, doc.payload(), codec.name());
+    }
+  }
+
+  @Test
+  void codecNamesAreCaseInsensitiveAndPerCollection() {
+    var codecs = DocumentCodec.fromConfig(new JsonObject()
+        .put(Constants.DB_CODEC_KEY, "Smile")
+        .put(Constants.DB_COLLECTION_CODECS_KEY, new JsonObject().put("menus", "CBOR")));
+
+    assertEquals(DocumentCodec.SMILE, codecs.apply("bots"));
+    assertEquals(DocumentCodec.CBOR, codecs.apply("menus"));
+  }
+
+  @Test
+  void switchingCodecsKeepsOlderDocumentsReadable()
+      throws Exception {
+    JsonDB db = new JsonDB(config("json", "flat"));
+    db.createCollection(Collection.newBuilder().withId("menus").build());
+    db.createDocument(menu("old"));
+    db.close();
+
+    db = new JsonDB(config("smile", "flat"));
+    db.createDocument(menu("new"));
+    db.updateDocument(menu("old"));
+
+    assertEquals(DocumentCodec.SMILE, codecOf("menus", "new"));
+    // Rewriting a document moves it to the current codec.
+    assertEquals(DocumentCodec.SMILE, codecOf("menus", "old"));
+    assertEquals(2, db.getDocument("menus", "old").version());
+    assertEquals(PAYLOAD, db.getDocument("menus", "new").payload());
+    db.close();
+  }
+
+  @Test
+  void migrationReencodesShardedCollections()
+      throws Exception {
+    JsonDB db = new JsonDB(config("json", "sharded"));
+    db.createCollection(Collection.newBuilder().withId("menus").build());
+    db.createCollection(Collection.newBuilder().withId("bots").build());
+    for (int m = 0; m < 20; m++) {
+      db.createDocument(menu("m" + m));
+    }
+    db.createDocument(Document.newBuilder().underCollection("bots").withId("b").withPayload(PAYLOAD).build());
+    db.close();
+
+    DocumentCodecMigration.main(new String[]{mStateFolder.toString(), "fcc", "cbor", "menus"});
+
+    assertEquals(20, documentFiles("menus").size());
+    for (Path file : documentFiles("menus")) {
+      assertEquals(DocumentCodec.CBOR, DocumentCodec.detect(Files.readAllBytes(file)), file.toString());
+    }
+    assertEquals(DocumentCodec.JSON, codecOf("bots", "b"), "Collections not listed are left alone");
+
+    // Nothing left to do on a second run.
+    Map<Path, Long> modified = documentFiles("menus").stream()
+        .collect(Collectors.toMap(file -> file, file -> file.toFile().lastModified()));
+    DocumentCodecMigration.main(new String[]{mStateFolder.toString(), "fcc", "cbor"});
+    modified.forEach((file, time) -> assertEquals((long) time, file.toFile().lastModified()));
+    assertEquals(DocumentCodec.CBOR, codecOf("bots", "b"));
+
+    db = new JsonDB(config("cbor", "sharded"));
+    assertEquals(20, db.getCollection("menus").documents().size());
+    assertEquals(PAYLOAD, db.getDocument("menus", "m7").payload());
+    assertEquals(1, db.getDocument("menus", "m7").version());
+    db.close();
+  }
+
+  private JsonObject config(String pCodec, String pLayout) {
+    return new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.toString())
+        .put(Constants.DB_DURABILITY_KEY, "none")
+        .put(Constants.DB_CODEC_KEY, pCodec)
+        .put(Constants.DB_LAYOUT_KEY, pLayout);
+  }
+
+  private DocumentCodec codecOf(String pCollectionId, String pDocId)
+      throws IOException {
+    List<Path> files = documentFiles(pCollectionId).stream()
+        .filter(file -> file.getFileName().toString().equals(pDocId))
+        .collect(Collectors.toList());
+    assertEquals(1, files.size(), pDocId);
+
+    return DocumentCodec.detect(Files.readAllBytes(files.get(0)));
+  }
+
+  private List<Path> documentFiles(String pCollectionId)
+      throws IOException {
+    File folder = mStateFolder.resolve("fcc").resolve(pCollectionId).toFile();
+    assertTrue(folder.isDirectory(), folder.toString());
+
+    try (Stream<Path> paths = Files.walk(folder.toPath())) {
+      return paths.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+  }
+
+  private static Document menu(String pId) {
+    return Document.newBuilder().underCollection("menus").withId(pId).withPayload(PAYLOAD.copy()).build();
+  }
+}
@@ -0,0 +1,258 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.Page;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that an {@link ExpiringDB} hides documents as soon as they expire, that its sweeper deletes them from the
+ * wrapped DB, and that deadlines survive a restart.
+ */
+public class ExpiringDBTest {
+
+  private static final String COLLECTION_ID = "sessions";
+  private static final long HOUR = 3_600_000;
+
+  @TempDir
+  Path mStateFolder;
+
+  private DB mEngine;
+  private ExpiringDB mDB;
+  private long mNow;
+
+  @BeforeEach
+  void open()
+      throws Exception {
+    mEngine = new JsonDB(config());
+    mEngine.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    mEngine.createCollection(Collection.newBuilder().withId("bots").build());
+    mDB = new ExpiringDB(mEngine, ttlConfig(COLLECTION_ID, 3600));
+    mNow = System.currentTimeMillis();
+  }
+
+  @AfterEach
+  void close() {
+    if (mDB != null) mDB.close();
+  }
+
+  @Test
+  void expiredDocumentsAreHiddenFromEveryRead()
+      throws Exception {
+    mDB.putDocuments(COLLECTION_ID, List.of(
+        document("expired", mNow - 1),
+        document("later", mNow + HOUR)));
+
+    assertFalse(mDB.hasDocument(COLLECTION_ID, "expired"));
+    assertThrows(DocumentNotFoundException.class, () -> mDB.getDocument(COLLECTION_ID, "expired"));
+    assertEquals(List.of("later"), ids(mDB.getCollection(COLLECTION_ID)));
+    assertEquals(List.of("later"), ids(mDB.getDocuments(COLLECTION_ID, List.of("expired", "later"))));
+    assertEquals(List.of("later"), ids(mDB.findDocuments(COLLECTION_ID, new JsonObject())));
+
+    // Only hidden until swept.
+    assertTrue(mEngine.hasDocument(COLLECTION_ID, "expired"));
+    mDB.sweep();
+    assertFalse(mEngine.hasDocument(COLLECTION_ID, "expired"));
+    assertTrue(mEngine.hasDocument(COLLECTION_ID, "later"));
+  }
+
+  @Test
+  void pagesAndRangesComeBackShortInsteadOfShifting()
+      throws Exception {
+    List<Document> docs = new ArrayList<>();
+    for (int d = 0; d < 10; d++) {
+      boolean expired = d == 1 || d == 2 || d == 5 || d == 9;
+      docs.add(document("d" + d, expired ? mNow - 1 : mNow + HOUR));
+    }
+    mDB.putDocuments(COLLECTION_ID, docs);
+
+    List<List<String>> pages = new ArrayList<>();
+    String cursor = null;
+    do {
+      Page page = mDB.getPage(COLLECTION_ID, cursor, 3);
+      pages.add(page.documents().stream().map(Document::id).collect(Collectors.toList()));
+      cursor = page.cursor();
+    } while (cursor != null);
+
+    // Each page covers the same ids it would without expiry, so cursors stay stable as documents expire.
+    assertEquals(List.of(List.of("d0"), List.of("d3", "d4"), List.of("d6", "d7", "d8"), List.of()), pages);
+
+    assertEquals(List.of("d0", "d3"), ids(mDB.getRange(COLLECTION_ID, "d0", "d9", 4, false)));
+    assertEquals(List.of("d8", "d7", "d6"), ids(mDB.getRange(COLLECTION_ID, "d5", "d9", 4, true)));
+    assertEquals(List.of(), ids(mDB.getRange(COLLECTION_ID, "d1", "d2", 10, false)));
+  }
+
+  @Test
+  void onlyDeclaredCollectionsGetDefaultDeadlines()
+      throws Exception {
+    Document session = mDB.createDocument(document("default", 0));
+    assertTrue(session.expiresAt() >= mNow + HOUR && session.expiresAt() <= System.currentTimeMillis() + HOUR);
+    assertEquals(session.expiresAt(), mDB.getDocument(COLLECTION_ID, "default").expiresAt());
+
+    // Other collections keep deadlines, but never act on them.
+    mDB.createDocument(document("bots", "plain", 0));
+    mDB.createDocument(document("bots", "past", mNow - 1));
+    assertEquals(0, mDB.getDocument("bots", "plain").expiresAt());
+    assertTrue(mDB.hasDocument("bots", "past"));
+    mDB.sweep();
+    assertTrue(mEngine.hasDocument("bots", "past"));
+    assertEquals(1, mDB.metrics().getJsonObject("expiry").getInteger("tracked"));
+  }
+
+  @Test
+  void collectionsWithoutATimeToLiveOnlyExpireDocumentsGivenADeadline()
+      throws Exception {
+    mDB.close();
+    mDB = new ExpiringDB(mEngine = new JsonDB(config()), ttlConfig(COLLECTION_ID, 0));
+
+    assertEquals(0, mDB.createDocument(document("forever", 0)).expiresAt());
+    mDB.createDocument(document("gone", mNow - 1));
+
+    assertTrue(mDB.hasDocument(COLLECTION_ID, "forever"));
+    assertFalse(mDB.hasDocument(COLLECTION_ID, "gone"));
+  }
+
+  @Test
+  void writesTreatExpiredDocumentsAsMissing()
+      throws Exception {
+    mDB.putDocuments(COLLECTION_ID, List.of(
+        document("a", mNow - 1), document("b", mNow - 1), document("c", mNow - 1), document("d", mNow - 1)));
+
+    assertThrows(DocumentNotFoundException.class, () -> mDB.updateDocument(document("a", 0)));
+    assertThrows(DocumentNotFoundException.class, () -> mDB.patchDocument(document("a", 0)));
+    assertThrows(DocumentNotFoundException.class, () -> mDB.deleteDocument(COLLECTION_ID, "b"));
+    assertFalse(mEngine.hasDocument(COLLECTION_ID, "b"), "A delete that finds an expired document reclaims it");
+
+    // Creating over an expired document starts a new one instead of failing or carrying on its version.
+    assertEquals(1, mDB.createDocument(document("a", 0)).version());
+    assertEquals(1, mDB.putDocuments(COLLECTION_ID, List.of(document("c", 0))).documents().get(0).version());
+
+    mDB.deleteDocuments(COLLECTION_ID, List.of("d"));
+    assertEquals(2, mDB.metrics().getJsonObject("expiry").getInteger("tracked"));
+  }
+
+  @Test
+  void sweepsAreBatchedInDeadlineOrder()
+      throws Exception {
+    mDB.close();
+    mDB = new ExpiringDB(mEngine = new JsonDB(config()), ttlConfig(COLLECTION_ID, 3600).put("sweepBatch", 2));
+
+    mDB.putDocuments(COLLECTION_ID, List.of(
+        document("oldest", mNow - 3000),
+        document("older", mNow - 2000),
+        document("old", mNow - 1000),
+        document("live", mNow + HOUR)));
+
+    mDB.sweep();
+    assertFalse(mEngine.hasDocument(COLLECTION_ID, "oldest"));
+    assertFalse(mEngine.hasDocument(COLLECTION_ID, "older"));
+    assertTrue(mEngine.hasDocument(COLLECTION_ID, "old"));
+
+    JsonObject expiry = mDB.metrics().getJsonObject("expiry");
+    assertEquals(2, expiry.getInteger("swept"));
+    assertEquals(mNow - 1000, expiry.getLong("nextDeadline"));
+
+    mDB.sweep();
+    mDB.sweep();
+    expiry = mDB.metrics().getJsonObject("expiry");
+    assertEquals(3, expiry.getInteger("swept"));
+    assertEquals(1, expiry.getInteger("tracked"));
+    assertEquals(mNow + HOUR, expiry.getLong("nextDeadline"));
+  }
+
+  @Test
+  void startupRebuildsDeadlinesFromTheWrappedDB()
+      throws Exception {
+    mDB.putDocuments(COLLECTION_ID, List.of(document("later", mNow + HOUR), document("soon", mNow + 200)));
+    mDB.createDocument(document("bots", "b", mNow - 1));
+    mDB.close();
+
+    // Written behind the decorator's back, and already expired by the next startup.
+    mEngine = new JsonDB(config());
+    mEngine.createDocument(document("direct", mNow - 1));
+    mEngine.close();
+    Thread.sleep(250);
+
+    mDB = new ExpiringDB(mEngine = new JsonDB(config()), ttlConfig(COLLECTION_ID, 3600));
+    assertEquals(3, mDB.metrics().getJsonObject("expiry").getInteger("tracked"));
+    assertEquals(mNow + HOUR, mDB.getDocument(COLLECTION_ID, "later").expiresAt());
+    assertFalse(mDB.hasDocument(COLLECTION_ID, "soon"));
+    assertFalse(mDB.hasDocument(COLLECTION_ID, "direct"));
+
+    mDB.sweep();
+    assertEquals(List.of("later"), ids(mEngine.getCollection(COLLECTION_ID)));
+    mDB.close();
+
+    // A collection declared from now on has its stored deadlines honored too.
+    mDB = new ExpiringDB(mEngine = new JsonDB(config()), ttlConfig(COLLECTION_ID, 3600).put("collections",
+        new JsonObject().put(COLLECTION_ID, 3600).put("bots", 0)));
+    assertFalse(mDB.hasDocument("bots", "b"));
+    assertEquals(2, mDB.metrics().getJsonObject("expiry").getInteger("tracked"));
+  }
+
+  @Test
+  void deletedCollectionsTakeTheirDeadlinesAlong()
+      throws Exception {
+    mDB.putDocuments(COLLECTION_ID, List.of(document("a", mNow - 1), document("b", mNow + HOUR)));
+    mDB.deleteCollection(COLLECTION_ID);
+
+    JsonObject expiry = mDB.metrics().getJsonObject("expiry");
+    assertEquals(0, expiry.getInteger("tracked"));
+    assertNull(expiry.getValue("nextDeadline"));
+
+    // A collection recreated under the same name starts afresh.
+    mDB.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    mDB.createDocument(document("a", 0));
+    mDB.sweep();
+    assertTrue(mDB.hasDocument(COLLECTION_ID, "a"));
+    assertEquals(0, mDB.metrics().getJsonObject("expiry").getInteger("swept"));
+  }
+
+  private static Document document(String pId, long pExpiresAt) {
+    return document(COLLECTION_ID, pId, pExpiresAt);
+  }
+
+  private static Document document(String pCollectionId, String pId, long pExpiresAt) {
+    return Document
+        .newBuilder()
+        .underCollection(pCollectionId)
+        .withId(pId)
+        .withPayload(new JsonObject().put("user", pId))
+        .expiringAt(pExpiresAt)
+        .build();
+  }
+
+  private static List<String> ids(Collection pCollection) {
+    return pCollection.documents().stream().map(Document::id).collect(Collectors.toList());
+  }
+
+  private static JsonObject ttlConfig(String pCollectionId, long pTimeToLive) {
+    return new JsonObject()
+        .put("collections", new JsonObject().put(pCollectionId, pTimeToLive))
+        .put("sweepIntervalMs", 60_000);
+  }
+
+  private JsonObject config() {
+    return new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.toString())
+        .put(Constants.DB_NAME_KEY, "expiry")
+        .put(Constants.DB_DURABILITY_KEY, "none");
+  }
+}
@@ -0,0 +1,214 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Index maintenance of {@link IndexedDB}. Lookups re-check every payload they read, so a stale index would only show
+ * as missing matches or extra reads; the engine underneath counts its reads to catch the latter.
+ */
+public class IndexedDBTest {
+
+  private static final String COLLECTION_ID = "bots";
+  private static final JsonObject INDEXES = new JsonObject().put(COLLECTION_ID, List.of("generated", "owner"));
+
+  @TempDir
+  Path mStateFolder;
+
+  private CountingDB mEngine;
+  private IndexedDB mDB;
+
+  @BeforeEach
+  void open()
+      throws Exception {
+    mEngine = new CountingDB(new MemoryDB(new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.toString())));
+    mDB = new IndexedDB(mEngine, INDEXES);
+    mDB.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+  }
+
+  @Test
+  void updateMovesDocumentBetweenValues()
+      throws Exception {
+    mDB.createDocument(bot("a", true, "ann"));
+    mDB.updateDocument(bot("a", false, "ann"));
+
+    assertFound(List.of(), "generated", true);
+    assertFound(List.of("a"), "generated", false);
+    assertEquals(1, values("generated"));
+  }
+
+  @Test
+  void patchIndexesTheMergedPayload()
+      throws Exception {
+    mDB.createDocument(bot("a", true, "ann"));
+
+    // Touching another field leaves the indexed values where they were.
+    mDB.patchDocument(patch("a", new JsonObject().put("note", "hi")));
+    assertFound(List.of("a"), "owner", "ann");
+
+    mDB.patchDocument(patch("a", new JsonObject().put("owner", "bob")));
+    assertFound(List.of(), "owner", "ann");
+    assertFound(List.of("a"), "owner", "bob");
+    assertFound(List.of("a"), "generated", true);
+
+    // A null in a merge patch removes the field, so the document now matches neither value.
+    mDB.patchDocument(patch("a", new JsonObject().putNull("owner")));
+    assertFound(List.of(), "owner", "bob");
+    assertEquals(1, values("owner"));
+  }
+
+  @Test
+  void deletesDropPostings()
+      throws Exception {
+    mDB.createDocument(bot("a", true, "ann"));
+    mDB.createDocument(bot("b", true, "bob"));
+    mDB.createDocument(bot("c", true, "cy"));
+
+    mDB.deleteDocument(COLLECTION_ID, "a");
+    mDB.deleteDocuments(COLLECTION_ID, List.of("b", "missing"));
+
+    assertFound(List.of("c"), "generated", true);
+    assertEquals(1, mDB.metrics().getJsonObject("indexes").getJsonObject(COLLECTION_ID).getInteger("documents"));
+    assertEquals(1, values("owner"));
+  }
+
+  @Test
+  void bulkPutReplacesPreviousValues()
+      throws Exception {
+    mDB.createDocument(bot("a", true, "ann"));
+    mDB.putDocuments(COLLECTION_ID, List.of(bot("a", false, "ann"), bot("b", true, "ann")));
+
+    assertFound(List.of("b"), "generated", true);
+    assertFound(List.of("a", "b"), "owner", "ann");
+  }
+
+  @Test
+  void failedWritesLeaveIndexAlone()
+      throws Exception {
+    mDB.createDocument(bot("a", true, "ann"));
+
+    assertThrows(DocumentNotFoundException.class, () -> mDB.updateDocument(bot("ghost", false, "ann")));
+    assertThrows(DocumentExistsException.class, () -> mDB.createDocument(bot("a", false, "bob")));
+
+    assertFound(List.of("a"), "generated", true);
+    assertFound(List.of(), "owner", "bob");
+  }
+
+  @Test
+  void lookupsIntersectFieldsAndScanWithoutThem()
+      throws Exception {
+    mDB.createDocument(bot("a", true, "ann"));
+    mDB.createDocument(bot("b", true, "bob"));
+    mDB.createDocument(bot("c", false, "ann"));
+
+    assertFound(List.of("a"), new JsonObject().put("generated", true).put("owner", "ann"));
+
+    // Only indexed fields narrow the reads; the rest of the filter is checked on the payloads read.
+    assertFound(List.of(), new JsonObject().put("generated", true).put("name", "c"));
+    assertEquals(0, mEngine.mFinds);
+
+    assertEquals(List.of("c"), ids(mDB.findDocuments(COLLECTION_ID, new JsonObject().put("name", "c"))));
+    assertEquals(1, mEngine.mFinds);
+  }
+
+  @Test
+  void indexesFollowTheCollectionLifecycle()
+      throws Exception {
+    mDB.createDocument(bot("a", true, "ann"));
+
+    // A new decorator over the same engine rebuilds the index from the stored documents.
+    mDB = new IndexedDB(mEngine, INDEXES);
+    assertFound(List.of("a"), "owner", "ann");
+
+    mDB.deleteCollection(COLLECTION_ID);
+    mDB.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    assertFound(List.of(), "owner", "ann");
+    assertEquals(0, values("owner"));
+  }
+
+  private void assertFound(List<String> pIds, String pField, Object pValue)
+      throws Exception {
+    assertFound(pIds, new JsonObject().put(pField, pValue));
+  }
+
+  /**
+   * Checks what the filter finds, and that only the documents the index listed for it were read.
+   */
+  private void assertFound(List<String> pIds, JsonObject pFilter)
+      throws Exception {
+    int reads = mEngine.mReads;
+    assertEquals(pIds, ids(mDB.findDocuments(COLLECTION_ID, pFilter)), pFilter.encode());
+
+    if (pFilter.size() == 1) {
+      assertEquals(pIds.size(), mEngine.mReads - reads, "Stale postings read for " + pFilter.encode());
+    }
+  }
+
+  private int values(String pField) {
+    return mDB.metrics()
+        .getJsonObject("indexes").getJsonObject(COLLECTION_ID).getJsonObject(pField).getInteger("values");
+  }
+
+  private static List<String> ids(Collection pCol) {
+    return pCol.documents().stream().map(Document::id).collect(Collectors.toList());
+  }
+
+  private static Document bot(String pId, boolean pGenerated, String pOwner) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(new JsonObject().put("name", pId).put("generated", pGenerated).put("owner", pOwner))
+        .build();
+  }
+
+  private static Document patch(String pId, JsonObject pPatch) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(pPatch)
+        .build();
+  }
+
+  private static class CountingDB
+      extends ForwardingDB {
+
+    int mReads;
+    int mFinds;
+
+    CountingDB(DB pDelegate) {
+      super(pDelegate);
+    }
+
+    @Override
+    public Document getDocument(String pCollectionId, String pDocId)
+        throws DocumentNotFoundException, DocumentException {
+      mReads++;
+      return super.getDocument(pCollectionId, pDocId);
+    }
+
+    @Override
+    public Collection findDocuments(String pCollectionId, JsonObject pFilter)
+        throws DocumentNotFoundException, DocumentException {
+      mFinds++;
+      return super.findDocuments(pCollectionId, pFilter);
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * {@link CollectionAggregates} as {@link JsonDB} keeps them: counted on every write, saved on close and trusted on
+ * the next startup only while the collection folder is provably unchanged. Saved aggregates are tampered with to tell
+ * whether a startup trusted or recounted them.
+ */
+public class JsonDBAggregatesTest {
+
+  private static final JsonObject FIELDS = new JsonObject().put("bots", new JsonArray().add("generated"));
+
+  @TempDir
+  Path mStateFolder;
+
+  private JsonDB mDB;
+
+  @AfterEach
+  void close() {
+    if (mDB != null) mDB.close();
+  }
+
+  @Test
+  void countersFollowEveryKindOfWrite()
+      throws Exception {
+    open("flat", FIELDS);
+    mDB.createDocument(bot("a", true));
+    mDB.createDocument(bot("b", true));
+    mDB.putDocuments("bots", List.of(bot("b", false), bot("c", null)));
+    mDB.patchDocument(Document.newBuilder().underCollection("bots").withId("a")
+        .withPayload(new JsonObject().putNull("generated")).build());
+
+    JsonObject aggregates = mDB.aggregates("bots");
+    assertEquals(3, aggregates.getLong("documents"));
+    assertEquals(new JsonObject().put("false", 1L).put("null", 2L), counters(aggregates));
+
+    mDB.deleteDocuments("bots", List.of("a", "c"));
+    aggregates = mDB.aggregates("bots");
+    // Values nobody holds any more are dropped rather than kept at zero.
+    assertEquals(new JsonObject().put("false", 1L), counters(aggregates));
+    assertEquals(Files.size(documentFile(DocumentLayout.FLAT, "b").toPath()), aggregates.getLong("bytes"));
+  }
+
+  @Test
+  void savedAggregatesAreTrustedWhenTheFolderIsUnchanged()
+      throws Exception {
+    open("flat", FIELDS);
+    mDB.createDocument(bot("a", true));
+    mDB.close();
+    settle(DocumentLayout.FLAT);
+    tamper();
+    open("flat", FIELDS);
+
+    assertEquals(999, mDB.aggregates("bots").getLong("documents"));
+  }
+
+  @Test
+  void documentsAddedBehindTheDBsBackAreRecounted()
+      throws Exception {
+    open("sharded", FIELDS);
+    mDB.createDocument(bot("a", true));
+    mDB.close();
+    settle(DocumentLayout.SHARDED);
+    tamper();
+
+    // A document dropped into a shard folder moves that folder's modification time, not the collection folder's.
+    Files.copy(documentFile(DocumentLayout.SHARDED, "a").toPath(), documentFile(DocumentLayout.SHARDED, "z").toPath());
+    open("sharded", FIELDS);
+
+    assertEquals(2, mDB.aggregates("bots").getLong("documents"));
+    assertEquals(new JsonObject().put("true", 2L), counters(mDB.aggregates("bots")));
+  }
+
+  @Test
+  void writesInTheSameTickAsTheSaveAreNotMissed()
+      throws Exception {
+    open("flat", FIELDS);
+    mDB.createDocument(bot("a", true));
+    mDB.close();
+    tamper();
+
+    // Folder and saved aggregates as one clock tick would leave them: equal modification times.
+    long tick = mStateFolder.resolve("fcc").resolve("aggregates.json").toFile().lastModified();
+    mStateFolder.resolve("fcc").resolve("bots").toFile().setLastModified(tick);
+    edit(saved -> saved.getJsonObject("bots").put("modified", tick));
+
+    open("flat", FIELDS);
+    assertEquals(1, mDB.aggregates("bots").getLong("documents"));
+  }
+
+  @Test
+  void crashBeforeCloseLeavesOlderAggregatesThatAreRecounted()
+      throws Exception {
+    open("flat", FIELDS);
+    mDB.createDocument(bot("a", true));
+    mDB.close();
+    tamper();
+    open("flat", FIELDS);
+
+    // Quick enough, this write leaves the folder's modification time as it was.
+    mDB.createDocument(bot("b", false));
+    // No close: the saved aggregates still describe the folder before "b".
+    mDB = new JsonDB(config("flat", FIELDS));
+
+    assertEquals(2, mDB.aggregates("bots").getLong("documents"));
+    assertEquals(new JsonObject().put("true", 1L).put("false", 1L), counters(mDB.aggregates("bots")));
+  }
+
+  @Test
+  void changedFieldsOrUnreadableSaveAreRecounted()
+      throws Exception {
+    open("flat", FIELDS);
+    mDB.createDocument(bot("a", true, "ann"));
+    mDB.close();
+    settle(DocumentLayout.FLAT);
+    tamper();
+    open("flat", new JsonObject().put("bots", new JsonArray().add("owner")));
+
+    JsonObject aggregates = mDB.aggregates("bots");
+    assertEquals(1, aggregates.getLong("documents"));
+    assertNull(aggregates.getJsonObject("counters").getJsonObject("generated"));
+    // String values are keyed by their JSON encoding, so they can't collide with booleans or numbers.
+    assertEquals(new JsonObject().put("\"ann\"", 1L), aggregates.getJsonObject("counters").getJsonObject("owner"));
+
+    mDB.close();
+    Path aggregatesFile = mStateFolder.resolve("fcc").resolve("aggregates.json");
+    settle(DocumentLayout.FLAT);
+    Files.writeString(aggregatesFile, "{not json");
+    open("flat", FIELDS);
+
+    assertEquals(new JsonObject().put("true", 1L), counters(mDB.aggregates("bots")));
+  }
+
+  private void open(String pLayout, JsonObject pFields)
+      throws Exception {
+    mDB = new JsonDB(config(pLayout, pFields));
+    if (!mDB.hasCollection("bots")) {
+      mDB.createCollection(Collection.newBuilder().withId("bots").build());
+    }
+  }
+
+  /**
+   * Makes the saved document count of "bots" wrong, so that only a recount gets it right. The save keeps its
+   * modification time.
+   */
+  private void tamper()
+      throws Exception {
+    edit(saved -> saved.getJsonObject("bots").put("documents", 999));
+  }
+
+  /**
+   * Dates the folders of "bots" back as if the DB had been idle well before it saved its aggregates, which makes them
+   * trustworthy.
+   */
+  private void settle(DocumentLayout pLayout)
+      throws Exception {
+    File folder = mStateFolder.resolve("fcc").resolve("bots").toFile();
+    long past = System.currentTimeMillis() - 10_000;
+    pLayout.folders(folder).forEach(shard -> shard.setLastModified(past));
+
+    edit(saved -> saved.getJsonObject("bots").put("modified", pLayout.lastModified(folder)));
+  }
+
+  private void edit(Consumer<JsonObject> pEdit)
+      throws Exception {
+    Path file = mStateFolder.resolve("fcc").resolve("aggregates.json");
+    long savedAt = file.toFile().lastModified();
+
+    JsonObject saved = new JsonObject(Files.readString(file));
+    pEdit.accept(saved);
+    Files.writeString(file, saved.encode());
+    file.toFile().setLastModified(savedAt);
+  }
+
+  private JsonObject config(String pLayout, JsonObject pFields) {
+    return new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.toString())
+        .put(Constants.DB_DURABILITY_KEY, "none")
+        .put(Constants.DB_LAYOUT_KEY, pLayout)
+        .put(Constants.DB_AGGREGATES_KEY, pFields);
+  }
+
+  private File documentFile(DocumentLayout pLayout, String pId) {
+    return pLayout.documentFile(mStateFolder.resolve("fcc").resolve("bots").toFile(), pId);
+  }
+
+  private static JsonObject counters(JsonObject pAggregates) {
+    return pAggregates.getJsonObject("counters").getJsonObject("generated");
+  }
+
+  private static Document bot(String pId, Boolean pGenerated) {
+    return bot(pId, pGenerated, null);
+  }
+
+  private static Document bot(String pId, Boolean pGenerated, String pOwner) {
+    JsonObject payload = new JsonObject().put("name", pId);
+    if (pGenerated != null) payload.put("generated", pGenerated);
+    if (pOwner != null) payload.put("owner", pOwner);
+    return Document.newBuilder().underCollection("bots").withId(pId).withPayload(payload).build();
+  }
+}
@@ -0,0 +1,224 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the catalog of a {@link JsonDB} answers lookups of missing documents and collections, follows writes
+ * and is listed again from disk on startup.
+ */
+public class JsonDBCatalogTest {
+
+  private static final String COLLECTION_ID = "bots";
+
+  @TempDir
+  Path mStateFolder;
+
+  @Test
+  void lookupsAreAnsweredFromTheCatalog()
+      throws Exception {
+    DB db = new JsonDB(config("flat", "none"));
+    db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    db.putDocuments(COLLECTION_ID, List.of(document("a"), document("b"), document("c")));
+    db.deleteDocument(COLLECTION_ID, "b");
+    long misses = catalog(db).getLong("misses");
+
+    assertFalse(db.hasDocument(COLLECTION_ID, "b"));
+    assertFalse(db.hasDocument("missing", "a"));
+    assertFalse(db.hasCollection("missing"));
+    assertThrows(DocumentNotFoundException.class, () -> db.getDocument(COLLECTION_ID, "missing"));
+
+    JsonObject catalog = catalog(db);
+    assertEquals(1, catalog.getInteger("collections"));
+    assertEquals(2, catalog.getLong("documents"));
+    assertEquals(misses + 4, catalog.getLong("misses"));
+    assertTrue(catalog.getLong("avoidedSyscalls") > catalog.getLong("misses"));
+    db.close();
+  }
+
+  @Test
+  void startupListsWhatIsOnDisk()
+      throws Exception {
+    for (String layout : List.of("flat", "sharded")) {
+      DB db = new JsonDB(config(layout, "none"));
+      db.createCollection(Collection.newBuilder().withId(layout).build());
+      db.putDocuments(layout, List.of(document(layout, "c"), document(layout, "a"), document(layout, "b")));
+      db.close();
+
+      // Left by a write that crashed before its rename.
+      File a = documentFile(layout, "a");
+      Files.write(new File(a.getParentFile(), ".d.0123abcd.tmp").toPath(), new byte[]{'{'});
+
+      DB reopened = new JsonDB(config(layout, "none"));
+      assertFalse(reopened.hasDocument(layout, "d"), layout);
+      assertEquals(List.of("a", "b", "c"), ids(reopened.getCollection(layout)), layout);
+      assertEquals("a", reopened.getPage(layout, null, 1).documents().get(0).id(), layout);
+      reopened.close();
+    }
+  }
+
+  @Test
+  void partlyFailedBatchesKeepWhatTheyWrote()
+      throws Exception {
+    for (String layout : List.of("flat", "sharded")) {
+      for (String durability : List.of("none", "batch", "fsync")) {
+        String collectionId = layout + "-" + durability;
+        DB db = new JsonDB(config(layout, durability));
+        db.createCollection(Collection.newBuilder().withId(collectionId).build());
+        db.createDocument(document(collectionId, "b"));
+
+        // A folder where "x" belongs can't be replaced by a file, while "a" and "b" can.
+        File blocked = documentFile(collectionId, layout, "x");
+        assertTrue(blocked.mkdirs());
+        assertThrows(DocumentException.class, () -> db.putDocuments(collectionId,
+            List.of(document(collectionId, "a"), document(collectionId, "x"), document(collectionId, "b"))));
+
+        String name = layout + ", " + durability;
+        assertTrue(db.hasDocument(collectionId, "a"), name);
+        assertFalse(db.hasDocument(collectionId, "x"), name);
+        assertEquals(2, db.getDocument(collectionId, "b").version(), name);
+        assertEquals(List.of("a", "b"), ids(db.getCollection(collectionId)), name);
+        assertEquals(2, db.aggregates(collectionId).getLong("documents"), name);
+        assertEquals(List.of(), tempFiles(collectionId), name);
+
+        assertThrows(DocumentException.class, () -> db.createDocument(document(collectionId, "x")), name);
+        assertFalse(db.hasDocument(collectionId, "x"), name);
+        db.close();
+
+        assertTrue(blocked.delete());
+        DB reopened = new JsonDB(config(layout, durability));
+        assertEquals(List.of("a", "b"), ids(reopened.getCollection(collectionId)), name);
+        assertEquals(2, reopened.aggregates(collectionId).getLong("documents"), name);
+        reopened.close();
+      }
+    }
+  }
+
+  @Test
+  void rejectedBatchesWriteNothing()
+      throws Exception {
+    DB db = new JsonDB(config("flat", "none"));
+    db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+
+    assertThrows(IllegalArgumentException.class, () -> db.putDocuments(COLLECTION_ID, List.of(document("a"),
+        Document.newBuilder().underCollection(COLLECTION_ID).withId("b")
+            .withPayload(new JsonObject().put("_meta", new JsonObject())).build())));
+    assertThrows(DocumentNotFoundException.class, () -> db.putDocuments("missing", List.of(document("a"))));
+
+    assertFalse(db.hasDocument(COLLECTION_ID, "a"));
+    assertEquals(0, catalog(db).getLong("documents"));
+    try (Stream<Path> files = Files.list(mStateFolder.resolve("catalog").resolve(COLLECTION_ID))) {
+      assertEquals(0, files.count());
+    }
+    db.close();
+  }
+
+  @Test
+  void deletedCollectionsLeaveNothingBehind()
+      throws Exception {
+    DB db = new JsonDB(config("flat", "none"));
+    db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    db.createCollection(Collection.newBuilder().withId("kept").build());
+    db.putDocuments(COLLECTION_ID, List.of(document("a"), document("b")));
+    db.createDocument(document("kept", "a"));
+
+    db.deleteCollection(COLLECTION_ID);
+
+    assertFalse(db.hasCollection(COLLECTION_ID));
+    assertFalse(db.hasDocument(COLLECTION_ID, "a"));
+    assertTrue(db.hasDocument("kept", "a"));
+    assertEquals(1, catalog(db).getInteger("collections"));
+    assertEquals(1, catalog(db).getLong("documents"));
+    assertFalse(Files.exists(mStateFolder.resolve("catalog").resolve(COLLECTION_ID)));
+
+    assertThrows(DocumentNotFoundException.class, () -> db.getDocument(COLLECTION_ID, "a"));
+    assertThrows(DocumentNotFoundException.class, () -> db.getCollection(COLLECTION_ID));
+    assertThrows(DocumentNotFoundException.class, () -> db.putDocuments(COLLECTION_ID, List.of(document("c"))));
+    assertThrows(DocumentNotFoundException.class, () -> db.deleteCollection(COLLECTION_ID));
+    assertThrows(DocumentException.class, () -> db.createDocument(document("c")));
+    assertFalse(Files.exists(mStateFolder.resolve("catalog").resolve(COLLECTION_ID)));
+
+    // Recreated under the same name, the collection starts empty.
+    db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    assertFalse(db.hasDocument(COLLECTION_ID, "a"));
+    assertEquals(0, db.aggregates(COLLECTION_ID).getLong("documents"));
+    db.createDocument(document("c"));
+    assertEquals(List.of("c"), ids(db.getCollection(COLLECTION_ID)));
+    assertEquals(1, db.aggregates(COLLECTION_ID).getLong("documents"));
+    db.close();
+
+    DB reopened = new JsonDB(config("flat", "none"));
+    assertEquals(List.of("c"), ids(reopened.getCollection(COLLECTION_ID)));
+    assertEquals(2, catalog(reopened).getLong("documents"));
+    reopened.close();
+  }
+
+  private static JsonObject catalog(DB pDB) {
+    return pDB.metrics().getJsonObject("catalog");
+  }
+
+  private File documentFile(String pLayout, String pDocId) {
+    return documentFile(pLayout, pLayout, pDocId);
+  }
+
+  private File documentFile(String pCollectionId, String pLayout, String pDocId) {
+    File folder = mStateFolder.resolve("catalog").resolve(pCollectionId).toFile();
+    return DocumentLayout.valueOf(pLayout.toUpperCase()).documentFile(folder, pDocId);
+  }
+
+  private List<String> tempFiles(String pCollectionId)
+      throws Exception {
+    try (Stream<Path> files = Files.walk(mStateFolder.resolve("catalog").resolve(pCollectionId))) {
+      return files
+          .map(file -> file.getFileName().toString())
+          .filter(AtomicFileWriter::isTempFile)
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static List<String> ids(Collection pCollection) {
+    List<String> ids = new ArrayList<>();
+    pCollection.documents().forEach(doc -> ids.add(doc.id()));
+    return ids;
+  }
+
+  private static Document document(String pId) {
+    return document(COLLECTION_ID, pId);
+  }
+
+  private static Document document(String pCollectionId, String pId) {
+    return Document
+        .newBuilder()
+        .underCollection(pCollectionId)
+        .withId(pId)
+        .withPayload(new JsonObject().put("name", pId))
+        .build();
+  }
+
+  private JsonObject config(String pLayout, String pDurability) {
+    return new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.toString())
+        .put(Constants.DB_NAME_KEY, "catalog")
+        .put(Constants.DB_DURABILITY_KEY, pDurability)
+        .put(Constants.DB_LAYOUT_KEY, pLayout);
+  }
+}
@@ -0,0 +1,10 @@
+package cloud.floc.cc.db;
+
+public class JsonDBConformanceTest
+    extends DBConformanceTest {
+
+  @Override
+  protected String engine() {
+    return "json";
+  }
+}
@@ -0,0 +1,94 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures {@link JsonDB} write throughput as the number of concurrent writers grows, once with a single lock stripe
+ * (equivalent to a global lock) and once with the default striping.
+ * <p>
+ * Not part of the regular test run; execute with {@code mvn test -Dtest=JsonDBContentionBenchmark}.
+ */
+public class JsonDBContentionBenchmark {
+
+  private static final int[] WRITERS = {1, 2, 4, 8, 16};
+  private static final int DOCS_PER_WRITER = 50;
+  private static final int OPS_PER_WRITER = 2_000;
+
+  @Test
+  void writersScale(@TempDir Path pStateFolder)
+      throws Exception {
+    System.out.println("stripes  writers  ops/s");
+
+    for (int stripes : new int[]{1, Constants.DEFAULT_DB_DOCUMENT_LOCK_STRIPES_VALUE}) {
+      for (int writers : WRITERS) {
+        JsonObject config = new JsonObject()
+            .put(Constants.STATE_FOLDER_KEY, pStateFolder.toString())
+            .put(Constants.DB_NAME_KEY, "bench-" + stripes + "-" + writers)
+            .put(Constants.DB_COLLECTION_LOCK_STRIPES_KEY, stripes)
+            .put(Constants.DB_DOCUMENT_LOCK_STRIPES_KEY, stripes);
+
+        System.out.printf("%7d  %7d  %,.0f%n", stripes, writers, run(new JsonDB(config), writers));
+      }
+    }
+  }
+
+  private double run(DB pDB, int pWriters)
+      throws Exception {
+    pDB.createCollection(Collection.newBuilder().withId("bots").build());
+
+    for (int w = 0; w < pWriters; w++) {
+      for (int d = 0; d < DOCS_PER_WRITER; d++) {
+        pDB.createDocument(document(w, d, 0));
+      }
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(pWriters);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+
+    for (int w = 0; w < pWriters; w++) {
+      int writer = w;
+      futures.add(executor.submit(() -> {
+        start.await();
+        for (int op = 0; op < OPS_PER_WRITER; op++) {
+          pDB.updateDocument(document(writer, op % DOCS_PER_WRITER, op));
+        }
+        return null;
+      }));
+    }
+
+    long startNanos = System.nanoTime();
+    start.countDown();
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+
+    executor.shutdown();
+    pDB.close();
+
+    return (double) pWriters * OPS_PER_WRITER / (elapsedNanos / 1e9);
+  }
+
+  private Document document(int pWriter, int pDoc, int pRevision) {
+    return Document
+        .newBuilder()
+        .underCollection("bots")
+        .withId(pWriter + "-" + pDoc)
+        .withPayload(new JsonObject().put("writer", pWriter).put("revision", pRevision))
+        .build();
+  }
+}
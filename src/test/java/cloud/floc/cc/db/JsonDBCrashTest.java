@@ -0,0 +1,120 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.Utils;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Kills a JVM that keeps rewriting the documents of a {@link JsonDB} and checks that every document left behind is
+ * complete, for each durability mode. The child JVM is this class's {@link #main(String[])}.
+ */
+public class JsonDBCrashTest {
+
+  private static final String COLLECTION_ID = "bots";
+  private static final int DOCS = 16;
+  private static final int KILLS_PER_MODE = 2;
+
+  @Test
+  void killedWriterLeavesNoTornDocuments(@TempDir Path pStateFolder)
+      throws Exception {
+    for (String durability : new String[]{"none", "batch", "fsync"}) {
+      for (int kill = 0; kill < KILLS_PER_MODE; kill++) {
+        runAndKill(pStateFolder, durability);
+        verify(pStateFolder, durability);
+      }
+    }
+  }
+
+  /**
+   * Rewrites documents of varying size in a loop until killed. Prints a line once the first round is written.
+   */
+  public static void main(String[] pArgs)
+      throws Exception {
+    DB db = new JsonDB(config(pArgs[0], pArgs[1]));
+    if (!db.hasCollection(COLLECTION_ID)) {
+      db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    }
+
+    for (long revision = 0; ; revision++) {
+      for (int d = 0; d < DOCS; d++) {
+        String data = "x".repeat(ThreadLocalRandom.current().nextInt(1, 64 * 1024));
+        Document doc = Document
+            .newBuilder()
+            .underCollection(COLLECTION_ID)
+            .withId("doc-" + d)
+            .withPayload(new JsonObject().put("revision", revision).put("length", data.length()).put("data", data))
+            .build();
+
+        if (db.hasDocument(COLLECTION_ID, doc.id())) {
+          db.updateDocument(doc);
+        } else {
+          db.createDocument(doc);
+        }
+      }
+
+      if (revision == 0) {
+        System.out.println("written");
+        System.out.flush();
+      }
+    }
+  }
+
+  private void runAndKill(Path pStateFolder, String pDurability)
+      throws Exception {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+        JsonDBCrashTest.class.getName(), pStateFolder.toString(), pDurability)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+
+    try (var output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+      assertEquals("written", output.readLine(), "Writer exited before writing");
+    }
+
+    Thread.sleep(ThreadLocalRandom.current().nextInt(50, 300));
+    process.destroyForcibly();
+    assertTrue(process.waitFor(30, TimeUnit.SECONDS), "Writer didn't die");
+  }
+
+  private void verify(Path pStateFolder, String pDurability)
+      throws Exception {
+    DB db = new JsonDB(config(pStateFolder.toString(), pDurability));
+    File folder = new File(new File(pStateFolder.toFile(), "crash"), COLLECTION_ID);
+
+    String[] leftovers = folder.list((dir, name) -> name.startsWith("."));
+    assertNotNull(leftovers);
+    assertEquals(0, leftovers.length, "Temp files should be cleaned up on startup");
+
+    for (int d = 0; d < DOCS; d++) {
+      // Read the file directly: the DB skips documents it can't parse.
+      JsonObject payload = Utils.fileToJson(new File(folder, "doc-" + d));
+      assertEquals(payload.getInteger("length"), payload.getString("data").length(),
+          "Torn document doc-" + d + " with durability " + pDurability);
+    }
+
+    assertEquals(DOCS, db.getCollection(COLLECTION_ID).documents().size());
+    db.close();
+  }
+
+  private static JsonObject config(String pStateFolder, String pDurability) {
+    return new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, pStateFolder)
+        .put(Constants.DB_NAME_KEY, "crash")
+        .put(Constants.DB_DURABILITY_KEY, pDurability);
+  }
+}
@@ -0,0 +1,109 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures document lookups in a {@link JsonDB} collection as it grows, in the flat and the sharded
+ * {@link DocumentLayout}: {@code hasDocument} for present and missing ids, {@code getDocument}, and reading the first
+ * page, which lists the whole collection. Folders stay in the dentry cache between runs, so the numbers understate
+ * what a cold flat folder costs on ext4 or xfs.
+ * <p>
+ * Not part of the regular test run; execute with {@code mvn test -Dtest=JsonDBLayoutBenchmark}.
+ */
+public class JsonDBLayoutBenchmark {
+
+  private static final int[] SIZES = {10_000, 50_000, 150_000};
+  private static final int LOOKUPS = 20_000;
+  private static final int PAGES = 5;
+  private static final int BATCH_SIZE = 1_000;
+
+  @Test
+  void lookupsScale(@TempDir Path pStateFolder)
+      throws Exception {
+    System.out.println("layout   documents  has ns/op  missing ns/op  get ns/op  page ms");
+
+    for (String layout : new String[]{"flat", "sharded"}) {
+      DB db = new JsonDB(new JsonObject()
+          .put(Constants.STATE_FOLDER_KEY, pStateFolder.toString())
+          .put(Constants.DB_NAME_KEY, "layout-" + layout)
+          .put(Constants.DB_DURABILITY_KEY, "none")
+          .put(Constants.DB_LAYOUT_KEY, layout));
+
+      try {
+        db.createCollection(Collection.newBuilder().withId("bots").build());
+        int size = 0;
+
+        for (int target : SIZES) {
+          for (; size < target; size += BATCH_SIZE) {
+            List<Document> batch = new ArrayList<>();
+            for (int d = size; d < size + BATCH_SIZE; d++) {
+              batch.add(document(d));
+            }
+            db.putDocuments("bots", batch);
+          }
+
+          int count = size;
+          long has = perLookup(() -> db.hasDocument("bots", id(random(count))));
+          long missing = perLookup(() -> db.hasDocument("bots", "missing-" + random(count)));
+          long get = perLookup(() -> db.getDocument("bots", id(random(count))));
+
+          long startNanos = System.nanoTime();
+          for (int p = 0; p < PAGES; p++) {
+            db.getPage("bots", null, 100);
+          }
+          long page = (System.nanoTime() - startNanos) / PAGES / 1_000_000;
+
+          System.out.printf("%-7s  %9d  %9d  %12d  %9d  %7d%n", layout, size, has, missing, get, page);
+        }
+
+      } finally {
+        db.close();
+      }
+    }
+  }
+
+  private long perLookup(Op pOp)
+      throws Exception {
+    for (int i = 0; i < LOOKUPS; i++) {
+      pOp.run();
+    }
+
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < LOOKUPS; i++) {
+      pOp.run();
+    }
+    return (System.nanoTime() - startNanos) / LOOKUPS;
+  }
+
+  private int random(int pBound) {
+    return ThreadLocalRandom.current().nextInt(pBound);
+  }
+
+  private String id(int pIndex) {
+    return String.format("doc-%06d", pIndex);
+  }
+
+  private Document document(int pIndex) {
+    return Document
+        .newBuilder()
+        .underCollection("bots")
+        .withId(id(pIndex))
+        .withPayload(new JsonObject().put("name", "Bot " + pIndex).put("generated", pIndex % 7 == 0))
+        .build();
+  }
+
+  private interface Op {
+    void run()
+        throws Exception;
+  }
+}
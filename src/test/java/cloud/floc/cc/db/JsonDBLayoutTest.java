@@ -0,0 +1,147 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Migrates a {@link JsonDB} collection from the flat layout to the sharded one and back, checking that every document
+ * operation sees the same documents in either layout, and that {@link WalDB} checkpoints into the same layouts.
+ */
+public class JsonDBLayoutTest {
+
+  private static final String COLLECTION_ID = "bots";
+  private static final int DOCS = 300;
+
+  @Test
+  void migratesBetweenLayouts(@TempDir Path pStateFolder)
+      throws Exception {
+    File folder = pStateFolder.resolve("layout").resolve(COLLECTION_ID).toFile();
+
+    DB db = new JsonDB(config(pStateFolder, "flat"));
+    db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    List<Document> docs = new ArrayList<>();
+    for (int d = 0; d < DOCS; d++) {
+      docs.add(document(d == 0 ? "00" : "doc-" + d, d));
+    }
+    db.putDocuments(COLLECTION_ID, docs);
+    db.close();
+    assertEquals(DOCS, folder.listFiles(File::isFile).length);
+
+    db = new JsonDB(config(pStateFolder, "sharded"));
+    assertEquals(0, folder.listFiles(File::isFile).length);
+    assertEquals(DocumentLayout.SHARDS, folder.listFiles(File::isDirectory).length);
+    verify(db, DOCS);
+
+    db.deleteDocument(COLLECTION_ID, "doc-1");
+    db.createDocument(document("doc-new", 0));
+    assertTrue(db.hasDocument(COLLECTION_ID, "doc-new"));
+    assertFalse(db.hasDocument(COLLECTION_ID, "doc-1"));
+    assertEquals(DOCS, db.aggregates(COLLECTION_ID).getLong(CollectionAggregates.DOCUMENTS_KEY));
+    db.close();
+
+    db = new JsonDB(config(pStateFolder, "flat"));
+    assertEquals(DOCS, folder.listFiles(File::isFile).length);
+    assertEquals(0, folder.listFiles(File::isDirectory).length);
+    verify(db, DOCS);
+    assertEquals(1, db.getDocument(COLLECTION_ID, "00").version());
+
+    db.deleteCollection(COLLECTION_ID);
+    assertFalse(db.hasCollection(COLLECTION_ID));
+    db.close();
+  }
+
+  @Test
+  void walDBCheckpointsFollowTheLayout(@TempDir Path pStateFolder)
+      throws Exception {
+    File folder = pStateFolder.resolve("layout").resolve(COLLECTION_ID).toFile();
+
+    DB db = new JsonDB(config(pStateFolder, "sharded"));
+    db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    List<Document> docs = new ArrayList<>();
+    for (int d = 0; d < DOCS; d++) {
+      docs.add(document("doc-" + d, d));
+    }
+    db.putDocuments(COLLECTION_ID, docs);
+    db.close();
+
+    // A state folder JsonDB sharded is loaded whole, and checkpoints write into the shards.
+    db = new WalDB(config(pStateFolder, "sharded"));
+    verify(db, DOCS);
+    db.deleteDocument(COLLECTION_ID, "doc-1");
+    db.createDocument(document("doc-new", 0));
+    db.createCollection(Collection.newBuilder().withId("menus").build());
+    db.close();
+
+    assertEquals(0, folder.listFiles(File::isFile).length);
+    assertFalse(DocumentLayout.SHARDED.documentFile(folder, "doc-1").exists());
+    assertTrue(DocumentLayout.SHARDED.documentFile(folder, "doc-new").isFile());
+    assertEquals(DocumentLayout.SHARDS, pStateFolder.resolve("layout").resolve("menus").toFile()
+        .listFiles(File::isDirectory).length);
+
+    db = new JsonDB(config(pStateFolder, "sharded"));
+    verify(db, DOCS);
+    db.close();
+
+    // And WalDB migrates collections to their layout on startup too.
+    db = new WalDB(config(pStateFolder, "flat"));
+    assertEquals(DOCS, folder.listFiles(File::isFile).length);
+    assertEquals(0, folder.listFiles(File::isDirectory).length);
+    verify(db, DOCS);
+    db.close();
+  }
+
+  private void verify(DB pDB, int pCount)
+      throws Exception {
+    List<String> ids = pDB.getCollection(COLLECTION_ID).documents().stream()
+        .map(Document::id)
+        .collect(Collectors.toList());
+    assertEquals(pCount, ids.size());
+    assertEquals(ids.stream().sorted().collect(Collectors.toList()), ids);
+
+    List<String> pagedIds = new ArrayList<>();
+    String cursor = null;
+    do {
+      var page = pDB.getPage(COLLECTION_ID, cursor, 64);
+      page.documents().forEach(doc -> pagedIds.add(doc.id()));
+      cursor = page.cursor();
+    } while (cursor != null);
+    assertEquals(ids, pagedIds);
+
+    for (String id : ids) {
+      assertTrue(pDB.hasDocument(COLLECTION_ID, id));
+      assertEquals(id, pDB.getDocument(COLLECTION_ID, id).payload().getString("name"));
+    }
+    assertEquals(pCount, pDB.getDocuments(COLLECTION_ID, ids).documents().size());
+  }
+
+  private Document document(String pId, int pIndex) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(new JsonObject().put("name", pId).put("index", pIndex))
+        .build();
+  }
+
+  private static JsonObject config(Path pStateFolder, String pLayout) {
+    return new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, pStateFolder.toString())
+        .put(Constants.DB_NAME_KEY, "layout")
+        .put(Constants.DB_DURABILITY_KEY, "none")
+        .put(Constants.DB_LAYOUT_KEY, pLayout);
+  }
+}
@@ -0,0 +1,111 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how long {@link JsonDB#getCollection(String)} takes to load collections of 10k and 100k documents as the
+ * load parallelism grows, both for the load alone and with every payload read afterwards. Files are read from the page
+ * cache after the first run, so the numbers show CPU scaling more than device queue depth.
+ * <p>
+ * Not part of the regular test run; execute with {@code mvn test -Dtest=JsonDBLoadBenchmark}.
+ */
+public class JsonDBLoadBenchmark {
+
+  private static final int[] SIZES = {10_000, 100_000};
+  private static final int[] PARALLELISM = {1, 2, 4, 8, 16};
+  private static final int RUNS = 3;
+  private static final int BATCH_SIZE = 1_000;
+
+  @Test
+  void loadScales(@TempDir Path pStateFolder)
+      throws Exception {
+    System.out.println("documents  parallelism  load ms  load+parse ms");
+
+    for (int size : SIZES) {
+      JsonObject config = new JsonObject()
+          .put(Constants.STATE_FOLDER_KEY, pStateFolder.toString())
+          .put(Constants.DB_NAME_KEY, "load-" + size)
+          .put(Constants.DB_DURABILITY_KEY, "none");
+      populate(config, size);
+
+      for (int parallelism : PARALLELISM) {
+        DB db = new JsonDB(config.copy().put(Constants.DB_LOAD_PARALLELISM_KEY, parallelism));
+        try {
+          long load = best(() -> check(db.getCollection("bots"), size));
+          long parse = best(() -> check(db.getCollection("bots"), size).documents().forEach(Document::payload));
+          System.out.printf("%9d  %11d  %7d  %13d%n", size, parallelism, load, parse);
+
+        } finally {
+          db.close();
+        }
+      }
+    }
+  }
+
+  private void populate(JsonObject pConfig, int pSize)
+      throws Exception {
+    DB db = new JsonDB(pConfig);
+    try {
+      db.createCollection(Collection.newBuilder().withId("bots").build());
+
+      for (int from = 0; from < pSize; from += BATCH_SIZE) {
+        List<Document> batch = new ArrayList<>();
+        for (int d = from; d < Math.min(from + BATCH_SIZE, pSize); d++) {
+          batch.add(document(d));
+        }
+        db.putDocuments("bots", batch);
+      }
+
+    } finally {
+      db.close();
+    }
+  }
+
+  private long best(Op pOp)
+      throws Exception {
+    long best = Long.MAX_VALUE;
+    for (int run = 0; run < RUNS; run++) {
+      long startNanos = System.nanoTime();
+      pOp.run();
+      best = Math.min(best, (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    return best;
+  }
+
+  private Collection check(Collection pCollection, int pSize) {
+    if (pCollection.documents().size() != pSize) {
+      throw new IllegalStateException("Loaded " + pCollection.documents().size() + " documents, not " + pSize);
+    }
+
+    return pCollection;
+  }
+
+  private Document document(int pIndex) {
+    return Document
+        .newBuilder()
+        .underCollection("bots")
+        .withId(String.format("doc-%06d", pIndex))
+        .withPayload(new JsonObject()
+            .put("name", "Bot " + pIndex)
+            .put("generated", pIndex % 7 == 0)
+            .put("language", "en")
+            .put("tags", new JsonArray().add("help").add("topic-" + pIndex % 100)))
+        .build();
+  }
+
+  private interface Op {
+    void run()
+        throws Exception;
+  }
+}
@@ -0,0 +1,114 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * {@link JsonDB#getCollection(String)} forking the reads of large collections: documents must come back in id order,
+ * each in its own slot, whatever the split.
+ */
+public class JsonDBLoadTest {
+
+  @TempDir
+  Path mStateFolder;
+
+  @Test
+  void forkedLoadsKeepIdOrderAcrossBatchBoundaries()
+      throws Exception {
+    // Around one batch, where loads start forking, and around the splits of a few batches.
+    for (int size : List.of(63, 64, 65, 128, 129, 1000)) {
+      for (String layout : List.of("flat", "sharded")) {
+        String collectionId = layout + size;
+        JsonDB sequential = new JsonDB(config(layout, 1));
+        create(sequential, collectionId, size);
+        List<Document> expected = sequential.getCollection(collectionId).documents();
+        sequential.close();
+
+        JsonDB parallel = new JsonDB(config(layout, 4));
+        List<Document> loaded = parallel.getCollection(collectionId).documents();
+        parallel.close();
+
+        assertEquals(new ArrayList<>(new TreeSet<>(ids(expected))), ids(expected), collectionId);
+        assertEquals(ids(expected), ids(loaded), collectionId);
+        for (int d = 0; d < size; d++) {
+          assertEquals(loaded.get(d).id(), loaded.get(d).payload().getString("name"), collectionId);
+        }
+      }
+    }
+  }
+
+  @Test
+  void unreadableFilesLeaveNoHoles()
+      throws Exception {
+    JsonDB db = new JsonDB(config("flat", 4));
+    create(db, "bots", 300);
+
+    // Removed behind the DB's back, so the catalog still lists them.
+    Path folder = mStateFolder.resolve("fcc").resolve("bots");
+    List<String> removed = List.of("0", "150", "299");
+    for (String id : removed) {
+      Files.delete(folder.resolve(id));
+    }
+
+    List<Document> loaded = db.getCollection("bots").documents();
+    db.close();
+
+    assertEquals(297, loaded.size());
+    loaded.forEach(doc -> assertEquals(doc.id(), doc.payload().getString("name")));
+    TreeSet<String> expected = new TreeSet<>();
+    for (int d = 0; d < 300; d++) {
+      expected.add(String.valueOf(d));
+    }
+    expected.removeAll(removed);
+    assertEquals(new ArrayList<>(expected), ids(loaded));
+  }
+
+  /**
+   * Creates the given number of documents in a shuffled order, with ids that sort differently as text than as numbers.
+   */
+  private static void create(JsonDB pDB, String pCollectionId, int pSize)
+      throws Exception {
+    pDB.createCollection(Collection.newBuilder().withId(pCollectionId).build());
+
+    List<Integer> order = new ArrayList<>();
+    for (int d = 0; d < pSize; d++) {
+      order.add(d);
+    }
+    Collections.shuffle(order, new Random(pSize));
+
+    for (int d : order) {
+      pDB.createDocument(Document.newBuilder()
+          .underCollection(pCollectionId)
+          .withId(String.valueOf(d))
+          .withPayload(new JsonObject().put("name", String.valueOf(d)))
+          .build());
+    }
+  }
+
+  private JsonObject config(String pLayout, int pParallelism) {
+    return new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.toString())
+        .put(Constants.DB_DURABILITY_KEY, "none")
+        .put(Constants.DB_LAYOUT_KEY, pLayout)
+        .put(Constants.DB_LOAD_PARALLELISM_KEY, pParallelism);
+  }
+
+  private static List<String> ids(List<Document> pDocs) {
+    return pDocs.stream().map(Document::id).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,159 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Races document writes against collections being deleted and recreated under them. Collection changes have to wait
+ * for the writes in flight and keep new ones out, otherwise a write lands in a folder being deleted, the delete fails
+ * and the catalog no longer matches what's on disk.
+ */
+public class JsonDBLockingTest {
+
+  private static final String COLLECTION_ID = "bots";
+  private static final int WRITERS = 8;
+
+  @TempDir
+  Path mStateFolder;
+
+  @Test
+  void collectionChangesAreExclusiveWithDocumentWrites()
+      throws Exception {
+    for (String layout : List.of("flat", "sharded")) {
+      JsonDB db = new JsonDB(config(layout));
+      db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+
+      ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+      var done = new AtomicBoolean();
+      List<Future<Integer>> writers = new ArrayList<>();
+      for (int w = 0; w < WRITERS; w++) {
+        var random = new Random(w);
+        writers.add(executor.submit(() -> {
+          int written = 0;
+          while (!done.get()) {
+            written += write(db, random) ? 1 : 0;
+          }
+          return written;
+        }));
+      }
+
+      // Every round must find the collection whole, whatever the writers were doing.
+      for (int round = 0; round < 100; round++) {
+        Thread.sleep(1);
+        db.deleteCollection(COLLECTION_ID);
+        assertFalse(new File(folder(), COLLECTION_ID).exists(), layout);
+        db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+      }
+
+      done.set(true);
+      int written = 0;
+      for (Future<Integer> writer : writers) {
+        written += writer.get(30, TimeUnit.SECONDS);
+      }
+      executor.shutdown();
+      assertTrue(written > 0, layout + ": writers should have got through between rounds");
+
+      List<String> ids = ids(db.getCollection(COLLECTION_ID));
+      assertEquals(onDisk(layout), ids, layout);
+      assertEquals(ids.size(), db.aggregates(COLLECTION_ID).getLong("documents"), layout);
+      db.close();
+
+      JsonDB reopened = new JsonDB(config(layout));
+      assertEquals(ids, ids(reopened.getCollection(COLLECTION_ID)), layout);
+      reopened.deleteCollection(COLLECTION_ID);
+      reopened.close();
+    }
+  }
+
+  /**
+   * Makes a random write, single or bulk, which fails harmlessly when the collection is gone or the document is
+   * already there or missing.
+   *
+   * @return whether the write went through.
+   */
+  private static boolean write(DB pDB, Random pRandom) {
+    String id = "d" + pRandom.nextInt(64);
+    try {
+      switch (pRandom.nextInt(4)) {
+        case 0:
+          pDB.createDocument(document(id));
+          break;
+
+        case 1:
+          pDB.updateDocument(document(id));
+          break;
+
+        case 2:
+          pDB.putDocuments(COLLECTION_ID, List.of(
+              document(id), document("d" + pRandom.nextInt(64)), document("d" + pRandom.nextInt(64))));
+          break;
+
+        default:
+          pDB.deleteDocuments(COLLECTION_ID, List.of(id, "d" + pRandom.nextInt(64)));
+          break;
+      }
+      return true;
+
+    } catch (DocumentExistsException | DocumentNotFoundException | DocumentException ex) {
+      return false;
+    }
+  }
+
+  private List<String> onDisk(String pLayout)
+      throws Exception {
+    var ids = new TreeSet<String>();
+    DocumentLayout.of(pLayout).forEachDocumentFile(new File(folder(), COLLECTION_ID),
+        path -> ids.add(path.getFileName().toString()));
+    return new ArrayList<>(ids);
+  }
+
+  private File folder() {
+    return mStateFolder.resolve("locking").toFile();
+  }
+
+  private static List<String> ids(Collection pCollection) {
+    List<String> ids = new ArrayList<>();
+    pCollection.documents().forEach(doc -> ids.add(doc.id()));
+    return ids;
+  }
+
+  private static Document document(String pId) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(new JsonObject().put("name", pId))
+        .build();
+  }
+
+  private JsonObject config(String pLayout) {
+    return new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.toString())
+        .put(Constants.DB_NAME_KEY, "locking")
+        .put(Constants.DB_DURABILITY_KEY, "none")
+        .put(Constants.DB_LAYOUT_KEY, pLayout);
+  }
+}
@@ -0,0 +1,109 @@
+package cloud.floc.cc.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that {@link LockStripes#forKeys} hands out each stripe once and always in the same order, so that threads
+ * locking overlapping sets of documents can't deadlock each other.
+ */
+public class LockStripesTest {
+
+  private static final int STRIPES = 8;
+
+  @Test
+  void keysGetEachStripeOnceInStripeOrder() {
+    var stripes = new LockStripes(STRIPES);
+    List<String> ids = ids(100);
+
+    var expected = new TreeSet<Integer>();
+    ids.forEach(id -> expected.add(stripes.stripe("bots", id)));
+    List<ReadWriteLock> locks = new ArrayList<>();
+    expected.forEach(stripe -> locks.add(stripes.all().get(stripe)));
+
+    assertEquals(STRIPES, locks.size(), "A hundred ids should cover every stripe");
+    assertEquals(locks, stripes.forKeys("bots", ids));
+    Collections.shuffle(ids, new Random(1));
+    assertEquals(locks, stripes.forKeys("bots", ids), "The order of the ids doesn't matter");
+    Collections.reverse(ids);
+    assertEquals(locks, stripes.forKeys("bots", ids));
+
+    assertEquals(List.of(stripes.forKey("bots", "a")), stripes.forKeys("bots", List.of("a", "a", "a")));
+    assertEquals(List.of(), stripes.forKeys("bots", List.of()));
+    assertThrows(IllegalArgumentException.class, () -> new LockStripes(0));
+  }
+
+  @Test
+  void overlappingBatchesNeverDeadlock()
+      throws Exception {
+    var stripes = new LockStripes(STRIPES);
+    int threads = 8;
+    int rounds = 5_000;
+    // Only ever changed with the stripe's write lock held, so lost updates would show as a wrong total.
+    int[] counts = new int[STRIPES];
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<Integer>> futures = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      var random = new Random(t);
+      futures.add(executor.submit(() -> {
+        List<String> ids = ids(32);
+        int locked = 0;
+        for (int r = 0; r < rounds; r++) {
+          // Every thread asks for its own batch in its own order.
+          Collections.shuffle(ids, random);
+          List<Lock> locks = new ArrayList<>();
+          for (var stripe : stripes.forKeys("bots", ids.subList(0, 1 + random.nextInt(ids.size())))) {
+            Lock lock = stripe.writeLock();
+            lock.lock();
+            locks.add(lock);
+          }
+          locked += locks.size();
+
+          for (int s = 0; s < STRIPES; s++) {
+            if (locks.contains(stripes.all().get(s).writeLock())) counts[s]++;
+          }
+
+          for (int l = locks.size() - 1; l >= 0; l--) {
+            locks.get(l).unlock();
+          }
+        }
+        return locked;
+      }));
+    }
+
+    int locked = 0;
+    for (Future<Integer> future : futures) {
+      locked += future.get(60, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    int counted = 0;
+    for (int count : counts) {
+      counted += count;
+    }
+    assertEquals(locked, counted);
+  }
+
+  private static List<String> ids(int pCount) {
+    List<String> ids = new ArrayList<>();
+    for (int d = 0; d < pCount; d++) {
+      ids.add("doc" + d);
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,23 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Constants;
+import io.vertx.core.json.JsonObject;
+
+import java.nio.file.Path;
+
+public class MemoryDBConformanceTest
+    extends DBConformanceTest {
+
+  @Override
+  protected String engine() {
+    return "memory";
+  }
+
+  /**
+   * Snapshots on close only, so that restarts keep the DB.
+   */
+  @Override
+  protected JsonObject config(Path pStateFolder) {
+    return super.config(pStateFolder).put(Constants.MEMORY_SNAPSHOT_INTERVAL_KEY, 60_000L);
+  }
+}
@@ -0,0 +1,218 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import cloud.floc.cc.common.DocumentVersionException;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Applies JSON merge patches through each storage engine and checks that they survive a restart, which for
+ * {@link WalDB} means replaying the patch records of its log.
+ */
+public class PatchDocumentTest {
+
+  private static final String COLLECTION_ID = "bots";
+  private static final List<String> ENGINES = List.of("json", "wal", "segment", "memory");
+  private static final List<String> PERSISTENT_ENGINES = List.of("json", "wal", "segment");
+
+  /**
+   * Stored payload, patch and result, from the examples of RFC 7396 plus a few of our own.
+   */
+  private static final List<String[]> MERGES = List.of(
+      new String[]{"{\"a\":\"b\"}", "{\"a\":\"c\"}", "{\"a\":\"c\"}"},
+      new String[]{"{\"a\":\"b\"}", "{\"b\":\"c\"}", "{\"a\":\"b\",\"b\":\"c\"}"},
+      new String[]{"{\"a\":\"b\"}", "{\"a\":null}", "{}"},
+      new String[]{"{\"a\":\"b\",\"b\":\"c\"}", "{\"a\":null}", "{\"b\":\"c\"}"},
+      new String[]{"{\"a\":[\"b\"]}", "{\"a\":\"c\"}", "{\"a\":\"c\"}"},
+      new String[]{"{\"a\":\"c\"}", "{\"a\":[\"b\"]}", "{\"a\":[\"b\"]}"},
+      new String[]{"{\"a\":{\"b\":\"c\"}}", "{\"a\":{\"b\":\"d\",\"c\":null}}", "{\"a\":{\"b\":\"d\"}}"},
+      new String[]{"{\"a\":[{\"b\":\"c\"}]}", "{\"a\":[1]}", "{\"a\":[1]}"},
+      new String[]{"{\"e\":null}", "{\"a\":1}", "{\"e\":null,\"a\":1}"},
+      new String[]{"{}", "{\"a\":{\"bb\":{\"ccc\":null}}}", "{\"a\":{\"bb\":{}}}"},
+      new String[]{"{\"a\":{\"b\":1}}", "{\"a\":{\"b\":null}}", "{\"a\":{}}"},
+      new String[]{"{\"a\":1}", "{\"a\":{\"b\":2}}", "{\"a\":{\"b\":2}}"},
+      new String[]{"{\"a\":\"b\"}", "{\"missing\":null}", "{\"a\":\"b\"}"},
+      new String[]{"{\"a\":\"b\"}", "{}", "{\"a\":\"b\"}"});
+
+  @TempDir
+  Path mStateFolder;
+
+  @Test
+  void patchesMergeAsRfc7396Says()
+      throws Exception {
+    for (String engine : ENGINES) {
+      DB db = open(engine);
+      for (int m = 0; m < MERGES.size(); m++) {
+        String[] merge = MERGES.get(m);
+        String id = "doc" + m;
+        db.createDocument(document(id, new JsonObject(merge[0]), 0));
+
+        Document patched = db.patchDocument(document(id, new JsonObject(merge[1]), 0));
+        String name = engine + ": " + merge[0] + " + " + merge[1];
+        assertEquals(new JsonObject(merge[2]), patched.payload(), name);
+        assertEquals(new JsonObject(merge[2]), db.getDocument(COLLECTION_ID, id).payload(), name);
+        // Even a patch that changes nothing is a new version.
+        assertEquals(2, patched.version(), name);
+      }
+      db.close();
+
+      if (PERSISTENT_ENGINES.contains(engine)) {
+        DB reopened = open(engine);
+        for (int m = 0; m < MERGES.size(); m++) {
+          assertEquals(new JsonObject(MERGES.get(m)[2]), reopened.getDocument(COLLECTION_ID, "doc" + m).payload(),
+              engine + " after a restart: " + MERGES.get(m)[1]);
+        }
+        reopened.close();
+      }
+    }
+  }
+
+  @Test
+  void versionsAreCheckedLikeUpdates()
+      throws Exception {
+    for (String engine : ENGINES) {
+      DB db = open(engine);
+      db.createDocument(document("bot", new JsonObject().put("name", "Bot"), 0));
+      db.patchDocument(document("bot", new JsonObject().put("language", "en"), 0));
+
+      assertThrows(DocumentVersionException.class,
+          () -> db.patchDocument(document("bot", new JsonObject().put("name", "Stale"), 1)), engine);
+      assertEquals("Bot", db.getDocument(COLLECTION_ID, "bot").payload().getString("name"), engine);
+
+      assertEquals(3, db.patchDocument(document("bot", new JsonObject().put("name", "Fresh"), 2)).version(), engine);
+      assertEquals(4, db.patchDocument(document("bot", new JsonObject().put("name", "Any"), 0)).version(), engine);
+
+      assertThrows(DocumentNotFoundException.class,
+          () -> db.patchDocument(document("missing", new JsonObject(), 0)), engine);
+      assertThrows(DocumentNotFoundException.class, () -> db.patchDocument(Document.newBuilder()
+          .underCollection("missing").withId("bot").withPayload(new JsonObject()).build()), engine);
+      db.close();
+    }
+  }
+
+  @Test
+  void deadlinesAreKeptUnlessThePatchSetsOne()
+      throws Exception {
+    long deadline = 4_000_000_000_000L;
+    for (String engine : ENGINES) {
+      DB db = open(engine);
+      db.createDocument(document("bot", new JsonObject().put("name", "Bot"), 0, deadline));
+
+      assertEquals(deadline, db.patchDocument(document("bot", new JsonObject().put("a", 1), 0)).expiresAt(), engine);
+      assertEquals(deadline, db.getDocument(COLLECTION_ID, "bot").expiresAt(), engine);
+
+      Document moved = db.patchDocument(document("bot", new JsonObject().put("b", 2), 0, deadline + 1));
+      assertEquals(deadline + 1, moved.expiresAt(), engine);
+      assertEquals(new JsonObject().put("name", "Bot").put("a", 1).put("b", 2), moved.payload(), engine);
+      db.close();
+
+      if (PERSISTENT_ENGINES.contains(engine)) {
+        DB reopened = open(engine);
+        assertEquals(deadline + 1, reopened.getDocument(COLLECTION_ID, "bot").expiresAt(), engine);
+        reopened.close();
+      }
+    }
+  }
+
+  @Test
+  void chainsOfPatchesSurviveRestarts()
+      throws Exception {
+    for (String engine : PERSISTENT_ENGINES) {
+      DB db = open(engine);
+      db.createDocument(document("bot", new JsonObject()
+          .put("name", "Bot")
+          .put("language", "en")
+          .put("menu", new JsonObject().put("title", "Main").put("options", 3)), 0));
+      db.patchDocument(document("bot", new JsonObject().put("generated", true).putNull("language"), 0));
+      db.patchDocument(document("bot", new JsonObject().put("menu", new JsonObject().put("options", 5)), 0));
+      db.patchDocument(document("bot", new JsonObject().put("menu", new JsonObject().putNull("title")), 0));
+      db.close();
+
+      DB reopened = open(engine);
+      Document doc = reopened.getDocument(COLLECTION_ID, "bot");
+      assertEquals(engine + ":4", engine + ":" + doc.version());
+      assertEquals(new JsonObject()
+          .put("name", "Bot")
+          .put("menu", new JsonObject().put("options", 5))
+          .put("generated", true), doc.payload(), engine);
+
+      // And patches keep applying to what was replayed.
+      assertEquals(5, reopened.patchDocument(document("bot", new JsonObject().put("x", 1), 4)).version(), engine);
+      reopened.close();
+    }
+  }
+
+  @Test
+  void patchesCantCarryTheirOwnMeta()
+      throws Exception {
+    for (String engine : ENGINES) {
+      DB db = open(engine);
+      db.createDocument(document("bot", new JsonObject().put("name", "Bot"), 0));
+
+      assertThrows(IllegalArgumentException.class, () -> db.patchDocument(document("bot",
+          new JsonObject().put("_meta", new JsonObject().put("version", 99)), 0)), engine);
+
+      Document doc = db.getDocument(COLLECTION_ID, "bot");
+      assertEquals(1, doc.version(), engine);
+      assertEquals(new JsonObject().put("name", "Bot"), doc.payload(), engine);
+      db.close();
+    }
+  }
+
+  @Test
+  void patchesLeaveTheCallersObjectsAlone()
+      throws Exception {
+    for (String engine : ENGINES) {
+      DB db = open(engine);
+      JsonObject payload = new JsonObject().put("menu", new JsonObject().put("title", "Main"));
+      Document created = db.createDocument(document("bot", payload.copy(), 0));
+
+      JsonObject patch = new JsonObject().put("menu", new JsonObject().putNull("title").put("options", 5));
+      JsonObject patchCopy = patch.copy();
+      db.patchDocument(document("bot", patch, 0));
+
+      assertEquals(patchCopy, patch, engine);
+      assertEquals(payload, created.payload(), engine);
+      db.close();
+    }
+  }
+
+  private DB open(String pEngine)
+      throws Exception {
+    DB db = DB.newEngine(new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.resolve(pEngine).toString())
+        .put(Constants.DB_ENGINE_KEY, pEngine)
+        .put(Constants.DB_DURABILITY_KEY, "none")
+        .put(Constants.WAL_CHECKPOINT_INTERVAL_KEY, 60_000L));
+    if (!db.hasCollection(COLLECTION_ID)) {
+      db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    }
+
+    return db;
+  }
+
+  private static Document document(String pId, JsonObject pPayload, long pVersion) {
+    return document(pId, pPayload, pVersion, 0);
+  }
+
+  private static Document document(String pId, JsonObject pPayload, long pVersion, long pExpiresAt) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(pPayload)
+        .withVersion(pVersion)
+        .expiringAt(pExpiresAt)
+        .build();
+  }
+}
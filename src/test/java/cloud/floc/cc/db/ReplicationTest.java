@@ -0,0 +1,159 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Runs a replication leader and follower, each on its own Vert.x instance as if in separate processes, and checks that
+ * the follower catches up from a snapshot, then follows live writes. The leader's change feed is kept small, so a
+ * follower that was stopped for a while has to catch up from a snapshot again.
+ */
+public class ReplicationTest {
+
+  private static final String COLLECTION_ID = "bots";
+  private static final int PORT = 17070;
+  private static final long TIMEOUT_MILLIS = 20_000;
+  private static final long DEADLINE = 4_000_000_000_000L;
+
+  @Test
+  void followerCatchesUpAndFollows(@TempDir Path pStateFolder)
+      throws Exception {
+    Vertx leader = Vertx.vertx();
+    Vertx follower = null;
+
+    try {
+      AsyncDB leaderDB = start(leader, new JsonObject()
+          .put(Constants.STATE_FOLDER_KEY, pStateFolder.resolve("leader").toString())
+          .put(Constants.DB_CHANGE_FEED_SIZE_KEY, 8)
+          .put(Constants.REPLICATION_ROLE_KEY, Constants.REPLICATION_LEADER_VALUE)
+          .put(Constants.REPLICATION_PORT_KEY, PORT));
+
+      await(leaderDB.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build()));
+      for (int d = 0; d < 20; d++) {
+        await(leaderDB.createDocument(document("doc-" + d, 0)));
+      }
+
+      JsonObject followerConfig = new JsonObject()
+          .put(Constants.STATE_FOLDER_KEY, pStateFolder.resolve("follower").toString())
+          .put(Constants.REPLICATION_ROLE_KEY, Constants.REPLICATION_FOLLOWER_VALUE)
+          .put(Constants.REPLICATION_LEADER_KEY, "localhost:" + PORT);
+      follower = Vertx.vertx();
+      AsyncDB followerDB = start(follower, followerConfig);
+      awaitSameDocuments(leaderDB, followerDB);
+
+      await(leaderDB.updateDocument(document("doc-3", 1)));
+      await(leaderDB.deleteDocument(COLLECTION_ID, "doc-4"));
+      await(leaderDB.putDocuments(COLLECTION_ID, List.of(document("doc-5", 2), document("doc-20", 2))));
+      await(leaderDB.createDocument(expiring(document("doc-expiring", 0))));
+      await(leaderDB.putDocuments(COLLECTION_ID, List.of(expiring(document("doc-6", 2)))));
+      awaitSameDocuments(leaderDB, followerDB);
+      assertFalse(await(followerDB.hasDocument(COLLECTION_ID, "doc-4")));
+      assertEquals(DEADLINE, await(followerDB.getDocument(COLLECTION_ID, "doc-expiring")).expiresAt());
+      assertEquals(DEADLINE, await(followerDB.getDocument(COLLECTION_ID, "doc-6")).expiresAt());
+
+      close(follower);
+      for (int d = 0; d < 20; d++) {
+        await(leaderDB.putDocuments(COLLECTION_ID, List.of(document("doc-" + (d == 4 ? 21 : d), 3))));
+      }
+      await(leaderDB.deleteDocument(COLLECTION_ID, "doc-7"));
+
+      follower = Vertx.vertx();
+      followerDB = start(follower, followerConfig);
+      awaitSameDocuments(leaderDB, followerDB);
+
+      JsonObject replication = await(followerDB.metrics()).getJsonObject("replication");
+      assertEquals(1, replication.getInteger("snapshots"));
+      assertEquals(0, replication.getLong("lag"));
+
+    } finally {
+      if (follower != null) close(follower);
+      close(leader);
+    }
+  }
+
+  private static AsyncDB start(Vertx pVertx, JsonObject pConfig)
+      throws Exception {
+    await(DBVerticle.deployOnce(pVertx, pConfig));
+    return await(AsyncDB.connect(pVertx, pConfig));
+  }
+
+  private static void awaitSameDocuments(AsyncDB pLeader, AsyncDB pFollower)
+      throws Exception {
+    TreeMap<String, JsonObject> expected = documents(pLeader);
+    TreeMap<String, JsonObject> actual = null;
+
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (System.currentTimeMillis() < deadline) {
+      actual = await(pFollower.hasCollection(COLLECTION_ID)) ? documents(pFollower) : null;
+      if (expected.equals(actual)) return;
+
+      Thread.sleep(50);
+    }
+
+    assertEquals(expected, actual);
+  }
+
+  private static TreeMap<String, JsonObject> documents(AsyncDB pDB)
+      throws Exception {
+    TreeMap<String, JsonObject> documents = new TreeMap<>();
+    await(pDB.getCollection(COLLECTION_ID)).documents().forEach(doc -> documents.put(doc.id(), new JsonObject()
+        .put("payload", doc.payload())
+        .put("expiresAt", doc.expiresAt())));
+    return documents;
+  }
+
+  private static Document document(String pId, int pRevision) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(new JsonObject().put("name", pId).put("revision", pRevision))
+        .build();
+  }
+
+  private static Document expiring(Document pDoc) {
+    return Document
+        .newBuilder()
+        .underCollection(pDoc.collectionId())
+        .withId(pDoc.id())
+        .withPayload(pDoc.payload())
+        .expiringAt(DEADLINE)
+        .build();
+  }
+
+  private static <T> T await(Future<T> pFuture)
+      throws Exception {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    pFuture.onComplete(ar -> {
+      if (ar.succeeded()) {
+        result.complete(ar.result());
+      } else {
+        result.completeExceptionally(ar.cause());
+      }
+    });
+
+    return result.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private static void close(Vertx pVertx)
+      throws Exception {
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    pVertx.close(ar -> closed.complete(null));
+    closed.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,10 @@
+package cloud.floc.cc.db;
+
+public class SegmentDBConformanceTest
+    extends DBConformanceTest {
+
+  @Override
+  protected String engine() {
+    return "segment";
+  }
+}
@@ -0,0 +1,275 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Segment lifecycle of {@link SegmentDB}: syncing appends, compaction, and the startup paths that recover from a
+ * crash. The shared behavior is covered by {@link SegmentDBConformanceTest}.
+ */
+public class SegmentDBTest {
+
+  private static final String COLLECTION_ID = "bots";
+
+  @TempDir
+  Path mStateFolder;
+
+  @Test
+  void fsyncSyncsEveryWrite()
+      throws Exception {
+    SegmentDB db = open("fsync", 1024 * 1024);
+    for (int d = 0; d < 10; d++) {
+      db.createDocument(doc("doc-" + d, d));
+    }
+
+    JsonObject log = db.metrics().getJsonObject("log");
+    assertEquals("fsync", log.getString("durability"));
+    // One more for the collection.
+    assertEquals(11, log.getLong("fsyncs"));
+    db.close();
+  }
+
+  @Test
+  void batchSharesSyncsBetweenConcurrentWriters()
+      throws Exception {
+    SegmentDB db = open("batch", 1024 * 1024);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    try {
+      List<Future<?>> writers = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        int thread = t;
+        writers.add(executor.submit(() -> {
+          for (int d = 0; d < 25; d++) {
+            db.createDocument(doc("doc-" + thread + "-" + d, d));
+          }
+          return null;
+        }));
+      }
+
+      for (Future<?> writer : writers) {
+        writer.get();
+      }
+
+    } finally {
+      executor.shutdown();
+    }
+
+    JsonObject log = db.metrics().getJsonObject("log");
+    assertTrue(log.getLong("groupCommits") < 200, "Every write synced on its own: " + log);
+    assertTrue(log.getDouble("writesPerGroupCommit") > 1.0, log.encode());
+    assertEquals(200, db.getCollection(COLLECTION_ID).documents().size());
+    db.close();
+  }
+
+  @Test
+  void compactionKeepsOnlyLiveRecords()
+      throws Exception {
+    SegmentDB db = open("none", 512);
+    for (int revision = 0; revision < 40; revision++) {
+      put(db, doc("hot", revision));
+    }
+    db.createDocument(doc("cold", 0));
+    db.deleteDocument(COLLECTION_ID, "hot");
+    db.createDocument(doc("hot", 100));
+
+    JsonObject before = db.metrics().getJsonObject("segments");
+    db.compact();
+    JsonObject after = db.metrics().getJsonObject("segments");
+
+    assertEquals(1, after.getLong("compactions"));
+    assertTrue(after.getInteger("count") < before.getInteger("count"), before + " -> " + after);
+    assertTrue(after.getLong("totalBytes") < before.getLong("totalBytes"), before + " -> " + after);
+    assertEquals(100, db.getDocument(COLLECTION_ID, "hot").payload().getInteger("revision"));
+    assertEquals(0, db.getDocument(COLLECTION_ID, "cold").payload().getInteger("revision"));
+
+    // Compacting again finds nothing to reclaim.
+    db.compact();
+    assertEquals(1, db.metrics().getJsonObject("segments").getLong("compactions"));
+    db.close();
+
+    SegmentDB reopened = open("none", 512);
+    assertEquals(100, reopened.getDocument(COLLECTION_ID, "hot").payload().getInteger("revision"));
+    assertEquals(2, reopened.getCollection(COLLECTION_ID).documents().size());
+    reopened.close();
+  }
+
+  @Test
+  void startupTrustsHintFilesOverRecords()
+      throws Exception {
+    SegmentDB db = open("none", 1024 * 1024);
+    db.createDocument(doc("a", 1));
+    db.close();
+
+    // Break the checksum of the first record: scanning would stop there, but the sealed segment's hints still list it.
+    File segment = files(".seg")[0];
+    assertTrue(new File(segment.getPath() + ".hint").exists());
+    try (var file = new RandomAccessFile(segment, "rw")) {
+      file.seek(4);
+      file.writeInt(~file.readInt());
+    }
+
+    db = open("none", 1024 * 1024);
+    assertTrue(db.hasCollection(COLLECTION_ID));
+    assertEquals(1, db.getDocument(COLLECTION_ID, "a").payload().getInteger("revision"));
+    db.close();
+  }
+
+  @Test
+  void tornTailOfActiveSegmentIsTruncated()
+      throws Exception {
+    // Left open, as if the process died: the active segment never gets a hint file.
+    SegmentDB crashed = open("none", 1024 * 1024);
+    crashed.createDocument(doc("a", 1));
+    crashed.createDocument(doc("b", 2));
+
+    File active = files(".seg")[0];
+    long intactLength = active.length();
+    try (var file = new RandomAccessFile(active, "rw")) {
+      file.seek(intactLength);
+      file.writeInt(1000);
+      file.writeInt(0);
+      file.write(new byte[]{Segment.OP_PUT, 0, 4});
+    }
+
+    SegmentDB db = open("none", 1024 * 1024);
+    assertEquals(intactLength, active.length());
+    assertEquals(2, db.getCollection(COLLECTION_ID).documents().size());
+
+    db.createDocument(doc("c", 3));
+    db.close();
+
+    db = open("none", 1024 * 1024);
+    assertEquals(3, db.getCollection(COLLECTION_ID).documents().size());
+    db.close();
+  }
+
+  @Test
+  void incompleteCompactionIsDiscarded()
+      throws Exception {
+    SegmentDB db = open("none", 512);
+    for (int revision = 0; revision < 20; revision++) {
+      put(db, doc("hot", revision));
+    }
+    db.close();
+
+    // A compaction that died before sealing its output leaves a segment without a hint file, plus a temp hint file.
+    String[] sealed = names(".seg");
+    Files.write(dbFolder().resolve("00000000000000000001.compact"), new byte[]{1, 2, 3});
+    Files.write(dbFolder().resolve("00000000000000000001.compact.hint.tmp"), new byte[]{4, 5});
+
+    db = open("none", 512);
+    assertEquals(19, db.getDocument(COLLECTION_ID, "hot").payload().getInteger("revision"));
+    assertEquals(0, files(".compact").length);
+    assertEquals(0, files(".tmp").length);
+    assertTrue(Arrays.asList(names(".seg")).containsAll(Arrays.asList(sealed)), "Sealed segments should be kept");
+    db.close();
+  }
+
+  @Test
+  void completedCompactionReplacesMergedSegmentsOnStartup()
+      throws Exception {
+    SegmentDB db = open("none", 512);
+    for (int revision = 0; revision < 20; revision++) {
+      put(db, doc("hot", revision));
+    }
+
+    Map<String, byte[]> beforeCompaction = new HashMap<>();
+    long outputId = 0;
+    for (File hint : files(".seg.hint")) {
+      File segment = new File(hint.getPath().replace(".hint", ""));
+      beforeCompaction.put(segment.getName(), Files.readAllBytes(segment.toPath()));
+      beforeCompaction.put(hint.getName(), Files.readAllBytes(hint.toPath()));
+      outputId = Math.max(outputId, Long.parseLong(segment.getName().replace(".seg", "")));
+    }
+
+    db.compact();
+    put(db, doc("hot", 20));
+    db.close();
+
+    // Roll the files back to a crash between sealing the output and replacing the merged segments with it.
+    String output = String.format("%020d", outputId);
+    Path folder = dbFolder();
+    Files.move(folder.resolve(output + ".seg"), folder.resolve(output + ".compact"));
+    Files.move(folder.resolve(output + ".seg.hint"), folder.resolve(output + ".compact.hint"));
+    for (var entry : beforeCompaction.entrySet()) {
+      Files.write(folder.resolve(entry.getKey()), entry.getValue());
+    }
+
+    db = open("none", 512);
+    assertEquals(20, db.getDocument(COLLECTION_ID, "hot").payload().getInteger("revision"));
+    assertEquals(0, files(".compact").length + files(".compact.hint").length);
+    // The merged segments are gone; only the compacted one and those written after it are left.
+    assertEquals(output + ".seg", names(".seg")[0]);
+    assertTrue(names(".seg").length < beforeCompaction.size() / 2, Arrays.toString(names(".seg")));
+    db.close();
+  }
+
+  private SegmentDB open(String pDurability, long pMaxSegmentBytes)
+      throws Exception {
+    SegmentDB db = new SegmentDB(new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.toString())
+        .put(Constants.DB_NAME_KEY, "seg")
+        .put(Constants.DB_DURABILITY_KEY, pDurability)
+        .put(Constants.DB_GROUP_COMMIT_INTERVAL_KEY, 5L)
+        .put(Constants.SEGMENT_MAX_BYTES_KEY, pMaxSegmentBytes)
+        .put(Constants.SEGMENT_COMPACTION_INTERVAL_KEY, 3_600_000L));
+
+    if (!db.hasCollection(COLLECTION_ID)) {
+      db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    }
+    return db;
+  }
+
+  private static void put(SegmentDB pDB, Document pDoc)
+      throws Exception {
+    if (pDB.hasDocument(COLLECTION_ID, pDoc.id())) {
+      pDB.updateDocument(pDoc);
+    } else {
+      pDB.createDocument(pDoc);
+    }
+  }
+
+  private Path dbFolder() {
+    return mStateFolder.resolve("seg-segments");
+  }
+
+  private File[] files(String pSuffix) {
+    File[] files = dbFolder().toFile().listFiles((dir, name) -> name.endsWith(pSuffix));
+    Arrays.sort(files);
+    return files;
+  }
+
+  private String[] names(String pSuffix) {
+    return Arrays.stream(files(pSuffix)).map(File::getName).toArray(String[]::new);
+  }
+
+  private static Document doc(String pId, int pRevision) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(new JsonObject().put("revision", pRevision).put("padding", "x".repeat(64)))
+        .build();
+  }
+}
@@ -0,0 +1,189 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Document;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fills {@link SlabDocumentCache}s of one or two slabs, checking that documents come back as stored, that payloads
+ * take the smallest chunk they fit in, that a full size class evicts its least recently used entry and that only a
+ * slab freed entirely by one class is taken over by another.
+ */
+public class SlabDocumentCacheTest {
+
+  private static final int SLAB_BYTES = 1024;
+  // Size classes of a 1 KiB slab start with 64, 80, 96 and 120 bytes; the smallest class has 16 chunks per slab.
+  private static final int SMALL_CHUNKS = SLAB_BYTES / 64;
+
+  @Test
+  void documentsComeBackAsStored() {
+    var cache = new SlabDocumentCache(SLAB_BYTES, SLAB_BYTES);
+    JsonObject payload = new JsonObject().put("name", "café ☕").put("n", 1.5).putNull("none");
+    cache.put("bots/a/b", Document.newBuilder().underCollection("bots").withId("a/b")
+        .withPayload(payload).withVersion(3).expiringAt(1234).build());
+
+    Document doc = cache.get("bots/a/b");
+    assertEquals("bots", doc.collectionId());
+    assertEquals("a/b", doc.id());
+    assertEquals(3, doc.version());
+    assertEquals(1234, doc.expiresAt());
+    assertEquals(payload.toBuffer(), doc.rawPayload(), "Hits hand out the stored bytes without parsing them");
+    assertEquals(payload, doc.payload());
+
+    // Every hit gets its own copy.
+    doc.payload().put("name", "changed");
+    assertEquals("café ☕", cache.get("bots/a/b").payload().getString("name"));
+    assertNull(cache.get("bots/missing"));
+    assertEquals(1, cache.metrics().getLong("misses"));
+  }
+
+  @Test
+  void rewritesReplaceTheirEntry() {
+    var cache = new SlabDocumentCache(SLAB_BYTES, SLAB_BYTES);
+    cache.put("bots/a", raw("a", 64, 1));
+    cache.put("bots/a", raw("a", 100, 2));
+
+    assertEquals(1, cache.size());
+    assertEquals(2, cache.get("bots/a").version());
+    assertEquals(100, cache.metrics().getLong("payloadBytes"));
+    assertEquals(120, cache.metrics().getLong("chunkBytes"));
+  }
+
+  @Test
+  void payloadsTakeTheSmallestChunkTheyFitIn() {
+    int[][] lengthsAndChunks = {{8, 64}, {64, 64}, {65, 80}, {80, 80}, {81, 96}, {97, 120}, {SLAB_BYTES, SLAB_BYTES}};
+
+    for (int[] lengthAndChunk : lengthsAndChunks) {
+      var cache = new SlabDocumentCache(SLAB_BYTES, SLAB_BYTES);
+      cache.put("bots/a", raw("a", lengthAndChunk[0], 1));
+
+      JsonObject metrics = cache.metrics();
+      assertEquals(lengthAndChunk[1], metrics.getLong("chunkBytes"), "payload of " + lengthAndChunk[0]);
+      assertEquals(1.0 - (double) lengthAndChunk[0] / lengthAndChunk[1], metrics.getDouble("fragmentation"), 1e-9);
+      assertEquals((double) lengthAndChunk[1] / SLAB_BYTES, metrics.getDouble("occupancy"), 1e-9);
+    }
+  }
+
+  @Test
+  void fullClassesEvictTheirLeastRecentlyUsedEntry() {
+    var cache = new SlabDocumentCache(SLAB_BYTES, SLAB_BYTES);
+    for (int d = 0; d < SMALL_CHUNKS; d++) {
+      cache.put("bots/" + d, raw(String.valueOf(d), 32, 1));
+    }
+    assertNotNull(cache.get("bots/0"));
+
+    cache.put("bots/new", raw("new", 32, 1));
+    assertTrue(cache.contains("bots/0"), "Just read, so not the least recently used");
+    assertFalse(cache.contains("bots/1"));
+    assertTrue(cache.contains("bots/new"));
+    assertEquals(SMALL_CHUNKS, cache.size());
+    assertEquals(1, cache.metrics().getLong("evictions"));
+
+    // Other classes don't evict from this one: with no slab of their own, they're turned away.
+    cache.put("bots/large", raw("large", 400, 1));
+    assertFalse(cache.contains("bots/large"));
+    assertEquals(SMALL_CHUNKS, cache.size());
+    assertEquals(1, cache.metrics().getLong("rejected"));
+    assertEquals(1, cache.metrics().getLong("evictions"));
+  }
+
+  @Test
+  void onlyEntirelyFreeSlabsChangeClass() {
+    var cache = new SlabDocumentCache(2 * SLAB_BYTES, SLAB_BYTES);
+    cache.put("bots/large", raw("large", 400, 1));
+    for (int d = 0; d < SMALL_CHUNKS; d++) {
+      cache.put("bots/small-" + d, raw("small-" + d, 32, 1));
+    }
+    assertEquals(2, cache.metrics().getInteger("slabs"));
+
+    // A single entry left keeps the slab with its class.
+    for (int d = 1; d < SMALL_CHUNKS; d++) {
+      cache.remove("bots/small-" + d);
+    }
+    cache.put("bots/medium", raw("medium", 200, 1));
+    assertFalse(cache.contains("bots/medium"));
+
+    cache.remove("bots/small-0");
+    cache.put("bots/medium", raw("medium", 200, 1));
+    assertTrue(cache.contains("bots/medium"));
+    assertTrue(cache.contains("bots/large"));
+    assertEquals(2, cache.metrics().getInteger("slabs"));
+    assertEquals(2 * SLAB_BYTES, cache.metrics().getLong("allocatedBytes"));
+
+    // And now small payloads are the ones left without a slab.
+    cache.put("bots/small", raw("small", 32, 1));
+    assertFalse(cache.contains("bots/small"));
+    assertEquals(2, cache.metrics().getLong("rejected"));
+  }
+
+  @Test
+  void oversizedPayloadsAreNeverCached() {
+    var cache = new SlabDocumentCache(2 * SLAB_BYTES, SLAB_BYTES);
+    cache.put("bots/a", raw("a", 32, 1));
+
+    // The new version is too large to cache, and the old one must not be served in its place.
+    cache.put("bots/a", raw("a", SLAB_BYTES + 1, 2));
+    assertNull(cache.get("bots/a"));
+    assertEquals(1, cache.metrics().getLong("oversized"));
+    assertEquals(0, cache.metrics().getLong("payloadBytes"));
+
+    cache.put("bots/b", raw("b", SLAB_BYTES, 1));
+    assertEquals(SLAB_BYTES, cache.get("bots/b").rawPayload().length(), "A payload as large as a slab still fits");
+    assertEquals(0.0, cache.metrics().getDouble("fragmentation"));
+  }
+
+  @Test
+  void metricsFollowRemovalsAndClears() {
+    var cache = new SlabDocumentCache(2 * SLAB_BYTES, SLAB_BYTES);
+    JsonObject empty = cache.metrics();
+    assertEquals(0.0, empty.getDouble("fragmentation"));
+    assertEquals(0.0, empty.getDouble("occupancy"));
+
+    cache.put("bots/a", raw("a", 40, 1));
+    cache.put("bots/b", raw("b", 64, 1));
+    cache.put("menus/c", raw("c", 100, 1));
+    assertEquals(1.0 - 204.0 / (64 + 64 + 120), cache.metrics().getDouble("fragmentation"), 1e-9);
+
+    cache.removeIf(key -> key.startsWith("bots/"));
+    assertEquals(1, cache.size());
+    assertEquals(1.0 - 100.0 / 120, cache.metrics().getDouble("fragmentation"), 1e-9);
+
+    cache.clear();
+    JsonObject cleared = cache.metrics();
+    assertEquals(0, cleared.getInteger("size"));
+    assertEquals(0, cleared.getInteger("slabs"));
+    assertEquals(0, cleared.getLong("chunkBytes"));
+    assertEquals(0, cleared.getLong("payloadBytes"));
+
+    cache.put("bots/a", raw("a", 40, 1));
+    assertNotNull(cache.get("bots/a"), "A cleared cache allocates slabs again");
+  }
+
+  @Test
+  void budgetsHoldAtLeastOneSlab() {
+    assertThrows(IllegalArgumentException.class, () -> new SlabDocumentCache(SLAB_BYTES, 32));
+    assertThrows(IllegalArgumentException.class, () -> new SlabDocumentCache(SLAB_BYTES - 1, SLAB_BYTES));
+  }
+
+  /**
+   * @return a document with a raw payload of exactly the given length.
+   */
+  private static Document raw(String pId, int pLength, long pVersion) {
+    String json = "{\"t\":\"" + "x".repeat(pLength - 8) + "\"}";
+    return Document
+        .newBuilder()
+        .underCollection("bots")
+        .withId(pId)
+        .withRawPayload(Buffer.buffer(json))
+        .withVersion(pVersion)
+        .build();
+  }
+}
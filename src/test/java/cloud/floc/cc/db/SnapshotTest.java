@@ -0,0 +1,259 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotTest {
+
+  private static final long DEADLINE = 4_000_000_000_000L;
+
+  @TempDir
+  Path mFolder;
+
+  @Test
+  void toolRoundTripsAShardedJsonDBIntoWalDB()
+      throws Exception {
+    JsonObject source = config("source", "json")
+        .put(Constants.DB_LAYOUT_KEY, "sharded")
+        .put(Constants.DB_CODEC_KEY, "smile");
+    DB db = DB.newEngine(source);
+    fill(db);
+    db.close();
+
+    Path snapshot = mFolder.resolve("fcc.ndjson.gz");
+    SnapshotTool.main(new String[]{"export", snapshot.toString(), configFile("source.json", source)});
+    SnapshotTool.main(new String[]{"restore", snapshot.toString(), configFile("target.json", config("target", "wal"))});
+
+    assertFilled(DB.newEngine(config("target", "wal")));
+  }
+
+  @Test
+  void everyEngineWithSnapshotsExportsTheSameContent()
+      throws Exception {
+    for (String engine : List.of("json", "wal", "segment", "memory")) {
+      DB db = DB.newEngine(config(engine, engine));
+      fill(db);
+      Path snapshot = mFolder.resolve(engine + ".ndjson.gz");
+      try (OutputStream out = Files.newOutputStream(snapshot)) {
+        db.exportSnapshot(out);
+      }
+      db.close();
+
+      Snapshot.restoreOnStartup(config(engine + "-restored", "json")
+          .put(Constants.DB_RESTORE_SNAPSHOT_KEY, snapshot.toString()));
+      assertFilled(DB.newEngine(config(engine + "-restored", "json")));
+    }
+  }
+
+  @Test
+  void everyEngineThatKeepsStateRestoresSnapshots()
+      throws Exception {
+    Path snapshot = export();
+
+    for (String engine : List.of("json", "wal", "segment", "memory")) {
+      JsonObject config = config(engine, engine)
+          .put(Constants.SEGMENT_MAX_BYTES_KEY, 256)
+          .put(Constants.MEMORY_SNAPSHOT_INTERVAL_KEY, 60_000);
+      DB db = DB.newEngine(config);
+      db.createCollection(Collection.newBuilder().withId("old").build());
+      db.close();
+
+      config.put(Constants.DB_RESTORE_SNAPSHOT_KEY, snapshot.toString());
+      Snapshot.restoreOnStartup(config);
+      db = DB.newEngine(config);
+      assertFalse(db.hasCollection("old"), engine);
+      assertFilled(db);
+
+      assertEquals(1, mFolder.resolve(engine).toFile().list((dir, name) -> name.contains(".before-restore-")).length,
+          engine);
+    }
+
+    // Without a snapshot interval, a memory DB has nothing to load a restored snapshot from.
+    IllegalArgumentException memory = assertThrows(IllegalArgumentException.class, () -> Snapshot.restoreOnStartup(
+        config("memory", "memory").put(Constants.DB_RESTORE_SNAPSHOT_KEY, snapshot.toString())));
+    assertTrue(memory.getMessage().contains(Constants.MEMORY_SNAPSHOT_INTERVAL_KEY), memory.getMessage());
+  }
+
+  @Test
+  void restoreMovesTheCurrentDBAsideOnce()
+      throws Exception {
+    JsonObject config = config("state", "wal");
+    DB db = DB.newEngine(config);
+    db.createCollection(Collection.newBuilder().withId("old").build());
+    db.close();
+
+    Path snapshot = export();
+    JsonObject restoring = config.copy().put(Constants.DB_RESTORE_SNAPSHOT_KEY, snapshot.toString());
+    Snapshot.restoreOnStartup(restoring);
+
+    File state = mFolder.resolve("state").toFile();
+    File[] backups = state.listFiles((dir, name) -> name.startsWith("fcc.before-restore-"));
+    assertEquals(1, backups.length);
+    // The old DB only has its collection in the write-ahead log, which is moved along.
+    assertEquals(0, WalDB.logFiles(state, "fcc").length);
+    assertTrue(WalDB.logFiles(backups[0], "fcc").length > 0);
+
+    // Writes made after the restore survive restarts that still name the same snapshot.
+    db = DB.newEngine(config);
+    db.createCollection(Collection.newBuilder().withId("after").build());
+    db.close();
+    Snapshot.restoreOnStartup(restoring);
+    db = DB.newEngine(config);
+    assertTrue(db.hasCollection("after"));
+    db.close();
+
+    // A snapshot replaced under the same name is restored again.
+    assertTrue(snapshot.toFile().setLastModified(snapshot.toFile().lastModified() - 60_000));
+    Snapshot.restoreOnStartup(restoring);
+    db = DB.newEngine(config);
+    assertFalse(db.hasCollection("after"));
+    db.close();
+  }
+
+  @Test
+  void truncatedSnapshotLeavesTheDBUntouched()
+      throws Exception {
+    JsonObject config = config("state", "json");
+    DB db = DB.newEngine(config);
+    db.createCollection(Collection.newBuilder().withId("kept").build());
+    db.close();
+
+    Path snapshot = export();
+    byte[] bytes = Files.readAllBytes(snapshot);
+    Files.write(snapshot, Arrays.copyOf(bytes, bytes.length / 2));
+
+    assertThrows(IOException.class, () -> Snapshot.restoreOnStartup(
+        config.copy().put(Constants.DB_RESTORE_SNAPSHOT_KEY, snapshot.toString())));
+
+    assertEquals(List.of("fcc"), listing("state"), "Neither a partial restore nor a backup should be left");
+    db = DB.newEngine(config);
+    assertTrue(db.hasCollection("kept"));
+    db.close();
+  }
+
+  @Test
+  void leftoversOfAnInterruptedRestoreAreCleanedUp()
+      throws Exception {
+    File leftover = mFolder.resolve("state").resolve(".fcc.restore-1").resolve("bots").toFile();
+    assertTrue(leftover.mkdirs());
+
+    Snapshot.restoreOnStartup(config("state", "json").put(Constants.DB_RESTORE_SNAPSHOT_KEY,
+        export().toString()));
+
+    assertEquals(List.of("fcc"), listing("state"));
+  }
+
+  @Test
+  void unusableSnapshotsAreRefused()
+      throws Exception {
+    Path other = mFolder.resolve("other.ndjson.gz");
+    try (var out = new GZIPOutputStream(Files.newOutputStream(other))) {
+      out.write("{\"snapshot\":2,\"db\":\"fcc\"}\n".getBytes());
+    }
+
+    IOException format = assertThrows(IOException.class, () -> Snapshot.restoreOnStartup(
+        config("state", "json").put(Constants.DB_RESTORE_SNAPSHOT_KEY, other.toString())));
+    assertTrue(format.getMessage().startsWith("Unsupported snapshot format"), format.getMessage());
+
+    assertThrows(IOException.class, () -> Snapshot.restoreOnStartup(
+        config("state", "json").put(Constants.DB_RESTORE_SNAPSHOT_KEY, mFolder.resolve("missing").toString())));
+    assertThrows(IllegalArgumentException.class, () -> Snapshot.restoreOnStartup(
+        config("state", "unknown").put(Constants.DB_RESTORE_SNAPSHOT_KEY, other.toString())));
+  }
+
+  private void fill(DB pDB)
+      throws Exception {
+    pDB.createCollection(Collection.newBuilder().withId("bots").build());
+    pDB.createCollection(Collection.newBuilder().withId("empty").build());
+
+    pDB.createDocument(doc("bots", "a", new JsonObject().put("name", "a"), 0));
+    pDB.updateDocument(doc("bots", "a", new JsonObject().put("name", "a2"), 0));
+    pDB.patchDocument(doc("bots", "a", new JsonObject().put("owner", "ann"), 0));
+    pDB.createDocument(doc("bots", "b", new JsonObject().put("nested", new JsonObject().put("x", 1.5)), DEADLINE));
+    pDB.createDocument(doc("bots", ".hidden", new JsonObject().put("name", "dot"), 0));
+  }
+
+  private static void assertFilled(DB pDB)
+      throws Exception {
+    assertTrue(pDB.hasCollection("empty"));
+    assertEquals(0, pDB.getCollection("empty").documents().size());
+
+    List<Document> bots = pDB.getCollection("bots").documents();
+    assertEquals(List.of(".hidden", "a", "b"), bots.stream().map(Document::id).collect(Collectors.toList()));
+
+    Document a = pDB.getDocument("bots", "a");
+    assertEquals(3, a.version());
+    assertEquals(new JsonObject().put("name", "a2").put("owner", "ann"), a.payload());
+
+    Document b = pDB.getDocument("bots", "b");
+    assertEquals(DEADLINE, b.expiresAt());
+    assertEquals(1.5, b.payload().getJsonObject("nested").getDouble("x"));
+    pDB.close();
+  }
+
+  /**
+   * @return a new snapshot of a filled DB.
+   */
+  private Path export()
+      throws Exception {
+    DB db = DB.newEngine(new JsonObject().put(Constants.DB_ENGINE_KEY, "memory"));
+    fill(db);
+
+    Path snapshot = Files.createTempFile(mFolder, "snapshot", ".ndjson.gz");
+    try (OutputStream out = Files.newOutputStream(snapshot)) {
+      db.exportSnapshot(out);
+    }
+    db.close();
+
+    return snapshot;
+  }
+
+  private List<String> listing(String pStateFolder)
+      throws IOException {
+    try (Stream<Path> paths = Files.list(mFolder.resolve(pStateFolder))) {
+      return paths.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+    }
+  }
+
+  private String configFile(String pName, JsonObject pConfig)
+      throws IOException {
+    return Files.writeString(mFolder.resolve(pName), pConfig.encode()).toString();
+  }
+
+  private JsonObject config(String pStateFolder, String pEngine) {
+    return new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mFolder.resolve(pStateFolder).toString())
+        .put(Constants.DB_ENGINE_KEY, pEngine)
+        .put(Constants.DB_DURABILITY_KEY, "none");
+  }
+
+  private static Document doc(String pCollectionId, String pId, JsonObject pPayload, long pExpiresAt) {
+    return Document
+        .newBuilder()
+        .underCollection(pCollectionId)
+        .withId(pId)
+        .withPayload(pPayload)
+        .expiringAt(pExpiresAt)
+        .build();
+  }
+}
@@ -0,0 +1,10 @@
+package cloud.floc.cc.db;
+
+public class WalDBConformanceTest
+    extends DBConformanceTest {
+
+  @Override
+  protected String engine() {
+    return "wal";
+  }
+}
@@ -0,0 +1,142 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Kills a JVM writing to a {@link WalDB} before it ever checkpoints, then checks that every acknowledged write is
+ * replayed from the log and that a torn record at the log's tail is truncated away. The child JVM is this class's
+ * {@link #main(String[])}.
+ */
+public class WalDBCrashTest {
+
+  private static final String COLLECTION_ID = "bots";
+  private static final int ACKNOWLEDGED_WRITES = 64;
+
+  @Test
+  void acknowledgedWritesSurviveKillAndTornTail(@TempDir Path pStateFolder)
+      throws Exception {
+    for (String durability : new String[]{"none", "batch", "fsync"}) {
+      killAndRecover(pStateFolder.resolve(durability), durability);
+    }
+  }
+
+  /**
+   * Creates documents until killed, printing the id of each one once its write has returned.
+   */
+  public static void main(String[] pArgs)
+      throws Exception {
+    DB db = new WalDB(config(Path.of(pArgs[0]), pArgs[1]));
+    db.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+
+    for (int d = 0; ; d++) {
+      db.createDocument(doc("doc-" + d, d));
+      System.out.println("doc-" + d);
+      System.out.flush();
+    }
+  }
+
+  private void killAndRecover(Path pStateFolder, String pDurability)
+      throws Exception {
+    List<String> acknowledged = runAndKill(pStateFolder, pDurability);
+
+    // Tear the tail of the log the writer was appending to, as a crash in the middle of a record would.
+    File log = newestLog(pStateFolder);
+    long intactLength = log.length();
+    try (var channel = FileChannel.open(log.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.allocate(11).putInt(4096).putInt(0xCAFE).put(new byte[]{1, 2, 3}).flip());
+    }
+
+    DB db = new WalDB(config(pStateFolder, pDurability));
+    assertEquals(intactLength, log.length(), "Torn tail should be truncated on replay");
+    assertAcknowledged(db, acknowledged);
+
+    // Writes made after recovering from a torn tail must replay too.
+    db.createDocument(doc("after-recovery", -1));
+    acknowledged.add("after-recovery");
+
+    DB reopened = new WalDB(config(pStateFolder, pDurability));
+    assertAcknowledged(reopened, acknowledged);
+    reopened.close();
+  }
+
+  private List<String> runAndKill(Path pStateFolder, String pDurability)
+      throws Exception {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    pStateFolder.toFile().mkdirs();
+    Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+        WalDBCrashTest.class.getName(), pStateFolder.toString(), pDurability)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+
+    List<String> acknowledged = new ArrayList<>();
+    try (var output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+      while (acknowledged.size() < ACKNOWLEDGED_WRITES) {
+        String id = output.readLine();
+        assertTrue(id != null, "Writer exited after " + acknowledged.size() + " writes");
+        acknowledged.add(id);
+      }
+
+    }
+
+    // The writer keeps going until the kill lands, so it usually dies in the middle of a write.
+    process.destroyForcibly();
+    assertTrue(process.waitFor(30, TimeUnit.SECONDS), "Writer didn't die");
+
+    return acknowledged;
+  }
+
+  private static void assertAcknowledged(DB pDB, List<String> pIds)
+      throws Exception {
+    Collection collection = pDB.getDocuments(COLLECTION_ID, pIds);
+    assertEquals(pIds.size(), collection.documents().size(), "Acknowledged writes were lost");
+
+    for (Document doc : collection.documents()) {
+      assertEquals(doc.id(), doc.payload().getString("name"));
+      assertEquals(1, doc.version());
+    }
+  }
+
+  private static File newestLog(Path pStateFolder) {
+    return Arrays.stream(WalDB.logFiles(pStateFolder.toFile(), "crash"))
+        .max(Comparator.comparingLong(log -> Long.parseLong(log.getName().replaceFirst(".*\\.", ""))))
+        .orElseThrow();
+  }
+
+  private static Document doc(String pId, int pSequence) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(new JsonObject().put("name", pId).put("sequence", pSequence))
+        .build();
+  }
+
+  private static JsonObject config(Path pStateFolder, String pDurability) {
+    return new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, pStateFolder.toString())
+        .put(Constants.DB_NAME_KEY, "crash")
+        .put(Constants.DB_DURABILITY_KEY, pDurability)
+        .put(Constants.WAL_CHECKPOINT_INTERVAL_KEY, TimeUnit.HOURS.toMillis(1));
+  }
+}
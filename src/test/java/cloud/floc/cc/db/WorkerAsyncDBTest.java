@@ -0,0 +1,247 @@
+package cloud.floc.cc.db;
+
+import cloud.floc.cc.common.Collection;
+import cloud.floc.cc.common.Constants;
+import cloud.floc.cc.common.Document;
+import cloud.floc.cc.common.DocumentException;
+import cloud.floc.cc.common.DocumentExistsException;
+import cloud.floc.cc.common.DocumentNotFoundException;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a {@link WorkerAsyncDB} runs the blocking calls of its DB on its own bounded pool, never on the event
+ * loop that made them, and hands results and failures back as they are.
+ */
+public class WorkerAsyncDBTest {
+
+  private static final String COLLECTION_ID = "bots";
+  private static final long TIMEOUT_MILLIS = 10_000;
+  private static final int POOL_SIZE = 2;
+
+  @TempDir
+  Path mStateFolder;
+
+  private Vertx mVertx;
+  private RecordingDB mDB;
+  private AsyncDB mAsyncDB;
+
+  @BeforeEach
+  void open()
+      throws Exception {
+    mVertx = Vertx.vertx();
+    mDB = new RecordingDB(new MemoryDB(new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.resolve("memory").toString())));
+    mDB.createCollection(Collection.newBuilder().withId(COLLECTION_ID).build());
+    mAsyncDB = new WorkerAsyncDB(mVertx, mDB, POOL_SIZE);
+  }
+
+  @AfterEach
+  void close()
+      throws Exception {
+    mDB.close();
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    mVertx.close(ar -> closed.complete(null));
+    closed.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  void callsRunOnTheBoundedPoolAndNeverOnTheEventLoop()
+      throws Exception {
+    mDB.mDelayMillis = 50;
+    Set<Boolean> completedOnEventLoop = ConcurrentHashMap.newKeySet();
+
+    // Made from an event loop, as the routes make them.
+    CompletableFuture<List<Future<Document>>> calls = new CompletableFuture<>();
+    mVertx.runOnContext(v -> {
+      List<Future<Document>> futures = new ArrayList<>();
+      for (int d = 0; d < 4 * POOL_SIZE; d++) {
+        Future<Document> created = mAsyncDB.createDocument(document("d" + d));
+        created.onComplete(ar -> completedOnEventLoop.add(Context.isOnEventLoopThread()));
+        futures.add(created);
+      }
+      calls.complete(futures);
+    });
+
+    for (Future<Document> created : calls.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+      assertEquals(1, await(created).version());
+    }
+
+    assertEquals(Set.of(true), completedOnEventLoop, "Results are delivered back on the calling context");
+    assertEquals(Set.of(false), mDB.mOnEventLoop);
+    assertEquals(POOL_SIZE, mDB.mThreads.size(), "Calls run on " + mDB.mThreads);
+    mDB.mThreads.forEach(thread -> assertTrue(thread.startsWith("fcc-db-"), thread));
+    assertEquals(POOL_SIZE, mDB.mMaxRunning.get(), "The pool runs calls concurrently, up to its size");
+  }
+
+  @Test
+  void failuresReachTheFutureUnchanged()
+      throws Exception {
+    var notFound = assertThrows(ExecutionException.class, () -> await(mAsyncDB.getDocument(COLLECTION_ID, "missing")));
+    assertTrue(notFound.getCause() instanceof DocumentNotFoundException, notFound.getCause().toString());
+
+    await(mAsyncDB.createDocument(document("a")));
+    var exists = assertThrows(ExecutionException.class, () -> await(mAsyncDB.createDocument(document("a"))));
+    assertTrue(exists.getCause() instanceof DocumentExistsException, exists.getCause().toString());
+
+    for (Exception failure : List.of(new DocumentException("Disk full"), new IllegalStateException("Closed"))) {
+      mDB.mFailure = failure;
+      var failed = assertThrows(ExecutionException.class, () -> await(mAsyncDB.getDocument(COLLECTION_ID, "a")));
+      assertSame(failure, failed.getCause());
+    }
+  }
+
+  @Test
+  void snapshotsAreWrittenToTheGivenFile()
+      throws Exception {
+    await(mAsyncDB.createDocument(document("a")));
+    await(mAsyncDB.createDocument(document("b")));
+    File snapshot = mStateFolder.resolve("snapshot.ndjson.gz").toFile();
+
+    await(mAsyncDB.exportSnapshot(snapshot));
+    assertEquals(Set.of(false), mDB.mOnEventLoop);
+    assertTrue(snapshot.length() > 0);
+
+    JsonObject restored = new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, mStateFolder.resolve("restored").toString())
+        .put(Constants.DB_DURABILITY_KEY, "none")
+        .put(Constants.DB_RESTORE_SNAPSHOT_KEY, snapshot.toString());
+    Snapshot.restoreOnStartup(restored);
+    DB db = DB.newEngine(restored);
+    assertEquals(List.of("a", "b"), ids(db.getCollection(COLLECTION_ID)));
+    db.close();
+
+    mDB.mFailure = new DocumentException("Disk full");
+    var failed = assertThrows(ExecutionException.class, () -> await(mAsyncDB.exportSnapshot(snapshot)));
+    assertSame(mDB.mFailure, failed.getCause());
+  }
+
+  private static <T> T await(Future<T> pFuture)
+      throws Exception {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    pFuture.onComplete(ar -> {
+      if (ar.succeeded()) {
+        result.complete(ar.result());
+      } else {
+        result.completeExceptionally(ar.cause());
+      }
+    });
+
+    return result.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private static List<String> ids(Collection pCollection) {
+    List<String> ids = new ArrayList<>();
+    pCollection.documents().forEach(doc -> ids.add(doc.id()));
+    return ids;
+  }
+
+  private static Document document(String pId) {
+    return Document
+        .newBuilder()
+        .underCollection(COLLECTION_ID)
+        .withId(pId)
+        .withPayload(new JsonObject().put("name", pId))
+        .build();
+  }
+
+  /**
+   * Records which threads make the calls, how many run at once, and fails them when told to.
+   */
+  private static class RecordingDB
+      extends ForwardingDB {
+
+    final Set<String> mThreads = ConcurrentHashMap.newKeySet();
+    final Set<Boolean> mOnEventLoop = ConcurrentHashMap.newKeySet();
+    final AtomicInteger mMaxRunning = new AtomicInteger();
+    private final AtomicInteger mRunning = new AtomicInteger();
+    volatile long mDelayMillis;
+    volatile Exception mFailure;
+
+    RecordingDB(DB pDelegate) {
+      super(pDelegate);
+    }
+
+    @Override
+    public Document createDocument(Document pDoc)
+        throws DocumentExistsException, DocumentException {
+      record();
+      try {
+        failIfTold();
+        return super.createDocument(pDoc);
+
+      } finally {
+        mRunning.decrementAndGet();
+      }
+    }
+
+    @Override
+    public Document getDocument(String pCollectionId, String pDocId)
+        throws DocumentNotFoundException, DocumentException {
+      record();
+      try {
+        failIfTold();
+        return super.getDocument(pCollectionId, pDocId);
+
+      } finally {
+        mRunning.decrementAndGet();
+      }
+    }
+
+    @Override
+    public void exportSnapshot(OutputStream pOut)
+        throws DocumentException {
+      record();
+      try {
+        failIfTold();
+        super.exportSnapshot(pOut);
+
+      } finally {
+        mRunning.decrementAndGet();
+      }
+    }
+
+    private void record() {
+      mThreads.add(Thread.currentThread().getName());
+      mOnEventLoop.add(Context.isOnEventLoopThread());
+      mMaxRunning.accumulateAndGet(mRunning.incrementAndGet(), Math::max);
+
+      try {
+        Thread.sleep(mDelayMillis);
+
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private void failIfTold()
+        throws DocumentException {
+      Exception failure = mFailure;
+      if (failure instanceof DocumentException) throw (DocumentException) failure;
+      if (failure != null) throw (RuntimeException) failure;
+    }
+  }
+}
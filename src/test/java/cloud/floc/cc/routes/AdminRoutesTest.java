@@ -0,0 +1,32 @@
+package cloud.floc.cc.routes;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The admin endpoints of a server started, as by default, without an auth handler.
+ */
+public class AdminRoutesTest {
+
+  @TempDir
+  Path mStateFolder;
+
+  @Test
+  void snapshotsAreRefusedWithoutAuthentication()
+      throws Exception {
+    try (var server = ApiServer.start(mStateFolder)) {
+      assertEquals(201, server.send("POST", "/bots", new JsonObject().put("name", "secret")).statusCode());
+
+      var response = server.get("/admin/snapshot");
+      assertEquals(403, response.statusCode());
+      assertTrue(new JsonObject(response.body()).containsKey("error"), response.body());
+      assertEquals("application/json", response.headers().firstValue("Content-Type").orElse(null));
+    }
+  }
+}
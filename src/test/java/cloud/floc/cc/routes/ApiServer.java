@@ -0,0 +1,122 @@
+package cloud.floc.cc.routes;
+
+import cloud.floc.cc.CrisisCenterServer;
+import cloud.floc.cc.common.Constants;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@link CrisisCenterServer} deployed on a free port over a fresh state folder, for tests that go through the HTTP API.
+ */
+class ApiServer
+    implements AutoCloseable {
+
+  private final Vertx mVertx;
+  private final HttpClient mClient;
+  private final String mBaseUri;
+
+  private ApiServer(Vertx pVertx, int pPort) {
+    mVertx = pVertx;
+    mClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    mBaseUri = "http://localhost:" + pPort + "/api/v1";
+  }
+
+  /**
+   * Deploys the server with the given config on top of the defaults: the state folder and a free port.
+   */
+  static ApiServer start(Path pStateFolder, JsonObject pConfig)
+      throws Exception {
+    int port;
+    try (var socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+
+    JsonObject config = new JsonObject()
+        .put(Constants.STATE_FOLDER_KEY, pStateFolder.toString())
+        .put(Constants.HTTP_PORT_KEY, port)
+        .put(Constants.DB_DURABILITY_KEY, "none")
+        .mergeIn(pConfig);
+
+    Vertx vertx = Vertx.vertx();
+    CompletableFuture<Void> deployed = new CompletableFuture<>();
+    vertx.deployVerticle(CrisisCenterServer.class.getName(), new DeploymentOptions().setConfig(config), ar -> {
+      if (ar.succeeded()) {
+        deployed.complete(null);
+      } else {
+        deployed.completeExceptionally(ar.cause());
+      }
+    });
+
+    try {
+      deployed.get(30, TimeUnit.SECONDS);
+
+    } catch (Exception ex) {
+      vertx.close();
+      throw ex;
+    }
+
+    return new ApiServer(vertx, port);
+  }
+
+  static ApiServer start(Path pStateFolder)
+      throws Exception {
+    return start(pStateFolder, new JsonObject());
+  }
+
+  HttpResponse<String> get(String pPath)
+      throws Exception {
+    return send(request(pPath).GET());
+  }
+
+  HttpResponse<String> send(String pMethod, String pPath, Object pBody, String... pHeaders)
+      throws Exception {
+    HttpRequest.Builder request = request(pPath)
+        .method(pMethod, pBody != null
+            ? HttpRequest.BodyPublishers.ofString(pBody.toString())
+            : HttpRequest.BodyPublishers.noBody())
+        .header("Content-Type", "application/json");
+
+    if (pHeaders.length > 0) request.headers(pHeaders);
+    return send(request);
+  }
+
+  HttpRequest.Builder request(String pPath) {
+    return HttpRequest.newBuilder(URI.create(mBaseUri + pPath)).timeout(Duration.ofSeconds(30));
+  }
+
+  HttpResponse<String> send(HttpRequest.Builder pRequest)
+      throws Exception {
+    return mClient.send(pRequest.build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+  HttpClient client() {
+    return mClient;
+  }
+
+  @Override
+  public void close()
+      throws ExecutionException, TimeoutException {
+    CompletableFuture<Void> closed = new CompletableFuture<>();
+    mVertx.close(ar -> closed.complete(null));
+
+    try {
+      closed.get(30, TimeUnit.SECONDS);
+
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package cloud.floc.cc.routes;
+
+import cloud.floc.cc.common.Constants;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Paging through {@code GET /bots} with {@code ?limit=} and {@code ?cursor=}, filtering it on known fields, and the
+ * 400 answers for parameters that can't be used.
+ */
+public class BotsPagingTest {
+
+  private static final int BOTS = 7;
+
+  @TempDir
+  Path mStateFolder;
+
+  private ApiServer mServer;
+  private List<String> mIds;
+
+  @BeforeEach
+  void start()
+      throws Exception {
+    mServer = ApiServer.start(mStateFolder, new JsonObject().put(Constants.DB_ENGINE_KEY, "memory"));
+
+    JsonArray payloads = new JsonArray();
+    for (int b = 0; b < BOTS; b++) {
+      payloads.add(new JsonObject().put("name", "bot-" + b).put("generated", b % 2 == 0));
+    }
+
+    var created = mServer.send("POST", "/bots/_bulk", payloads);
+    assertEquals(201, created.statusCode(), created.body());
+
+    mIds = new ArrayList<>();
+    new JsonObject(created.body()).getJsonArray("items")
+        .forEach(item -> mIds.add(((JsonObject) item).getString("id")));
+    mIds.sort(null);
+  }
+
+  @AfterEach
+  void stop()
+      throws Exception {
+    mServer.close();
+  }
+
+  @Test
+  void cursorWalksEveryBotOnce()
+      throws Exception {
+    List<String> seen = new ArrayList<>();
+    String cursor = null;
+    int pages = 0;
+
+    do {
+      JsonObject page = json(mServer.get("/bots?limit=3" + (cursor != null ? "&cursor=" + cursor : "")));
+      page.getJsonArray("items").forEach(item -> seen.add(((JsonObject) item).getString("id")));
+      cursor = page.getString("cursor");
+      pages++;
+    } while (cursor != null);
+
+    assertEquals(mIds, seen);
+    assertEquals(3, pages);
+  }
+
+  @Test
+  void cursorIsTheUrlSafeEncodingOfTheLastId()
+      throws Exception {
+    JsonObject page = json(mServer.get("/bots?limit=2"));
+
+    String cursor = page.getString("cursor");
+    assertEquals(mIds.get(1), new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+    assertTrue(cursor.matches("[A-Za-z0-9_-]+"), "Cursor should need no escaping: " + cursor);
+
+    // Any id works as a cursor, so a client can also resume after an id it already has.
+    String after = Base64.getUrlEncoder().withoutPadding().encodeToString(mIds.get(5).getBytes(StandardCharsets.UTF_8));
+    JsonObject tail = json(mServer.get("/bots?limit=10&cursor=" + after));
+    assertEquals(1, tail.getJsonArray("items").size());
+    assertEquals(mIds.get(6), tail.getJsonArray("items").getJsonObject(0).getString("id"));
+    assertNull(tail.getString("cursor"));
+  }
+
+  @Test
+  void lastFullPageHasNoCursorOnlyWhenNothingFollows()
+      throws Exception {
+    JsonObject exact = json(mServer.get("/bots?limit=" + BOTS));
+    assertEquals(BOTS, exact.getJsonArray("items").size());
+    assertNull(exact.getString("cursor"));
+
+    JsonObject clamped = json(mServer.get("/bots?limit=1000000"));
+    assertEquals(BOTS, clamped.getJsonArray("items").size());
+  }
+
+  @Test
+  void cursorAloneUsesTheDefaultLimit()
+      throws Exception {
+    String cursor = json(mServer.get("/bots?limit=1")).getString("cursor");
+
+    JsonObject page = json(mServer.get("/bots?cursor=" + cursor));
+    assertEquals(BOTS - 1, page.getJsonArray("items").size());
+    assertTrue(page.containsKey("cursor"), "Paged answers always carry a cursor field");
+  }
+
+  @Test
+  void unusableParametersAreRejected()
+      throws Exception {
+    for (String query : new String[]{
+        "limit=0",
+        "limit=-5",
+        "limit=ten",
+        "cursor=" + URLEncoder.encode("not base64!", StandardCharsets.UTF_8),
+        "generated=true&limit=2",
+        "generated=true&cursor=abc",
+        "newest=0",
+        "newest=3&limit=2",
+        "newest=3&cursor=abc",
+        "newest=3&generated=true",
+        "_=1602998400000",
+        "owner=ann",
+        "name=bot-1&_=1602998400000"}) {
+      HttpResponse<String> response = mServer.get("/bots?" + query);
+
+      assertEquals(400, response.statusCode(), query + " -> " + response.body());
+      assertTrue(new JsonObject(response.body()).getString("error") != null, query);
+    }
+  }
+
+  @Test
+  void filtersApplyToIndexedAndKnownFields()
+      throws Exception {
+    JsonArray generated = json(mServer.get("/bots?generated=true")).getJsonArray("items");
+    assertEquals(4, generated.size());
+    generated.forEach(bot -> assertTrue(((JsonObject) bot).getBoolean("generated")));
+
+    JsonArray named = json(mServer.get("/bots?name=bot-1&generated=false")).getJsonArray("items");
+    assertEquals(1, named.size());
+    assertEquals(mIds.get(1), named.getJsonObject(0).getString("id"));
+
+    assertEquals(0, json(mServer.get("/bots?name=missing")).getJsonArray("items").size());
+  }
+
+  @Test
+  void newestListsTheLatestBotsFirst()
+      throws Exception {
+    JsonArray newest = json(mServer.get("/bots?newest=3")).getJsonArray("items");
+
+    assertEquals(3, newest.size());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(mIds.get(BOTS - 1 - i), newest.getJsonObject(i).getString("id"));
+    }
+  }
+
+  private static JsonObject json(HttpResponse<String> pResponse) {
+    assertEquals(200, pResponse.statusCode(), pResponse.body());
+    return new JsonObject(pResponse.body());
+  }
+}
@@ -0,0 +1,121 @@
+package cloud.floc.cc.routes;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * The {@code ETag} of bot answers and conditional {@code PUT}/{@code PATCH} through {@code If-Match}.
+ */
+public class BotsVersionTest {
+
+  @TempDir
+  Path mStateFolder;
+
+  private ApiServer mServer;
+  private String mId;
+
+  @BeforeEach
+  void start()
+      throws Exception {
+    mServer = ApiServer.start(mStateFolder);
+
+    var created = mServer.send("POST", "/bots", new JsonObject().put("name", "first"));
+    assertEquals(201, created.statusCode(), created.body());
+    assertEquals("\"1\"", etag(created));
+    mId = new JsonObject(created.body()).getJsonObject("item").getString("id");
+  }
+
+  @AfterEach
+  void stop()
+      throws Exception {
+    mServer.close();
+  }
+
+  @Test
+  void everyWriteMovesTheETag()
+      throws Exception {
+    assertEquals("\"1\"", etag(mServer.get("/bots/" + mId)));
+
+    var put = mServer.send("PUT", "/bots/" + mId, new JsonObject().put("name", "second"), "If-Match", "\"1\"");
+    assertEquals(202, put.statusCode(), put.body());
+    assertEquals("\"2\"", etag(put));
+
+    var patch = mServer.send("PATCH", "/bots/" + mId, new JsonObject().put("owner", "ann"));
+    assertEquals(202, patch.statusCode(), patch.body());
+    assertEquals("\"3\"", etag(patch));
+    assertEquals("\"3\"", etag(mServer.get("/bots/" + mId)));
+  }
+
+  @Test
+  void staleIfMatchIsAPreconditionFailure()
+      throws Exception {
+    mServer.send("PUT", "/bots/" + mId, new JsonObject().put("name", "second"));
+
+    var put = mServer.send("PUT", "/bots/" + mId, new JsonObject().put("name", "lost"), "If-Match", "\"1\"");
+    assertEquals(412, put.statusCode(), put.body());
+    assertFalse(put.headers().firstValue("ETag").isPresent());
+
+    var patch = mServer.send("PATCH", "/bots/" + mId, new JsonObject().put("name", "lost"), "If-Match", "\"1\"");
+    assertEquals(412, patch.statusCode(), patch.body());
+
+    var current = mServer.get("/bots/" + mId);
+    assertEquals("second", new JsonObject(current.body()).getJsonObject("item").getString("name"));
+    assertEquals("\"2\"", etag(current));
+  }
+
+  @Test
+  void weakAndWildcardValidatorsAreAccepted()
+      throws Exception {
+    var weak = mServer.send("PATCH", "/bots/" + mId, new JsonObject().put("name", "weak"), "If-Match", "W/\"1\"");
+    assertEquals(202, weak.statusCode(), weak.body());
+
+    var any = mServer.send("PUT", "/bots/" + mId, new JsonObject().put("name", "any"), "If-Match", "*");
+    assertEquals(202, any.statusCode(), any.body());
+    assertEquals("\"3\"", etag(any));
+  }
+
+  @Test
+  void unusableIfMatchIsABadRequest()
+      throws Exception {
+    for (String ifMatch : new String[]{"\"abc\"", "\"0\"", "\"-1\""}) {
+      var put = mServer.send("PUT", "/bots/" + mId, new JsonObject().put("name", "x"), "If-Match", ifMatch);
+      assertEquals(400, put.statusCode(), ifMatch + " -> " + put.body());
+    }
+
+    assertEquals("\"1\"", etag(mServer.get("/bots/" + mId)));
+  }
+
+  @Test
+  void conditionalWriteOfAMissingBotIsNotFound()
+      throws Exception {
+    var put = mServer.send("PUT", "/bots/missing", new JsonObject().put("name", "x"), "If-Match", "\"1\"");
+    assertEquals(404, put.statusCode(), put.body());
+  }
+
+  @Test
+  void payloadsCantSetTheStoredMeta()
+      throws Exception {
+    JsonObject meta = new JsonObject().put("_meta", new JsonObject().put("version", 40));
+
+    var put = mServer.send("PUT", "/bots/" + mId, meta);
+    assertEquals(400, put.statusCode(), put.body());
+
+    var create = mServer.send("POST", "/bots", meta.copy().put("name", "sneaky"));
+    assertEquals(400, create.statusCode(), create.body());
+
+    assertEquals("\"1\"", etag(mServer.get("/bots/" + mId)));
+  }
+
+  private static String etag(HttpResponse<String> pResponse) {
+    return pResponse.headers().firstValue("ETag").orElse(null);
+  }
+}
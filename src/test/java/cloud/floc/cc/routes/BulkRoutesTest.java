@@ -0,0 +1,85 @@
+package cloud.floc.cc.routes;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * The bulk endpoints, {@code POST /bots/_bulk} and {@code GET /menus?ids=}, and their size limit.
+ */
+public class BulkRoutesTest {
+
+  @TempDir
+  Path mStateFolder;
+
+  private ApiServer mServer;
+
+  @BeforeEach
+  void start()
+      throws Exception {
+    mServer = ApiServer.start(mStateFolder);
+  }
+
+  @AfterEach
+  void stop()
+      throws Exception {
+    mServer.close();
+  }
+
+  @Test
+  void bulkCreateAnswersEveryBotInOrder()
+      throws Exception {
+    JsonArray payloads = new JsonArray();
+    for (int b = 0; b < 5; b++) {
+      payloads.add(new JsonObject().put("name", "bot-" + b));
+    }
+
+    var response = mServer.send("POST", "/bots/_bulk", payloads);
+    assertEquals(201, response.statusCode(), response.body());
+
+    JsonArray items = new JsonObject(response.body()).getJsonArray("items");
+    assertEquals(5, items.size());
+    for (int b = 0; b < 5; b++) {
+      JsonObject item = items.getJsonObject(b);
+      assertEquals("bot-" + b, item.getString("name"));
+      assertEquals(200, mServer.get("/bots/" + item.getString("id")).statusCode());
+    }
+    assertNotEquals(items.getJsonObject(0).getString("id"), items.getJsonObject(1).getString("id"));
+  }
+
+  @Test
+  void bulkRequestsAreCappedAtAThousand()
+      throws Exception {
+    JsonArray payloads = new JsonArray();
+    for (int b = 0; b <= ApiRouter.MAX_BULK_SIZE; b++) {
+      payloads.add(new JsonObject().put("name", "bot-" + b));
+    }
+
+    var tooMany = mServer.send("POST", "/bots/_bulk", payloads);
+    assertEquals(400, tooMany.statusCode(), tooMany.body());
+    assertEquals(0, new JsonObject(mServer.get("/bots").body()).getJsonArray("items").size(),
+        "Nothing should be written when the request is rejected");
+
+    String ids = "x,".repeat(ApiRouter.MAX_BULK_SIZE) + "x";
+    assertEquals(400, mServer.get("/menus?ids=" + ids).statusCode());
+  }
+
+  @Test
+  void bulkMenuReadSkipsUnknownIds()
+      throws Exception {
+    var response = mServer.get("/menus?ids=a,b");
+    assertEquals(200, response.statusCode(), response.body());
+    assertEquals(0, new JsonObject(response.body()).getJsonArray("items").size());
+
+    assertEquals(400, mServer.get("/menus").statusCode());
+    assertEquals(400, mServer.get("/menus?ids=").statusCode());
+  }
+}
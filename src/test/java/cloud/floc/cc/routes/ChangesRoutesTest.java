@@ -0,0 +1,213 @@
+package cloud.floc.cc.routes;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@code GET /changes} long polls and the {@code GET /changes/stream} event stream, resumed by sequence number.
+ */
+public class ChangesRoutesTest {
+
+  @TempDir
+  Path mStateFolder;
+
+  private ApiServer mServer;
+  private ExecutorService mReader;
+
+  @BeforeEach
+  void start()
+      throws Exception {
+    mServer = ApiServer.start(mStateFolder);
+    mReader = Executors.newSingleThreadExecutor();
+  }
+
+  @AfterEach
+  void stop()
+      throws Exception {
+    mReader.shutdownNow();
+    mServer.close();
+  }
+
+  @Test
+  void longPollAnswersAsSoonAsAMatchingChangeIsMade()
+      throws Exception {
+    long since = lastSequence();
+
+    CompletableFuture<HttpResponse<String>> poll = mServer.client().sendAsync(
+        mServer.request("/changes?collection=bots&wait=20000&since=" + since).GET().build(),
+        HttpResponse.BodyHandlers.ofString());
+    Thread.sleep(200);
+    assertFalse(poll.isDone(), "Nothing changed yet");
+
+    String id = createBot("polled");
+    JsonObject changes = new JsonObject(poll.get(10, TimeUnit.SECONDS).body());
+
+    assertFalse(changes.getBoolean("reset"));
+    assertEquals(1, changes.getJsonArray("items").size());
+    assertEquals(id, changes.getJsonArray("items").getJsonObject(0).getString("id"));
+    assertEquals(changes.getJsonArray("items").getJsonObject(0).getLong("seq"), changes.getLong("seq"));
+  }
+
+  @Test
+  void longPollOfAnOtherCollectionTimesOutWithItsResumePoint()
+      throws Exception {
+    long since = lastSequence();
+    createBot("unrelated");
+
+    JsonObject changes = new JsonObject(mServer.get("/changes?collection=menus&wait=300&since=" + since).body());
+    assertTrue(changes.getJsonArray("items").isEmpty());
+    assertTrue(changes.getLong("seq") > since, "Changes of other collections are skipped, not waited for again");
+  }
+
+  @Test
+  void unusableParametersAreRejected()
+      throws Exception {
+    assertEquals(400, mServer.get("/changes?wait=-1").statusCode());
+    assertEquals(400, mServer.get("/changes?since=yesterday").statusCode());
+    assertEquals(400, mServer.get("/changes/stream?since=yesterday").statusCode());
+  }
+
+  @Test
+  void streamDeliversConcurrentWritesInSequenceOrder()
+      throws Exception {
+    long since = lastSequence();
+    Iterator<Event> events = stream("/changes/stream?collection=bots&since=" + since);
+
+    List<CompletableFuture<HttpResponse<String>>> creates = new ArrayList<>();
+    for (int b = 0; b < 64; b++) {
+      creates.add(mServer.client().sendAsync(mServer.request("/bots")
+          .header("Content-Type", "application/json")
+          .POST(HttpRequest.BodyPublishers.ofString(new JsonObject().put("name", "b" + b).encode()))
+          .build(), HttpResponse.BodyHandlers.ofString()));
+    }
+    Set<String> created = new HashSet<>();
+    for (var create : creates) {
+      created.add(new JsonObject(create.get(30, TimeUnit.SECONDS).body()).getJsonObject("item").getString("id"));
+    }
+
+    Set<String> streamed = new HashSet<>();
+    long last = since;
+    while (streamed.size() < created.size()) {
+      Event event = next(events);
+      assertTrue(event.mId > last, "Events should come in sequence order: " + event.mId + " after " + last);
+      last = event.mId;
+      streamed.add(event.mData.getString("id"));
+    }
+
+    assertEquals(created, streamed);
+  }
+
+  @Test
+  void streamResumesAfterLastEventId()
+      throws Exception {
+    long since = lastSequence();
+    String first = createBot("first");
+    String second = createBot("second");
+
+    Iterator<Event> events = stream("/changes/stream?since=" + since);
+    Event firstEvent = next(events);
+    assertEquals(first, firstEvent.mData.getString("id"));
+
+    Iterator<Event> resumed = stream("/changes/stream", "Last-Event-ID", String.valueOf(firstEvent.mId));
+    assertEquals(second, next(resumed).mData.getString("id"));
+
+    String third = createBot("third");
+    assertEquals(third, next(resumed).mData.getString("id"), "Live changes follow the backlog");
+  }
+
+  @Test
+  void streamFromAnUnknownSequenceResetsOnce()
+      throws Exception {
+    createBot("before");
+    long current = lastSequence();
+
+    Event reset = next(stream("/changes/stream?since=1"));
+    assertEquals("reset", reset.mType);
+    assertEquals(current, reset.mId);
+
+    // Reconnecting with the reset's id picks up from there.
+    Iterator<Event> resumed = stream("/changes/stream", "Last-Event-ID", String.valueOf(reset.mId));
+    String after = createBot("after");
+    Event event = next(resumed);
+    assertEquals("message", event.mType);
+    assertEquals(after, event.mData.getString("id"));
+  }
+
+  private long lastSequence()
+      throws Exception {
+    return new JsonObject(mServer.get("/changes?wait=0").body()).getLong("seq");
+  }
+
+  private String createBot(String pName)
+      throws Exception {
+    var created = mServer.send("POST", "/bots", new JsonObject().put("name", pName));
+    assertEquals(201, created.statusCode(), created.body());
+    return new JsonObject(created.body()).getJsonObject("item").getString("id");
+  }
+
+  private Iterator<Event> stream(String pPath, String... pHeaders)
+      throws Exception {
+    var request = mServer.request(pPath).GET();
+    if (pHeaders.length > 0) request.headers(pHeaders);
+
+    HttpResponse<Stream<String>> response = mServer.client().send(request.build(), HttpResponse.BodyHandlers.ofLines());
+    assertEquals(200, response.statusCode());
+    assertEquals("text/event-stream", response.headers().firstValue("Content-Type").orElse(null));
+
+    Iterator<String> lines = response.body().iterator();
+    return new Iterator<>() {
+
+      @Override
+      public boolean hasNext() {
+        return true;
+      }
+
+      @Override
+      public Event next() {
+        var event = new Event();
+        String line;
+        while (!(line = lines.next()).isEmpty() || event.mData == null) {
+          if (line.startsWith("id: ")) event.mId = Long.parseLong(line.substring(4));
+          if (line.startsWith("event: ")) event.mType = line.substring(7);
+          if (line.startsWith("data: ")) event.mData = new JsonObject(line.substring(6));
+        }
+        return event;
+      }
+    };
+  }
+
+  private Event next(Iterator<Event> pEvents)
+      throws Exception {
+    Future<Event> event = mReader.submit(pEvents::next);
+    return event.get(10, TimeUnit.SECONDS);
+  }
+
+  private static class Event {
+
+    long mId;
+    String mType = "message";
+    JsonObject mData;
+  }
+}